@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.benchmark;
+
+import com.moscona.dataSpace.IVector;
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The common parameters of the benchmarks that run over sealed vectors: vector size, segment size, selectivity of the
+ * hit value (see BenchmarkDataSpace) and whether the vectors are resident or swapped out when the benchmark method
+ * starts. For SWAPPED_OUT all the segments are swapped out before every invocation, so the measurement includes
+ * restoring them from the data store.
+ */
+@State(Scope.Benchmark)
+public abstract class AbstractDataSpaceBenchmark {
+    public enum Residency {RESIDENT, SWAPPED_OUT}
+
+    @Param({"2000000"})
+    public int vectorSize;
+
+    @Param({"65536", "1048576"})
+    public int segmentSize;
+
+    @Param({"0.001", "0.1", "0.5"})
+    public double selectivity;
+
+    @Param({"RESIDENT", "SWAPPED_OUT"})
+    public Residency residency;
+
+    protected BenchmarkDataSpace space;
+    private final List<IVector> vectors = new ArrayList<IVector>();
+
+    /**
+     * Creates the vectors and whatever else the benchmark needs (queries, data frames). Called once per trial.
+     * @throws DataSpaceException
+     */
+    protected abstract void createData() throws DataSpaceException;
+
+    /**
+     * Creates a vector in the benchmark's data space and registers it for swapping out
+     * @param baseType
+     * @param selectivity the probability of the hit value
+     * @return the sealed vector
+     * @throws DataSpaceException
+     */
+    protected IVector createVector(IVector.BaseType baseType, double selectivity) throws DataSpaceException {
+        IVector vector = space.createVector(baseType, vectorSize, selectivity);
+        vectors.add(vector);
+        return vector;
+    }
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws DataSpaceException, IOException {
+        space = new BenchmarkDataSpace(segmentSize);
+        createData();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws DataSpaceException {
+        if (residency == Residency.SWAPPED_OUT) {
+            for (IVector vector: vectors) {
+                space.swapOut(vector);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws DataSpaceException {
+        vectors.clear();
+        space.close();
+    }
+}
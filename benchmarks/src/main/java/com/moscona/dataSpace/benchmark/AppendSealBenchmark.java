@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.benchmark;
+
+import com.moscona.dataSpace.IVector;
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a vector one value at a time and sealing it, for each base type. Sealing includes calculating the segment
+ * stats and dumping the segments to the data store. Each iteration gets a fresh data space so that the vectors
+ * created by earlier iterations do not pile up in the store and the memory manager.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AppendSealBenchmark {
+    @Param({"DOUBLE", "FLOAT", "LONG", "INTEGER", "SHORT", "BYTE", "STRING", "BOOLEAN"})
+    public IVector.BaseType baseType;
+
+    @Param({"1000000"})
+    public int vectorSize;
+
+    @Param({"65536", "1048576"})
+    public int segmentSize;
+
+    private int[] codes;
+    private BenchmarkDataSpace space;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        codes = BenchmarkDataSpace.generateCodes(vectorSize, 1.0/BenchmarkDataSpace.DISTINCT_VALUES, vectorSize);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws DataSpaceException, IOException {
+        space = new BenchmarkDataSpace(segmentSize);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws DataSpaceException {
+        space.close();
+    }
+
+    @Benchmark
+    public IVector appendAndSeal() throws DataSpaceException {
+        return space.createVector(baseType, codes);
+    }
+}
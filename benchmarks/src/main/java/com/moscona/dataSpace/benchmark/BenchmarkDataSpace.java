@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.benchmark;
+
+import com.moscona.dataSpace.DataSpace;
+import com.moscona.dataSpace.IVector;
+import com.moscona.dataSpace.SimpleMemoryManager;
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.impl.AbstractVector;
+import com.moscona.dataSpace.impl.ByteVector;
+import com.moscona.dataSpace.impl.DoubleVector;
+import com.moscona.dataSpace.impl.FloatVector;
+import com.moscona.dataSpace.impl.IntegerVector;
+import com.moscona.dataSpace.impl.LogicalVector;
+import com.moscona.dataSpace.impl.LongVector;
+import com.moscona.dataSpace.impl.ShortVector;
+import com.moscona.dataSpace.impl.StringVector;
+import com.moscona.dataSpace.persistence.DirectoryDataStore;
+import com.moscona.dataSpace.persistence.PersistenceType;
+import com.moscona.dataSpace.persistence.SegmentFileFormat;
+import com.moscona.util.monitoring.stats.SimpleStatsService;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * A data space in a fresh temporary directory store, plus generators for vectors with a controlled selectivity.
+ * Every generated vector is made of codes in [0..DISTINCT_VALUES) where HIT_CODE appears with the requested
+ * probability and the other codes are uniform. Each base type maps the code to a value (the code itself for numbers,
+ * a zero padded string for strings, code==HIT_CODE for booleans), so a predicate that matches exactly the hit value
+ * has the requested selectivity regardless of the base type.
+ */
+public class BenchmarkDataSpace {
+    public static final int DISTINCT_VALUES = 100;
+    public static final int HIT_CODE = 0;
+    public static final long MEMORY_MANAGER_BYTES = 2L*1024*1024*1024;
+
+    private final File directory;
+    private final DirectoryDataStore dataStore;
+    private final SimpleMemoryManager memoryManager;
+    private final DataSpace dataSpace;
+
+    public BenchmarkDataSpace(int segmentSize) throws DataSpaceException, IOException {
+        this(segmentSize, SegmentFileFormat.SERIALIZED_GZIP);
+    }
+
+    public BenchmarkDataSpace(int segmentSize, SegmentFileFormat segmentFileFormat) throws DataSpaceException, IOException {
+        directory = Files.createTempDirectory("doricBenchmark_").toFile();
+        try {
+            dataStore = new DirectoryDataStore(directory.getAbsolutePath(), true, new SimpleStatsService(), "benchmark", segmentFileFormat);
+        }
+        catch (Exception e) {
+            throw new DataSpaceException("Failed to create a benchmark data store in "+directory+": "+e, e);
+        }
+        memoryManager = new SimpleMemoryManager(MEMORY_MANAGER_BYTES);
+        dataSpace = new DataSpace(dataStore, memoryManager, PersistenceType.TEMPORARY, segmentSize);
+        dataSpace.getQueryResultCache().setMaxBytes(0L); // the benchmarks measure evaluation, not cache hits
+        dataSpace.setBitmapIndexMaxValues(0); // nor bitmap index lookups: the generated vectors have few distinct values
+    }
+
+    public DataSpace getDataSpace() {
+        return dataSpace;
+    }
+
+    public DirectoryDataStore getDataStore() {
+        return dataStore;
+    }
+
+    public SimpleMemoryManager getMemoryManager() {
+        return memoryManager;
+    }
+
+    /**
+     * Generates the codes for a vector (see class comment)
+     * @param size the number of codes
+     * @param selectivity the probability of HIT_CODE
+     * @param seed random seed, so that runs are comparable
+     * @return the codes
+     */
+    public static int[] generateCodes(int size, double selectivity, long seed) {
+        Random random = new Random(seed);
+        int[] codes = new int[size];
+        for (int i=0; i<size; i++) {
+            codes[i] = random.nextDouble() < selectivity ? HIT_CODE : 1 + random.nextInt(DISTINCT_VALUES - 1);
+        }
+        return codes;
+    }
+
+    public static String stringValue(int code) {
+        return code < 10 ? "v0"+code : "v"+code;
+    }
+
+    /**
+     * Creates and seals a vector of the given base type with the given selectivity for the hit value
+     * @param baseType
+     * @param size
+     * @param selectivity
+     * @return a sealed vector
+     * @throws DataSpaceException
+     */
+    public IVector createVector(IVector.BaseType baseType, int size, double selectivity) throws DataSpaceException {
+        return createVector(baseType, generateCodes(size, selectivity, size));
+    }
+
+    public IVector createVector(IVector.BaseType baseType, int[] codes) throws DataSpaceException {
+        switch (baseType) {
+            case DOUBLE: {
+                DoubleVector vector = new DoubleVector(dataSpace);
+                for (int code: codes) {
+                    vector.append((double) code);
+                }
+                vector.seal();
+                return vector;
+            }
+            case FLOAT: {
+                FloatVector vector = new FloatVector(dataSpace);
+                for (int code: codes) {
+                    vector.append((float) code);
+                }
+                vector.seal();
+                return vector;
+            }
+            case LONG: {
+                LongVector vector = new LongVector(dataSpace);
+                for (int code: codes) {
+                    vector.append((long) code);
+                }
+                vector.seal();
+                return vector;
+            }
+            case INTEGER: {
+                IntegerVector vector = new IntegerVector(dataSpace);
+                for (int code: codes) {
+                    vector.append(code);
+                }
+                vector.seal();
+                return vector;
+            }
+            case SHORT: {
+                ShortVector vector = new ShortVector(dataSpace);
+                for (int code: codes) {
+                    vector.append((short) code);
+                }
+                vector.seal();
+                return vector;
+            }
+            case BYTE: {
+                ByteVector vector = new ByteVector(dataSpace);
+                for (int code: codes) {
+                    vector.append((byte) code);
+                }
+                vector.seal();
+                return vector;
+            }
+            case STRING: {
+                StringVector vector = new StringVector(dataSpace);
+                for (int code: codes) {
+                    vector.append(stringValue(code));
+                }
+                vector.seal();
+                return vector;
+            }
+            case BOOLEAN: {
+                LogicalVector vector = new LogicalVector(dataSpace);
+                for (int code: codes) {
+                    vector.append(code == HIT_CODE);
+                }
+                vector.seal();
+                return vector;
+            }
+            default:
+                throw new DataSpaceException("Unsupported base type: "+baseType);
+        }
+    }
+
+    /**
+     * Swaps out every loaded segment of the vector, so that the next access has to restore it from the data store
+     * @param vector
+     * @throws DataSpaceException
+     */
+    public void swapOut(IVector vector) throws DataSpaceException {
+        Iterator segments = ((AbstractVector) vector).segmentIterator();
+        while (segments.hasNext()) {
+            AbstractVector.SegmentInfo info = (AbstractVector.SegmentInfo) segments.next();
+            if (info.getSegment().isBackingArrayLoaded()) {
+                info.getSegment().swapOut();
+            }
+        }
+    }
+
+    public void close() throws DataSpaceException {
+        try {
+            dataSpace.close();
+            dataStore.close();
+        }
+        finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) {
+                deleteRecursively(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.benchmark;
+
+import com.moscona.dataSpace.DataFrame;
+import com.moscona.dataSpace.IBitMap;
+import com.moscona.dataSpace.IVector;
+import com.moscona.dataSpace.QueryIntersectionSet;
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.impl.query.EqualsQuery;
+import com.moscona.dataSpace.impl.query.InQuery;
+import com.moscona.dataSpace.impl.query.RangeQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DataFrame.select with a three term intersection. The terms are added from the least selective to the most
+ * selective: a range on a double column matching half the rows, an IN on an integer column matching a tenth of the
+ * rows and an equals on a string column with the benchmark's selectivity.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DataFrameSelectBenchmark extends AbstractDataSpaceBenchmark {
+    public static final double WIDE_SELECTIVITY = 0.5;
+    public static final double MEDIUM_SELECTIVITY = 0.1;
+
+    private DataFrame dataFrame;
+    private QueryIntersectionSet query;
+
+    @Override
+    protected void createData() throws DataSpaceException {
+        dataFrame = new DataFrame(space.getDataSpace());
+        dataFrame.cbind("wide", createVector(IVector.BaseType.DOUBLE, WIDE_SELECTIVITY));
+        dataFrame.cbind("medium", createVector(IVector.BaseType.INTEGER, MEDIUM_SELECTIVITY));
+        dataFrame.cbind("narrow", createVector(IVector.BaseType.STRING, selectivity));
+
+        RangeQuery range = new RangeQuery();
+        InQuery in = new InQuery();
+        EqualsQuery equals = new EqualsQuery();
+        query = new QueryIntersectionSet(dataFrame);
+        query.add(range, HitPredicates.range(range, IVector.BaseType.DOUBLE), "wide");
+        query.add(in, HitPredicates.in(in, IVector.BaseType.INTEGER), "medium");
+        query.add(equals, HitPredicates.equalTo(equals, IVector.BaseType.STRING), "narrow");
+    }
+
+    @Benchmark
+    public IBitMap select() throws DataSpaceException {
+        return dataFrame.select(query);
+    }
+}
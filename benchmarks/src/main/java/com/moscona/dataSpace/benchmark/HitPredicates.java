@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.benchmark;
+
+import com.moscona.dataSpace.IQueryParameterList;
+import com.moscona.dataSpace.IVector;
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.impl.query.CompareQuery;
+import com.moscona.dataSpace.impl.query.EqualsQuery;
+import com.moscona.dataSpace.impl.query.InQuery;
+import com.moscona.dataSpace.impl.query.RangeQuery;
+
+import java.util.HashSet;
+
+/**
+ * Parameter lists for predicates that match exactly the hit value of a BenchmarkDataSpace vector, so that the
+ * selectivity of each predicate is the selectivity the vector was generated with.
+ */
+public class HitPredicates {
+    public static final int IN_SET_SIZE = 8;
+
+    private HitPredicates() {
+        // static helper
+    }
+
+    public static boolean isFloatingPoint(IVector.BaseType baseType) {
+        return baseType == IVector.BaseType.DOUBLE || baseType == IVector.BaseType.FLOAT;
+    }
+
+    public static IQueryParameterList range(RangeQuery query, IVector.BaseType baseType) throws DataSpaceException {
+        IQueryParameterList params = query.createParameterList(baseType);
+        if (isFloatingPoint(baseType)) {
+            return params.set(RangeQuery.FROM, BenchmarkDataSpace.HIT_CODE - 0.5).set(RangeQuery.TO, BenchmarkDataSpace.HIT_CODE + 0.5);
+        }
+        return params.set(RangeQuery.FROM, (long) BenchmarkDataSpace.HIT_CODE).set(RangeQuery.TO, (long) BenchmarkDataSpace.HIT_CODE);
+    }
+
+    public static IQueryParameterList equalTo(EqualsQuery query, IVector.BaseType baseType) throws DataSpaceException {
+        IQueryParameterList params = query.createParameterList(baseType);
+        switch (baseType) {
+            case DOUBLE:
+            case FLOAT:
+                return params.set(EqualsQuery.VALUE, (double) BenchmarkDataSpace.HIT_CODE);
+            case STRING:
+                return params.set(EqualsQuery.VALUE, BenchmarkDataSpace.stringValue(BenchmarkDataSpace.HIT_CODE));
+            case BOOLEAN:
+                return params.set(EqualsQuery.VALUE, true);
+            default:
+                return params.set(EqualsQuery.VALUE, (long) BenchmarkDataSpace.HIT_CODE);
+        }
+    }
+
+    /**
+     * An IN set of IN_SET_SIZE values, only one of which (the hit value) appears in the vector
+     */
+    public static IQueryParameterList in(InQuery query, IVector.BaseType baseType) throws DataSpaceException {
+        HashSet<Object> values = new HashSet<Object>();
+        for (int i=0; i<IN_SET_SIZE; i++) {
+            int code = BenchmarkDataSpace.HIT_CODE - i; // only the first one is in the generated range
+            values.add(baseType == IVector.BaseType.STRING ? BenchmarkDataSpace.stringValue(code) : (Object) (long) code);
+        }
+        return query.createParameterList(baseType).set(InQuery.VALUES, values);
+    }
+
+    public static IQueryParameterList atMost(CompareQuery query, IVector.BaseType baseType) throws DataSpaceException {
+        IQueryParameterList params = query.createParameterList(baseType).set(CompareQuery.OPERATOR, "<=");
+        if (isFloatingPoint(baseType)) {
+            return params.set(CompareQuery.COMPARE_TO, (double) BenchmarkDataSpace.HIT_CODE);
+        }
+        return params.set(CompareQuery.COMPARE_TO, (long) BenchmarkDataSpace.HIT_CODE);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.benchmark;
+
+import com.moscona.dataSpace.IVector;
+import com.moscona.dataSpace.IVectorSegment;
+import com.moscona.dataSpace.IVectorSegmentBackingArray;
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.impl.AbstractVector;
+import com.moscona.dataSpace.persistence.SegmentFileFormat;
+import com.moscona.exceptions.InvalidStateException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DirectoryDataStore dump and restore of a single full segment, for each base type and segment file format.
+ * The restore benchmark only loads the backing array and does not install it in the segment, so every invocation
+ * reads the file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistenceBenchmark {
+    @Param({"DOUBLE", "FLOAT", "LONG", "INTEGER", "SHORT", "BYTE", "STRING", "BOOLEAN"})
+    public IVector.BaseType baseType;
+
+    @Param({"65536", "1048576"})
+    public int segmentSize;
+
+    @Param({"SERIALIZED_GZIP", "MAPPED_RAW"})
+    public SegmentFileFormat segmentFileFormat;
+
+    private BenchmarkDataSpace space;
+    private IVectorSegment segment;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws DataSpaceException, IOException {
+        space = new BenchmarkDataSpace(segmentSize, segmentFileFormat);
+        int[] codes = BenchmarkDataSpace.generateCodes(segmentSize, 1.0/BenchmarkDataSpace.DISTINCT_VALUES, segmentSize);
+        IVector vector = space.createVector(baseType, codes);
+        segment = ((AbstractVector.SegmentInfo) ((AbstractVector) vector).segmentIterator().next()).getSegment();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws DataSpaceException {
+        space.close();
+    }
+
+    @Benchmark
+    public void dumpSegment() throws DataSpaceException {
+        space.getDataStore().dumpSegment(segment);
+    }
+
+    @Benchmark
+    public IVectorSegmentBackingArray restoreSegment() throws DataSpaceException {
+        try {
+            return space.getDataStore().loadBackingArray(segment);
+        }
+        catch (InvalidStateException e) {
+            throw new DataSpaceException("Failed to restore segment: "+e, e);
+        }
+    }
+}
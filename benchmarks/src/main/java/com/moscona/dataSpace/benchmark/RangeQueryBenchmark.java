@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.benchmark;
+
+import com.moscona.dataSpace.IBitMap;
+import com.moscona.dataSpace.IQueryParameterList;
+import com.moscona.dataSpace.IVector;
+import com.moscona.dataSpace.QueryState;
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.impl.query.RangeQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RangeQuery.select over each numeric base type with the range [hit..hit].
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RangeQueryBenchmark extends AbstractDataSpaceBenchmark {
+    @Param({"DOUBLE", "FLOAT", "LONG", "INTEGER", "SHORT", "BYTE"})
+    public IVector.BaseType baseType;
+
+    private IVector vector;
+    private RangeQuery query;
+    private IQueryParameterList params;
+
+    @Override
+    protected void createData() throws DataSpaceException {
+        vector = createVector(baseType, selectivity);
+        query = new RangeQuery();
+        params = HitPredicates.range(query, baseType);
+    }
+
+    @Benchmark
+    @SuppressWarnings({"unchecked"})
+    public IBitMap select() throws DataSpaceException {
+        return vector.select(query, params, new QueryState());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.benchmark;
+
+import com.moscona.dataSpace.Histogram;
+import com.moscona.dataSpace.IVector;
+import com.moscona.dataSpace.QueryState;
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.impl.query.RangeHistogramQuery;
+import com.moscona.dataSpace.impl.query.RunningOLHCSummaryHistogramQuery;
+import com.moscona.dataSpace.impl.query.TopNQuery;
+import com.moscona.dataSpace.impl.query.UniqueValueHistogramQuery;
+import com.moscona.dataSpace.impl.query.support.AbstractHistogramBasedTransformer;
+import com.moscona.exceptions.InvalidArgumentException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The histogram based transformers over each numeric base type. The transformers keep state while they run, so a new
+ * one is created for every invocation (construction is trivial compared to the transformation). Here the selectivity
+ * parameter controls the skew of the distribution: the hit value takes that share of the rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransformerBenchmark extends AbstractDataSpaceBenchmark {
+    public enum Transformer {RANGE_HISTOGRAM, UNIQUE_VALUE_HISTOGRAM, TOP_N, RUNNING_OLHC}
+
+    public static final int RANGE_HISTOGRAM_BINS = 20;
+    public static final short TOP_N = 10;
+    public static final int OLHC_BIN_SIZE = 1000;
+
+    @Param({"DOUBLE", "FLOAT", "LONG", "INTEGER", "SHORT", "BYTE"})
+    public IVector.BaseType baseType;
+
+    @Param({"RANGE_HISTOGRAM", "UNIQUE_VALUE_HISTOGRAM", "TOP_N", "RUNNING_OLHC"})
+    public Transformer transformer;
+
+    private IVector vector;
+
+    @Override
+    protected void createData() throws DataSpaceException {
+        vector = createVector(baseType, selectivity);
+    }
+
+    private AbstractHistogramBasedTransformer createTransformer() throws DataSpaceException {
+        switch (transformer) {
+            case RANGE_HISTOGRAM:
+                return new RangeHistogramQuery(RANGE_HISTOGRAM_BINS);
+            case UNIQUE_VALUE_HISTOGRAM:
+                return new UniqueValueHistogramQuery();
+            case TOP_N:
+                return new TopNQuery(true, TOP_N);
+            case RUNNING_OLHC:
+                try {
+                    return new RunningOLHCSummaryHistogramQuery(OLHC_BIN_SIZE);
+                }
+                catch (InvalidArgumentException e) {
+                    throw new DataSpaceException("Failed to create the OLHC transformer: "+e, e);
+                }
+            default:
+                throw new DataSpaceException("Unknown transformer: "+transformer);
+        }
+    }
+
+    @Benchmark
+    @SuppressWarnings({"unchecked"})
+    public Histogram transform() throws DataSpaceException {
+        return (Histogram) createTransformer().transform(vector, new QueryState());
+    }
+}
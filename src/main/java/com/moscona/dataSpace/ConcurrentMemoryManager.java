@@ -0,0 +1,508 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace;
+
+import com.moscona.util.monitoring.stats.LongSampleAccumulator;
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.persistence.IConcurrentMemoryManager;
+import com.moscona.dataSpace.persistence.IMemoryManaged;
+import com.moscona.dataSpace.persistence.IMemoryManagerStats;
+import com.moscona.dataSpace.persistence.IOffHeapMemoryManager;
+import com.moscona.dataSpace.persistence.OffHeapBufferPool;
+import com.moscona.dataSpace.persistence.PersistenceStatus;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A memory manager for data spaces that are queried from many threads at once. Where the SimpleMemoryManager does all
+ * its bookkeeping under one monitor, this one keeps an atomic pin count and residency state per record, does its byte
+ * accounting with atomics and picks swap out victims with a CLOCK (second chance) queue rather than a priority queue.
+ * Swap operations on a single record are serialized by a per-record lock. Eviction only try-locks its victims and never
+ * runs while the manager holds a record lock, so it cannot deadlock against a thread that is swapping something in.
+ * The swap counters are the same as the SimpleMemoryManager's so the two can be compared.
+ */
+public class ConcurrentMemoryManager implements IConcurrentMemoryManager, IMemoryManagerStats, IOffHeapMemoryManager {
+    private static final int OUT = 0;
+    private static final int RESIDENT = 1;
+    private static final int EVICTING = 2;
+
+    private final long maxBytes;
+    private final AtomicInteger maxId = new AtomicInteger(0);
+    private final ConcurrentHashMap<Integer, Record> records;
+    private final ConcurrentLinkedQueue<Record> clock;
+    private final AtomicInteger clockSize = new AtomicInteger(0);
+
+    private final AtomicInteger totalSwapInCounter = new AtomicInteger(0);
+    private final AtomicLong totalSwapInBytes = new AtomicLong(0L);
+    private final AtomicInteger totalSwapOutCounter = new AtomicInteger(0);
+    private final AtomicLong totalSwapOutBytes = new AtomicLong(0L);
+    private final AtomicLong totalSwapInTime = new AtomicLong(0L);
+    private final AtomicLong totalUtilization = new AtomicLong(0L);
+    private final AtomicLong totalReleaseCounter = new AtomicLong(0L);
+    private final AtomicLong totalRequireCounter = new AtomicLong(0L);
+    private final AtomicLong highWaterMark = new AtomicLong(0L);
+    private final AtomicInteger requireCounter = new AtomicInteger(0);
+    private final AtomicInteger submitCounter = new AtomicInteger(0);
+    private final LongSampleAccumulator requiredTimeStats; // guarded by itself
+    private volatile OffHeapBufferPool offHeapPool = null; // null means backing arrays stay on the heap
+
+    public ConcurrentMemoryManager(long maxBytes) {
+        this.maxBytes = maxBytes;
+        records = new ConcurrentHashMap<Integer, Record>();
+        clock = new ConcurrentLinkedQueue<Record>();
+        requiredTimeStats = new LongSampleAccumulator();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public OffHeapBufferPool getOffHeapPool() {
+        return offHeapPool;
+    }
+
+    /**
+     * Makes segments that are swapped in from now on use off heap backing arrays from the given pool
+     * @param offHeapPool the pool, or null to go back to heap backing arrays
+     */
+    public void setOffHeapPool(OffHeapBufferPool offHeapPool) {
+        this.offHeapPool = offHeapPool;
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxBytes;
+    }
+
+    @Override
+    public void adjustUnmanagedUtilization(long bytes) throws DataSpaceException {
+        incrementUtilization(bytes);
+        if (bytes > 0) {
+            evictIfNeeded();
+        }
+    }
+
+    @Override
+    public int submit(IMemoryManaged data) throws DataSpaceException {
+        int id = data.getMemoryManagerId();
+        if (id >= 0) {
+            return resubmit(data, id);
+        }
+
+        Record rec;
+        synchronized (data) {
+            if (data.getMemoryManagerId() >= 0) {
+                // lost a race with another thread submitting the same object
+                return resubmit(data, data.getMemoryManagerId());
+            }
+            rec = new Record(data);
+            rec.lock.lock();
+            try {
+                data.setMemoryManagerId(rec.id);
+                records.put(rec.id, rec);
+                if (data.getPersistenceStatus() == PersistenceStatus.NOT_PERSISTED) {
+                    swapIn(rec, data);
+                    rec.size = data.sizeInBytes(); // may need to be refreshed
+                }
+                if (data.getPersistenceStatus() == PersistenceStatus.SWAPPED_IN) {
+                    // if submitted as swapped out then it does not take any space
+                    makeResident(rec);
+                }
+            }
+            finally {
+                rec.lock.unlock();
+            }
+        }
+
+        submitCounter.incrementAndGet();
+        evictIfNeeded();
+        return rec.id;
+    }
+
+    private int resubmit(IMemoryManaged data, int id) throws DataSpaceException {
+        Record rec = get(id, "Submitted");
+        if (rec.item.get() != data) {
+            throw new DataSpaceException("Submitted an object to memory management ID that already has an ID, but the object is not the object originally registered with this ID");
+        }
+        return id;
+    }
+
+    private Record get(int id, String operation) throws DataSpaceException {
+        Record rec = id < 0 ? null : records.get(id);
+        if (rec == null) {
+            throw new DataSpaceException(operation+" an object with memory manager ID "+id+", which does not exist");
+        }
+        return rec;
+    }
+
+    @Override
+    public void require(int id) throws DataSpaceException {
+        totalRequireCounter.incrementAndGet();
+        Record rec = get(id, "Required");
+        IMemoryManaged obj = rec.item.get(); // keep a reference until we return to make sure the object does not go away
+        if (obj == null) {
+            throw new DataSpaceException("Error: stale record for ID "+id+" refers to an object that was already garbage collected");
+        }
+
+        if (rec.pins.getAndIncrement() == 0) {
+            requireCounter.incrementAndGet();
+            rec.addedToRequiredTs = System.currentTimeMillis();
+        }
+        rec.referenced = true;
+        // The pin is published before the state is read, and the evictor publishes EVICTING before it reads the pins,
+        // so if we see RESIDENT here nobody can swap the object out until we release it.
+        if (rec.state.get() == RESIDENT) {
+            return;
+        }
+
+        boolean success = false;
+        rec.lock.lock();
+        try {
+            if (rec.state.get() != RESIDENT) {
+                swapIn(rec, obj);
+                makeResident(rec);
+            }
+            success = true;
+        }
+        finally {
+            rec.lock.unlock();
+            if (!success) {
+                rec.pins.decrementAndGet();
+            }
+        }
+        evictIfNeeded();
+    }
+
+    @Override
+    public void release(int id) throws DataSpaceException {
+        totalReleaseCounter.incrementAndGet();
+        Record rec = get(id, "Released");
+        int pins;
+        do {
+            pins = rec.pins.get();
+            if (pins <= 0) {
+                throw new DataSpaceException("Attempt to release record ID "+id+" while it is not required...");
+            }
+        } while (!rec.pins.compareAndSet(pins, pins - 1));
+
+        rec.referenced = true;
+        if (pins == 1) {
+            long requiredTs = rec.addedToRequiredTs;
+            if (requiredTs > 0) {
+                synchronized (requiredTimeStats) {
+                    requiredTimeStats.addSample(System.currentTimeMillis() - requiredTs);
+                }
+            }
+            evictIfNeeded();
+        }
+    }
+
+    @Override
+    public void onSwappedOut(IMemoryManaged managed) throws DataSpaceException {
+        Record rec = get(managed.getMemoryManagerId(), "Swap out notification");
+        markSwappedOut(rec);
+        if (managed.getPersistenceStatus() != PersistenceStatus.SWAPPED_OUT) {
+            managed.setPersistenceStatus(PersistenceStatus.SWAPPED_OUT);
+        }
+    }
+
+    /**
+     * Must be called with the record lock held
+     */
+    private void swapIn(Record rec, IMemoryManaged item) throws DataSpaceException {
+        if (item.getPersistenceStatus() == PersistenceStatus.SWAPPED_IN) {
+            return; // nothing to do...
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            item.swapIn();
+        }
+        finally {
+            totalSwapInTime.addAndGet(System.currentTimeMillis() - start);
+        }
+        rec.swapInCounter++;
+        totalSwapInCounter.incrementAndGet();
+        totalSwapInBytes.addAndGet(rec.size);
+    }
+
+    /**
+     * Must be called with the record lock held and the record in the EVICTING state
+     */
+    private void swapOut(Record rec, IMemoryManaged managed) throws DataSpaceException {
+        boolean success = false;
+        try {
+            managed.swapOut();
+            success = true;
+        }
+        finally {
+            if (!success) {
+                rec.state.compareAndSet(EVICTING, RESIDENT);
+                enqueue(rec);
+            }
+        }
+        if (managed.getPersistenceStatus() != PersistenceStatus.SWAPPED_OUT) {
+            throw new DataSpaceException("Bug! After swap out, object is in incorrect state: "+managed.getPersistenceStatus());
+        }
+        markSwappedOut(rec); // in case the object did not notify us itself
+        rec.swapOutCounter++;
+        totalSwapOutCounter.incrementAndGet();
+        totalSwapOutBytes.addAndGet(rec.size);
+    }
+
+    private void makeResident(Record rec) {
+        if (rec.state.compareAndSet(OUT, RESIDENT)) {
+            incrementUtilization(rec.size);
+        }
+        rec.referenced = true;
+        enqueue(rec);
+    }
+
+    private boolean markSwappedOut(Record rec) {
+        while (true) {
+            int state = rec.state.get();
+            if (state == OUT) {
+                return false;
+            }
+            if (rec.state.compareAndSet(state, OUT)) {
+                incrementUtilization(-rec.size);
+                return true;
+            }
+        }
+    }
+
+    private void enqueue(Record rec) {
+        if (rec.inClock.compareAndSet(false, true)) {
+            clockSize.incrementAndGet();
+            clock.offer(rec);
+        }
+    }
+
+    private void dropFromClock(Record rec) {
+        rec.inClock.set(false);
+        clockSize.decrementAndGet();
+        if (rec.state.get() == RESIDENT) {
+            enqueue(rec); // became resident again while we were looking at it
+        }
+    }
+
+    /**
+     * Sweeps the clock until utilization drops below the maximum. Records that are pinned, busy, or were used since
+     * the last sweep get another pass. If everything is pinned we stop after two full turns and let utilization exceed
+     * the maximum, as the SimpleMemoryManager does.
+     */
+    private void evictIfNeeded() throws DataSpaceException {
+        int budget = 2 * clockSize.get() + 1;
+        while (totalUtilization.get() > maxBytes && budget-- > 0) {
+            Record rec = clock.poll();
+            if (rec == null) {
+                return;
+            }
+            IMemoryManaged managed = rec.item.get();
+            if (managed == null) {
+                // garbage collected - no need to swap out as it does not exist at all
+                markSwappedOut(rec);
+                dropFromClock(rec);
+                continue;
+            }
+            if (rec.state.get() != RESIDENT) {
+                dropFromClock(rec);
+                continue;
+            }
+            if (rec.pins.get() > 0 || rec.referenced) {
+                rec.referenced = false;
+                clock.offer(rec);
+                continue;
+            }
+            if (!rec.lock.tryLock()) {
+                clock.offer(rec); // somebody is busy with it, so it is not a good victim anyway
+                continue;
+            }
+            try {
+                if (!rec.state.compareAndSet(RESIDENT, EVICTING)) {
+                    dropFromClock(rec);
+                    continue;
+                }
+                if (rec.pins.get() > 0) {
+                    rec.state.set(RESIDENT);
+                    clock.offer(rec);
+                    continue;
+                }
+                rec.inClock.set(false);
+                clockSize.decrementAndGet();
+                swapOut(rec, managed);
+            }
+            finally {
+                rec.lock.unlock();
+            }
+        }
+    }
+
+    private void incrementUtilization(long increment) {
+        long utilization = totalUtilization.addAndGet(increment);
+        long mark = highWaterMark.get();
+        while (utilization > mark && !highWaterMark.compareAndSet(mark, utilization)) {
+            mark = highWaterMark.get();
+        }
+    }
+
+    @Override
+    public boolean isRequired(int id) {
+        Record rec = records.get(id);
+        return rec != null && rec.pins.get() > 0;
+    }
+
+    public int getRequireCounter() {
+        return requireCounter.get();
+    }
+
+    public int getSubmitCounter() {
+        return submitCounter.get();
+    }
+
+    public long getTotalReleaseCounter() {
+        return totalReleaseCounter.get();
+    }
+
+    public long getTotalRequireCounter() {
+        return totalRequireCounter.get();
+    }
+
+    @Override
+    public int getTotalSwapInCounter() {
+        return totalSwapInCounter.get();
+    }
+
+    @Override
+    public long getTotalSwapInBytes() {
+        return totalSwapInBytes.get();
+    }
+
+    @Override
+    public long getTotalSwapInTime() {
+        return totalSwapInTime.get();
+    }
+
+    @Override
+    public int getTotalSwapOutCounter() {
+        return totalSwapOutCounter.get();
+    }
+
+    @Override
+    public long getTotalSwapOutBytes() {
+        return totalSwapOutBytes.get();
+    }
+
+    @Override
+    public long getTotalUtilization() {
+        return totalUtilization.get();
+    }
+
+    public long getSlack() {
+        return maxBytes - totalUtilization.get();
+    }
+
+    @Override
+    public long getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    /**
+     * Calculates the amount of swap outs that are needed to satisfy the data use
+     * @return swap outs / swap ins
+     */
+    @Override
+    public double getChurnRate() {
+        int swapIns = totalSwapInCounter.get();
+        if (swapIns == 0) {
+            return 0.0;
+        }
+        return ((double) totalSwapOutCounter.get())/swapIns;
+    }
+
+    /**
+     * Calculates the amount of swap out bytes that are needed to satisfy the data use
+     * @return swap out bytes / swap in bytes
+     */
+    @Override
+    public double getChurnRateByVolume() {
+        long swapInBytes = totalSwapInBytes.get();
+        if (swapInBytes == 0) {
+            return 0.0;
+        }
+        return ((double) totalSwapOutBytes.get())/swapInBytes;
+    }
+
+    /**
+     * Calculates the average time spent on swapping data in per require request that pinned an unpinned object
+     * @return
+     */
+    @Override
+    public double getRequireAvgIoCost() {
+        int requires = requireCounter.get();
+        long swapInTime = totalSwapInTime.get();
+        if (requires == 0 || swapInTime == 0) {
+            return 0.0;
+        }
+        return ((double) swapInTime)/requires;
+    }
+
+    /**
+     * @return a snapshot of the time objects spent in the required state
+     */
+    public LongSampleAccumulator getRequiredTimeStats() throws DataSpaceException {
+        synchronized (requiredTimeStats) {
+            try {
+                return requiredTimeStats.clone();
+            }
+            catch (CloneNotSupportedException e) {
+                throw new DataSpaceException("Could not copy the required time stats: "+e, e);
+            }
+        }
+    }
+
+    /**
+     * A weak reference to the managed object with its pin count, residency state and stats
+     */
+    private class Record {
+        public final WeakReference<IMemoryManaged> item;
+        public final int id;
+        public volatile long size;
+        public final AtomicInteger pins = new AtomicInteger(0);
+        public final AtomicInteger state = new AtomicInteger(OUT);
+        public final AtomicBoolean inClock = new AtomicBoolean(false);
+        public final ReentrantLock lock = new ReentrantLock();
+        public volatile boolean referenced = false;
+        public volatile long addedToRequiredTs = -1L;
+        public int swapInCounter = 0; // guarded by lock
+        public int swapOutCounter = 0; // guarded by lock
+
+        protected Record(IMemoryManaged item) throws DataSpaceException {
+            this.item = new WeakReference<IMemoryManaged>(item);
+            id = maxId.getAndIncrement();
+            size = item.sizeInBytes();
+        }
+    }
+}
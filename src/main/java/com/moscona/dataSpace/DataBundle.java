@@ -243,6 +243,7 @@ public class DataBundle implements INameSpace, Serializable {
             IDataElement retval = data.get(name);
             if (retval != null) {
                 data.remove(name);
+                invalidateCachedResults(retval);
             }
             dataSpace.notifyNameSpaceChangeFinish(this);
             return retval;
@@ -294,6 +295,18 @@ public class DataBundle implements INameSpace, Serializable {
         }
         if (toRemove!=null) {
             data.remove(toRemove);
+            invalidateCachedResults(value);
+        }
+    }
+
+    /**
+     * A vector that leaves the name space may be on its way to being closed or discarded, so we do not keep query
+     * results computed on it around
+     * @param element
+     */
+    private void invalidateCachedResults(IDataElement element) {
+        if (element.isVector()) {
+            dataSpace.getQueryResultCache().invalidate((IVector)element);
         }
     }
 
@@ -297,38 +297,58 @@ public class DataFrame extends AbstractDataElement implements IDataElement {
             }
         }
 
+        if (hasSeveralTermsOnOneColumn(query)) {
+            // evaluated as a tree, so that the terms on the same column are fused into one pass over each segment
+            return select(QueryTree.of(query));
+        }
+
         // decide on resolution order
-        ArrayList<Integer> executionOrder = resolveExecutionOrder(query);
+        QueryPlan plan = new QueryPlanner().plan(this, query);
 
         // execute
         IBitMap finalResult = null;
-        for (int i: executionOrder) {
+        for (int step=0; step<plan.size(); step++) {
+            int i = plan.getStep(step).getTermIndex();
             String column = query.getColumnName(i);
-            IQueryTerm term = query.getTerm(i);
             QueryState queryState = new QueryState();
-            IBitMap termResult = query.applyTerm(i, columns.get(column).vector, queryState, finalResult);
-            if (finalResult == null) {
-                finalResult = termResult; // first term to be executed
-            }
-            else {
-                finalResult = finalResult.and(termResult);
-                // HOLD (fix before release)  need to go into javaEWAH and create a method that checks whether the bit map is all true or all false efficiently (faster than cardinality()) - contribute back to Daniel Lemire)
-                if (finalResult.cardinality() == 0) {
-                    break; // we narrowed down the result to nothing - no need to evaluate any further
-                }
+            queryState.setQueryPlan(plan, step);
+            // the term skips what earlier terms eliminated and returns the intersection with their result
+            finalResult = query.applyTerm(i, columns.get(column).vector, queryState, finalResult);
+            if (finalResult.isEmpty()) {
+                break; // we narrowed down the result to nothing - no need to evaluate any further
             }
         }
 
         return finalResult;
     }
 
-    private ArrayList<Integer> resolveExecutionOrder(IQueryIntersectionSet query) {
-        ArrayList<Integer> retval = new ArrayList<Integer>();
+    private boolean hasSeveralTermsOnOneColumn(IQueryIntersectionSet query) {
+        HashSet<String> seen = new HashSet<String>();
         for (int i=0; i<query.size(); i++) {
-            // HOLD (fix before release)  query order optimization by selectivity estimate (using column stats and rough estimate of selectivity by each term) and grouping same columns
-            retval.add(i);
+            if (!seen.add(query.getColumnName(i))) {
+                return true;
+            }
         }
-        return retval;
+        return false;
+    }
+
+    /**
+     * Selects the rows that match a boolean combination of terms (see QueryTree and QueryTreeEvaluator)
+     * @param query
+     * @return the matching rows
+     * @throws DataSpaceException
+     */
+    public IBitMap select(QueryTree query) throws DataSpaceException {
+        return select(query, new QueryState());
+    }
+
+    public IBitMap select(QueryTree query, IQueryState queryState) throws DataSpaceException {
+        for (QueryTree.Term term: query.getTerms()) {
+            if (! columns.containsKey(term.getColumnName())) {
+                throw new DataSpaceException("Query references non-existing column \""+term.getColumnName()+"\" query: \""+query+"\", data frame columns: "+columnsAsString());
+            }
+        }
+        return new QueryTreeEvaluator(this).evaluate(query, queryState);
     }
 
     private String columnsAsString() {
@@ -25,6 +25,7 @@ import com.moscona.dataSpace.persistence.DirectoryDataStore;
 import com.moscona.dataSpace.persistence.IDataStore;
 import com.moscona.dataSpace.persistence.IMemoryManager;
 import com.moscona.dataSpace.persistence.PersistenceType;
+import com.moscona.dataSpace.util.QuantileSketch;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.FileNotFoundException;
@@ -51,6 +52,9 @@ public class DataSpace implements INameSpace, Serializable {
     public static final PersistenceType DEFAULT_PERSISTENCE_TYPE = PersistenceType.TEMPORARY;
     public static final int DEFAULT_THRESHOLD_FOR_PRECISE_QUANTILES = DEFAULT_PREFERRED_SEGMENT_SIZE;
     public static final int DEFAULT_RESOLUTION_RANGE_DIVISOR = 10000;
+    public static final int DEFAULT_ZONE_MAP_BLOCK_SIZE = 4096;
+    public static final int DEFAULT_BITMAP_INDEX_MAX_VALUES = 0;
+    public static final int DEFAULT_QUANTILE_SKETCH_SIZE = QuantileSketch.DEFAULT_K;
 
     private transient IMemoryManager memoryManager;
     private transient IDataStore dataStore;
@@ -94,6 +98,9 @@ public class DataSpace implements INameSpace, Serializable {
      */
     private int segmentSize;
     private int defaultResolutionRangeDivisor = DEFAULT_RESOLUTION_RANGE_DIVISOR;
+    private int zoneMapBlockSize = DEFAULT_ZONE_MAP_BLOCK_SIZE;
+    private int bitmapIndexMaxValues = DEFAULT_BITMAP_INDEX_MAX_VALUES;
+    private int quantileSketchSize = DEFAULT_QUANTILE_SKETCH_SIZE;
 
     private transient DataBundle defaultNameSpace=null;
     private DataBundle persistentNameSpace=null;
@@ -106,6 +113,7 @@ public class DataSpace implements INameSpace, Serializable {
     private transient AtomicInteger changesInProgress = new AtomicInteger(0);
     private transient AtomicLong lastFlush = new AtomicLong(System.currentTimeMillis());
     private transient CloseHelper closeHelper;
+    private transient QueryResultCache queryResultCache;
     private HashMap<String,Integer> stringEncoding;
     private HashMap<Integer,String> stringDecoding;
 
@@ -122,6 +130,7 @@ public class DataSpace implements INameSpace, Serializable {
         name = makeRandomName();
         initNameSpaces(defaultPersistenceType);
         closeHelper = new CloseHelper();
+        queryResultCache = new QueryResultCache(memoryManager);
 
         //noinspection ThisEscapedInObjectConstruction
         dataStore.register(this);
@@ -138,6 +147,7 @@ public class DataSpace implements INameSpace, Serializable {
         closeHelper = new CloseHelper();
         this.memoryManager = memoryManager;
         this.dataStore = dataStore;
+        queryResultCache = new QueryResultCache(memoryManager);
         initNameSpaces(defaultPersistenceType);
         changesInProgress = new AtomicInteger(0);
         lastFlush = new AtomicLong(System.currentTimeMillis());
@@ -151,6 +161,7 @@ public class DataSpace implements INameSpace, Serializable {
                 AbstractVector vector = (AbstractVector) element;
                 vector.initCloseHelper();
                 vector.setDataSpace(this);
+                vector.accountBitmapIndex();
                 vector.markAllSegmentsSwappedOut();
             }
         }
@@ -486,6 +497,13 @@ public class DataSpace implements INameSpace, Serializable {
         return memoryManager;
     }
 
+    /**
+     * @return the cache of query term results over the vectors of this data space
+     */
+    public QueryResultCache getQueryResultCache() {
+        return queryResultCache;
+    }
+
 
     // Other methods ---------------------------------------------------------------------------------------------------
 
@@ -498,6 +516,62 @@ public class DataSpace implements INameSpace, Serializable {
         this.defaultResolutionRangeDivisor = defaultResolutionRangeDivisor;
     }
 
+    /**
+     * @return the number of elements summarized by each entry of a segment's zone map (see ZoneMap). 0 if zone maps are
+     * disabled
+     */
+    public int getZoneMapBlockSize() {
+        return zoneMapBlockSize;
+    }
+
+    /**
+     * Sets the zone map block size for segments sealed from now on. 0 disables zone maps
+     * @param zoneMapBlockSize
+     */
+    public void setZoneMapBlockSize(int zoneMapBlockSize) {
+        this.zoneMapBlockSize = Math.max(0, zoneMapBlockSize);
+    }
+
+    /**
+     * The bitmap index (see BitmapIndex) of an integral or string vector is built when the vector is sealed, or when
+     * a sealed vector is made a factor, unless the vector has more distinct values than this (or, unless it is a
+     * factor, its values rarely repeat), or its index would take too much memory (see BitmapIndex.MAX_SIZE_FRACTION).
+     * Disabled by default: building the index reads every segment, so vectors are only indexed when they ask for it
+     * (see StringVector.setIndexed()) or when enabled here.
+     * @return the maximum number of distinct values of an indexed vector. 0 (the default) means that bitmap indexes
+     * are only built for vectors that asked for one
+     */
+    public int getBitmapIndexMaxValues() {
+        return bitmapIndexMaxValues;
+    }
+
+    /**
+     * Sets the maximum number of distinct values of vectors indexed from now on. 0 disables bitmap indexes
+     * @param bitmapIndexMaxValues
+     */
+    public void setBitmapIndexMaxValues(int bitmapIndexMaxValues) {
+        this.bitmapIndexMaxValues = Math.max(0, bitmapIndexMaxValues);
+    }
+
+    /**
+     * The quantile sketch (see QuantileSketch) of a numeric segment is calculated when the segment is sealed, and the
+     * sketches of the segments are merged into the vector quantiles and into the quantiles of selections. The size is
+     * the accuracy/memory trade off of the sketch: about three times that many values are kept per segment
+     * @return the size (k) of the quantile sketches of segments. 0 means that quantile sketches are disabled
+     */
+    public int getQuantileSketchSize() {
+        return quantileSketchSize;
+    }
+
+    /**
+     * Sets the size of the quantile sketches of segments sealed from now on. 0 disables quantile sketches, other values
+     * are raised to at least QuantileSketch.MIN_K
+     * @param quantileSketchSize
+     */
+    public void setQuantileSketchSize(int quantileSketchSize) {
+        this.quantileSketchSize = quantileSketchSize <= 0 ? 0 : Math.max(QuantileSketch.MIN_K, quantileSketchSize);
+    }
+
     /**
      * Handles persistence promotions and demotions as variables move between data spaces
      * @param value
@@ -594,6 +668,7 @@ public class DataSpace implements INameSpace, Serializable {
 
     public void close() {
         closeHelper.close();
+        queryResultCache.clear();
     }
 
     public boolean isClosed() {
@@ -610,10 +685,28 @@ public class DataSpace implements INameSpace, Serializable {
         return retval;
     }
 
+    /**
+     * Unlike getCode(), does not code a string it has not seen
+     * @param s
+     * @return the code of the string, or -1 if the string was never coded in this data space
+     */
+    public int findCode(String s) {
+        Integer retval = stringEncoding.get(s);
+        return retval==null ? -1 : retval;
+    }
+
     public String decodeToString(int code) {
         return stringDecoding.get(code);
     }
 
+    /**
+     * @return the number of distinct strings coded in this data space (an upper bound on the number of distinct values
+     * in any of its string vectors)
+     */
+    public int getStringCodeCount() {
+        return stringDecoding.size();
+    }
+
     public void dumpSummary() throws DataSpaceException, FileNotFoundException {
         dataStore.dumpDataSpaceSummary(this);
     }
@@ -630,6 +723,7 @@ public class DataSpace implements INameSpace, Serializable {
         ArrayList<DataBundle> toClean = new ArrayList<DataBundle>(dataBundles.values());
         toClean.add(persistentNameSpace);
         toClean.add(tempNameSpace);
+        queryResultCache.clear();
 
         for (DataBundle ns: toClean) {
             notifyNameSpaceChangeStart(ns);
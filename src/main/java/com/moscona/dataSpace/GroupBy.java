@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace;
+
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.impl.AbstractVector;
+import com.moscona.dataSpace.impl.DoubleVector;
+import com.moscona.dataSpace.impl.IntegerVector;
+import com.moscona.dataSpace.impl.LongVector;
+import com.moscona.dataSpace.impl.StringVector;
+import com.moscona.dataSpace.impl.segment.AbstractVectorSegment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Groups the rows of a data frame by the values of one or more key columns (integral columns such as factor codes, or
+ * strings, which are grouped by their dictionary codes) and computes aggregates of numeric columns for every group.
+ * Optionally each group is further divided into bins of binSize consecutive rows of the group, the way
+ * RunningOLHCSummaryHistogramQuery bins a single selection.
+ * All the groups and all the aggregates are computed in a single pass over the columns, one segment at a time (all the
+ * columns of a data frame share the same segmentation), so the cost does not depend on the number of groups.
+ */
+public class GroupBy {
+    public enum Aggregate {
+        FIRST, LAST, MIN, MAX, SUM, COUNT, MEAN, STDEV
+    }
+
+    private final DataFrame dataFrame;
+    private final String[] keyColumns;
+    private int binSize = 0;
+    private final ArrayList<String> valueColumns = new ArrayList<String>(); // each aggregated column, once
+    private final ArrayList<String> names = new ArrayList<String>();
+    private final ArrayList<Integer> columnOf = new ArrayList<Integer>(); // the index in valueColumns of each aggregate
+    private final ArrayList<Aggregate> aggregates = new ArrayList<Aggregate>();
+
+    public GroupBy(DataFrame dataFrame, String... keyColumns) throws DataSpaceException {
+        if (keyColumns.length == 0) {
+            throw new DataSpaceException("A group by requires at least one key column");
+        }
+        this.dataFrame = dataFrame;
+        this.keyColumns = keyColumns.clone();
+    }
+
+    /**
+     * Divides each group into bins of binSize consecutive rows (of the group). Only the last bin of a group may be
+     * smaller
+     * @param binSize the number of rows in each bin. 0 (the default) means a single bin per group
+     * @return this
+     * @throws DataSpaceException
+     */
+    public GroupBy setBinSize(int binSize) throws DataSpaceException {
+        if (binSize < 0) {
+            throw new DataSpaceException("The bin size may not be negative. Got "+binSize);
+        }
+        this.binSize = binSize;
+        return this;
+    }
+
+    /**
+     * Adds an aggregate to compute for each bin of each group
+     * @param name the name of the aggregate in the result
+     * @param column a numeric column of the data frame
+     * @param aggregate
+     * @return this
+     * @throws DataSpaceException
+     */
+    public GroupBy add(String name, String column, Aggregate aggregate) throws DataSpaceException {
+        if (names.contains(name)) {
+            throw new DataSpaceException("Duplicate aggregate name: "+name);
+        }
+        int index = valueColumns.indexOf(column);
+        if (index < 0) {
+            index = valueColumns.size();
+            valueColumns.add(column);
+        }
+        names.add(name);
+        columnOf.add(index);
+        aggregates.add(aggregate);
+        return this;
+    }
+
+    /**
+     * Computes the groups
+     * @param queryState receives the segment level bookkeeping of the pass
+     * @return the groups, in the order of their first row
+     * @throws DataSpaceException
+     */
+    @SuppressWarnings({"unchecked"})
+    public Result evaluate(IQueryState queryState) throws DataSpaceException {
+        int keyCount = keyColumns.length;
+        int columnCount = valueColumns.size();
+        AbstractVector[] vectors = new AbstractVector[keyCount + columnCount];
+        IVector.BaseType[] keyTypes = new IVector.BaseType[keyCount];
+        for (int i=0; i<keyCount; i++) {
+            vectors[i] = (AbstractVector) dataFrame.get(keyColumns[i]);
+            keyTypes[i] = vectors[i].getBaseType();
+            switch (keyTypes[i]) {
+                case LONG:
+                case INTEGER:
+                case SHORT:
+                case BYTE:
+                case STRING:
+                    break;
+                default:
+                    throw new DataSpaceException("Cannot group by "+keyColumns[i]+": only integral and string columns can be keys. Got "+keyTypes[i]);
+            }
+        }
+        for (int i=0; i<columnCount; i++) {
+            vectors[keyCount + i] = (AbstractVector) dataFrame.get(valueColumns.get(i));
+            if (!vectors[keyCount + i].isNumeric()) {
+                throw new DataSpaceException("Cannot aggregate "+valueColumns.get(i)+": only numeric columns can be aggregated. Got "+vectors[keyCount + i].getBaseType());
+            }
+        }
+
+        ArrayList<ArrayList<AbstractVector.SegmentInfo>> segments = new ArrayList<ArrayList<AbstractVector.SegmentInfo>>();
+        for (AbstractVector vector: vectors) {
+            ArrayList<AbstractVector.SegmentInfo> list = new ArrayList<AbstractVector.SegmentInfo>();
+            AbstractVector.SegmentIterator iterator = vector.segmentIterator();
+            while (iterator.hasNext()) {
+                list.add(iterator.next());
+            }
+            if (!segments.isEmpty() && (vector.size() != vectors[0].size() || list.size() != segments.get(0).size())) {
+                throw new DataSpaceException("The columns of a group by must have the same size and segmentation");
+            }
+            segments.add(list);
+        }
+
+        Result result = new Result(vectors[0].getDataSpace(), keyTypes);
+        GroupKey probe = new GroupKey(new long[keyCount]);
+        Group group = null;
+        IIntegralBackingArray[] keys = new IIntegralBackingArray[keyCount];
+        Object[] values = new Object[columnCount];
+
+        queryState.markVectorEvaluationStart();
+        try {
+            int segmentCount = segments.get(0).size();
+            for (int segmentNumber=0; segmentNumber<segmentCount; segmentNumber++) {
+                queryState.markSegmentEvaluationStart(segmentNumber);
+                int required = 0;
+                try {
+                    for (ArrayList<AbstractVector.SegmentInfo> column: segments) {
+                        column.get(segmentNumber).getSegment().require();
+                        required++;
+                    }
+                    queryState.incBulkSegmentEvals();
+                    for (int i=0; i<keyCount; i++) {
+                        keys[i] = (IIntegralBackingArray) backingArray(segments.get(i).get(segmentNumber));
+                    }
+                    for (int i=0; i<columnCount; i++) {
+                        values[i] = backingArray(segments.get(keyCount + i).get(segmentNumber));
+                    }
+
+                    int length = segments.get(0).get(segmentNumber).getStats().getCount();
+                    for (int row=0; row<length; row++) {
+                        for (int i=0; i<keyCount; i++) {
+                            probe.values[i] = keys[i].getLong(row);
+                        }
+                        if (group == null || !group.key.equals(probe)) {
+                            group = result.groupFor(probe);
+                        }
+                        BinStats[] bin = group.binFor(binSize, columnCount);
+                        for (int i=0; i<columnCount; i++) {
+                            Object array = values[i];
+                            bin[i].add(IIntegralBackingArray.class.isAssignableFrom(array.getClass()) ?
+                                    ((IIntegralBackingArray) array).getLong(row) :
+                                    ((IFloatingPointBackingArray) array).getDouble(row));
+                        }
+                    }
+                    queryState.incCompletedSegments(segmentNumber, 0);
+                }
+                catch (DataSpaceException e) {
+                    queryState.signalSegmentException(e, segmentNumber);
+                    throw e;
+                }
+                finally {
+                    for (int i=0; i<required; i++) {
+                        segments.get(i).get(segmentNumber).getSegment().release();
+                    }
+                }
+            }
+            queryState.markCompletedVectorEvaluation(result.getGroupCount());
+        }
+        catch (DataSpaceException e) {
+            queryState.signalVectorException(e);
+            throw e;
+        }
+        return result;
+    }
+
+    private static Object backingArray(AbstractVector.SegmentInfo segmentInfo) {
+        return ((AbstractVectorSegment) segmentInfo.getSegment()).getBackingArray();
+    }
+
+    // =================================================================================================================
+
+    /**
+     * The groups computed by evaluate()
+     */
+    public class Result {
+        private final DataSpace dataSpace;
+        private final IVector.BaseType[] keyTypes;
+        private final HashMap<GroupKey,Group> groupsByKey = new HashMap<GroupKey,Group>();
+        private final ArrayList<Group> groups = new ArrayList<Group>();
+
+        private Result(DataSpace dataSpace, IVector.BaseType[] keyTypes) {
+            this.dataSpace = dataSpace;
+            this.keyTypes = keyTypes;
+        }
+
+        private Group groupFor(GroupKey probe) {
+            Group retval = groupsByKey.get(probe);
+            if (retval == null) {
+                GroupKey key = new GroupKey(probe.values.clone());
+                retval = new Group(key, groups.size());
+                groupsByKey.put(key, retval);
+                groups.add(retval);
+            }
+            return retval;
+        }
+
+        public int getGroupCount() {
+            return groups.size();
+        }
+
+        /**
+         * Finds a group by its key values
+         * @param keys one value per key column: strings for string columns, numbers for integral ones
+         * @return the group number, or -1 if there are no rows with these keys
+         */
+        public int getGroup(Object... keys) throws DataSpaceException {
+            if (keys.length != keyTypes.length) {
+                throw new DataSpaceException("Expected "+keyTypes.length+" key values, got "+keys.length);
+            }
+            long[] values = new long[keys.length];
+            for (int i=0; i<keys.length; i++) {
+                if (keyTypes[i] == IVector.BaseType.STRING) {
+                    int code = dataSpace.findCode(keys[i].toString());
+                    if (code < 0) {
+                        return -1; // a string that was never coded cannot be the key of any row
+                    }
+                    values[i] = code;
+                }
+                else {
+                    values[i] = ((Number) keys[i]).longValue();
+                }
+            }
+            Group group = groupsByKey.get(new GroupKey(values));
+            return group == null ? -1 : group.number;
+        }
+
+        /**
+         * @param group
+         * @param keyNumber
+         * @return the value of the group's key column: a String for string columns, a Long for integral ones
+         */
+        public Object getKey(int group, int keyNumber) {
+            long value = groups.get(group).key.values[keyNumber];
+            return keyTypes[keyNumber] == IVector.BaseType.STRING ? dataSpace.decodeToString((int) value) : (Object) value;
+        }
+
+        public int getBinCount(int group) {
+            return groups.get(group).bins.size();
+        }
+
+        /**
+         * @param group
+         * @param bin
+         * @param name the name the aggregate was added with
+         * @return the aggregate of the bin
+         */
+        public double getValue(int group, int bin, String name) throws DataSpaceException {
+            int aggregate = names.indexOf(name);
+            if (aggregate < 0) {
+                throw new DataSpaceException("No such aggregate: "+name);
+            }
+            return getValue(group, bin, aggregate);
+        }
+
+        /**
+         * @param group
+         * @param bin
+         * @param aggregate the number of the aggregate, in the order they were added
+         * @return the aggregate of the bin
+         */
+        public double getValue(int group, int bin, int aggregate) {
+            BinStats stats = groups.get(group).bins.get(bin)[columnOf.get(aggregate)];
+            switch (aggregates.get(aggregate)) {
+                case FIRST:
+                    return stats.first;
+                case LAST:
+                    return stats.last;
+                case MIN:
+                    return stats.min;
+                case MAX:
+                    return stats.max;
+                case SUM:
+                    return stats.sum;
+                case COUNT:
+                    return stats.count;
+                case MEAN:
+                    return stats.sum / stats.count;
+                case STDEV:
+                default:
+                    double mean = stats.sum / stats.count;
+                    return Math.sqrt(Math.max(0.0, stats.sumSquares / stats.count - mean * mean));
+            }
+        }
+
+        /**
+         * Lays the result out as a data frame with a row per bin of each group: the key columns, a "bin" column with
+         * the bin number within the group (if bins were requested) and a column per aggregate (integers for counts,
+         * doubles for the rest)
+         * @return a new data frame
+         * @throws DataSpaceException
+         */
+        public DataFrame toDataFrame() throws DataSpaceException {
+            DataFrame retval = new DataFrame(dataSpace);
+            for (int k=0; k<keyTypes.length; k++) {
+                if (keyTypes[k] == IVector.BaseType.STRING) {
+                    StringVector column = new StringVector(dataSpace);
+                    for (int g=0; g<groups.size(); g++) {
+                        column.append((String) getKey(g, k), getBinCount(g));
+                    }
+                    retval.cbind(keyColumns[k], column.seal(), true);
+                }
+                else {
+                    LongVector column = new LongVector(dataSpace);
+                    for (int g=0; g<groups.size(); g++) {
+                        column.append((Long) getKey(g, k), getBinCount(g));
+                    }
+                    retval.cbind(keyColumns[k], column.seal(), true);
+                }
+            }
+            if (binSize > 0) {
+                IntegerVector column = new IntegerVector(dataSpace);
+                for (int g=0; g<groups.size(); g++) {
+                    for (int b=0; b<getBinCount(g); b++) {
+                        column.append(b);
+                    }
+                }
+                retval.cbind("bin", column.seal());
+            }
+            for (int a=0; a<names.size(); a++) {
+                IVector column;
+                if (aggregates.get(a) == Aggregate.COUNT) {
+                    IntegerVector counts = new IntegerVector(dataSpace);
+                    for (int g=0; g<groups.size(); g++) {
+                        for (int b=0; b<getBinCount(g); b++) {
+                            counts.append((int) getValue(g, b, a));
+                        }
+                    }
+                    column = counts.seal();
+                }
+                else {
+                    DoubleVector doubles = new DoubleVector(dataSpace);
+                    for (int g=0; g<groups.size(); g++) {
+                        for (int b=0; b<getBinCount(g); b++) {
+                            doubles.append(getValue(g, b, a));
+                        }
+                    }
+                    column = doubles.seal();
+                }
+                retval.cbind(names.get(a), column);
+            }
+            return retval;
+        }
+    }
+
+    private static class GroupKey {
+        private final long[] values;
+
+        private GroupKey(long[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof GroupKey && Arrays.equals(values, ((GroupKey) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+
+    private static class Group {
+        private final GroupKey key;
+        private final int number; // the position of the group in Result.groups
+        private final ArrayList<BinStats[]> bins = new ArrayList<BinStats[]>();
+        private int rowsInLastBin = 0;
+
+        private Group(GroupKey key, int number) {
+            this.key = key;
+            this.number = number;
+        }
+
+        /**
+         * @return the bin of the group's next row, starting a new one if the last one is full
+         */
+        private BinStats[] binFor(int binSize, int columnCount) {
+            if (bins.isEmpty() || binSize > 0 && rowsInLastBin == binSize) {
+                BinStats[] bin = new BinStats[columnCount];
+                for (int i=0; i<columnCount; i++) {
+                    bin[i] = new BinStats();
+                }
+                bins.add(bin);
+                rowsInLastBin = 0;
+            }
+            rowsInLastBin++;
+            return bins.get(bins.size() - 1);
+        }
+    }
+
+    /**
+     * Everything any aggregate needs to know about the values of one column in one bin
+     */
+    private static class BinStats {
+        private int count = 0;
+        private double first;
+        private double last;
+        private double min;
+        private double max;
+        private double sum = 0.0;
+        private double sumSquares = 0.0;
+
+        private void add(double value) {
+            if (count == 0) {
+                first = value;
+                min = value;
+                max = value;
+            }
+            else if (value < min) {
+                min = value;
+            }
+            else if (value > max) {
+                max = value;
+            }
+            last = value;
+            count++;
+            sum += value;
+            sumSquares += value * value;
+        }
+    }
+}
@@ -29,6 +29,30 @@ public interface IBitMap {
     public IBitMap or(IBitMap other);
     public IBitMap not();
     public IBitMap add(boolean value);
+
+    /**
+     * Appends the lowest length bits of the word (bit 0 first). Much cheaper than calling add() for each bit
+     * @param word the bits to append
+     * @param length how many of the word's bits to append (1..64)
+     * @return this bitmap
+     */
+    public IBitMap addWord(long word, int length);
+
+    /**
+     * Appends length bits, all set to value. Takes constant time regardless of the length of the run
+     * @param value
+     * @param length
+     * @return this bitmap
+     */
+    public IBitMap addRun(boolean value, int length);
+
+    /**
+     * Appends all the bits of the other bitmap (including its trailing false bits) after the last bit of this one.
+     * Used to stitch together partial results that were computed separately (e.g. per segment)
+     * @param other
+     * @return this bitmap
+     */
+    public IBitMap append(IBitMap other);
     // IMPORTANT: not providing public boolean get(int index) - use iterator instead
     public int size();
 
@@ -43,5 +67,45 @@ public interface IBitMap {
      */
     public int cardinality();
 
+    /**
+     * Checks whether there are no true values at all. Stops at the first true value rather than counting them all
+     * @return true if cardinality() would be 0
+     */
+    public boolean isEmpty();
+
+    /**
+     * Checks whether all the size() positions are true. Stops at the first false value where possible
+     * @return true if cardinality() would be size()
+     */
+    public boolean isFull();
+
+    /**
+     * Checks whether there is at least one position that is true in both bitmaps, without materializing the count of
+     * the intersection
+     * @param other a bitmap of the same size
+     * @return true if and(other) would not be empty
+     */
+    public boolean intersects(IBitMap other);
+
+    /**
+     * Summarizes the bitmap in consecutive ranges of rangeSize positions in a single pass, without visiting the true
+     * positions one by one. Used to push an intersection down to the segments of a vector
+     * @param rangeSize the size of each range (e.g. the vector segment size)
+     * @return the coverage of the ceil(size()/rangeSize) ranges
+     */
+    public RangeCoverage getRangeCoverage(int rangeSize);
+
+    /**
+     * Creates an independent copy of the bitmap, which may be appended to without affecting this one. Costs a copy of
+     * the compressed form rather than a pass over the positions
+     * @return the copy
+     */
+    public IBitMap copy();
+
+    /**
+     * @return the approximate memory footprint of the bitmap in its compressed form
+     */
+    public long sizeInBytes();
+
     public List<Integer> getPositions();
 }
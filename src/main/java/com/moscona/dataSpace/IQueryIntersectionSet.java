@@ -33,5 +33,15 @@ public interface IQueryIntersectionSet {
     public IQueryParameterList getParameterList(int i);
     public String getColumnName(int i);
 
+    /**
+     * Applies one of the terms to a vector
+     * @param i the term number
+     * @param vector the column of the term
+     * @param queryState
+     * @param cumulativeResult the result of the terms applied so far, or null for the first term. It is pushed down
+     *                         to the term (see IQueryTerm.apply()) so rows it eliminated are not evaluated again
+     * @return the term's result intersected with the cumulative result
+     * @throws DataSpaceException
+     */
     IBitMap applyTerm(int i, IVector vector, IQueryState queryState, IBitMap cumulativeResult) throws DataSpaceException;
 }
@@ -37,4 +37,10 @@ public interface IQueryParameterList {
     public boolean hasNulls();
 
     IQueryParameter get(String name) throws DataSpaceException;
+
+    /**
+     * @return a canonical form of the parameter values: sorted by name, with set values sorted. Two lists with the
+     * same canonical form evaluate the same way, so this may be used to recognize identical terms
+     */
+    String toCanonicalString();
 }
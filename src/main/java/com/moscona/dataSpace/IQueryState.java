@@ -62,7 +62,7 @@ public interface IQueryState {
     /**
      * informs of a successful completion of segment evaluation
      * @param segmentNumber the segment number
-     * @param cardinality the cardinality of the progressive result after the segment completed
+     * @param cardinality the number of matches in the segment
      */
     void incCompletedSegments(int segmentNumber, int cardinality);
 
@@ -95,4 +95,38 @@ public interface IQueryState {
     void incSkippedSegments();
 
     int getSkippedSegments();
+
+    /**
+     * informs of blocks within a segment that were decided by the segment's zone map without reading their data
+     * @param blocks the number of blocks
+     */
+    void incResolvedBlocks(int blocks);
+
+    /**
+     * informs of a binary search within the data of a segment of a sorted vector
+     */
+    void incSegmentBinarySearches();
+
+    /**
+     * informs of a vector evaluation that was answered from the vector's bitmap index (see BitmapIndex)
+     */
+    void incIndexLookups();
+
+    /**
+     * informs of a vector evaluation that was answered from the query result cache (see QueryResultCache)
+     */
+    void incResultCacheHits();
+
+    /**
+     * informs of a cacheable vector evaluation that was not in the query result cache and had to be evaluated
+     */
+    void incResultCacheMisses();
+
+    /**
+     * Informs of the plan of the intersection that this evaluation is a step of. The actual cardinality of the step
+     * is recorded in the plan when the vector evaluation completes.
+     * @param plan the plan chosen by the QueryPlanner
+     * @param step the position of the evaluated term in the plan
+     */
+    void setQueryPlan(QueryPlan plan, int step);
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace;
+
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+
+/**
+ * Implemented by query terms that can estimate their selectivity on a vector from the vector and segment stats alone,
+ * without reading any segment data. Used by the QueryPlanner to order the terms of an intersection.
+ */
+public interface ISelectivityEstimator<T extends IScalar> {
+    /**
+     * Estimates how many elements of the vector the term would match with the given parameters and how many segments
+     * it would have to read to find out
+     * @param params the parameters the term would be applied with
+     * @param vector the vector it would be applied to
+     * @return the estimate
+     * @throws DataSpaceException
+     */
+    public SelectivityEstimate estimateSelectivity(IQueryParameterList params, IVector<T> vector) throws DataSpaceException;
+}
@@ -81,6 +81,23 @@ public interface IVector<T extends IScalar> extends IDataElement {
 
     int countUnique(IBitMap filter) throws DataSpaceException;
 
+    /**
+     * Estimated quantiles of the selected elements of a numeric vector, from the quantile sketches of its segments
+     * @param selection the selected elements, or null for the entire vector
+     * @return
+     * @throws DataSpaceException if the vector is not numeric
+     */
+    public IQuantiles getQuantiles(IBitMap selection) throws DataSpaceException;
+
+    /**
+     * An estimate of an arbitrary percentile of the selected elements of a numeric vector (see getQuantiles())
+     * @param percentile in the range 0..100
+     * @param selection the selected elements, or null for the entire vector
+     * @return the percentile, or NaN if nothing is selected
+     * @throws DataSpaceException if the vector is not numeric
+     */
+    public double getPercentile(double percentile, IBitMap selection) throws DataSpaceException;
+
     /**
      * Fast transform of the vector to a list
      * @return the contents of the vector as a simple list (careful - this could be very large)
@@ -18,6 +18,7 @@
 package com.moscona.dataSpace;
 
 import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.util.QuantileSketch;
 
 import java.util.Arrays;
 
@@ -68,6 +69,30 @@ public class Quantiles implements IQuantiles {
         }
     }
 
+    /**
+     * Creates the quantiles from a quantile sketch (see QuantileSketch). They are estimated unless the sketch still
+     * holds all of its values
+     * @param sketch
+     * @throws DataSpaceException
+     */
+    public Quantiles(QuantileSketch sketch) throws DataSpaceException {
+        this();
+        if (sketch.isEmpty()) {
+            return;
+        }
+
+        double[] fractions = new double[MARKER_COUNT];
+        for (int i=0; i<MARKER_COUNT; i++) {
+            fractions[i] = ((double)i)/(MARKER_COUNT-1);
+        }
+        double[] values = sketch.quantiles(fractions);
+        for (int i=0; i<MARKER_COUNT; i++) {
+            setPercentile(i*5, values[i]);
+        }
+        setForm(sketch.isExact() ? Form.FIVE_PERCENTILE_BINS : Form.ESTIMATED_FIVE_PERCENTILE_BINS);
+        numObservations = sketch.getCount();
+    }
+
     @Override
     public Double getPercentile(int percentile) throws DataSpaceException {
         validatePercentile(percentile);
@@ -102,6 +127,7 @@ public class Quantiles implements IQuantiles {
         this.form = form;
     }
 
+    // The incremental estimation below is only used for vectors whose segments were sealed without quantile sketches (see DataSpace.setQuantileSketchSize())
     // HOLD (fix before release)  this is a very dumb estimation algorithm and breaks badly under well defined conditions. Knowing that this is temporary, the implementation is rather sloppy. Before production we must fix this. See IT-464
 
     public void startEstimation(int segmentSize) {
@@ -23,6 +23,7 @@ import com.moscona.dataSpace.impl.*;
 import com.moscona.dataSpace.impl.query.*;
 import com.moscona.dataSpace.impl.segment.AbstractVectorSegment;
 import com.moscona.dataSpace.persistence.IMemoryManager;
+import com.moscona.dataSpace.persistence.IMemoryManagerStats;
 import com.moscona.exceptions.InvalidStateException;
 import com.moscona.math.statistics.RangeHistogram;
 
@@ -567,7 +568,7 @@ public class QueryHelper {
     public static class QueryStateDump extends QueryDebugger {
         int swapInCounter = 0;
         long swapInTime = 0L;
-        SimpleMemoryManager memoryManager = null;
+        IMemoryManagerStats memoryManager = null;
 
         public QueryStateDump(long minTimeToActivate) {
             super(minTimeToActivate);
@@ -575,7 +576,7 @@ public class QueryHelper {
 
         @Override
         protected void prep(IVector vector) {
-            memoryManager = (SimpleMemoryManager) vector.getDataSpace().getMemoryManager();
+            memoryManager = (IMemoryManagerStats) vector.getDataSpace().getMemoryManager();
             swapInCounter = memoryManager.getTotalSwapInCounter();
             swapInTime = memoryManager.getTotalSwapInTime();
         }
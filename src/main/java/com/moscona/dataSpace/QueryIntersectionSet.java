@@ -69,7 +69,8 @@ public class QueryIntersectionSet implements IQueryIntersectionSet {
         queryState.setCumulativeResult(cumulativeResult);
         queryState.setContextIsIntersectionGroup(true);
 
-        IBitMap result = terms.get(i).getTerm().apply(terms.get(i).getParams(), vector, queryState);
+        // the cumulative result is pushed down, so the returned result already is the intersection with it
+        IBitMap result = terms.get(i).getTerm().apply(terms.get(i).getParams(), vector, queryState, cumulativeResult);
         terms.get(i).setLastResult(result);
         this.queryState = queryState;
         return result;
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The execution order chosen by the QueryPlanner for an intersection set, with the estimate for each term. The actual
+ * cardinality of each step is filled in as the step completes (see QueryState.markCompletedVectorEvaluation()). Note
+ * that the actual cardinality is that of the term as evaluated inside the intersection, so segments that were skipped
+ * because earlier terms eliminated them count as not matching. Steps that did not run (because the intersection
+ * became empty) keep an actual cardinality of -1.
+ */
+public class QueryPlan {
+    private final ArrayList<Step> steps = new ArrayList<Step>();
+
+    public QueryPlan add(Step step) {
+        steps.add(step);
+        return this;
+    }
+
+    public int size() {
+        return steps.size();
+    }
+
+    public Step getStep(int i) {
+        return steps.get(i);
+    }
+
+    public List<Step> getSteps() {
+        return new ArrayList<Step>(steps);
+    }
+
+    /**
+     * @return the term indexes in execution order
+     */
+    public ArrayList<Integer> getExecutionOrder() {
+        ArrayList<Integer> retval = new ArrayList<Integer>(steps.size());
+        for (Step step: steps) {
+            retval.add(step.getTermIndex());
+        }
+        return retval;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder retval = new StringBuilder();
+        for (int i=0; i<steps.size(); i++) {
+            if (i>0) {
+                retval.append("\n");
+            }
+            retval.append(i+1).append(". ").append(steps.get(i));
+        }
+        return retval.toString();
+    }
+
+    public static class Step {
+        private final int termIndex;
+        private final String description;
+        private final SelectivityEstimate estimate;
+        private final double cost;
+        private volatile int actualCardinality = -1;
+
+        /**
+         * @param termIndex the index of the term in the intersection set
+         * @param description a human readable form of the term
+         * @param estimate the estimate for the term, null if the term could not be estimated
+         * @param cost the estimated cost of the term in segment reads
+         */
+        public Step(int termIndex, String description, SelectivityEstimate estimate, double cost) {
+            this.termIndex = termIndex;
+            this.description = description;
+            this.estimate = estimate;
+            this.cost = cost;
+        }
+
+        public int getTermIndex() {
+            return termIndex;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public SelectivityEstimate getEstimate() {
+            return estimate;
+        }
+
+        /**
+         * @return the estimated cardinality or -1 if the term could not be estimated
+         */
+        public int getEstimatedCardinality() {
+            return estimate==null ? -1 : estimate.getEstimatedCardinality();
+        }
+
+        public double getCost() {
+            return cost;
+        }
+
+        public int getActualCardinality() {
+            return actualCardinality;
+        }
+
+        public void setActualCardinality(int actualCardinality) {
+            this.actualCardinality = actualCardinality;
+        }
+
+        @Override
+        public String toString() {
+            return description+" estimated: "+(estimate==null ? "unknown" : estimate.toString())+
+                    " actual: "+(actualCardinality<0 ? "not evaluated" : Integer.toString(actualCardinality));
+        }
+    }
+}
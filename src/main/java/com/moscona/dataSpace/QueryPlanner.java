@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace;
+
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.impl.AbstractVector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Chooses the execution order of the terms of an intersection set. Each term that implements ISelectivityEstimator is
+ * evaluated on the vector and segment stats only (no IO), giving its selectivity and the number of segments it would
+ * actually have to read. The terms are then ordered by rank = (selectivity-1)/cost, the classic ordering for
+ * conjunctive predicates: cheap terms that eliminate a lot go first, so that the later (expensive) terms can skip the
+ * segments that were already eliminated. Terms that cannot be estimated are assumed to read every segment and to
+ * match UNKNOWN_SELECTIVITY of the rows. Ties keep the order in which the terms were added.
+ */
+public class QueryPlanner {
+    public static final double UNKNOWN_SELECTIVITY = 0.5;
+    /**
+     * The cost of deciding a segment from its stats alone, relative to reading a resident segment
+     */
+    public static final double STATS_COST = 0.01;
+    /**
+     * The cost of reading a resident segment
+     */
+    public static final double READ_COST = 1.0;
+    /**
+     * The additional cost of swapping a segment in before reading it
+     */
+    public static final double SWAP_IN_COST = 10.0;
+
+    /**
+     * Plans the execution of the intersection set on the data frame's columns
+     * @param dataFrame
+     * @param query
+     * @return the plan
+     * @throws DataSpaceException if a term cannot be estimated because of bad parameters or a missing column
+     */
+    @SuppressWarnings({"unchecked"})
+    public QueryPlan plan(DataFrame dataFrame, IQueryIntersectionSet query) throws DataSpaceException {
+        ArrayList<RankedStep> ranked = new ArrayList<RankedStep>(query.size());
+        for (int i=0; i<query.size(); i++) {
+            IQueryTerm term = query.getTerm(i);
+            IQueryParameterList params = query.getParameterList(i);
+            IVector vector = dataFrame.get(query.getColumnName(i));
+
+            SelectivityEstimate estimate = null;
+            double selectivity = UNKNOWN_SELECTIVITY;
+            double cost = ((AbstractVector) vector).getSegmentCount() * (STATS_COST + READ_COST);
+            if (ISelectivityEstimator.class.isAssignableFrom(term.getClass())) {
+                estimate = ((ISelectivityEstimator) term).estimateSelectivity(params, vector);
+                selectivity = estimate.getSelectivity();
+                cost = costOf(estimate);
+            }
+
+            // an estimator has parsed the parameters by now, so the term can describe itself
+            String description = query.getColumnName(i)+" "+(estimate==null ? term.getClass().getSimpleName() : term.toString(params));
+            ranked.add(new RankedStep(new QueryPlan.Step(i, description, estimate, cost), selectivity));
+        }
+
+        Collections.sort(ranked, new Comparator<RankedStep>() { // stable: ties keep the order of addition
+            @Override
+            public int compare(RankedStep o1, RankedStep o2) {
+                return Double.compare(o1.rank, o2.rank);
+            }
+        });
+
+        QueryPlan plan = new QueryPlan();
+        for (RankedStep step: ranked) {
+            plan.add(step.step);
+        }
+        return plan;
+    }
+
+    /**
+     * The estimated cost of evaluating the term, in units of resident segment reads
+     * @param estimate
+     * @return
+     */
+    protected double costOf(SelectivityEstimate estimate) {
+        return estimate.getSegmentCount() * STATS_COST +
+                estimate.getSegmentsToRead() * READ_COST +
+                estimate.getSegmentsToSwapIn() * SWAP_IN_COST;
+    }
+
+    private static class RankedStep {
+        private final QueryPlan.Step step;
+        private final double rank;
+
+        private RankedStep(QueryPlan.Step step, double selectivity) {
+            this.step = step;
+            double cost = Math.max(step.getCost(), STATS_COST); // an empty vector costs next to nothing, but not zero
+            rank = (selectivity - 1.0) / cost;
+        }
+    }
+}
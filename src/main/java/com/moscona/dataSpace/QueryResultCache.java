@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace;
+
+import com.moscona.dataSpace.persistence.IMemoryManager;
+import com.moscona.dataSpace.persistence.IMemoryManagerStats;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of query term results. Sealed vectors never change, so the result of applying a term to a vector is
+ * fully determined by the vector, the term class, its (canonical) parameters and the resolution the term was
+ * evaluated with. Entries are evicted least recently used first whenever the cache would exceed its budget, which is
+ * a fraction of the memory manager's budget and also gives way to the memory manager: the cache never holds more
+ * than what the managed segments leave free.
+ * Results are copied on the way in and on the way out, so callers are free to modify what they get.
+ * Entries of a vector are invalidated when it is closed or removed from its name space. The cache only holds its
+ * vectors weakly, so the entries of a vector that was dropped without being closed go away once it is collected.
+ */
+public class QueryResultCache {
+    /**
+     * The fraction of the memory manager's budget that the cache may use by default
+     */
+    public static final double DEFAULT_BUDGET_FRACTION = 0.05;
+    /**
+     * The budget when there is no memory manager to take it from
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L*1024L*1024L;
+
+    private final IMemoryManager memoryManager;
+    private long maxBytes;
+    private long usedBytes = 0L;
+    private final LinkedHashMap<Key,IBitMap> entries; // in access order
+    private final ReferenceQueue<IVector> collectedVectors = new ReferenceQueue<IVector>();
+    private int hitCount = 0;
+    private int missCount = 0;
+    private int evictionCount = 0;
+
+    public QueryResultCache(IMemoryManager memoryManager) {
+        this.memoryManager = memoryManager;
+        maxBytes = memoryManager == null ? DEFAULT_MAX_BYTES : (long)(memoryManager.getMaxSize() * DEFAULT_BUDGET_FRACTION);
+        entries = new LinkedHashMap<Key,IBitMap>(16, 0.75f, true);
+    }
+
+    /**
+     * Looks up a result
+     * @return a copy of the cached result, or null if it is not cached
+     */
+    public synchronized IBitMap get(IVector vector, Class termClass, String canonicalParameters, boolean useResolution, double resolution) {
+        expungeCollectedVectors();
+        IBitMap cached = entries.get(new Key(vector, null, termClass, canonicalParameters, useResolution, resolution));
+        if (cached == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return cached.copy();
+    }
+
+    /**
+     * Caches a copy of the result, evicting the least recently used entries as needed. Results that are too big for
+     * the budget on their own are not cached.
+     */
+    public synchronized void put(IVector vector, Class termClass, String canonicalParameters, boolean useResolution, double resolution, IBitMap result) {
+        expungeCollectedVectors();
+        Key key = new Key(vector, collectedVectors, termClass, canonicalParameters, useResolution, resolution);
+        remove(key);
+        long size = result.sizeInBytes();
+        if (!makeRoomFor(size)) {
+            return;
+        }
+        entries.put(key, result.copy());
+        usedBytes += size;
+    }
+
+    /**
+     * Drops all the cached results of the vector
+     * @param vector
+     */
+    public synchronized void invalidate(IVector vector) {
+        expungeCollectedVectors();
+        Iterator<Map.Entry<Key,IBitMap>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key,IBitMap> entry = iterator.next();
+            if (entry.getKey().vector.get() == vector) {
+                usedBytes -= entry.getValue().sizeInBytes();
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0L;
+    }
+
+    /**
+     * Drops the entries of vectors that were garbage collected
+     */
+    private void expungeCollectedVectors() {
+        Reference<? extends IVector> collected;
+        while ((collected = collectedVectors.poll()) != null) {
+            remove(((VectorReference) collected).key);
+        }
+    }
+
+    private void remove(Key key) {
+        IBitMap previous = entries.remove(key);
+        if (previous != null) {
+            usedBytes -= previous.sizeInBytes();
+        }
+    }
+
+    /**
+     * Evicts least recently used entries until size more bytes fit in the budget
+     * @return false if it cannot fit even in an empty cache
+     */
+    private boolean makeRoomFor(long size) {
+        long budget = getEffectiveMaxBytes();
+        if (size > budget) {
+            return false;
+        }
+        Iterator<Map.Entry<Key,IBitMap>> iterator = entries.entrySet().iterator();
+        while (usedBytes + size > budget && iterator.hasNext()) {
+            usedBytes -= iterator.next().getValue().sizeInBytes();
+            iterator.remove();
+            evictionCount++;
+        }
+        return true;
+    }
+
+    /**
+     * The cache's own budget, reduced to whatever the memory manager has left if that is less
+     * @return
+     */
+    public synchronized long getEffectiveMaxBytes() {
+        if (memoryManager != null && IMemoryManagerStats.class.isAssignableFrom(memoryManager.getClass())) {
+            long free = memoryManager.getMaxSize() - ((IMemoryManagerStats)memoryManager).getTotalUtilization();
+            return Math.max(0L, Math.min(maxBytes, free));
+        }
+        return maxBytes;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the cache's own budget, evicting entries if it shrank. 0 disables the cache
+     * @param maxBytes
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(0L, maxBytes);
+        makeRoomFor(0L);
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int size() {
+        expungeCollectedVectors();
+        return entries.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A weak reference to the vector of a key, which knows its key so that the entry can be dropped once the vector is
+     * collected
+     */
+    private static final class VectorReference extends WeakReference<IVector> {
+        private final Key key;
+
+        private VectorReference(IVector vector, ReferenceQueue<IVector> queue, Key key) {
+            super(vector, queue);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Vectors are compared by identity: two equal looking vectors are still different data. A key whose vector was
+     * collected is only equal to itself
+     */
+    private static final class Key {
+        private final VectorReference vector;
+        private final int vectorHash;
+        private final Class termClass;
+        private final String parameters;
+        private final boolean useResolution;
+        private final double resolution;
+
+        /**
+         * @param queue where the vector's reference is enqueued once it is collected, null for keys that are only used
+         *              to look up entries
+         */
+        private Key(IVector vector, ReferenceQueue<IVector> queue, Class termClass, String parameters, boolean useResolution, double resolution) {
+            this.vector = new VectorReference(vector, queue, this);
+            this.vectorHash = System.identityHashCode(vector);
+            this.termClass = termClass;
+            this.parameters = parameters;
+            this.useResolution = useResolution;
+            this.resolution = useResolution ? resolution : 0.0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key other = (Key) o;
+            IVector referent = vector.get();
+            return referent != null && referent == other.vector.get() && termClass == other.termClass && useResolution == other.useResolution &&
+                    Double.compare(resolution, other.resolution) == 0 && parameters.equals(other.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            int retval = vectorHash;
+            retval = 31 * retval + termClass.hashCode();
+            retval = 31 * retval + parameters.hashCode();
+            retval = 31 * retval + (useResolution ? 1 : 0);
+            long bits = Double.doubleToLongBits(resolution);
+            return 31 * retval + (int)(bits ^ (bits >>> 32));
+        }
+    }
+}
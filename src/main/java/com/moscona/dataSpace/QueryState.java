@@ -20,38 +20,49 @@ package com.moscona.dataSpace;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created: 12/17/10 4:22 PM
  * By: Arnon Moscona
+ * Thread safe: segments of a vector may be evaluated concurrently (see AbstractQueryTerm.setExecutor()). The "current
+ * segment" is tracked per thread, as each worker evaluates one segment at a time.
  */
 public class QueryState implements IQueryState {
-    private long vectorEvaluationStartTs=-1L;
+    private volatile long vectorEvaluationStartTs=-1L;
     private long creationTs;
-    private long totalTime = 0L;
-
-    private ArrayList<SegmentEvaluation> segmentEvaluations;
-    private IBitMap cumulativeResult=null;
-    private Throwable exception=null;
-    private long timeToException=-1;
-    private boolean isComplete=false;
-    private SegmentEvaluation currentSegment = null;
-    private int quickSegmentEvalCount =0;
-    private int bulkSegmentEvalCount =0;
-    private int slowSegmentEvalCount =0;
-    private int uniformResultQuickApplyCount=0;
-    private int segmentNumberWhereExceptionHappened=-1;
-    private boolean queryStateBugDetected = false;
-    private String queryStateBug = null;
-    private boolean inContextOfIntersectionGroup = false;
-    private int skippedSegments = 0;
+    private volatile long totalTime = 0L;
+
+    private final ArrayList<SegmentEvaluation> segmentEvaluations;
+    private volatile IBitMap cumulativeResult=null;
+    private volatile Throwable exception=null;
+    private volatile long timeToException=-1;
+    private volatile boolean isComplete=false;
+    private final ThreadLocal<SegmentEvaluation> currentSegment = new ThreadLocal<SegmentEvaluation>();
+    private final AtomicInteger quickSegmentEvalCount = new AtomicInteger(0);
+    private final AtomicInteger bulkSegmentEvalCount = new AtomicInteger(0);
+    private final AtomicInteger slowSegmentEvalCount = new AtomicInteger(0);
+    private final AtomicInteger uniformResultQuickApplyCount = new AtomicInteger(0);
+    private volatile int segmentNumberWhereExceptionHappened=-1;
+    private volatile boolean queryStateBugDetected = false;
+    private volatile String queryStateBug = null;
+    private volatile boolean inContextOfIntersectionGroup = false;
+    private final AtomicInteger skippedSegments = new AtomicInteger(0);
+    private final AtomicInteger resolvedBlocks = new AtomicInteger(0);
+    private final AtomicInteger segmentBinarySearches = new AtomicInteger(0);
+    private final AtomicInteger indexLookups = new AtomicInteger(0);
+    private final AtomicInteger resultCacheHits = new AtomicInteger(0);
+    private final AtomicInteger resultCacheMisses = new AtomicInteger(0);
+    private volatile int resultCardinality = -1;
+    private volatile QueryPlan queryPlan = null;
+    private volatile int queryPlanStep = -1;
 
     public QueryState() {
         creationTs = System.currentTimeMillis();
         segmentEvaluations = new ArrayList<SegmentEvaluation>();
     }
 
-    private void bug(String what) {
+    private synchronized void bug(String what) {
         queryStateBugDetected = true;
         queryStateBug = what;
     }
@@ -60,7 +71,7 @@ public class QueryState implements IQueryState {
      * Marks the time when a vector evaluation started
      */
     @Override
-    public void markVectorEvaluationStart() {
+    public synchronized void markVectorEvaluationStart() {
         if (vectorEvaluationStartTs<0) {
             vectorEvaluationStartTs = System.currentTimeMillis();
         }
@@ -73,8 +84,11 @@ public class QueryState implements IQueryState {
      */
     @Override
     public void markSegmentEvaluationStart(int segmentNumber) {
-        currentSegment = new SegmentEvaluation(segmentNumber);
-        segmentEvaluations.add(currentSegment);
+        SegmentEvaluation segment = new SegmentEvaluation(segmentNumber);
+        currentSegment.set(segment);
+        synchronized (segmentEvaluations) {
+            segmentEvaluations.add(segment);
+        }
     }
 
     /**
@@ -85,9 +99,10 @@ public class QueryState implements IQueryState {
     @Override
     public void incQuickSegmentEvals(boolean result) {
         markVectorEvaluationStart();
-        if (currentSegment!=null) {
-            currentSegment.setQuickEval(true);
-            quickSegmentEvalCount++;
+        SegmentEvaluation segment = currentSegment.get();
+        if (segment!=null) {
+            segment.setQuickEval(true);
+            quickSegmentEvalCount.incrementAndGet();
         }
         else {
             bug("incQuickSegmentEvals() called and there's no current segment");
@@ -100,9 +115,10 @@ public class QueryState implements IQueryState {
     @Override
     public void incBulkSegmentEvals() {
         markVectorEvaluationStart();
-        if (currentSegment!=null) {
-            currentSegment.setBulkEval(true);
-            bulkSegmentEvalCount++;
+        SegmentEvaluation segment = currentSegment.get();
+        if (segment!=null) {
+            segment.setBulkEval(true);
+            bulkSegmentEvalCount.incrementAndGet();
         }
         else {
             bug("incBulkSegmentEvals() called and there's no current segment");
@@ -115,9 +131,10 @@ public class QueryState implements IQueryState {
     @Override
     public void incSlowSegmentEvals() {
         markVectorEvaluationStart();
-        if (currentSegment!=null) {
-            currentSegment.setSlowEval(true);
-            slowSegmentEvalCount++;
+        SegmentEvaluation segment = currentSegment.get();
+        if (segment!=null) {
+            segment.setSlowEval(true);
+            slowSegmentEvalCount.incrementAndGet();
         }
         else {
             bug("incSlowSegmentEvals() called and there's no current segment");
@@ -134,16 +151,17 @@ public class QueryState implements IQueryState {
     public void signalSegmentException(DataSpaceException e, int segmentNumber) {
         markException(e);
         markTotalTime(); // presumably done now
-        if (currentSegment!=null) {
-            segmentNumberWhereExceptionHappened = currentSegment.segmentNumber;
-            currentSegment.setException(e);
+        SegmentEvaluation segment = currentSegment.get();
+        if (segment!=null) {
+            segmentNumberWhereExceptionHappened = segment.segmentNumber;
+            segment.setException(e);
         }
         else {
             bug("signalSegmentException() called and there's no current segment");
         }
     }
 
-    private void markException(DataSpaceException e) {
+    private synchronized void markException(DataSpaceException e) {
         exception = e;
         timeToException = System.currentTimeMillis() - vectorEvaluationStartTs;
     }
@@ -156,16 +174,17 @@ public class QueryState implements IQueryState {
      * informs of a successful completion of segment evaluation
      *
      * @param segmentNumber the segment number
-     * @param cardinality   the cardinality of the progressive result after the segment completed
+     * @param cardinality   the number of matches in the segment
      */
     @Override
     public void incCompletedSegments(int segmentNumber, int cardinality) {
-        if (currentSegment!=null) {
-            if (segmentNumber==currentSegment.segmentNumber) {
-                currentSegment.markComplete(cardinality);
+        SegmentEvaluation segment = currentSegment.get();
+        if (segment!=null) {
+            if (segmentNumber==segment.segmentNumber) {
+                segment.markComplete(cardinality);
             }
             else {
-                bug("incCompletedSegments() called for segment #"+segmentNumber+" but current segment is #"+currentSegment.segmentNumber);
+                bug("incCompletedSegments() called for segment #"+segmentNumber+" but current segment is #"+segment.segmentNumber);
             }
         }
         else {
@@ -181,6 +200,10 @@ public class QueryState implements IQueryState {
     @Override
     public void markCompletedVectorEvaluation(int cardinality) {
         isComplete = true;
+        resultCardinality = cardinality;
+        if (queryPlan != null) {
+            queryPlan.getStep(queryPlanStep).setActualCardinality(cardinality);
+        }
         if (vectorEvaluationStartTs>0) {
             markTotalTime();
         }
@@ -205,9 +228,10 @@ public class QueryState implements IQueryState {
      */
     @Override
     public void incQuickApplyElements() {
-        uniformResultQuickApplyCount++;
-        if (currentSegment!=null) {
-            currentSegment.setQuickApply(true);
+        uniformResultQuickApplyCount.incrementAndGet();
+        SegmentEvaluation segment = currentSegment.get();
+        if (segment!=null) {
+            segment.setQuickApply(true);
         }
         else {
             bug("incQuickApplyElements() called and there's no current segment");
@@ -221,12 +245,81 @@ public class QueryState implements IQueryState {
 
     @Override
     public void incSkippedSegments() {
-        skippedSegments++;
+        skippedSegments.incrementAndGet();
     }
 
     @Override
     public int getSkippedSegments() {
-        return skippedSegments;
+        return skippedSegments.get();
+    }
+
+    @Override
+    public void incResolvedBlocks(int blocks) {
+        resolvedBlocks.addAndGet(blocks);
+    }
+
+    public int getResolvedBlockCount() {
+        return resolvedBlocks.get();
+    }
+
+    @Override
+    public void incSegmentBinarySearches() {
+        segmentBinarySearches.incrementAndGet();
+    }
+
+    public int getSegmentBinarySearchCount() {
+        return segmentBinarySearches.get();
+    }
+
+    @Override
+    public void incIndexLookups() {
+        indexLookups.incrementAndGet();
+    }
+
+    public int getIndexLookupCount() {
+        return indexLookups.get();
+    }
+
+    @Override
+    public void incResultCacheHits() {
+        resultCacheHits.incrementAndGet();
+    }
+
+    @Override
+    public void incResultCacheMisses() {
+        resultCacheMisses.incrementAndGet();
+    }
+
+    public int getResultCacheHitCount() {
+        return resultCacheHits.get();
+    }
+
+    public int getResultCacheMissCount() {
+        return resultCacheMisses.get();
+    }
+
+    @Override
+    public void setQueryPlan(QueryPlan plan, int step) {
+        queryPlan = plan;
+        queryPlanStep = step;
+    }
+
+    /**
+     * @return the plan of the intersection this evaluation was a step of, null if it was not part of a planned intersection
+     */
+    public QueryPlan getQueryPlan() {
+        return queryPlan;
+    }
+
+    public int getQueryPlanStep() {
+        return queryPlanStep;
+    }
+
+    /**
+     * @return the cardinality of the completed vector evaluation, -1 if not completed
+     */
+    public int getResultCardinality() {
+        return resultCardinality;
     }
 
     /**
@@ -240,7 +333,7 @@ public class QueryState implements IQueryState {
     }
 
     public int getBulkSegmentEvalCount() {
-        return bulkSegmentEvalCount;
+        return bulkSegmentEvalCount.get();
     }
 
     public long getCreationTs() {
@@ -272,11 +365,13 @@ public class QueryState implements IQueryState {
     }
 
     public int getQuickSegmentEvalCount() {
-        return quickSegmentEvalCount;
+        return quickSegmentEvalCount.get();
     }
 
     public ArrayList<SegmentEvaluation> getSegmentEvaluations() {
-        return segmentEvaluations;
+        synchronized (segmentEvaluations) {
+            return new ArrayList<SegmentEvaluation>(segmentEvaluations);
+        }
     }
 
     public int getSegmentNumberWhereExceptionHappened() {
@@ -284,7 +379,7 @@ public class QueryState implements IQueryState {
     }
 
     public int getSlowSegmentEvalCount() {
-        return slowSegmentEvalCount;
+        return slowSegmentEvalCount.get();
     }
 
     public long getTimeToException() {
@@ -296,7 +391,7 @@ public class QueryState implements IQueryState {
     }
 
     public int getUniformResultQuickApplyCount() {
-        return uniformResultQuickApplyCount;
+        return uniformResultQuickApplyCount.get();
     }
 
     public long getVectorEvaluationStartTs() {
@@ -309,11 +404,19 @@ public class QueryState implements IQueryState {
         System.out.println("bulk evaluations: "+bulkSegmentEvalCount);
         System.out.println("quick evaluations: "+quickSegmentEvalCount);
         System.out.println("skipped segments: "+skippedSegments);
+        System.out.println("blocks resolved by zone maps: "+resolvedBlocks);
+        System.out.println("binary searches in sorted segments: "+segmentBinarySearches);
+        System.out.println("bitmap index lookups: "+indexLookups);
         System.out.println("slow evaluations: "+slowSegmentEvalCount);
         System.out.println("uniform result quick applies: "+uniformResultQuickApplyCount);
+        System.out.println("result cache hits: "+resultCacheHits+" misses: "+resultCacheMisses);
+        if (queryPlan != null) {
+            System.out.println("query plan (this is step "+(queryPlanStep+1)+"):");
+            System.out.println(queryPlan);
+        }
         if (inFullDetail) {
             System.out.println("segment evals:");
-            for (SegmentEvaluation eval: segmentEvaluations) {
+            for (SegmentEvaluation eval: getSegmentEvaluations()) {
                 System.out.println("  Segment eval -----------------------------------------------");
                 System.out.println("  segment No: "+eval.getSegmentNumber());
                 System.out.println("  total time: "+eval.getTotalTime());
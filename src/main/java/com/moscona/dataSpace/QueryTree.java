@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A boolean combination of query terms on the columns of a data frame: AND, OR and NOT nodes over {term, parameters,
+ * column} leaves. Unlike IQueryIntersectionSet, which is a flat AND, trees can express any boolean query in a single
+ * select, so that a column that appears in several branches is scanned once. See DataFrame.select(QueryTree) and
+ * QueryTreeEvaluator.
+ * Trees are immutable once built.
+ */
+public abstract class QueryTree {
+    public enum Operator {TERM, AND, OR, NOT}
+
+    private final Operator operator;
+
+    protected QueryTree(Operator operator) {
+        this.operator = operator;
+    }
+
+    public static Term term(IQueryTerm term, IQueryParameterList parameters, String columnName) {
+        return new Term(term, parameters, columnName);
+    }
+
+    public static QueryTree and(QueryTree... children) {
+        return new Node(Operator.AND, children);
+    }
+
+    public static QueryTree or(QueryTree... children) {
+        return new Node(Operator.OR, children);
+    }
+
+    public static QueryTree not(QueryTree child) {
+        return new Node(Operator.NOT, child);
+    }
+
+    /**
+     * Converts a flat intersection set into the equivalent AND tree
+     * @param query
+     * @return
+     */
+    public static QueryTree of(IQueryIntersectionSet query) {
+        QueryTree[] terms = new QueryTree[query.size()];
+        for (int i=0; i<query.size(); i++) {
+            terms[i] = term(query.getTerm(i), query.getParameterList(i), query.getColumnName(i));
+        }
+        return terms.length == 1 ? terms[0] : and(terms);
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * @return the child nodes, empty for a term
+     */
+    public abstract List<QueryTree> getChildren();
+
+    /**
+     * @return all the term leaves of the tree, left to right (a term that appears in several places is listed each time)
+     */
+    public List<Term> getTerms() {
+        ArrayList<Term> retval = new ArrayList<Term>();
+        collectTerms(retval);
+        return retval;
+    }
+
+    protected void collectTerms(List<Term> terms) {
+        for (QueryTree child: getChildren()) {
+            child.collectTerms(terms);
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    public static class Term extends QueryTree {
+        private final IQueryTerm term;
+        private final IQueryParameterList parameters;
+        private final String columnName;
+
+        protected Term(IQueryTerm term, IQueryParameterList parameters, String columnName) {
+            super(Operator.TERM);
+            this.term = term;
+            this.parameters = parameters;
+            this.columnName = columnName;
+        }
+
+        public IQueryTerm getTerm() {
+            return term;
+        }
+
+        public IQueryParameterList getParameters() {
+            return parameters;
+        }
+
+        public String getColumnName() {
+            return columnName;
+        }
+
+        @Override
+        public List<QueryTree> getChildren() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        protected void collectTerms(List<Term> terms) {
+            terms.add(this);
+        }
+
+        @Override
+        public String toString() {
+            return columnName+" "+term.getClass().getSimpleName()+parameters;
+        }
+    }
+
+    public static class Node extends QueryTree {
+        private final List<QueryTree> children;
+
+        protected Node(Operator operator, QueryTree... children) {
+            super(operator);
+            if (children.length == 0) {
+                throw new IllegalArgumentException(operator+" needs at least one child");
+            }
+            if (operator == Operator.NOT && children.length != 1) {
+                throw new IllegalArgumentException("NOT takes exactly one child, got "+children.length);
+            }
+            this.children = Collections.unmodifiableList(new ArrayList<QueryTree>(Arrays.asList(children)));
+        }
+
+        @Override
+        public List<QueryTree> getChildren() {
+            return children;
+        }
+
+        @Override
+        public String toString() {
+            if (getOperator() == Operator.NOT) {
+                return "NOT ("+children.get(0)+")";
+            }
+            ArrayList<String> parts = new ArrayList<String>();
+            for (QueryTree child: children) {
+                parts.add(child.getOperator() == Operator.TERM ? child.toString() : "("+child+")");
+            }
+            return StringUtils.join(parts, " "+getOperator()+" ");
+        }
+    }
+}
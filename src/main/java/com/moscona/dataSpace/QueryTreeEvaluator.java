@@ -0,0 +1,626 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace;
+
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.impl.AbstractVector;
+import com.moscona.dataSpace.impl.query.support.AbstractQueryTerm;
+import com.moscona.dataSpace.impl.query.support.FusedSegmentScan;
+import com.moscona.dataSpace.util.CompressedBitMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Plans and evaluates a QueryTree on the columns of a data frame one segment at a time (all the columns of a data frame
+ * share the same segmentation).
+ * Planning:
+ * - identical terms (same column, term class and canonical parameters) are evaluated once per segment and the result
+ *   is shared by all the branches they appear in
+ * - the children of AND nodes are ordered by increasing estimated selectivity and those of OR nodes by decreasing
+ *   selectivity (see ISelectivityEstimator), so that each segment is narrowed down (or filled up) as early as possible
+ * Evaluation of each segment:
+ * - the terms are quick-evaluated on the segment stats and the results are propagated up the tree: an AND with a false
+ *   child is false, an OR with a true child is true, a NOT flips. Segments that are decided at the root are never read
+ * - otherwise the tree is evaluated top down with a mask of candidate rows: an AND child only looks at the rows that
+ *   passed the previous children, an OR child only at the rows that did not pass yet, and branches that the stats
+ *   decided are not descended into at all
+ * - a term requires its column's segment only if the zone map leaves some of it undecided. Once read, the segment is
+ *   held until the segment is done, so several terms on the same column share a single swap in
+ * - terms (or negated terms) on the same column under the same AND are fused into a single pass over the segment
+ *   (see FusedSegmentScan), unless they are shared with other branches
+ * Terms that are not AbstractQueryTerm subclasses cannot be evaluated a segment at a time. They are applied to the
+ * whole vector once and their result is sliced by segment (see RangeCoverage). So are the terms that apply() would
+ * answer for the whole vector at once - from a bitmap index, the result cache or a binary search of a sorted vector
+ * (see AbstractQueryTerm.SegmentMatcher.searchWholeVector()) - and such terms are not fused.
+ */
+public class QueryTreeEvaluator {
+    private final DataFrame dataFrame;
+    private int distinctTermCount = 0;
+
+    public QueryTreeEvaluator(DataFrame dataFrame) {
+        this.dataFrame = dataFrame;
+    }
+
+    /**
+     * Evaluates the tree
+     * @param tree
+     * @param queryState receives the segment level bookkeeping of the whole tree as if it were a single term
+     * @return the rows of the data frame that match the tree
+     * @throws DataSpaceException
+     */
+    public IBitMap evaluate(QueryTree tree, IQueryState queryState) throws DataSpaceException {
+        LinkedHashMap<String,Leaf> leaves = new LinkedHashMap<String,Leaf>();
+        Node root = compile(tree, leaves, queryState).fuse(); // fusing needs to know which leaves are shared, so after compiling
+        distinctTermCount = leaves.size();
+
+        int segmentCount = -1;
+        int size = -1;
+        for (Leaf leaf: leaves.values()) {
+            if (segmentCount < 0) {
+                segmentCount = leaf.segments.size();
+                size = leaf.vector.size();
+            }
+            else if (leaf.segments.size() != segmentCount || leaf.vector.size() != size) {
+                throw new DataSpaceException("The columns of a query tree must have the same size and segmentation. "+
+                        leaf.columnName+" has "+leaf.vector.size()+" elements in "+leaf.segments.size()+
+                        " segments, expected "+size+" in "+segmentCount);
+            }
+        }
+
+        queryState.markVectorEvaluationStart();
+        IBitMap result = new CompressedBitMap();
+        try {
+            Leaf first = leaves.values().iterator().next();
+            for (int segmentNumber=0; segmentNumber<segmentCount; segmentNumber++) {
+                queryState.markSegmentEvaluationStart(segmentNumber);
+                int length = first.segments.get(segmentNumber).getSegment().size();
+                SegmentContext context = new SegmentContext(segmentNumber, length, queryState);
+                try {
+                    Boolean quickResult = root.quick(context);
+                    if (quickResult != null) {
+                        result.addRun(quickResult, length);
+                        queryState.incQuickSegmentEvals(quickResult);
+                        queryState.incQuickApplyElements();
+                        continue; // decided by the stats alone
+                    }
+                    IBitMap segmentResult = root.evaluate(context, null);
+                    result.append(segmentResult);
+                    queryState.incCompletedSegments(segmentNumber, segmentResult.cardinality());
+                }
+                finally {
+                    context.releaseAll();
+                }
+            }
+            queryState.markCompletedVectorEvaluation(result.cardinality());
+        }
+        catch (DataSpaceException e) {
+            queryState.signalVectorException(e);
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of distinct terms in the last evaluated tree (identical terms are evaluated once)
+     */
+    public int getDistinctTermCount() {
+        return distinctTermCount;
+    }
+
+    private Node compile(QueryTree tree, HashMap<String,Leaf> leaves, IQueryState queryState) throws DataSpaceException {
+        switch (tree.getOperator()) {
+            case TERM:
+                QueryTree.Term term = (QueryTree.Term) tree;
+                String key = term.getColumnName().length()+":"+term.getColumnName()+term.getTerm().getClass().getName()+"|"+term.getParameters().toCanonicalString();
+                Leaf leaf = leaves.get(key);
+                if (leaf == null) {
+                    leaf = new Leaf(term, queryState);
+                    leaves.put(key, leaf);
+                }
+                leaf.useCount++;
+                return new LeafNode(leaf);
+            case NOT:
+                return new NotNode(compile(tree.getChildren().get(0), leaves, queryState));
+            case AND:
+            case OR:
+            default:
+                ArrayList<Node> children = new ArrayList<Node>();
+                for (QueryTree child: tree.getChildren()) {
+                    children.add(compile(child, leaves, queryState));
+                }
+                return tree.getOperator() == QueryTree.Operator.AND ? new AndNode(children) : new OrNode(children);
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A distinct {term, parameters, column} of the tree, prepared for segment by segment evaluation
+     */
+    private class Leaf {
+        private final String columnName;
+        private final IVector vector;
+        private final ArrayList<AbstractVector.SegmentInfo> segments = new ArrayList<AbstractVector.SegmentInfo>();
+        private final double selectivity;
+        private AbstractQueryTerm.SegmentMatcher matcher = null;
+        private RangeCoverage wholeVectorResult = null; // for terms answered for the whole vector at once
+        private int useCount = 0;
+
+        @SuppressWarnings({"unchecked"})
+        private Leaf(QueryTree.Term term, IQueryState queryState) throws DataSpaceException {
+            columnName = term.getColumnName();
+            vector = dataFrame.get(columnName);
+            IQueryTerm queryTerm = term.getTerm();
+            AbstractVector.SegmentIterator iterator = ((AbstractVector) vector).segmentIterator();
+            while (iterator.hasNext()) {
+                segments.add((AbstractVector.SegmentInfo) iterator.next());
+            }
+
+            if (ISelectivityEstimator.class.isAssignableFrom(queryTerm.getClass())) {
+                selectivity = ((ISelectivityEstimator) queryTerm).estimateSelectivity(term.getParameters(), vector).getSelectivity();
+            }
+            else {
+                selectivity = QueryPlanner.UNKNOWN_SELECTIVITY;
+            }
+
+            IBitMap result;
+            if (AbstractQueryTerm.class.isAssignableFrom(queryTerm.getClass())) {
+                matcher = ((AbstractQueryTerm) queryTerm).prepare(term.getParameters(), vector);
+                // the bitmap index, the result cache or a binary search answer for the whole vector at once
+                result = matcher.searchWholeVector(queryState);
+            }
+            else {
+                result = queryTerm.apply(term.getParameters(), vector, new QueryState());
+            }
+            if (result != null) {
+                matcher = null; // which also keeps the leaf out of fused scans
+                wholeVectorResult = result.getRangeCoverage(((AbstractVector) vector).getSegmentSize());
+            }
+        }
+
+        private Boolean quick(SegmentContext context) throws DataSpaceException {
+            if (matcher != null) {
+                return matcher.quickMatch(segments.get(context.segmentNumber), context.queryState);
+            }
+            switch (wholeVectorResult.getKind(context.segmentNumber)) {
+                case EMPTY:
+                    return false;
+                case FULL:
+                    return true;
+                case MIXED:
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * @param candidates the rows to evaluate, null for all
+         * @return the segment local result, false outside the candidates
+         */
+        private IBitMap match(SegmentContext context, IBitMap candidates) throws DataSpaceException {
+            if (matcher == null) {
+                return context.and(candidates, wholeVectorResult.getCandidates(context.segmentNumber));
+            }
+            AbstractVector.SegmentInfo segmentInfo = segments.get(context.segmentNumber);
+            // the matcher requires the segment itself, only if the zone map leaves some of it undecided
+            if (useCount == 1) {
+                IBitMap retval = matcher.match(segmentInfo, candidates, context.queryState);
+                context.holdIfLoaded(this, segmentInfo);
+                return retval;
+            }
+            // shared between branches: evaluate all the rows once, each use masks it with its own candidates
+            IBitMap all = context.sharedResults.get(this);
+            if (all == null) {
+                all = matcher.match(segmentInfo, null, context.queryState);
+                context.holdIfLoaded(this, segmentInfo);
+                context.sharedResults.put(this, all);
+            }
+            return context.and(candidates, all);
+        }
+    }
+
+    /**
+     * The per segment state of the evaluation
+     */
+    private static class SegmentContext {
+        private final int segmentNumber;
+        private final int length;
+        private final IQueryState queryState;
+        private final HashMap<Leaf,Boolean> quickResults = new HashMap<Leaf,Boolean>();
+        private final HashMap<Leaf,IBitMap> sharedResults = new HashMap<Leaf,IBitMap>();
+        private final HashMap<String,IVectorSegment> required = new HashMap<String,IVectorSegment>();
+
+        private SegmentContext(int segmentNumber, int length, IQueryState queryState) {
+            this.segmentNumber = segmentNumber;
+            this.length = length;
+            this.queryState = queryState;
+        }
+
+        private Boolean quick(Leaf leaf) throws DataSpaceException {
+            if (!quickResults.containsKey(leaf)) {
+                quickResults.put(leaf, leaf.quick(this));
+            }
+            return quickResults.get(leaf);
+        }
+
+        /**
+         * Keeps a segment that a term has just read in memory until the segment's evaluation is over, so that the
+         * other terms on the same column do not swap it in again. A segment that the term decided from its zone map
+         * alone was never swapped in, and stays as it is.
+         */
+        private void holdIfLoaded(Leaf leaf, AbstractVector.SegmentInfo segmentInfo) throws DataSpaceException {
+            if (!required.containsKey(leaf.columnName) && segmentInfo.isBackingArrayLoaded()) {
+                segmentInfo.getSegment().require();
+                required.put(leaf.columnName, segmentInfo.getSegment());
+            }
+        }
+
+        private void releaseAll() throws DataSpaceException {
+            for (IVectorSegment segment: required.values()) {
+                segment.release(true);
+            }
+            required.clear();
+        }
+
+        private IBitMap all(IBitMap candidates) {
+            return candidates != null ? candidates : new CompressedBitMap().addRun(true, length);
+        }
+
+        private IBitMap none() {
+            return new CompressedBitMap().addRun(false, length);
+        }
+
+        private IBitMap and(IBitMap candidates, IBitMap bits) {
+            return candidates == null ? bits : candidates.and(bits);
+        }
+
+        /**
+         * @return the candidates that are not in bits. Always ANDs with a bitmap built by appending, so that whatever
+         * not() leaves in the padding of the last word is masked out
+         */
+        private IBitMap andNot(IBitMap candidates, IBitMap bits) {
+            return all(candidates).and(bits.not());
+        }
+    }
+
+    private abstract static class Node {
+        /**
+         * @return the estimated fraction of the rows that match
+         */
+        abstract double selectivity();
+
+        /**
+         * @return true or false if the stats alone decide the whole segment, null if the data has to be read
+         */
+        abstract Boolean quick(SegmentContext context) throws DataSpaceException;
+
+        abstract IBitMap evaluateUndecided(SegmentContext context, IBitMap candidates) throws DataSpaceException;
+
+        /**
+         * @return the node with the terms of its AND descendants fused where possible (see FusedNode)
+         */
+        Node fuse() {
+            return this;
+        }
+
+        /**
+         * @return the leaf of a term or of a negated term that may take part in a fused scan, null otherwise
+         */
+        Leaf fusibleLeaf() {
+            return null;
+        }
+
+        /**
+         * @param candidates the rows that are still candidates, null for all of them
+         * @return the candidates that match the node
+         */
+        IBitMap evaluate(SegmentContext context, IBitMap candidates) throws DataSpaceException {
+            Boolean quickResult = quick(context);
+            if (quickResult != null) {
+                return quickResult ? context.all(candidates) : context.none();
+            }
+            return evaluateUndecided(context, candidates);
+        }
+    }
+
+    private static class LeafNode extends Node {
+        private final Leaf leaf;
+
+        private LeafNode(Leaf leaf) {
+            this.leaf = leaf;
+        }
+
+        @Override
+        double selectivity() {
+            return leaf.selectivity;
+        }
+
+        @Override
+        Boolean quick(SegmentContext context) throws DataSpaceException {
+            return context.quick(leaf);
+        }
+
+        @Override
+        IBitMap evaluateUndecided(SegmentContext context, IBitMap candidates) throws DataSpaceException {
+            return leaf.match(context, candidates);
+        }
+
+        @Override
+        Leaf fusibleLeaf() {
+            boolean hasPredicate = leaf.matcher != null &&
+                    (leaf.matcher.getLongPredicate() != null || leaf.matcher.getDoublePredicate() != null);
+            return hasPredicate && leaf.useCount == 1 ? leaf : null;
+        }
+    }
+
+    private static class NotNode extends Node {
+        private Node child;
+
+        private NotNode(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        double selectivity() {
+            return 1.0 - child.selectivity();
+        }
+
+        @Override
+        Boolean quick(SegmentContext context) throws DataSpaceException {
+            Boolean quickResult = child.quick(context);
+            return quickResult == null ? null : !quickResult;
+        }
+
+        @Override
+        IBitMap evaluateUndecided(SegmentContext context, IBitMap candidates) throws DataSpaceException {
+            return context.andNot(candidates, child.evaluate(context, candidates));
+        }
+
+        @Override
+        Node fuse() {
+            child = child.fuse();
+            return this;
+        }
+
+        @Override
+        Leaf fusibleLeaf() {
+            return child instanceof LeafNode ? child.fusibleLeaf() : null;
+        }
+    }
+
+    private static class AndNode extends Node {
+        private final ArrayList<Node> children;
+
+        private AndNode(ArrayList<Node> children) {
+            this.children = children;
+            sort();
+        }
+
+        private void sort() {
+            Collections.sort(children, new Comparator<Node>() { // most selective first (stable)
+                @Override
+                public int compare(Node o1, Node o2) {
+                    return Double.compare(o1.selectivity(), o2.selectivity());
+                }
+            });
+        }
+
+        @Override
+        Node fuse() {
+            ArrayList<Node> fused = new ArrayList<Node>();
+            LinkedHashMap<String,ArrayList<Node>> byColumn = new LinkedHashMap<String,ArrayList<Node>>();
+            for (Node child: children) {
+                Node fusedChild = child.fuse();
+                Leaf leaf = fusedChild.fusibleLeaf();
+                if (leaf == null) {
+                    fused.add(fusedChild);
+                    continue;
+                }
+                if (!byColumn.containsKey(leaf.columnName)) {
+                    byColumn.put(leaf.columnName, new ArrayList<Node>());
+                }
+                byColumn.get(leaf.columnName).add(fusedChild);
+            }
+            for (ArrayList<Node> sameColumn: byColumn.values()) {
+                fused.add(sameColumn.size() == 1 ? sameColumn.get(0) : new FusedNode(sameColumn));
+            }
+            if (fused.size() == 1) {
+                return fused.get(0);
+            }
+            children.clear();
+            children.addAll(fused);
+            sort();
+            return this;
+        }
+
+        @Override
+        double selectivity() {
+            double retval = 1.0;
+            for (Node child: children) {
+                retval *= child.selectivity();
+            }
+            return retval;
+        }
+
+        @Override
+        Boolean quick(SegmentContext context) throws DataSpaceException {
+            Boolean retval = true;
+            for (Node child: children) {
+                Boolean quickResult = child.quick(context);
+                if (quickResult == null) {
+                    retval = null;
+                }
+                else if (!quickResult) {
+                    return false;
+                }
+            }
+            return retval;
+        }
+
+        @Override
+        IBitMap evaluateUndecided(SegmentContext context, IBitMap candidates) throws DataSpaceException {
+            IBitMap retval = candidates;
+            for (Node child: children) {
+                retval = child.evaluate(context, retval);
+                if (retval.isEmpty()) {
+                    break; // nothing left for the other children to look at
+                }
+            }
+            return retval;
+        }
+    }
+
+    private static class OrNode extends Node {
+        private final ArrayList<Node> children;
+
+        @Override
+        Node fuse() {
+            for (int i=0; i<children.size(); i++) {
+                children.set(i, children.get(i).fuse());
+            }
+            return this;
+        }
+
+        private OrNode(ArrayList<Node> children) {
+            this.children = children;
+            Collections.sort(children, new Comparator<Node>() { // least selective first (stable)
+                @Override
+                public int compare(Node o1, Node o2) {
+                    return Double.compare(o2.selectivity(), o1.selectivity());
+                }
+            });
+        }
+
+        @Override
+        double selectivity() {
+            double none = 1.0;
+            for (Node child: children) {
+                none *= 1.0 - child.selectivity();
+            }
+            return 1.0 - none;
+        }
+
+        @Override
+        Boolean quick(SegmentContext context) throws DataSpaceException {
+            Boolean retval = false;
+            for (Node child: children) {
+                Boolean quickResult = child.quick(context);
+                if (quickResult == null) {
+                    retval = null;
+                }
+                else if (quickResult) {
+                    return true;
+                }
+            }
+            return retval;
+        }
+
+        @Override
+        IBitMap evaluateUndecided(SegmentContext context, IBitMap candidates) throws DataSpaceException {
+            IBitMap retval = null;
+            IBitMap remaining = candidates;
+            for (Node child: children) {
+                IBitMap childResult = child.evaluate(context, remaining);
+                retval = retval == null ? childResult : retval.or(childResult);
+                if (childResult.isEmpty()) {
+                    continue;
+                }
+                remaining = context.andNot(remaining, childResult);
+                if (remaining.isEmpty()) {
+                    break; // every candidate already matched
+                }
+            }
+            return retval;
+        }
+    }
+
+    /**
+     * The AND of several terms (some of them possibly negated) on the same column, evaluated in a single pass over
+     * the segment. Members that the segment stats decide drop out, and if only one is left it is evaluated on its own.
+     */
+    private static class FusedNode extends Node {
+        private final ArrayList<Node> members;
+
+        private FusedNode(ArrayList<Node> members) {
+            this.members = members;
+        }
+
+        @Override
+        double selectivity() {
+            double retval = 1.0;
+            for (Node member: members) {
+                retval *= member.selectivity();
+            }
+            return retval;
+        }
+
+        @Override
+        Boolean quick(SegmentContext context) throws DataSpaceException {
+            Boolean retval = true;
+            for (Node member: members) {
+                Boolean quickResult = member.quick(context);
+                if (quickResult == null) {
+                    retval = null;
+                }
+                else if (!quickResult) {
+                    return false;
+                }
+            }
+            return retval;
+        }
+
+        @Override
+        IBitMap evaluateUndecided(SegmentContext context, IBitMap candidates) throws DataSpaceException {
+            ArrayList<Node> undecided = new ArrayList<Node>();
+            for (Node member: members) {
+                if (member.quick(context) == null) {
+                    undecided.add(member); // the others are all true for this segment
+                }
+            }
+            if (undecided.size() == 1) {
+                return undecided.get(0).evaluate(context, candidates);
+            }
+
+            List<AbstractQueryTerm.SegmentMatcher> matchers = new ArrayList<AbstractQueryTerm.SegmentMatcher>(undecided.size());
+            boolean[] negated = new boolean[undecided.size()];
+            for (int i=0; i<undecided.size(); i++) {
+                matchers.add(undecided.get(i).fusibleLeaf().matcher);
+                negated[i] = undecided.get(i) instanceof NotNode;
+            }
+            FusedSegmentScan scan = FusedSegmentScan.create(matchers, negated);
+            if (scan == null) {
+                // mixed element types - cannot happen on a single column, but fall back to one term at a time
+                IBitMap retval = candidates;
+                for (Node member: undecided) {
+                    retval = member.evaluate(context, retval);
+                }
+                return retval;
+            }
+            Leaf leaf = undecided.get(0).fusibleLeaf();
+            AbstractVector.SegmentInfo segmentInfo = leaf.segments.get(context.segmentNumber);
+            IBitMap retval = scan.match(segmentInfo, candidates, context.queryState);
+            context.holdIfLoaded(leaf, segmentInfo);
+            return retval;
+        }
+    }
+}
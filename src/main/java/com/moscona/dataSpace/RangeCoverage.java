@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace;
+
+/**
+ * A summary of a bitmap in consecutive ranges of a fixed size (typically the vector segments). Each range is either
+ * all false, all true or mixed. Only the mixed ranges keep their bits (as a bitmap local to the range), so a query
+ * term can skip the empty ranges, evaluate the full ones as usual and evaluate only the candidates of the mixed ones.
+ * See IBitMap.getRangeCoverage()
+ */
+public class RangeCoverage {
+    public enum Kind {EMPTY, FULL, MIXED}
+
+    private final int rangeSize;
+    private final Kind[] kinds;
+    private final IBitMap[] candidates;
+
+    /**
+     * @param rangeSize the number of positions in each range (the last range may be shorter)
+     * @param kinds the kind of each range
+     * @param candidates for each MIXED range the bits of that range (position 0 is the first position of the range),
+     *                   null for the other kinds
+     */
+    public RangeCoverage(int rangeSize, Kind[] kinds, IBitMap[] candidates) {
+        this.rangeSize = rangeSize;
+        this.kinds = kinds;
+        this.candidates = candidates;
+    }
+
+    public int getRangeSize() {
+        return rangeSize;
+    }
+
+    public int size() {
+        return kinds.length;
+    }
+
+    /**
+     * @param range the range number
+     * @return the kind of the range. Ranges past the end of the bitmap are EMPTY
+     */
+    public Kind getKind(int range) {
+        return range < kinds.length ? kinds[range] : Kind.EMPTY;
+    }
+
+    /**
+     * @param range the range number
+     * @return the bits of a MIXED range, relative to the start of the range. null for other kinds
+     */
+    public IBitMap getCandidates(int range) {
+        return range < candidates.length ? candidates[range] : null;
+    }
+
+    public int count(Kind kind) {
+        int retval = 0;
+        for (Kind k: kinds) {
+            if (k == kind) {
+                retval++;
+            }
+        }
+        return retval;
+    }
+
+    @Override
+    public String toString() {
+        return kinds.length+" ranges of "+rangeSize+": "+count(Kind.EMPTY)+" empty, "+count(Kind.FULL)+" full, "+
+                count(Kind.MIXED)+" mixed";
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace;
+
+/**
+ * The result of a stats-only evaluation of a query term on a vector (see ISelectivityEstimator)
+ */
+public class SelectivityEstimate {
+    private final double selectivity;
+    private final int vectorSize;
+    private final int segmentCount;
+    private final int segmentsToRead;
+    private final int segmentsToSwapIn;
+
+    /**
+     * @param selectivity the estimated fraction of the vector that matches (0..1)
+     * @param vectorSize the number of elements in the vector
+     * @param segmentCount the number of segments in the vector
+     * @param segmentsToRead the number of segments that could not be decided by their stats alone
+     * @param segmentsToSwapIn how many of the segments to read are not currently swapped in
+     */
+    public SelectivityEstimate(double selectivity, int vectorSize, int segmentCount, int segmentsToRead, int segmentsToSwapIn) {
+        this.selectivity = Math.max(0.0, Math.min(1.0, selectivity));
+        this.vectorSize = vectorSize;
+        this.segmentCount = segmentCount;
+        this.segmentsToRead = segmentsToRead;
+        this.segmentsToSwapIn = segmentsToSwapIn;
+    }
+
+    public double getSelectivity() {
+        return selectivity;
+    }
+
+    public int getEstimatedCardinality() {
+        return (int) Math.round(selectivity * vectorSize);
+    }
+
+    public int getVectorSize() {
+        return vectorSize;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public int getSegmentsToRead() {
+        return segmentsToRead;
+    }
+
+    public int getSegmentsToSwapIn() {
+        return segmentsToSwapIn;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.2f%% (%d of %d), reading %d of %d segments (%d swapped out)",
+                selectivity*100.0, getEstimatedCardinality(), vectorSize, segmentsToRead, segmentCount, segmentsToSwapIn);
+    }
+}
@@ -19,10 +19,17 @@ package com.moscona.dataSpace;
 
 import com.moscona.util.monitoring.stats.LongSampleAccumulator;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.persistence.IEvictionPolicy;
 import com.moscona.dataSpace.persistence.IMemoryManaged;
 import com.moscona.dataSpace.persistence.IMemoryManager;
+import com.moscona.dataSpace.persistence.IMemoryManagerStats;
+import com.moscona.dataSpace.persistence.IOffHeapMemoryManager;
+import com.moscona.dataSpace.persistence.OffHeapBufferPool;
+import com.moscona.dataSpace.persistence.LruEvictionPolicy;
 import com.moscona.dataSpace.persistence.PersistenceStatus;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.*;
 
@@ -30,11 +37,12 @@ import java.util.*;
  * Created: 1/13/11 3:37 PM
  * By: Arnon Moscona
  */
-public class SimpleMemoryManager implements IMemoryManager {
+public class SimpleMemoryManager implements IMemoryManager, IMemoryManagerStats, IOffHeapMemoryManager {
     private long maxBytes;
     private int maxId = 0;
     private HashMap<Integer, Record> records;
-    private PriorityQueue<Record> lru;
+    private IEvictionPolicy evictionPolicy; // the swapped in records that are not required
+    private ReferenceQueue<IMemoryManaged> collected; // records whose objects were garbage collected
     private HashSet<Integer> required;
 
     private int totalSwapInCounter = 0;
@@ -51,11 +59,21 @@ public class SimpleMemoryManager implements IMemoryManager {
     private int lastRequired = -1;
     private boolean lastRequiredPendingRelease = false;
     private LongSampleAccumulator requiredTimeStats; // accumulate stats for time objects spend being in required state
+    private volatile OffHeapBufferPool offHeapPool = null; // null means backing arrays stay on the heap
 
     public SimpleMemoryManager(long maxBytes) {
+        this(maxBytes, new LruEvictionPolicy());
+    }
+
+    /**
+     * @param maxBytes
+     * @param evictionPolicy decides which record to swap out when space is needed
+     */
+    public SimpleMemoryManager(long maxBytes, IEvictionPolicy evictionPolicy) {
         this.maxBytes = maxBytes;
         records = new HashMap<Integer,Record>();
-        lru = new PriorityQueue<Record>();
+        this.evictionPolicy = evictionPolicy;
+        collected = new ReferenceQueue<IMemoryManaged>();
         required = new HashSet<Integer>();
         requiredTimeStats = new LongSampleAccumulator();
         //System.out.println("MM,op,record type,id,required size, lru size,swapIn counter,swapOut counter,utilization," +
@@ -66,6 +84,19 @@ public class SimpleMemoryManager implements IMemoryManager {
         return maxBytes;
     }
 
+    @Override
+    public OffHeapBufferPool getOffHeapPool() {
+        return offHeapPool;
+    }
+
+    /**
+     * Makes segments that are swapped in from now on use off heap backing arrays from the given pool
+     * @param offHeapPool the pool, or null to go back to heap backing arrays
+     */
+    public void setOffHeapPool(OffHeapBufferPool offHeapPool) {
+        this.offHeapPool = offHeapPool;
+    }
+
     public int getRequireCounter() {
         return requireCounter;
     }
@@ -157,7 +188,9 @@ public class SimpleMemoryManager implements IMemoryManager {
             item.swapIn();
         }
         finally {
-            totalSwapInTime += (System.currentTimeMillis()-start);
+            long time = System.currentTimeMillis()-start;
+            totalSwapInTime += time;
+            rec.swapInTime += time;
         }
         rec.swapInCounter++;
         totalSwapInCounter++;
@@ -170,40 +203,49 @@ public class SimpleMemoryManager implements IMemoryManager {
             simpleLruAdd(rec);
             return;
         }
-        sweepForStaleOrSwappedOutReferences(); // find any references in the LRU that have been garbage collected
+        sweepForStaleReferences(); // find any references in the LRU that have been garbage collected
         if (eventualUtilization(rec.size) <= maxBytes) {
             simpleLruAdd(rec);
             return;
         }
 
-        while(eventualUtilization(rec.size) > maxBytes && lru.size()>0) {
-            Record tail = lru.poll();
+        evictToFit(rec.size);
+        simpleLruAdd(rec);
+    }
+
+    /**
+     * Swaps out objects in the order of the eviction policy until the increment fits (or there is nothing left to
+     * swap out)
+     */
+    private void evictToFit(long increment) throws DataSpaceException {
+        while(eventualUtilization(increment) > maxBytes && evictionPolicy.size()>0) {
+            Record tail = records.get(evictionPolicy.poll());
             IMemoryManaged managed = tail.item.get();
             if (managed!=null && managed.getPersistenceStatus() == PersistenceStatus.SWAPPED_IN) {
                 swapOut(tail, managed);
             }
             incrementUtilization(-tail.size);
         }
-        simpleLruAdd(rec);
     }
 
     private long eventualUtilization(long increment) {
         return totalUtilization+increment;
     }
 
-    private void sweepForStaleOrSwappedOutReferences() {
-        ArrayList<Record> toRemove = new ArrayList<Record>();
-        for (Record record: lru) {
-            IMemoryManaged managed = record.item.get();
-            if (managed == null || managed.getPersistenceStatus() == PersistenceStatus.SWAPPED_OUT) {
-                toRemove.add(record); // avoid a concurrent modification exception
+    /**
+     * Removes the LRU entries of objects that were garbage collected. Only looks at the references the GC has queued,
+     * so the cost does not grow with the size of the LRU. Objects that were swapped out notify us via onSwappedOut()
+     * and are already gone from the LRU.
+     */
+    private void sweepForStaleReferences() {
+        Reference<? extends IMemoryManaged> reference;
+        while ((reference = collected.poll()) != null) {
+            int id = ((ItemReference) reference).id;
+            if (evictionPolicy.remove(id)) {
+                incrementUtilization(-records.get(id).size);
+                // no need to swap out as we know it's not swapped in even if it exists at all
             }
         }
-        for (Record record: toRemove) {
-            lru.remove(record);
-            incrementUtilization(-record.size);
-            // no need to swap out as we know it's not swapped in even if it exists at all
-        }
     }
 
     private void swapOut(Record record, IMemoryManaged managed) throws DataSpaceException {
@@ -218,7 +260,7 @@ public class SimpleMemoryManager implements IMemoryManager {
 
     private void simpleLruAdd(Record rec) {
         touch(rec);
-        lru.add(rec);
+        evictionPolicy.add(rec.id, rec.size, rec.swapInCounter, rec.swapInTime);
         incrementUtilization(rec.size);
     }
 
@@ -247,8 +289,7 @@ public class SimpleMemoryManager implements IMemoryManager {
         Record rec = get(id, "Required", true);
         IMemoryManaged obj = rec.item.get(); // keep a reference until we return to make sure the object does not go away
         long increment = rec.size;
-        if (lru.contains(rec)) {
-            lru.remove(rec);
+        if (evictionPolicy.remove(rec.id)) {
             increment = 0L;
         }
         swapIn(rec); // will do nothing if already swapped in
@@ -324,9 +365,8 @@ public class SimpleMemoryManager implements IMemoryManager {
     public synchronized void onSwappedOut(IMemoryManaged managed) throws DataSpaceException {
         Record rec = get(managed.getMemoryManagerId(), "Swap out notification", false);
         boolean removed = false;
-        if (lru.contains(rec)) {
+        if (evictionPolicy.remove(rec.id)) {
             removed = true;
-            lru.remove(rec);
         }
         if (required.contains(rec.id)) {
             removed = true;
@@ -344,6 +384,15 @@ public class SimpleMemoryManager implements IMemoryManager {
         }
     }
 
+    @Override
+    public synchronized void adjustUnmanagedUtilization(long bytes) throws DataSpaceException {
+        if (bytes > 0) {
+            sweepForStaleReferences();
+            evictToFit(bytes);
+        }
+        incrementUtilization(bytes);
+    }
+
     @Override
     public long getMaxSize() {
         return maxBytes;
@@ -459,32 +508,37 @@ public class SimpleMemoryManager implements IMemoryManager {
     /**
      * A simple value class to keep weak references and associated stats
      */
-    private class Record implements Comparable<Record> {
+    private class Record {
         public WeakReference<IMemoryManaged> item;
         public int id;
         public long size;
         public int swapInCounter;
         public int swapOutCounter;
+        public long swapInTime = 0L;
         public long lruTag;
         public long addedToRequiredTs = -1L;
         public WeakReference<Thread> requiredInThreadReference;
 
         protected Record(IMemoryManaged item) throws DataSpaceException {
-            this.item = new WeakReference<IMemoryManaged>(item);
             id = maxId++;
+            this.item = new ItemReference(item, id, collected);
             size = item.sizeInBytes();
             swapInCounter=0;
             swapOutCounter=0;
             lruTag = -1L;
             requiredInThreadReference = new WeakReference<Thread>(Thread.currentThread());
         }
+    }
 
-        @Override
-        public int compareTo(Record o) {
-            if (o.id == id) {
-                return 0;
-            }
-            return (lruTag-o.lruTag) < 0 ? -1 : 1;
+    /**
+     * A weak reference that remembers the record ID, so that a collected one can be found in the LRU
+     */
+    private static class ItemReference extends WeakReference<IMemoryManaged> {
+        private final int id;
+
+        private ItemReference(IMemoryManaged item, int id, ReferenceQueue<IMemoryManaged> queue) {
+            super(item, queue);
+            this.id = id;
         }
     }
 
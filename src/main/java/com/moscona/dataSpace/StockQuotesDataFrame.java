@@ -21,8 +21,6 @@ import com.moscona.exceptions.InvalidArgumentException;
 import com.moscona.util.ISimpleDescriptiveStatistic;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
 import com.moscona.dataSpace.impl.*;
-import com.moscona.dataSpace.impl.query.EqualsQuery;
-import com.moscona.dataSpace.impl.query.RunningOLHCSummaryHistogramQuery;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -139,8 +137,15 @@ public class StockQuotesDataFrame extends OLHCHistogram {
         IntegerVector second = new IntegerVector(ds);
 
 
-        int counter = 0;
-        long start = System.currentTimeMillis();
+        // a single pass over the source computes the bins of all the symbols
+        GroupBy.Result bins = new GroupBy(source, symbolColumn).setBinSize(binSize)
+                .add(COL_BIN_OPEN, COL_BIN_OPEN, GroupBy.Aggregate.FIRST)
+                .add(COL_BIN_LOW, COL_BIN_LOW, GroupBy.Aggregate.MIN)
+                .add(COL_BIN_HIGH, COL_BIN_HIGH, GroupBy.Aggregate.MAX)
+                .add(COL_BIN_CLOSE, COL_BIN_CLOSE, GroupBy.Aggregate.LAST)
+                .add(COL_BIN_VOLUME, COL_BIN_VOLUME, GroupBy.Aggregate.SUM)
+                .add(COL_BIN_CLOSING_SECOND, COL_BIN_CLOSING_SECOND, GroupBy.Aggregate.MAX)
+                .evaluate(new QueryState());
 
         for (String s: sortedSignals) {
             // populate opening prices (before trading starts)
@@ -153,22 +158,17 @@ public class StockQuotesDataFrame extends OLHCHistogram {
             volume.append(0);
             second.append(0);
 
-            // create a bitmap from the source symbol column (equals query)
-            EqualsQuery<Text> symbolQuery = new EqualsQuery<Text>();
-            IQueryParameterList params = symbolQuery.createParameterList(symbol.getBaseType()).set(EqualsQuery.VALUE, s); // HOLD (fix before release)  there has to be a nicer way to do it. Maybe symbol.equals(s) => IBitMap or new VectorQueryFacade(symbol).equals(s)  or vector.query("=",value)
-            QueryState queryState = new QueryState();
-            IBitMap symbolBitMap = symbolQuery.apply(params, source.get(symbolColumn), queryState);
-
-            // generate a running summary for each of the columns, asking for the appropriate summary
-            int summarySize = populateSymbolFloatSummary(source, COL_BIN_OPEN, symbolBitMap, binSize, open, COL_BIN_FIRST, queryState);
-            populateSymbolFloatSummary(source, COL_BIN_LOW, symbolBitMap, binSize, low, COL_BIN_LOW, queryState);
-            populateSymbolFloatSummary(source, COL_BIN_HIGH, symbolBitMap, binSize, high, COL_BIN_HIGH, queryState);
-            populateSymbolFloatSummary(source, COL_BIN_CLOSE, symbolBitMap, binSize, close, COL_BIN_LAST, queryState);
-            populateSymbolIntegerSummary(source, COL_BIN_VOLUME, symbolBitMap, binSize, volume, COL_BIN_SUM, queryState);
-            populateSymbolIntegerSummary(source, COL_BIN_CLOSING_SECOND, symbolBitMap, binSize, second, COL_BIN_MAX, queryState);
-
-            // create a fixed value vector N*symbol and append it to the symbol vector
-            symbol.append(s, summarySize);
+            int group = bins.getGroup(s);
+            int binCount = group < 0 ? 0 : bins.getBinCount(group);
+            for (int bin=0; bin<binCount; bin++) {
+                open.append((float) bins.getValue(group, bin, COL_BIN_OPEN));
+                low.append((float) bins.getValue(group, bin, COL_BIN_LOW));
+                high.append((float) bins.getValue(group, bin, COL_BIN_HIGH));
+                close.append((float) bins.getValue(group, bin, COL_BIN_CLOSE));
+                volume.append((int) Math.round(bins.getValue(group, bin, COL_BIN_VOLUME)));
+                second.append((int) bins.getValue(group, bin, COL_BIN_CLOSING_SECOND));
+            }
+            symbol.append(s, binCount);
         }
 
         // assemble the data frame
@@ -187,27 +187,4 @@ public class StockQuotesDataFrame extends OLHCHistogram {
         vector.seal();
         cbind(name,vector);
     }
-
-    @SuppressWarnings({"unchecked"}) // unchecked casts of column types
-    private int populateSymbolFloatSummary(DataFrame source, String sourceColumn, IBitMap selection, int binSize,
-                                            FloatVector resultColumn, String requestedSummary,
-                                            QueryState queryState) throws DataSpaceException, InvalidArgumentException {
-        RunningOLHCSummaryHistogramQuery<Numeric<Float>> transformer = new RunningOLHCSummaryHistogramQuery<Numeric<Float>>(binSize, selection, new String[] {requestedSummary});
-        // HOLD #IT-493 iefficient use of temporary histogram leads to long query times (0.45 sec/symbol)
-        Histogram openHistogram = transformer.transform(source.get(sourceColumn), queryState);
-        IVector summary = openHistogram.get(requestedSummary);
-        resultColumn.append(summary);
-        return summary.size();
-    }
-
-    @SuppressWarnings({"unchecked"}) // unchecked casts of column types
-    private int populateSymbolIntegerSummary(DataFrame source, String sourceColumn, IBitMap selection, int binSize,
-                                            IntegerVector resultColumn, String requestedSummary,
-                                            QueryState queryState) throws DataSpaceException, InvalidArgumentException {
-        RunningOLHCSummaryHistogramQuery<Numeric<Float>> transformer = new RunningOLHCSummaryHistogramQuery<Numeric<Float>>(binSize, selection, new String[] {requestedSummary});
-        Histogram openHistogram = transformer.transform(source.get(sourceColumn), queryState);
-        IVector summary = openHistogram.get(requestedSummary);
-        resultColumn.append(summary);
-        return summary.size();
-    }
 }
@@ -17,6 +17,8 @@
 
 package com.moscona.dataSpace;
 
+import com.moscona.dataSpace.util.QuantileSketch;
+
 import java.io.Serializable;
 
 /**
@@ -27,6 +29,7 @@ public class VectorStats<T extends IScalar> implements IVectorStats<T>, Serializ
     private static final long serialVersionUID = -3469486487577496386L;
     private IQuantiles quantiles = null;
     private IDescriptiveStats<T> descriptiveStats = null;
+    private QuantileSketch quantileSketch = null;
 
     @Override
     public IDescriptiveStats<T> getDescriptiveStats() {
@@ -47,4 +50,16 @@ public class VectorStats<T extends IScalar> implements IVectorStats<T>, Serializ
     public void setQuantiles(IQuantiles quantiles) {
         this.quantiles = quantiles;
     }
+
+    /**
+     * @return the merge of the quantile sketches of the vector segments, or null if the vector is not numeric or its
+     * segments do not have sketches
+     */
+    public QuantileSketch getQuantileSketch() {
+        return quantileSketch;
+    }
+
+    public void setQuantileSketch(QuantileSketch quantileSketch) {
+        this.quantileSketch = quantileSketch;
+    }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.debug;
+
+import com.moscona.dataSpace.ConcurrentMemoryManager;
+import com.moscona.dataSpace.SimpleMemoryManager;
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.persistence.IMemoryManager;
+import com.moscona.dataSpace.persistence.PersistenceStatus;
+import com.moscona.dataSpace.stub.MockMemoryManaged;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures the cost of a require/release pair as the number of resident objects grows. With a constant time LRU the
+ * cost per pair should stay flat; a linear LRU shows up as a cost proportional to the resident count.
+ * The objects are submitted in a swapped in state, so no swap in (and no MockMemoryManaged sleep) is measured.
+ */
+public class MemoryManagerBenchmark {
+    private static final int OBJECT_SIZE = 100;
+    private static final int PAIRS = 200000;
+    private static final int WARMUP_PAIRS = 50000;
+
+    public static void main(String[] args) {
+        int[] residentCounts = {1000, 4000, 16000, 64000};
+        try {
+            System.out.println("manager,resident objects,ns per require/release");
+            for (int residentCount: residentCounts) {
+                run("SimpleMemoryManager", new SimpleMemoryManager((long)residentCount*OBJECT_SIZE), residentCount);
+                run("ConcurrentMemoryManager", new ConcurrentMemoryManager((long)residentCount*OBJECT_SIZE), residentCount);
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void run(String name, IMemoryManager memoryManager, int residentCount) throws DataSpaceException {
+        ArrayList<MockMemoryManaged> objects = new ArrayList<MockMemoryManaged>(residentCount);
+        int[] ids = new int[residentCount];
+        for (int i=0; i<residentCount; i++) {
+            MockMemoryManaged managed = new MockMemoryManaged(OBJECT_SIZE, memoryManager);
+            managed.setPersistenceStatus(PersistenceStatus.SWAPPED_IN);
+            ids[i] = memoryManager.submit(managed);
+            objects.add(managed); // keep them reachable
+        }
+
+        Random random = new Random(residentCount);
+        requireAndRelease(memoryManager, ids, random, WARMUP_PAIRS);
+        long start = System.nanoTime();
+        requireAndRelease(memoryManager, ids, random, PAIRS);
+        long elapsed = System.nanoTime() - start;
+        System.out.println(name+","+objects.size()+","+(elapsed/PAIRS)); // also keeps the objects reachable until here
+    }
+
+    private static void requireAndRelease(IMemoryManager memoryManager, int[] ids, Random random, int pairs) throws DataSpaceException {
+        for (int i=0; i<pairs; i++) {
+            int id = ids[random.nextInt(ids.length)];
+            memoryManager.require(id);
+            memoryManager.release(id);
+        }
+    }
+}
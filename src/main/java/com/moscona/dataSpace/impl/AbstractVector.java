@@ -21,7 +21,9 @@ import com.moscona.dataSpace.*;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
 import com.moscona.dataSpace.impl.segment.AbstractSegmentStats;
 import com.moscona.dataSpace.impl.segment.AbstractVectorSegment;
+import com.moscona.dataSpace.persistence.IMemoryManager;
 import com.moscona.dataSpace.persistence.PersistenceType;
+import com.moscona.dataSpace.util.QuantileSketch;
 import com.moscona.exceptions.NotImplementedException;
 
 import java.util.*;
@@ -54,6 +56,8 @@ public abstract class AbstractVector<T extends IScalar> extends AbstractDataElem
     boolean autoResolution = true;
     double resolution = 0.00001; // arbitrary - it will change anyway
     private PersistenceType minimumPersistenceType = PersistenceType.MEMORY_ONLY;
+    private BitmapIndex bitmapIndex = null;
+    private transient long accountedIndexBytes = 0L; // the size of the bitmap index as told to the memory manager
 
     protected AbstractVector(DataSpace dataSpace) {
         closeHelper = new CloseHelper();
@@ -323,6 +327,7 @@ public abstract class AbstractVector<T extends IScalar> extends AbstractDataElem
         closeLastSegment();
         calculateVectorStatistics();
         isSealed = true;
+        buildBitmapIndex();
         //dataSpace.onVectorSeal(this);
         return this;
     }
@@ -345,13 +350,18 @@ public abstract class AbstractVector<T extends IScalar> extends AbstractDataElem
                     // this is really a corner case that in reality is only encountered in testing, but can also happen if somebody loses their wits and makes a data space with a truly tiny segment size
                     stats.setQuantiles(new Quantiles(getEntireVectorAsDoubles()));
                 }
+                else if (size <= segmentSize) {
+                    stats.setQuantiles(new Quantiles(getFirstSegmentCopyAsDoubles()));
+                }
                 else {
-                    Quantiles quantiles = new Quantiles(getFirstSegmentCopyAsDoubles());
-                    if (size <= segmentSize) {
-                        stats.setQuantiles(quantiles);
+                    QuantileSketch sketch = mergeSegmentQuantileSketches();
+                    if (sketch != null) {
+                        ((VectorStats<T>)stats).setQuantileSketch(sketch);
+                        stats.setQuantiles(new Quantiles(sketch));
                     }
                     else {
-                        stats.setQuantiles(estimateQuantilesOnRestOfSegments(quantiles));
+                        // the segments were sealed with quantile sketches disabled
+                        stats.setQuantiles(estimateQuantilesOnRestOfSegments(new Quantiles(getFirstSegmentCopyAsDoubles())));
                     }
                 }
             }
@@ -432,10 +442,28 @@ public abstract class AbstractVector<T extends IScalar> extends AbstractDataElem
             }
         }
         firstSegmentQuantiles.finishEstimation();
+        firstSegmentQuantiles.setForm(IQuantiles.Form.ESTIMATED_FIVE_PERCENTILE_BINS);
         return firstSegmentQuantiles;
     }
 
 
+    /**
+     * @return the merge of the quantile sketches of all the segments, or null if any segment does not have one
+     */
+    private QuantileSketch mergeSegmentQuantileSketches() {
+        QuantileSketch retval = null;
+        for (AbstractSegmentStats<T> stats: segmentStats) {
+            if (stats.getQuantileSketch() == null) {
+                return null;
+            }
+            if (retval == null) {
+                retval = new QuantileSketch(stats.getQuantileSketch().getK());
+            }
+            retval.merge(stats.getQuantileSketch());
+        }
+        return retval;
+    }
+
     private IDescriptiveStats<T> aggregateSegmentDescriptiveStats() throws DataSpaceException {
         int i=0;
         AbstractSegmentStats<T> retval = null;
@@ -443,6 +471,7 @@ public abstract class AbstractVector<T extends IScalar> extends AbstractDataElem
             if (i==0) {
                 try {
                     retval = stats.clone();
+                    retval.setQuantileSketch(null); // the sketch of the whole vector is in the vector stats
                 }
                 catch (CloneNotSupportedException e) {
                     throw new DataSpaceException("Exception while cloning stats: "+e,e);
@@ -517,17 +546,76 @@ public abstract class AbstractVector<T extends IScalar> extends AbstractDataElem
     @Override
     public void factor(String factorName) throws DataSpaceException {
         this.factorName = factorName;
+        indexFactor();
     }
 
     @Override
     public void factor(String factorName, IFactor factor) throws DataSpaceException {
         this.factorName = factorName;
         this.factor = factor;
+        indexFactor();
     }
 
     public void factor(Factor factor) throws DataSpaceException {
         this.factorName = factor.getName();
         this.factor = factor;
+        indexFactor();
+    }
+
+    /**
+     * Factors are usually declared on vectors that are already sealed (e.g. by DataFrame.factor()). If the vector was
+     * sealed without a bitmap index (e.g. while indexes were disabled) then it gets one now
+     */
+    private void indexFactor() throws DataSpaceException {
+        if (isSealed && bitmapIndex == null) {
+            buildBitmapIndex();
+        }
+    }
+
+    private void buildBitmapIndex() throws DataSpaceException {
+        if (isIndexRequested()) {
+            bitmapIndex = BitmapIndex.build(this, Integer.MAX_VALUE, false);
+        }
+        else {
+            BitmapIndex index = BitmapIndex.build(this, dataSpace.getBitmapIndexMaxValues(), true);
+            // unless it is a factor, a vector of mostly unique values is not worth indexing
+            bitmapIndex = index != null && (isFactor() || index.isLowCardinality()) ? index : null;
+        }
+        accountBitmapIndex();
+    }
+
+    /**
+     * The bitmap index is held on the heap outside of the memory managed segments, so the memory manager is told about
+     * it for as long as the vector holds it. Called when the index is built, and as part of restoring the vector from
+     * disk
+     */
+    public void accountBitmapIndex() throws DataSpaceException {
+        adjustAccountedIndexBytes(bitmapIndex == null ? 0L : bitmapIndex.sizeInBytes());
+    }
+
+    private void adjustAccountedIndexBytes(long bytes) throws DataSpaceException {
+        IMemoryManager memoryManager = dataSpace == null ? null : dataSpace.getMemoryManager();
+        if (memoryManager != null && bytes != accountedIndexBytes) {
+            memoryManager.adjustUnmanagedUtilization(bytes - accountedIndexBytes);
+            accountedIndexBytes = bytes;
+        }
+    }
+
+    /**
+     * Subclasses that let users ask for an index (e.g. StringVector.setIndexed()) get one when sealed regardless of
+     * the number of distinct values
+     * @return false by default
+     */
+    protected boolean isIndexRequested() {
+        return false;
+    }
+
+    /**
+     * @return the vector's bitmap index, or null if it has none (not sealed yet, not integral or strings, or too many
+     * distinct values - see DataSpace.getBitmapIndexMaxValues() and BitmapIndex.isLowCardinality())
+     */
+    public BitmapIndex getBitmapIndex() {
+        return bitmapIndex;
     }
 
     @Override
@@ -711,11 +799,108 @@ public abstract class AbstractVector<T extends IScalar> extends AbstractDataElem
         return filter==null ? getSortedUniqueValues() : subset(filter).getSortedUniqueValues();
     }
 
+    /**
+     * On a vector with a bitmap index the distinct values are counted from the index, without reading the data
+     */
     @Override
     public int countUnique(IBitMap filter) throws DataSpaceException {
+        if (bitmapIndex != null) {
+            return filter == null ? bitmapIndex.getValueCount() : bitmapIndex.getKeys(filter).size();
+        }
         return getSortedUniqueValues(filter).size();
     }
 
+    @Override
+    public IQuantiles getQuantiles(IBitMap selection) throws DataSpaceException {
+        if (selection == null && getStats().getQuantiles() != null) {
+            return getStats().getQuantiles();
+        }
+        return new Quantiles(requireQuantileSketch(selection));
+    }
+
+    @Override
+    public double getPercentile(double percentile, IBitMap selection) throws DataSpaceException {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new DataSpaceException("percentile must be in the range of 0-100");
+        }
+        return requireQuantileSketch(selection).quantile(percentile/100.0);
+    }
+
+    private QuantileSketch requireQuantileSketch(IBitMap selection) throws DataSpaceException {
+        QuantileSketch retval = getQuantileSketch(selection);
+        if (retval == null) {
+            throw new DataSpaceException("Quantiles are only supported on numeric vectors, not on "+getBaseType());
+        }
+        return retval;
+    }
+
+    /**
+     * A quantile sketch of the selected elements, put together from the sketches of the segments without reading their
+     * data: segments with no selected elements are skipped and fully selected segments contribute their sketch as is.
+     * Only the selected elements of partially selected segments (and segments sealed without a sketch) are read
+     * @param selection the selected elements, or null for the entire vector
+     * @return a new sketch that the caller may modify, or null if the vector is not numeric
+     * @throws DataSpaceException
+     */
+    public QuantileSketch getQuantileSketch(IBitMap selection) throws DataSpaceException {
+        requireSealedStatus(true);
+        if (!isNumeric()) {
+            return null;
+        }
+
+        int k = dataSpace.getQuantileSketchSize() > 0 ? dataSpace.getQuantileSketchSize() : QuantileSketch.DEFAULT_K;
+        QuantileSketch retval = new QuantileSketch(k);
+        QuantileSketch vectorSketch = ((VectorStats<T>)getStats()).getQuantileSketch();
+        if (selection == null && vectorSketch != null) {
+            retval.merge(vectorSketch);
+            return retval;
+        }
+
+        RangeCoverage coverage = selection == null ? null : selection.getRangeCoverage(segmentSize);
+        for (int segmentNo=0; segmentNo<segments.size(); segmentNo++) {
+            RangeCoverage.Kind kind = coverage == null ? RangeCoverage.Kind.FULL : coverage.getKind(segmentNo);
+            if (kind == RangeCoverage.Kind.EMPTY) {
+                continue;
+            }
+            QuantileSketch segmentSketch = segmentStats.get(segmentNo).getQuantileSketch();
+            if (kind == RangeCoverage.Kind.FULL && segmentSketch != null) {
+                retval.merge(segmentSketch);
+            }
+            else {
+                addSegmentToQuantileSketch(retval, segmentNo, kind == RangeCoverage.Kind.MIXED ? coverage.getCandidates(segmentNo) : null);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Reads the values of a segment into a sketch
+     * @param candidates the selected positions within the segment, or null for all of them
+     */
+    private void addSegmentToQuantileSketch(QuantileSketch sketch, int segmentNo, IBitMap candidates) throws DataSpaceException {
+        IVectorSegment<T> segment = segments.get(segmentNo);
+        segment.require();
+        try {
+            IVectorSegmentBackingArray values = ((AbstractVectorSegment)segment).getBackingArray();
+            boolean integral = IIntegralBackingArray.class.isAssignableFrom(values.getClass());
+            if (candidates == null) {
+                for (int i=0; i<segment.size(); i++) {
+                    sketch.update(integral ? ((IIntegralBackingArray)values).getLong(i) : ((IFloatingPointBackingArray)values).getDouble(i));
+                }
+            }
+            else {
+                IPositionIterator positions = candidates.getPositionIterator();
+                while (positions.hasNext()) {
+                    int i = positions.next();
+                    sketch.update(integral ? ((IIntegralBackingArray)values).getLong(i) : ((IFloatingPointBackingArray)values).getDouble(i));
+                }
+            }
+        }
+        finally {
+            segment.release();
+        }
+    }
+
     /**
      * Rebuilds a unique set using the resolution
      * @param set
@@ -878,6 +1063,15 @@ public abstract class AbstractVector<T extends IScalar> extends AbstractDataElem
      */
     public void close() {
         closeHelper.close();
+        if (dataSpace != null) {
+            dataSpace.getQueryResultCache().invalidate(this);
+        }
+        try {
+            adjustAccountedIndexBytes(0L);
+        }
+        catch (DataSpaceException e) {
+            // cannot happen: giving memory back never swaps anything out
+        }
     }
 
 
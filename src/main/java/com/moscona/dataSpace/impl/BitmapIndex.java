@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.impl;
+
+import com.moscona.dataSpace.IBitMap;
+import com.moscona.dataSpace.IIntegralBackingArray;
+import com.moscona.dataSpace.IVectorSegment;
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.impl.segment.AbstractVectorSegment;
+import com.moscona.dataSpace.util.CompressedBitMap;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A secondary index of a vector with few distinct values (e.g. a factor): a bitmap of the positions of each distinct
+ * value. An equality or set membership term is then answered by looking up (and OR-ing) the bitmaps of the values it
+ * matches, and the number of occurrences of a value is its bitmap's cardinality, without reading the vector's data.
+ * Values are keyed as they are stored in the backing arrays: integral values as longs, strings by their dictionary
+ * code, which makes the index of a string vector an inverted index of its dictionary codes. Built when the vector is
+ * sealed (see DataSpace.getBitmapIndexMaxValues() and StringVector.setIndexed()) and kept (and persisted) with the
+ * vector. Each value costs a bitmap of a few words if its occurrences are clustered, but close to an uncompressed
+ * bitmap of the whole vector if they are scattered, so only vectors that asked for an index are indexed regardless of
+ * their number of distinct values and size. The index is held on the heap, outside the memory managed segments, and
+ * the vector accounts for it to the memory manager (see IMemoryManager.adjustUnmanagedUtilization()).
+ */
+public class BitmapIndex implements Serializable {
+    private static final long serialVersionUID = 3385208177560641529L;
+    /**
+     * The average number of occurrences of each value that makes a vector low cardinality
+     */
+    public static final int MIN_AVERAGE_OCCURRENCES = 4;
+    /**
+     * The most that an index that was not asked for may take, as a fraction of the size of the vector's data
+     */
+    public static final double MAX_SIZE_FRACTION = 0.25;
+    /**
+     * The size an index may reach whatever the size of the vector's data (each bitmap has a fixed overhead, which
+     * dominates on small vectors)
+     */
+    public static final long MIN_SIZE_ALLOWANCE = 64L*1024L;
+    private final int size;
+    private final HashMap<Long,CompressedBitMap> bitmaps;
+
+    private BitmapIndex(int size, HashMap<Long,CompressedBitMap> bitmaps) {
+        this.size = size;
+        this.bitmaps = bitmaps;
+    }
+
+    /**
+     * Builds the index in a single pass over the data of a sealed vector. Each value's bitmap is appended to only at
+     * the value's own positions, with the gap since its previous occurrence appended as a single run.
+     * @param vector
+     * @param maxValues the most distinct values to index. The build is abandoned as soon as there are more
+     * @param limitSize true to abandon the build as soon as the index takes more than MAX_SIZE_FRACTION of the data
+     *                  read so far (or MIN_SIZE_ALLOWANCE if that is more)
+     * @return the index, or null if the vector is not integral (or strings), has more than maxValues distinct values,
+     * or its index would be too big
+     * @throws DataSpaceException
+     */
+    public static BitmapIndex build(AbstractVector<?> vector, int maxValues, boolean limitSize) throws DataSpaceException {
+        if (maxValues <= 0) {
+            return null;
+        }
+        switch (vector.getBaseType()) {
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+            case STRING:
+                break;
+            default:
+                return null;
+        }
+
+        HashMap<Long,CompressedBitMap> bitmaps = new HashMap<Long,CompressedBitMap>();
+        int position = 0;
+        long dataBytes = 0L;
+        AbstractVector.SegmentIterator iterator = vector.segmentIterator();
+        while (iterator.hasNext()) {
+            AbstractVector.SegmentInfo segmentInfo = iterator.next();
+            int count = segmentInfo.getStats().getCount();
+            IVectorSegment segment = segmentInfo.getSegment();
+            segment.require();
+            try {
+                IIntegralBackingArray values = (IIntegralBackingArray) ((AbstractVectorSegment) segment).getBackingArray();
+                long lastValue = 0L;
+                CompressedBitMap last = null; // runs of the same value are common in factors: save the hash lookup
+                for (int i=0; i<count; i++, position++) {
+                    long value = values.getLong(i);
+                    if (last == null || value != lastValue) {
+                        last = bitmaps.get(value);
+                        if (last == null) {
+                            if (bitmaps.size() == maxValues) {
+                                return null; // too many distinct values to be worth indexing
+                            }
+                            last = new CompressedBitMap();
+                            bitmaps.put(value, last);
+                        }
+                        lastValue = value;
+                    }
+                    last.addRun(false, position - last.size());
+                    last.add(true);
+                }
+            }
+            finally {
+                segment.release();
+            }
+            dataBytes += segment.sizeInBytes();
+            if (limitSize && sizeInBytes(bitmaps) > Math.max(MIN_SIZE_ALLOWANCE, (long) (MAX_SIZE_FRACTION * dataBytes))) {
+                return null; // the values are too scattered to be worth indexing
+            }
+        }
+
+        for (CompressedBitMap bitmap: bitmaps.values()) {
+            bitmap.addRun(false, position - bitmap.size());
+        }
+        return new BitmapIndex(position, bitmaps);
+    }
+
+    /**
+     * @return the number of indexed positions (the size of the vector)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of distinct values in the vector
+     */
+    public int getValueCount() {
+        return bitmaps.size();
+    }
+
+    /**
+     * @return true if the values repeat enough to be worth indexing (on average at least MIN_AVERAGE_OCCURRENCES
+     * times each)
+     */
+    public boolean isLowCardinality() {
+        return (long) bitmaps.size() * MIN_AVERAGE_OCCURRENCES <= size;
+    }
+
+    /**
+     * @return the distinct values of the vector, as they are stored in its backing arrays
+     */
+    public Set<Long> getKeys() {
+        return bitmaps.keySet();
+    }
+
+    /**
+     * @param selection positions of the vector (of its size)
+     * @return the distinct values that occur at any of the selected positions
+     */
+    public List<Long> getKeys(IBitMap selection) {
+        ArrayList<Long> retval = new ArrayList<Long>();
+        for (Map.Entry<Long,CompressedBitMap> entry: bitmaps.entrySet()) {
+            if (entry.getValue().intersects(selection)) {
+                retval.add(entry.getKey());
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @param key
+     * @return the number of occurrences of the value in the vector (0 if it does not occur)
+     */
+    public int count(long key) {
+        CompressedBitMap bitmap = bitmaps.get(key);
+        return bitmap == null ? 0 : bitmap.cardinality();
+    }
+
+    /**
+     * @param key
+     * @param selection the positions to count (of the vector's size)
+     * @return the number of occurrences of the value within the selection
+     */
+    public int count(long key, IBitMap selection) {
+        CompressedBitMap bitmap = bitmaps.get(key);
+        return bitmap == null ? 0 : bitmap.and(selection).cardinality();
+    }
+
+    /**
+     * @param keys values, as they are stored in the backing arrays
+     * @return a new bitmap of the positions holding any of the values
+     */
+    public IBitMap lookup(long[] keys) {
+        IBitMap retval = null;
+        for (long key: keys) {
+            CompressedBitMap bitmap = bitmaps.get(key);
+            if (bitmap != null) {
+                retval = retval == null ? bitmap.copy() : retval.or(bitmap);
+            }
+        }
+        if (retval == null) {
+            retval = new CompressedBitMap().addRun(false, size);
+        }
+        return retval;
+    }
+
+    /**
+     * @return the approximate memory footprint of the index
+     */
+    public long sizeInBytes() {
+        return sizeInBytes(bitmaps);
+    }
+
+    private static long sizeInBytes(Map<Long,CompressedBitMap> bitmaps) {
+        long retval = 48L; // the map itself
+        for (CompressedBitMap bitmap: bitmaps.values()) {
+            retval += bitmap.sizeInBytes() + 48L; // plus the map entry and the boxed key
+        }
+        return retval;
+    }
+}
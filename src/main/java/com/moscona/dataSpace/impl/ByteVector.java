@@ -174,7 +174,7 @@ public class ByteVector extends AbstractVector<Numeric<Byte>> {
      */
     @Override
     protected Numeric<Byte> get(IVectorSegment segment, int segmentIndex) {
-        Byte value = ((ByteSegmentBackingArray)((ByteSegment)segment).getBackingArray()).data[segmentIndex];
+        Byte value = (byte) ((IIntegralBackingArray) ((ByteSegment)segment).getBackingArray()).getLong(segmentIndex);
         return new Numeric<Byte>(value);
     }
 
@@ -190,10 +190,19 @@ public class ByteVector extends AbstractVector<Numeric<Byte>> {
     @Override
     protected void copyPartialSegment(IVectorSegment sourceSegment, int pos, IVectorSegment workingSegment, int start, int length) throws DataSpaceException {
         // HOLD (fix before release)  support casting from other integral types #IT-492
-        byte[] src = ((ByteSegmentBackingArray)((ByteSegment)sourceSegment).getBackingArray()).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
         ByteSegment ByteSegment = (ByteSegment) workingSegment;
         byte[] dst = ((ByteSegmentBackingArray) ByteSegment.getBackingArray()).data;
-        System.arraycopy(src,pos,dst,start,length);
+        IVectorSegmentBackingArray source = ((ByteSegment)sourceSegment).getBackingArray();
+        if (source instanceof ByteSegmentBackingArray) {
+            byte[] src = ((ByteSegmentBackingArray) source).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
+            System.arraycopy(src,pos,dst,start,length);
+        }
+        else {
+            IIntegralBackingArray src = (IIntegralBackingArray) source; // a sealed segment that was swapped in off heap
+            for (int i=0; i<length; i++) {
+                dst[start+i] = (byte) src.getLong(pos+i);
+            }
+        }
         ByteSegment.incSize(length);
     }
 
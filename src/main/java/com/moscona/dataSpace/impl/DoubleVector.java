@@ -175,7 +175,7 @@ public class DoubleVector  extends AbstractVector<Numeric<Double>> implements IN
      */
     @Override
     protected Numeric<Double> get(IVectorSegment segment, int segmentIndex) {
-        Double value = ((DoubleSegmentBackingArray)((DoubleSegment)segment).getBackingArray()).data[segmentIndex];
+        Double value = ((IFloatingPointBackingArray) ((DoubleSegment)segment).getBackingArray()).getDouble(segmentIndex);
         return new Numeric<Double>(value);
     }
 
@@ -191,10 +191,19 @@ public class DoubleVector  extends AbstractVector<Numeric<Double>> implements IN
     @Override
     protected void copyPartialSegment(IVectorSegment sourceSegment, int pos, IVectorSegment workingSegment, int start, int length) throws DataSpaceException {
         // HOLD (fix before release)  support casting from other float types #IT-492
-        double[] src = ((DoubleSegmentBackingArray)((DoubleSegment)sourceSegment).getBackingArray()).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
         DoubleSegment DoubleSegment = (DoubleSegment) workingSegment;
         double[] dst = ((DoubleSegmentBackingArray) DoubleSegment.getBackingArray()).data;
-        System.arraycopy(src,pos,dst,start,length);
+        IVectorSegmentBackingArray source = ((DoubleSegment)sourceSegment).getBackingArray();
+        if (source instanceof DoubleSegmentBackingArray) {
+            double[] src = ((DoubleSegmentBackingArray) source).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
+            System.arraycopy(src,pos,dst,start,length);
+        }
+        else {
+            IFloatingPointBackingArray src = (IFloatingPointBackingArray) source; // a sealed segment that was swapped in off heap
+            for (int i=0; i<length; i++) {
+                dst[start+i] = src.getDouble(pos+i);
+            }
+        }
         DoubleSegment.incSize(length);
     }
 
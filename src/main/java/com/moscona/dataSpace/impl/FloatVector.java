@@ -173,7 +173,7 @@ public class FloatVector extends AbstractVector<Numeric<Float>> implements INume
      */
     @Override
     protected Numeric<Float> get(IVectorSegment segment, int segmentIndex) {
-        Float value = ((FloatSegmentBackingArray)((FloatSegment)segment).getBackingArray()).data[segmentIndex];
+        Float value = (float) ((IFloatingPointBackingArray) ((FloatSegment)segment).getBackingArray()).getDouble(segmentIndex);
         return new Numeric<Float>(value);
     }
 
@@ -191,16 +191,25 @@ public class FloatVector extends AbstractVector<Numeric<Float>> implements INume
         FloatSegment floatSegment = (FloatSegment) workingSegment;
         float[] dst = ((FloatSegmentBackingArray) floatSegment.getBackingArray()).data;
         if (sourceSegment instanceof FloatSegment) {
-            float[] src = ((FloatSegmentBackingArray)((FloatSegment)sourceSegment).getBackingArray()).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
-            System.arraycopy(src,pos,dst,start,length);
+            IVectorSegmentBackingArray source = ((FloatSegment)sourceSegment).getBackingArray();
+            if (source instanceof FloatSegmentBackingArray) {
+                float[] src = ((FloatSegmentBackingArray) source).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
+                System.arraycopy(src,pos,dst,start,length);
+            }
+            else {
+                IFloatingPointBackingArray src = (IFloatingPointBackingArray) source; // a sealed segment that was swapped in off heap
+                for (int i=0; i<length; i++) {
+                    dst[start+i] = (float) src.getDouble(pos+i);
+                }
+            }
         }
         else if (sourceSegment instanceof DoubleSegment) {
             // support a down-cast double=>float
-            double[] src = ((DoubleSegmentBackingArray)((DoubleSegment)sourceSegment).getBackingArray()).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
+            IFloatingPointBackingArray src = (IFloatingPointBackingArray) ((DoubleSegment)sourceSegment).getBackingArray();
 
             // must resort to less efficient array copy
             for (int i=0; i< length; i++) {
-                dst[start+i] = (float) src[pos+i];
+                dst[start+i] = (float) src.getDouble(pos+i);
             }
             floatSegment.incSize(length);
         }
@@ -172,7 +172,7 @@ public class IntegerVector extends AbstractVector<Numeric<Integer>> {
      */
     @Override
     protected Numeric<Integer> get(IVectorSegment segment, int segmentIndex) {
-        Integer value = ((IntegerSegmentBackingArray)((IntegerSegment)segment).getBackingArray()).data[segmentIndex];
+        Integer value = (int) ((IIntegralBackingArray) ((IntegerSegment)segment).getBackingArray()).getLong(segmentIndex);
         return new Numeric<Integer>(value);
     }
 
@@ -191,15 +191,24 @@ public class IntegerVector extends AbstractVector<Numeric<Integer>> {
         IntegerSegment integerSegment = (IntegerSegment) workingSegment;
         int[] dst = ((IntegerSegmentBackingArray) integerSegment.getBackingArray()).data;
         if (sourceSegment instanceof IntegerSegment) {
-            int[] src = ((IntegerSegmentBackingArray)((IntegerSegment)sourceSegment).getBackingArray()).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
-            System.arraycopy(src,pos,dst,start,length);
+            IVectorSegmentBackingArray source = ((IntegerSegment)sourceSegment).getBackingArray();
+            if (source instanceof IntegerSegmentBackingArray) {
+                int[] src = ((IntegerSegmentBackingArray) source).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
+                System.arraycopy(src,pos,dst,start,length);
+            }
+            else {
+                IIntegralBackingArray src = (IIntegralBackingArray) source; // a sealed segment that was swapped in off heap
+                for (int i=0; i<length; i++) {
+                    dst[start+i] = (int) src.getLong(pos+i);
+                }
+            }
         } else if (sourceSegment instanceof DoubleSegment) {
             // support a down-cast double=>float
-            double[] src = ((DoubleSegmentBackingArray)((DoubleSegment)sourceSegment).getBackingArray()).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
+            IFloatingPointBackingArray src = (IFloatingPointBackingArray) ((DoubleSegment)sourceSegment).getBackingArray();
 
             // must resort to less efficient array copy
             for (int i=0; i< length; i++) {
-                dst[start+i] = (int) src[pos+i];
+                dst[start+i] = (int) src.getDouble(pos+i);
             }
         }
         else {
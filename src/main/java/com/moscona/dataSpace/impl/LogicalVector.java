@@ -171,7 +171,7 @@ public class LogicalVector extends AbstractVector<Logical> {
      */
     @Override
     protected Logical get(IVectorSegment segment, int segmentIndex) {
-        boolean value = ((BooleanSegmentBackingArray)((LogicalSegment)segment).getBackingArray()).data[segmentIndex];
+        boolean value = ((ILogicalBackingArray) ((LogicalSegment)segment).getBackingArray()).getBoolean(segmentIndex);
         return new Logical(value);
     }
 
@@ -186,10 +186,19 @@ public class LogicalVector extends AbstractVector<Logical> {
      */
     @Override
     protected void copyPartialSegment(IVectorSegment sourceSegment, int pos, IVectorSegment workingSegment, int start, int length) throws DataSpaceException {
-        boolean[] src = ((BooleanSegmentBackingArray)((LogicalSegment)sourceSegment).getBackingArray()).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
         LogicalSegment LogicalSegment = (LogicalSegment) workingSegment;
         boolean[] dst = ((BooleanSegmentBackingArray) LogicalSegment.getBackingArray()).data;
-        System.arraycopy(src,pos,dst,start,length);
+        IVectorSegmentBackingArray source = ((LogicalSegment)sourceSegment).getBackingArray();
+        if (source instanceof BooleanSegmentBackingArray) {
+            boolean[] src = ((BooleanSegmentBackingArray) source).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
+            System.arraycopy(src,pos,dst,start,length);
+        }
+        else {
+            ILogicalBackingArray src = (ILogicalBackingArray) source; // a sealed segment that was swapped in off heap
+            for (int i=0; i<length; i++) {
+                dst[start+i] = src.getBoolean(pos+i);
+            }
+        }
         LogicalSegment.incSize(length);
     }
 
@@ -254,8 +263,9 @@ public class LogicalVector extends AbstractVector<Logical> {
             LogicalSegment segment = (LogicalSegment) segmentInfo.getSegment();
             segment.require();
             try {
-                for (boolean value: ((BooleanSegmentBackingArray) segment.getBackingArray()).data) {
-                    bitMap.add(value);
+                ILogicalBackingArray values = (ILogicalBackingArray) segment.getBackingArray();
+                for (int i=0; i<values.length(); i++) {
+                    bitMap.add(values.getBoolean(i));
                 }
             }
             finally {
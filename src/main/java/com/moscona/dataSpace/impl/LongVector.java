@@ -175,7 +175,7 @@ public class LongVector extends AbstractVector<Numeric<Long>> {
      */
     @Override
     protected Numeric<Long> get(IVectorSegment segment, int segmentIndex) {
-        Long value = ((LongSegmentBackingArray)((LongSegment)segment).getBackingArray()).data[segmentIndex];
+        Long value = ((IIntegralBackingArray) ((LongSegment)segment).getBackingArray()).getLong(segmentIndex);
         return new Numeric<Long>(value);
     }
 
@@ -191,10 +191,19 @@ public class LongVector extends AbstractVector<Numeric<Long>> {
     @Override
     protected void copyPartialSegment(IVectorSegment sourceSegment, int pos, IVectorSegment workingSegment, int start, int length) throws DataSpaceException {
         // HOLD (fix before release)  support casting from other integral types #IT-492
-        long[] src = ((LongSegmentBackingArray)((LongSegment)sourceSegment).getBackingArray()).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
         LongSegment LongSegment = (LongSegment) workingSegment;
         long[] dst = ((LongSegmentBackingArray) LongSegment.getBackingArray()).data;
-        System.arraycopy(src,pos,dst,start,length);
+        IVectorSegmentBackingArray source = ((LongSegment)sourceSegment).getBackingArray();
+        if (source instanceof LongSegmentBackingArray) {
+            long[] src = ((LongSegmentBackingArray) source).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
+            System.arraycopy(src,pos,dst,start,length);
+        }
+        else {
+            IIntegralBackingArray src = (IIntegralBackingArray) source; // a sealed segment that was swapped in off heap
+            for (int i=0; i<length; i++) {
+                dst[start+i] = src.getLong(pos+i);
+            }
+        }
         LongSegment.incSize(length);
     }
 
@@ -174,7 +174,7 @@ public class ShortVector extends AbstractVector<Numeric<Short>> {
      */
     @Override
     protected Numeric<Short> get(IVectorSegment segment, int segmentIndex) {
-        Short value = ((ShortSegmentBackingArray)((ShortSegment)segment).getBackingArray()).data[segmentIndex];
+        Short value = (short) ((IIntegralBackingArray) ((ShortSegment)segment).getBackingArray()).getLong(segmentIndex);
         return new Numeric<Short>(value);
     }
 
@@ -190,10 +190,19 @@ public class ShortVector extends AbstractVector<Numeric<Short>> {
     @Override
     protected void copyPartialSegment(IVectorSegment sourceSegment, int pos, IVectorSegment workingSegment, int start, int length) throws DataSpaceException {
         // HOLD (fix before release)  support casting from other integral types #IT-492
-        short[] src = ((ShortSegmentBackingArray)((ShortSegment)sourceSegment).getBackingArray()).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
         ShortSegment ShortSegment = (ShortSegment) workingSegment;
         short[] dst = ((ShortSegmentBackingArray) ShortSegment.getBackingArray()).data;
-        System.arraycopy(src,pos,dst,start,length);
+        IVectorSegmentBackingArray source = ((ShortSegment)sourceSegment).getBackingArray();
+        if (source instanceof ShortSegmentBackingArray) {
+            short[] src = ((ShortSegmentBackingArray) source).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
+            System.arraycopy(src,pos,dst,start,length);
+        }
+        else {
+            IIntegralBackingArray src = (IIntegralBackingArray) source; // a sealed segment that was swapped in off heap
+            for (int i=0; i<length; i++) {
+                dst[start+i] = (short) src.getLong(pos+i);
+            }
+        }
         ShortSegment.incSize(length);
     }
 
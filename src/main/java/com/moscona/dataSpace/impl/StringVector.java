@@ -25,6 +25,8 @@ import com.moscona.dataSpace.impl.segment.StringSegmentStats;
 import com.moscona.exceptions.NotImplementedException;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -34,6 +36,7 @@ import java.util.List;
 public class StringVector extends AbstractVector<Text> {
     private static final long serialVersionUID = -3452523978491194815L;
     StringSegment lastCreatedSegment;
+    private boolean isIndexed = false;
 
     public StringVector(DataSpace dataSpace) {
         super(dataSpace);
@@ -160,7 +163,7 @@ public class StringVector extends AbstractVector<Text> {
      */
     @Override
     protected Text get(IVectorSegment segment, int segmentIndex) {
-        int code = ((StringSegmentBackingArray)((StringSegment)segment).getBackingArray()).data[segmentIndex];
+        int code = (int) ((IIntegralBackingArray) ((StringSegment)segment).getBackingArray()).getLong(segmentIndex);
         String value = getDataSpace().decodeToString(code);
         return new Text(value);
     }
@@ -176,13 +179,80 @@ public class StringVector extends AbstractVector<Text> {
      */
     @Override
     protected void copyPartialSegment(IVectorSegment sourceSegment, int pos, IVectorSegment workingSegment, int start, int length) throws DataSpaceException {
-        int[] src = ((StringSegmentBackingArray)((StringSegment)sourceSegment).getBackingArray()).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
         StringSegment stringSegment = (StringSegment) workingSegment;
         int[] dst = ((StringSegmentBackingArray) stringSegment.getBackingArray()).data;
-        System.arraycopy(src,pos,dst,start,length);
+        IVectorSegmentBackingArray source = ((StringSegment)sourceSegment).getBackingArray();
+        if (source instanceof StringSegmentBackingArray) {
+            int[] src = ((StringSegmentBackingArray) source).data;  // IMPORTANT: do not wrap in a method so as not to copy the array
+            System.arraycopy(src,pos,dst,start,length);
+        }
+        else {
+            IIntegralBackingArray src = (IIntegralBackingArray) source; // a sealed segment that was swapped in off heap
+            for (int i=0; i<length; i++) {
+                dst[start+i] = (int) src.getLong(pos+i);
+            }
+        }
         stringSegment.incSize(length);
     }
 
+    /**
+     * Can be called before the vector is sealed to have it build an inverted index of its dictionary codes when it is
+     * sealed (see BitmapIndex), however many distinct strings it has. Equality and set queries, unique values and
+     * unique counts are then answered from the index instead of by scanning the codes.
+     * Vectors with few distinct strings are also indexed when the data space enables it (see
+     * DataSpace.getBitmapIndexMaxValues())
+     * @param isIndexed
+     * @return this vector
+     * @throws DataSpaceException
+     */
+    public StringVector setIndexed(boolean isIndexed) throws DataSpaceException {
+        requireSealedStatus(false);
+        this.isIndexed = isIndexed;
+        return this;
+    }
+
+    public boolean isIndexed() {
+        return isIndexed;
+    }
+
+    @Override
+    protected boolean isIndexRequested() {
+        return isIndexed;
+    }
+
+    /**
+     * On an indexed vector the unique values are the strings of the index's codes, without reading the data
+     */
+    @Override
+    public List<Text> getSortedUniqueValues(int maxUnique) throws DataSpaceException {
+        BitmapIndex index = getBitmapIndex();
+        if (index == null) {
+            return super.getSortedUniqueValues(maxUnique);
+        }
+        if (index.getValueCount() > maxUnique) {
+            throw new DataSpaceException("Max unique values exceeded. Max="+maxUnique+" reached "+index.getValueCount());
+        }
+        return decodeSorted(index.getKeys());
+    }
+
+    @Override
+    public List<Text> getSortedUniqueValues(IBitMap filter) throws DataSpaceException {
+        BitmapIndex index = getBitmapIndex();
+        if (index == null || filter == null) {
+            return super.getSortedUniqueValues(filter);
+        }
+        return decodeSorted(index.getKeys(filter));
+    }
+
+    private List<Text> decodeSorted(Collection<Long> codes) {
+        ArrayList<Text> retval = new ArrayList<Text>(codes.size());
+        for (long code: codes) {
+            retval.add(new Text(getDataSpace().decodeToString((int) code)));
+        }
+        Collections.sort(retval);
+        return retval;
+    }
+
     public StringSegmentStats getDescriptiveStats() throws DataSpaceException {
         requireSealedStatus(true);
         return (StringSegmentStats) getStats().getDescriptiveStats();
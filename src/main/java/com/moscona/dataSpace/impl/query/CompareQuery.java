@@ -23,6 +23,10 @@ import com.moscona.dataSpace.exceptions.DataSpaceException;
 import com.moscona.dataSpace.impl.AbstractVector;
 import com.moscona.dataSpace.impl.query.support.*;
 import com.moscona.dataSpace.impl.segment.*;
+import com.moscona.dataSpace.util.BitMapBuilder;
+
+import java.util.function.DoublePredicate;
+import java.util.function.LongPredicate;
 
 /**
  * Created: 12/29/10 10:46 AM
@@ -142,6 +146,14 @@ public class CompareQuery<T extends IScalar> extends AbstractQueryTerm<T> {
         return true;
     }
 
+    /**
+     * The result depends on nothing but the parameters
+     */
+    @Override
+    protected boolean isResultCacheable() {
+        return true;
+    }
+
     /**
      * An opportunity for the term to be evaluated based on the segment stats alone without looking at any of the
      * concrete data
@@ -208,6 +220,43 @@ public class CompareQuery<T extends IScalar> extends AbstractQueryTerm<T> {
         throw new DataSpaceException("Should not have reached this line!");
     }
 
+    @Override
+    protected double estimateSegmentSelectivity(ISegmentStats stats, IVector<T> vector, boolean useResolution, double resolution) throws DataSpaceException {
+        switch (baseType) {
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+                double min = ((LongSegmentStats)stats).getMin() - 0.5;
+                double max = ((LongSegmentStats)stats).getMax() + 0.5;
+                switch (operator) {
+                    case LT:
+                        return estimateFractionBetween(vector, min, longBoundary - 0.5, min, max);
+                    case LE:
+                        return estimateFractionBetween(vector, min, longBoundary + 0.5, min, max);
+                    case GT:
+                        return estimateFractionBetween(vector, longBoundary + 0.5, max, min, max);
+                    case GE:
+                        return estimateFractionBetween(vector, longBoundary - 0.5, max, min, max);
+                }
+                break;
+            case DOUBLE:
+            case FLOAT:
+                double dmin = ((DoubleSegmentStats)stats).getMin();
+                double dmax = ((DoubleSegmentStats)stats).getMax();
+                switch (operator) {
+                    case LT:
+                    case LE:
+                        return estimateFractionBetween(vector, dmin, doubleBoundary, dmin, dmax);
+                    case GT:
+                    case GE:
+                        return estimateFractionBetween(vector, doubleBoundary, dmax, dmin, dmax);
+                }
+                break;
+        }
+        return DEFAULT_SEGMENT_SELECTIVITY;
+    }
+
     /**
      * Evaluates one data element at a time, returning true if it passed the match and false otherwise. This is much
      * less efficient than bulk matching, but is easier to implement and safer (immutability is guaranteed)
@@ -294,27 +343,32 @@ public class CompareQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchFloat(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult, boolean useResolution, double resolution) throws DataSpaceException {
         try {
-            float[] values = ((FloatSegmentBackingArray) ((FloatSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IFloatingPointBackingArray values = (IFloatingPointBackingArray) ((FloatSegment) segmentInfo.getSegment()).getBackingArray();
             if (useResolution) {
                 switch (operator) {
                     case LT:
-                        for (float value : values) {
-                            progressiveResult.add(value<doubleBoundary && ! (Math.abs(value-doubleBoundary)<=resolution));
+                        for (int i=0; i<values.length(); i++) {
+                            float value = (float) values.getDouble(i);
+                            result.add(value<doubleBoundary && ! (Math.abs(value-doubleBoundary)<=resolution));
                         }
                         break;
                     case LE:
-                        for (float value : values) {
-                            progressiveResult.add(value<=doubleBoundary || (Math.abs(value-doubleBoundary)<=resolution));
+                        for (int i=0; i<values.length(); i++) {
+                            float value = (float) values.getDouble(i);
+                            result.add(value<=doubleBoundary || (Math.abs(value-doubleBoundary)<=resolution));
                         }
                         break;
                     case GT:
-                        for (float value : values) {
-                            progressiveResult.add(value>doubleBoundary && ! (Math.abs(value-doubleBoundary)<=resolution));
+                        for (int i=0; i<values.length(); i++) {
+                            float value = (float) values.getDouble(i);
+                            result.add(value>doubleBoundary && ! (Math.abs(value-doubleBoundary)<=resolution));
                         }
                         break;
                     case GE:
-                        for (float value : values) {
-                            progressiveResult.add(value>=doubleBoundary || (Math.abs(value-doubleBoundary)<=resolution));
+                        for (int i=0; i<values.length(); i++) {
+                            float value = (float) values.getDouble(i);
+                            result.add(value>=doubleBoundary || (Math.abs(value-doubleBoundary)<=resolution));
                         }
                         break;
                     default:
@@ -325,29 +379,34 @@ public class CompareQuery<T extends IScalar> extends AbstractQueryTerm<T> {
                 // do not use resolution
                 switch (operator) {
                     case LT:
-                        for (float value : values) {
-                            progressiveResult.add(value<doubleBoundary);
+                        for (int i=0; i<values.length(); i++) {
+                            float value = (float) values.getDouble(i);
+                            result.add(value<doubleBoundary);
                         }
                         break;
                     case LE:
-                        for (float value : values) {
-                            progressiveResult.add(value<=doubleBoundary);
+                        for (int i=0; i<values.length(); i++) {
+                            float value = (float) values.getDouble(i);
+                            result.add(value<=doubleBoundary);
                         }
                         break;
                     case GT:
-                        for (float value : values) {
-                            progressiveResult.add(value>doubleBoundary);
+                        for (int i=0; i<values.length(); i++) {
+                            float value = (float) values.getDouble(i);
+                            result.add(value>doubleBoundary);
                         }
                         break;
                     case GE:
-                        for (float value : values) {
-                            progressiveResult.add(value>=doubleBoundary);
+                        for (int i=0; i<values.length(); i++) {
+                            float value = (float) values.getDouble(i);
+                            result.add(value>=doubleBoundary);
                         }
                         break; 
                     default:
                         throw new DataSpaceException("Should not have gotten to this line!");
                 }
             }
+            result.flush();
         }
         catch (DataSpaceException e) {
             throw e;
@@ -359,28 +418,33 @@ public class CompareQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchDouble(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult, boolean useResolution, double resolution) throws DataSpaceException {
         try {
-            double [] values = ((DoubleSegmentBackingArray) ((DoubleSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IFloatingPointBackingArray values = (IFloatingPointBackingArray) ((DoubleSegment) segmentInfo.getSegment()).getBackingArray();
 
             if (useResolution) {
                 switch (operator) {
                     case LT:
-                        for (double value : values) {
-                            progressiveResult.add(value<doubleBoundary && ! (Math.abs(value-doubleBoundary)<=resolution));
+                        for (int i=0; i<values.length(); i++) {
+                            double value = values.getDouble(i);
+                            result.add(value<doubleBoundary && ! (Math.abs(value-doubleBoundary)<=resolution));
                         }
                         break;
                     case LE:
-                        for (double value : values) {
-                            progressiveResult.add(value<=doubleBoundary || (Math.abs(value-doubleBoundary)<=resolution));
+                        for (int i=0; i<values.length(); i++) {
+                            double value = values.getDouble(i);
+                            result.add(value<=doubleBoundary || (Math.abs(value-doubleBoundary)<=resolution));
                         }
                         break;
                     case GT:
-                        for (double value : values) {
-                            progressiveResult.add(value>doubleBoundary && ! (Math.abs(value-doubleBoundary)<=resolution));
+                        for (int i=0; i<values.length(); i++) {
+                            double value = values.getDouble(i);
+                            result.add(value>doubleBoundary && ! (Math.abs(value-doubleBoundary)<=resolution));
                         }
                         break;
                     case GE:
-                        for (double value : values) {
-                            progressiveResult.add(value>=doubleBoundary || (Math.abs(value-doubleBoundary)<=resolution));
+                        for (int i=0; i<values.length(); i++) {
+                            double value = values.getDouble(i);
+                            result.add(value>=doubleBoundary || (Math.abs(value-doubleBoundary)<=resolution));
                         }
                         break;
                     default:
@@ -391,29 +455,34 @@ public class CompareQuery<T extends IScalar> extends AbstractQueryTerm<T> {
                 // do not use resolution
                 switch (operator) {
                     case LT:
-                        for (double value : values) {
-                            progressiveResult.add(value<doubleBoundary);
+                        for (int i=0; i<values.length(); i++) {
+                            double value = values.getDouble(i);
+                            result.add(value<doubleBoundary);
                         }
                         break;
                     case LE:
-                        for (double value : values) {
-                            progressiveResult.add(value<=doubleBoundary);
+                        for (int i=0; i<values.length(); i++) {
+                            double value = values.getDouble(i);
+                            result.add(value<=doubleBoundary);
                         }
                         break;
                     case GT:
-                        for (double value : values) {
-                            progressiveResult.add(value>doubleBoundary);
+                        for (int i=0; i<values.length(); i++) {
+                            double value = values.getDouble(i);
+                            result.add(value>doubleBoundary);
                         }
                         break;
                     case GE:
-                        for (double value : values) {
-                            progressiveResult.add(value>=doubleBoundary);
+                        for (int i=0; i<values.length(); i++) {
+                            double value = values.getDouble(i);
+                            result.add(value>=doubleBoundary);
                         }
                         break; 
                     default:
                         throw new DataSpaceException("Should not have gotten to this line!");
                 }
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (double): "+e,e);
@@ -422,32 +491,38 @@ public class CompareQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchByte(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
-            byte[] values = ((ByteSegmentBackingArray) ((ByteSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IIntegralBackingArray values = (IIntegralBackingArray) ((ByteSegment) segmentInfo.getSegment()).getBackingArray();
 
             switch (operator) {
                 case LT:
-                    for (byte value: values) {
-                        progressiveResult.add(value<longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value<longBoundary);
                     }
                     break;
                 case LE:
-                    for (byte value: values) {
-                        progressiveResult.add(value<=longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value<=longBoundary);
                     }
                     break;
                 case GT:
-                    for (byte value: values) {
-                        progressiveResult.add(value>longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value>longBoundary);
                     }
                     break;
                 case GE:
-                    for (byte value: values) {
-                        progressiveResult.add(value>=longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value>=longBoundary);
                     }
                     break;
                 default:
                     throw new DataSpaceException("Should not have gotten to this line!");
             }
+            result.flush();
         }
         catch (DataSpaceException e) {
             throw e;
@@ -459,32 +534,38 @@ public class CompareQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchShort(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
-            short[] values = ((ShortSegmentBackingArray) ((ShortSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IIntegralBackingArray values = (IIntegralBackingArray) ((ShortSegment) segmentInfo.getSegment()).getBackingArray();
 
             switch (operator) {
                 case LT:
-                    for (short value: values) {
-                        progressiveResult.add(value<longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value<longBoundary);
                     }
                     break;
                 case LE:
-                    for (short value: values) {
-                        progressiveResult.add(value<=longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value<=longBoundary);
                     }
                     break;
                 case GT:
-                    for (short value: values) {
-                        progressiveResult.add(value>longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value>longBoundary);
                     }
                     break;
                 case GE:
-                    for (short value: values) {
-                        progressiveResult.add(value>=longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value>=longBoundary);
                     }
                     break;
                 default:
                     throw new DataSpaceException("Should not have gotten to this line!");
             }
+            result.flush();
         }
         catch (DataSpaceException e) {
             throw e;
@@ -496,32 +577,38 @@ public class CompareQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchInteger(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
        try {
-            int[] values = ((IntegerSegmentBackingArray) ((IntegerSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IIntegralBackingArray values = (IIntegralBackingArray) ((IntegerSegment) segmentInfo.getSegment()).getBackingArray();
 
             switch (operator) {
                 case LT:
-                    for (int value: values) {
-                        progressiveResult.add(value<longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value<longBoundary);
                     }
                     break;
                 case LE:
-                    for (int value: values) {
-                        progressiveResult.add(value<=longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value<=longBoundary);
                     }
                     break;
                 case GT:
-                    for (int value: values) {
-                        progressiveResult.add(value>longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value>longBoundary);
                     }
                     break;
                 case GE:
-                    for (int value: values) {
-                        progressiveResult.add(value>=longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value>=longBoundary);
                     }
                     break;
                 default:
                     throw new DataSpaceException("Should not have gotten to this line!");
             }
+            result.flush();
         }
         catch (DataSpaceException e) {
             throw e;
@@ -533,32 +620,38 @@ public class CompareQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchLong(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
-            long[] values = ((LongSegmentBackingArray) ((LongSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IIntegralBackingArray values = (IIntegralBackingArray) ((LongSegment) segmentInfo.getSegment()).getBackingArray();
 
             switch (operator) {
                 case LT:
-                    for (long value: values) {
-                        progressiveResult.add(value<longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value<longBoundary);
                     }
                     break;
                 case LE:
-                    for (long value: values) {
-                        progressiveResult.add(value<=longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value<=longBoundary);
                     }
                     break;
                 case GT:
-                    for (long value: values) {
-                        progressiveResult.add(value>longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value>longBoundary);
                     }
                     break;
                 case GE:
-                    for (long value: values) {
-                        progressiveResult.add(value>=longBoundary);
+                    for (int i=0; i<values.length(); i++) {
+                        long value = values.getLong(i);
+                        result.add(value>=longBoundary);
                     }
                     break;
                 default:
                     throw new DataSpaceException("Should not have gotten to this line!");
             }
+            result.flush();
         }
         catch (DataSpaceException e) {
             throw e;
@@ -569,10 +662,94 @@ public class CompareQuery<T extends IScalar> extends AbstractQueryTerm<T> {
     }
 
 
+    @Override
+    protected LongPredicate longPredicate() throws DataSpaceException {
+        switch (baseType) {
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+                return new LongPredicate() {
+                    @Override
+                    public boolean test(long value) {
+                        switch (operator) {
+                            case LT:
+                                return value<longBoundary;
+                            case LE:
+                                return value<=longBoundary;
+                            case GT:
+                                return value>longBoundary;
+                            case GE:
+                            default:
+                                return value>=longBoundary;
+                        }
+                    }
+                };
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    protected DoublePredicate doublePredicate(final boolean useResolution, final double resolution) throws DataSpaceException {
+        switch (baseType) {
+            case DOUBLE:
+            case FLOAT:
+                return new DoublePredicate() {
+                    @Override
+                    public boolean test(double value) {
+                        boolean equal = useResolution && Math.abs(value-doubleBoundary)<=resolution;
+                        switch (operator) {
+                            case LT:
+                                return value<doubleBoundary && !equal;
+                            case LE:
+                                return value<=doubleBoundary || equal;
+                            case GT:
+                                return value>doubleBoundary && !equal;
+                            case GE:
+                            default:
+                                return value>=doubleBoundary || equal;
+                        }
+                    }
+                };
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The matched values extend to one end of the value range, so all the values that are not matched are either
+     * below them (for > and >=) or above them (for < and <=)
+     */
+    @Override
+    protected Long longPivot() throws DataSpaceException {
+        switch (baseType) {
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+                return operator == Operator.LT || operator == Operator.LE ? Long.MIN_VALUE : Long.MAX_VALUE;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    protected Double doublePivot() throws DataSpaceException {
+        switch (baseType) {
+            case DOUBLE:
+            case FLOAT:
+                return operator == Operator.LT || operator == Operator.LE ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+            default:
+                return null;
+        }
+    }
+
     @Override
     public String toString(IQueryParameterList params) {
+        CompareQuery<T> described = (CompareQuery<T>) lastEvaluation();
         String retval = null;
-        switch (operator) {
+        switch (described.operator) {
             case LT:
                 retval = "< ";
                 break;
@@ -589,18 +766,18 @@ public class CompareQuery<T extends IScalar> extends AbstractQueryTerm<T> {
                 return "Should not have gotten to this line! "+ StackTraceHelper.thisLineLocation();
         }
 
-        switch (baseType) {
+        switch (described.baseType) {
             case LONG:
             case INTEGER:
             case SHORT:
             case BYTE:
-                return retval+longBoundary;
+                return retval+described.longBoundary;
             case DOUBLE:
             case FLOAT:
-                return retval+doubleBoundary;
+                return retval+described.doubleBoundary;
             case STRING:
             default:
-                return "Unsupported type for compare query: "+baseType;
+                return "Unsupported type for compare query: "+described.baseType;
         }
 
     }
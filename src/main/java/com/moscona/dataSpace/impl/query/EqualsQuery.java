@@ -23,6 +23,10 @@ import com.moscona.dataSpace.exceptions.DataSpaceException;
 import com.moscona.dataSpace.impl.AbstractVector;
 import com.moscona.dataSpace.impl.query.support.*;
 import com.moscona.dataSpace.impl.segment.*;
+import com.moscona.dataSpace.util.BitMapBuilder;
+
+import java.util.function.DoublePredicate;
+import java.util.function.LongPredicate;
 
 /**
  * Created: 12/22/10 8:23 AM
@@ -219,6 +223,14 @@ public class EqualsQuery<T extends IScalar> extends AbstractQueryTerm<T> {
         return true;
     }
 
+    /**
+     * The result depends on nothing but the parameters
+     */
+    @Override
+    protected boolean isResultCacheable() {
+        return true;
+    }
+
     /**
      * An opportunity for the term to be evaluated based on the segment stats alone without looking at any of the
      * concrete data
@@ -282,6 +294,31 @@ public class EqualsQuery<T extends IScalar> extends AbstractQueryTerm<T> {
         return quickEval(longValue, longValue, min, max, true, true);
     }
 
+    @Override
+    protected double estimateSegmentSelectivity(ISegmentStats stats, IVector<T> vector, boolean useResolution, double resolution) throws DataSpaceException {
+        switch (baseType) {
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+                return estimateFractionBetween(vector, longValue - 0.5, longValue + 0.5,
+                        ((LongSegmentStats)stats).getMin() - 0.5, ((LongSegmentStats)stats).getMax() + 0.5);
+            case DOUBLE:
+            case FLOAT:
+                double single = 1.0 / Math.max(1, stats.getCount()); // an exact match is assumed to be a single value
+                if (!useResolution) {
+                    return single;
+                }
+                return Math.max(single, estimateFractionBetween(vector, doubleValue - resolution, doubleValue + resolution,
+                        ((DoubleSegmentStats)stats).getMin(), ((DoubleSegmentStats)stats).getMax()));
+            case STRING:
+                return 1.0 / estimateDistinctStrings(vector, stats);
+            case BOOLEAN:
+            default:
+                return DEFAULT_SEGMENT_SELECTIVITY;
+        }
+    }
+
     /**
      * Evaluates one data element at a time, returning true if it passed the match and false otherwise. This is much
      * less efficient than bulk matching, but is easier to implement and safer (immutability is guaranteed)
@@ -361,11 +398,14 @@ public class EqualsQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchBoolean(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
-            boolean[] values = ((BooleanSegmentBackingArray) ((LogicalSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            ILogicalBackingArray values = (ILogicalBackingArray) ((LogicalSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (boolean value : values) {
-                progressiveResult.add(value==booleanValue);
+            for (int i=0; i<values.length(); i++) {
+                boolean value = values.getBoolean(i);
+                result.add(value==booleanValue);
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (boolean): "+e,e);
@@ -374,11 +414,14 @@ public class EqualsQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchString(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
-            int[] values = ((StringSegmentBackingArray) ((StringSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IIntegralBackingArray values = (IIntegralBackingArray) ((StringSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (int value : values) {
-                progressiveResult.add(value == intValue);
+            for (int i=0; i<values.length(); i++) {
+                int value = (int) values.getLong(i);
+                result.add(value == intValue);
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (string): "+e,e);
@@ -387,11 +430,14 @@ public class EqualsQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchFloat(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult, boolean useResolution, double resolution) throws DataSpaceException {
         try {
-            float[] values = ((FloatSegmentBackingArray) ((FloatSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IFloatingPointBackingArray values = (IFloatingPointBackingArray) ((FloatSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (float value : values) {
-                progressiveResult.add(equals(doubleValue,value,resolution,useResolution));
+            for (int i=0; i<values.length(); i++) {
+                float value = (float) values.getDouble(i);
+                result.add(equals(doubleValue,value,resolution,useResolution));
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (float): "+e,e);
@@ -400,11 +446,14 @@ public class EqualsQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchDouble(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult, boolean useResolution, double resolution) throws DataSpaceException {
         try {
-            double [] values = ((DoubleSegmentBackingArray) ((DoubleSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IFloatingPointBackingArray values = (IFloatingPointBackingArray) ((DoubleSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (double value : values) {
-                progressiveResult.add(equals(doubleValue,value,resolution,useResolution));
+            for (int i=0; i<values.length(); i++) {
+                double value = values.getDouble(i);
+                result.add(equals(doubleValue,value,resolution,useResolution));
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (double): "+e,e);
@@ -413,11 +462,14 @@ public class EqualsQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchByte(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
-            byte[] values = ((ByteSegmentBackingArray) ((ByteSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IIntegralBackingArray values = (IIntegralBackingArray) ((ByteSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (byte value : values) {
-                progressiveResult.add(value==longValue);
+            for (int i=0; i<values.length(); i++) {
+                long value = values.getLong(i);
+                result.add(value==longValue);
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (byte): "+e,e);
@@ -426,11 +478,14 @@ public class EqualsQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchShort(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
-            short[] values = ((ShortSegmentBackingArray) ((ShortSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IIntegralBackingArray values = (IIntegralBackingArray) ((ShortSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (short value : values) {
-                progressiveResult.add(value==longValue);
+            for (int i=0; i<values.length(); i++) {
+                long value = values.getLong(i);
+                result.add(value==longValue);
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (short): "+e,e);
@@ -439,11 +494,14 @@ public class EqualsQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchInteger(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
        try {
-            int[] values = ((IntegerSegmentBackingArray) ((IntegerSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IIntegralBackingArray values = (IIntegralBackingArray) ((IntegerSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (int value : values) {
-                progressiveResult.add(value==longValue);
+            for (int i=0; i<values.length(); i++) {
+                long value = values.getLong(i);
+                result.add(value==longValue);
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (int): "+e,e);
@@ -452,11 +510,14 @@ public class EqualsQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchLong(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
-            long[] values = ((LongSegmentBackingArray) ((LongSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IIntegralBackingArray values = (IIntegralBackingArray) ((LongSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (long value : values) {
-                progressiveResult.add(value==longValue);
+            for (int i=0; i<values.length(); i++) {
+                long value = values.getLong(i);
+                result.add(value==longValue);
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (long): "+e,e);
@@ -465,20 +526,101 @@ public class EqualsQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
 
     @Override
-    public String toString(IQueryParameterList params) {
+    protected LongPredicate longPredicate() throws DataSpaceException {
         switch (baseType) {
             case LONG:
             case INTEGER:
             case SHORT:
             case BYTE:
-                return " = "+longValue;
+                return new LongPredicate() {
+                    @Override
+                    public boolean test(long value) {
+                        return value==longValue;
+                    }
+                };
+            case STRING:
+                return new LongPredicate() {
+                    @Override
+                    public boolean test(long value) {
+                        return (int) value == intValue;
+                    }
+                };
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    protected DoublePredicate doublePredicate(final boolean useResolution, final double resolution) throws DataSpaceException {
+        switch (baseType) {
+            case DOUBLE:
+            case FLOAT:
+                return new DoublePredicate() {
+                    @Override
+                    public boolean test(double value) {
+                        return EqualsQuery.this.equals(doubleValue,value,resolution,useResolution);
+                    }
+                };
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    protected long[] indexKeys() throws DataSpaceException {
+        switch (baseType) {
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+                return new long[] {longValue};
+            case STRING:
+                return new long[] {intValue};
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    protected Long longPivot() throws DataSpaceException {
+        switch (baseType) {
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+                return longValue;
+            default:
+                return null; // string codes are not in string order
+        }
+    }
+
+    @Override
+    protected Double doublePivot() throws DataSpaceException {
+        switch (baseType) {
+            case DOUBLE:
+            case FLOAT:
+                return doubleValue;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString(IQueryParameterList params) {
+        EqualsQuery<T> described = (EqualsQuery<T>) lastEvaluation();
+        switch (described.baseType) {
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+                return " = "+described.longValue;
             case DOUBLE:
             case FLOAT:
-                return " = " + StringHelper.prettyPrint(doubleValue);
+                return " = " + StringHelper.prettyPrint(described.doubleValue);
             case STRING:
-                return " = '"+stringValue+"'";
+                return " = '"+described.stringValue+"'";
             case BOOLEAN:
-                return " = "+booleanValue;
+                return " = "+described.booleanValue;
             default:
                 return "Unsupported type for equals query";
         }
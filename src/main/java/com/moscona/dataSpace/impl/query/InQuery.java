@@ -25,11 +25,13 @@ import com.moscona.dataSpace.impl.query.support.LongSetParameter;
 import com.moscona.dataSpace.impl.query.support.QueryParameterList;
 import com.moscona.dataSpace.impl.query.support.StringSetParameter;
 import com.moscona.dataSpace.impl.segment.*;
+import com.moscona.dataSpace.util.BitMapBuilder;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.function.LongPredicate;
 
 /**
  * Created: 12/22/10 3:52 PM
@@ -227,6 +229,14 @@ public class InQuery<T extends IScalar> extends AbstractQueryTerm<T> {
         return true;
     }
 
+    /**
+     * The result depends on nothing but the parameters
+     */
+    @Override
+    protected boolean isResultCacheable() {
+        return true;
+    }
+
     /**
      * An opportunity for the term to be evaluated based on the segment stats alone without looking at any of the
      * concrete data
@@ -314,6 +324,27 @@ public class InQuery<T extends IScalar> extends AbstractQueryTerm<T> {
         return null;
     }
 
+    @Override
+    protected double estimateSegmentSelectivity(ISegmentStats stats, IVector<T> vector, boolean useResolution, double resolution) throws DataSpaceException {
+        switch (baseType) {
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+                double min = ((LongSegmentStats)stats).getMin() - 0.5;
+                double max = ((LongSegmentStats)stats).getMax() + 0.5;
+                double fraction = 0.0;
+                for (long value: longSetValue) {
+                    fraction += estimateFractionBetween(vector, value - 0.5, value + 0.5, min, max);
+                }
+                return Math.min(1.0, fraction);
+            case STRING:
+                return Math.min(1.0, (double) stringSetValue.size() / estimateDistinctStrings(vector, stats));
+            default:
+                return DEFAULT_SEGMENT_SELECTIVITY;
+        }
+    }
+
     /**
      * Evaluates one data element at a time, returning true if it passed the match and false otherwise. This is much
      * less efficient than bulk matching, but is easier to implement and safer (immutability is guaranteed)
@@ -380,11 +411,14 @@ public class InQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchString(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
-            int[] values = ((StringSegmentBackingArray) ((StringSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IIntegralBackingArray values = (IIntegralBackingArray) ((StringSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (int value : values) {
-                progressiveResult.add(stringSetValue.contains(value));
+            for (int i=0; i<values.length(); i++) {
+                int value = (int) values.getLong(i);
+                result.add(stringSetValue.contains(value));
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (string): "+e,e);
@@ -393,11 +427,14 @@ public class InQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchByte(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
-            byte[] values = ((ByteSegmentBackingArray) ((ByteSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IIntegralBackingArray values = (IIntegralBackingArray) ((ByteSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (byte value : values) {
-                progressiveResult.add(longSetValue.contains((long)value));
+            for (int i=0; i<values.length(); i++) {
+                long value = values.getLong(i);
+                result.add(longSetValue.contains(value));
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (byte): "+e,e);
@@ -406,11 +443,14 @@ public class InQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchShort(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
-            short[] values = ((ShortSegmentBackingArray) ((ShortSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IIntegralBackingArray values = (IIntegralBackingArray) ((ShortSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (short value : values) {
-                progressiveResult.add(longSetValue.contains((long)value));
+            for (int i=0; i<values.length(); i++) {
+                long value = values.getLong(i);
+                result.add(longSetValue.contains(value));
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (short): "+e,e);
@@ -419,11 +459,14 @@ public class InQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchInteger(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
        try {
-            int[] values = ((IntegerSegmentBackingArray) ((IntegerSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IIntegralBackingArray values = (IIntegralBackingArray) ((IntegerSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (int value : values) {
-                progressiveResult.add(longSetValue.contains((long)value));
+            for (int i=0; i<values.length(); i++) {
+                long value = values.getLong(i);
+                result.add(longSetValue.contains(value));
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (int): "+e,e);
@@ -432,11 +475,14 @@ public class InQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchLong(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
-            long[] values = ((LongSegmentBackingArray) ((LongSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
+            IIntegralBackingArray values = (IIntegralBackingArray) ((LongSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (long value : values) {
-                progressiveResult.add(longSetValue.contains(value));
+            for (int i=0; i<values.length(); i++) {
+                long value = values.getLong(i);
+                result.add(longSetValue.contains(value));
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (long): "+e,e);
@@ -445,17 +491,68 @@ public class InQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
 
     @Override
-    public String toString(IQueryParameterList params) {
+    protected LongPredicate longPredicate() throws DataSpaceException {
         switch (baseType) {
             case LONG:
             case INTEGER:
             case SHORT:
             case BYTE:
-                return "in ["+ StringUtils.join(longSetValue,", ")+"]";
+                return new LongPredicate() {
+                    @Override
+                    public boolean test(long value) {
+                        return longSetValue.contains(value);
+                    }
+                };
             case STRING:
-                ArrayList<String> decoded = new ArrayList<String>();
+                return new LongPredicate() {
+                    @Override
+                    public boolean test(long value) {
+                        return stringSetValue.contains((int) value);
+                    }
+                };
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    protected long[] indexKeys() throws DataSpaceException {
+        switch (baseType) {
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+                long[] retval = new long[longSetValue.size()];
+                int i = 0;
+                for (long value: longSetValue) {
+                    retval[i++] = value;
+                }
+                return retval;
+            case STRING:
+                long[] codes = new long[stringSetValue.size()];
+                int j = 0;
                 for (int code: stringSetValue) {
-                    decoded.add(dataSpace.decodeToString(code));
+                    codes[j++] = code;
+                }
+                return codes;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString(IQueryParameterList params) {
+        InQuery<T> described = (InQuery<T>) lastEvaluation();
+        switch (described.baseType) {
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+                return "in ["+ StringUtils.join(described.longSetValue,", ")+"]";
+            case STRING:
+                ArrayList<String> decoded = new ArrayList<String>();
+                for (int code: described.stringSetValue) {
+                    decoded.add(described.dataSpace.decodeToString(code));
                 }
                 return "in ['"+ StringUtils.join(decoded,"', '")+"']";
             case DOUBLE:
@@ -22,10 +22,11 @@ import com.moscona.dataSpace.*;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
 import com.moscona.dataSpace.impl.AbstractVector;
 import com.moscona.dataSpace.impl.query.support.AbstractHistogramBasedTransformer;
+import com.moscona.dataSpace.impl.query.support.AbstractVectorTransformer;
 import com.moscona.dataSpace.impl.segment.*;
+import com.moscona.dataSpace.util.LongIntHashMap;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 /**
  * Created: 1/4/11 5:44 PM
@@ -341,6 +342,26 @@ public class RangeHistogramQuery<T extends IScalar> extends AbstractHistogramBas
         throw new DataSpaceException("Don't know how to make a range histogram for for "+baseType);
     }
 
+    @Override
+    protected boolean isMergeable() {
+        return true;
+    }
+
+    @Override
+    protected void clearAccumulators() throws DataSpaceException {
+        super.clearAccumulators();
+        binCounters = new int[binCounters.length];
+    }
+
+    @Override
+    protected void merge(AbstractVectorTransformer<T,Histogram> partial) throws DataSpaceException {
+        super.merge(partial);
+        int[] partialCounters = ((RangeHistogramQuery<T>) partial).binCounters;
+        for (int i=0; i<binCounters.length; i++) {
+            binCounters[i] += partialCounters[i];
+        }
+    }
+
     @Override
     protected boolean quickTransform(ISegmentStats stats, int segmentNumber,
                                      boolean useFiltering, int nextSelectedIndex, IPositionIterator positionIterator,
@@ -582,43 +603,49 @@ public class RangeHistogramQuery<T extends IScalar> extends AbstractHistogramBas
     }
 
     private void bulkTransform(FloatSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        float[] data = ((FloatSegmentBackingArray)segment.getBackingArray()).data;
-        for (float value: data) {
+        IFloatingPointBackingArray data = (IFloatingPointBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            float value = (float) data.getDouble(i);
             incrementDouble((double) value, 1, helper, false);
         }
     }
 
     private void bulkTransform(DoubleSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        double[] data = ((DoubleSegmentBackingArray)segment.getBackingArray()).data;
-        for (double value: data) {
+        IFloatingPointBackingArray data = (IFloatingPointBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            double value = data.getDouble(i);
             incrementDouble(value, 1, helper, false);
         }
     }
 
     private void bulkTransform(LongSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        long[] data = ((LongSegmentBackingArray)segment.getBackingArray()).data;
-        for (long value: data) {
+        IIntegralBackingArray data = (IIntegralBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            long value = data.getLong(i);
             incrementLong(value, 1, helper, false);
         }
     }
 
     private void bulkTransform(IntegerSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        int[] data = ((IntegerSegmentBackingArray)segment.getBackingArray()).data;
-        for (int value: data) {
+        IIntegralBackingArray data = (IIntegralBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            long value = data.getLong(i);
             incrementLong(value, 1, helper, false);
         }
     }
 
     private void bulkTransform(ShortSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        short[] data = ((ShortSegmentBackingArray)segment.getBackingArray()).data;
-        for (short value: data) {
+        IIntegralBackingArray data = (IIntegralBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            long value = data.getLong(i);
             incrementLong(value, 1, helper, false);
         }
     }
 
     private void bulkTransform(ByteSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        byte[] data = ((ByteSegmentBackingArray)segment.getBackingArray()).data;
-        for (byte value: data) {
+        IIntegralBackingArray data = (IIntegralBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            long value = data.getLong(i);
             incrementLong(value, 1, helper, false);
         }
     }
@@ -630,8 +657,8 @@ public class RangeHistogramQuery<T extends IScalar> extends AbstractHistogramBas
         ArrayList<Integer> count = new ArrayList<Integer>();
         ArrayList minBins = null;
         ArrayList maxBins = null;
-        HashMap<Long,Integer> longHistogramMin = makeLongHistogram(true);
-        HashMap<Long,Integer> longHistogramMax = makeLongHistogram(false);
+        LongIntHashMap longHistogramMin = makeLongHistogram(true);
+        LongIntHashMap longHistogramMax = makeLongHistogram(false);
         longHistogram = longHistogramMin;
 
         switch (baseType) {
@@ -703,8 +730,8 @@ public class RangeHistogramQuery<T extends IScalar> extends AbstractHistogramBas
         }
     }
 
-    private HashMap<Long,Integer> makeLongHistogram(boolean useMinValues) {
-        HashMap<Long,Integer> hist = new HashMap<Long,Integer>();
+    private LongIntHashMap makeLongHistogram(boolean useMinValues) {
+        LongIntHashMap hist = new LongIntHashMap();
         if (longBinBoundary != null && longBinBoundary.length != 0) {
             // we counted using long boundaries
             for (int i=0; i<binCounters.length; i++) {
@@ -23,6 +23,10 @@ import com.moscona.dataSpace.exceptions.DataSpaceException;
 import com.moscona.dataSpace.impl.AbstractVector;
 import com.moscona.dataSpace.impl.query.support.*;
 import com.moscona.dataSpace.impl.segment.*;
+import com.moscona.dataSpace.util.BitMapBuilder;
+
+import java.util.function.DoublePredicate;
+import java.util.function.LongPredicate;
 
 /**
  * Created: 12/16/10 11:58 AM
@@ -125,6 +129,14 @@ public class RangeQuery<T extends IScalar> extends AbstractQueryTerm<T> {
         return true;
     }
 
+    /**
+     * The result depends on nothing but the parameters
+     */
+    @Override
+    protected boolean isResultCacheable() {
+        return true;
+    }
+
     /**
      * An opportunity for the term to be evaluated based on the segment stats alone without looking at any of the
      * concrete data
@@ -200,6 +212,27 @@ public class RangeQuery<T extends IScalar> extends AbstractQueryTerm<T> {
         return ((LongParameter)params.get(FROM)).getValue();
     }
 
+    @Override
+    protected double estimateSegmentSelectivity(ISegmentStats stats, IVector<T> vector, boolean useResolution, double resolution) throws DataSpaceException {
+        switch (baseType) {
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+                // widen/narrow by half a unit so that the open or closed ends count the right integers
+                return estimateFractionBetween(vector,
+                        longFrom() + (leftClosed ? -0.5 : 0.5), longTo() + (rightClosed ? 0.5 : -0.5),
+                        ((LongSegmentStats)stats).getMin() - 0.5, ((LongSegmentStats)stats).getMax() + 0.5);
+            case DOUBLE:
+            case FLOAT:
+                return estimateFractionBetween(vector, doubleFrom(), doubleTo(),
+                        ((DoubleSegmentStats)stats).getMin(), ((DoubleSegmentStats)stats).getMax());
+            case STRING:
+            default:
+                return DEFAULT_SEGMENT_SELECTIVITY;
+        }
+    }
+
     /**
      * Evaluates one data element at a time, returning true if it passed the match and false otherwise. This is much
      * less efficient than bulk matching, but is easier to implement and safer (immutability is guaranteed)
@@ -272,25 +305,29 @@ public class RangeQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchFloat(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult, boolean useResolution, double resolution) throws DataSpaceException {
         try {
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
             double from = doubleFrom();
             double to = doubleTo();
 
-            float[] values = ((FloatSegmentBackingArray) ((FloatSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            IFloatingPointBackingArray values = (IFloatingPointBackingArray) ((FloatSegment) segmentInfo.getSegment()).getBackingArray();
             // HOLD  benchmark what the improvement would be if we move the leftClosed and rightClosed tests outside the loop (ending up with 8 different possible loops, but possibly improving the performance by further 10%
             if (useResolution) {
-                for (double value : values) {
-                    progressiveResult.add(
+                for (int i=0; i<values.length(); i++) {
+                    double value = values.getDouble(i);
+                    result.add(
                         (leftClosed  ? (value > from || Math.abs(value-from)<=resolution) : value > from) &&
                         (rightClosed ? (value < to   || Math.abs(value-to)<=resolution)   : value < to));
                 }
             }
             else {
-                for (double value : values) {
-                    progressiveResult.add(
+                for (int i=0; i<values.length(); i++) {
+                    double value = values.getDouble(i);
+                    result.add(
                         (leftClosed  ? (value >= from) : (value > from)) &&
                         (rightClosed ? (value <= to)   : value < to));
                 }
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (float): "+e,e);
@@ -299,29 +336,33 @@ public class RangeQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchDouble(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult, boolean useResolution, double resolution) throws DataSpaceException {
         try {
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
             double from = doubleFrom();
             double to = doubleTo();
 
-            double [] values = ((DoubleSegmentBackingArray) ((DoubleSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            IFloatingPointBackingArray values = (IFloatingPointBackingArray) ((DoubleSegment) segmentInfo.getSegment()).getBackingArray();
 
 //          // in the following inlining the Math.abs() instead of calling equals(...) gave us a 2% performance improvment. Worth keeping for this heavy use query. Inlining the Math.abs to (value>from ? value-from<=resolution : from-value<=resolution) actually *degrades* performance by a full 10% over the selected implementation...
             // a further improvement was moving the conditional on useResolution outside of the loop, gaining 10% in performance over the last checked in version with a benchmark of 12.5ms
             // HOLD  benchmark what the improvement would be if we move the leftClosed and rightClosed tests outside the loop (ending up with 8 different possible loops, but possibly improving the performance by further 10%
 
             if (useResolution) {
-                for (double value : values) {
-                    progressiveResult.add(
+                for (int i=0; i<values.length(); i++) {
+                    double value = values.getDouble(i);
+                    result.add(
                         (leftClosed  ? (value > from || Math.abs(value-from)<=resolution) : value > from) &&
                         (rightClosed ? (value < to|| Math.abs(value-to)<=resolution)   : value < to));
                 }
             }
             else {
-                for (double value : values) {
-                    progressiveResult.add(
+                for (int i=0; i<values.length(); i++) {
+                    double value = values.getDouble(i);
+                    result.add(
                         (leftClosed  ? (value >= from) : (value > from)) &&
                         (rightClosed ? (value <= to)   : value < to));
                 }
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (double): "+e,e);
@@ -330,16 +371,19 @@ public class RangeQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchByte(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
             long from = longFrom();
             long to = longTo();
 
-            byte[] values = ((ByteSegmentBackingArray) ((ByteSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            IIntegralBackingArray values = (IIntegralBackingArray) ((ByteSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (byte value : values) {
-                progressiveResult.add(
+            for (int i=0; i<values.length(); i++) {
+                long value = values.getLong(i);
+                result.add(
                         (leftClosed  ? value >= from : value > from) &&
                         (rightClosed ? value <= to   : value < to));
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (byte): "+e,e);
@@ -348,16 +392,19 @@ public class RangeQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchShort(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
             long from = longFrom();
             long to = longTo();
 
-            short[] values = ((ShortSegmentBackingArray) ((ShortSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            IIntegralBackingArray values = (IIntegralBackingArray) ((ShortSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (short value : values) {
-                progressiveResult.add(
+            for (int i=0; i<values.length(); i++) {
+                long value = values.getLong(i);
+                result.add(
                         (leftClosed  ? value >= from : value > from) &&
                         (rightClosed ? value <= to   : value < to));
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (short): "+e,e);
@@ -366,16 +413,19 @@ public class RangeQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchInteger(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
        try {
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
             long from = longFrom();
             long to = longTo();
 
-            int[] values = ((IntegerSegmentBackingArray) ((IntegerSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            IIntegralBackingArray values = (IIntegralBackingArray) ((IntegerSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (int value : values) {
-                progressiveResult.add(
+            for (int i=0; i<values.length(); i++) {
+                long value = values.getLong(i);
+                result.add(
                         (leftClosed  ? value >= from : value > from) &&
                         (rightClosed ? value <= to   : value < to));
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (int): "+e,e); 
@@ -384,16 +434,19 @@ public class RangeQuery<T extends IScalar> extends AbstractQueryTerm<T> {
 
     private void bulkMatchLong(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult) throws DataSpaceException {
         try {
+            BitMapBuilder result = new BitMapBuilder(progressiveResult);
             long from = longFrom();
             long to = longTo();
 
-            long[] values = ((LongSegmentBackingArray) ((LongSegment) segmentInfo.getSegment()).getBackingArray()).data;
+            IIntegralBackingArray values = (IIntegralBackingArray) ((LongSegment) segmentInfo.getSegment()).getBackingArray();
 
-            for (long value : values) {
-                progressiveResult.add(
+            for (int i=0; i<values.length(); i++) {
+                long value = values.getLong(i);
+                result.add(
                         (leftClosed  ? value >= from : value > from) &&
                         (rightClosed ? value <= to   : value < to));
             }
+            result.flush();
         }
         catch (Exception e) {
             throw new DataSpaceException("Exception while bulk matching segment (long): "+e,e);
@@ -401,27 +454,105 @@ public class RangeQuery<T extends IScalar> extends AbstractQueryTerm<T> {
     }
 
 
+    @Override
+    protected LongPredicate longPredicate() throws DataSpaceException {
+        switch (baseType) {
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+                final long from = longFrom();
+                final long to = longTo();
+                return new LongPredicate() {
+                    @Override
+                    public boolean test(long value) {
+                        return (leftClosed  ? value >= from : value > from) &&
+                               (rightClosed ? value <= to   : value < to);
+                    }
+                };
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    protected DoublePredicate doublePredicate(final boolean useResolution, final double resolution) throws DataSpaceException {
+        switch (baseType) {
+            case DOUBLE:
+            case FLOAT:
+                final double from = doubleFrom();
+                final double to = doubleTo();
+                return new DoublePredicate() {
+                    @Override
+                    public boolean test(double value) {
+                        if (useResolution) {
+                            return (leftClosed  ? (value > from || Math.abs(value-from)<=resolution) : value > from) &&
+                                   (rightClosed ? (value < to   || Math.abs(value-to)<=resolution)   : value < to);
+                        }
+                        return (leftClosed  ? (value >= from) : (value > from)) &&
+                               (rightClosed ? (value <= to)   : value < to);
+                    }
+                };
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The upper end of the range: the values that are not in the range and below it are below the range
+     */
+    @Override
+    protected Long longPivot() throws DataSpaceException {
+        switch (baseType) {
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+                if (longFrom() > longTo()) {
+                    throw new DataSpaceException("Invalid parameters from>to: "+longFrom()+">"+longTo());
+                }
+                return longTo();
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    protected Double doublePivot() throws DataSpaceException {
+        switch (baseType) {
+            case DOUBLE:
+            case FLOAT:
+                if (doubleFrom() > doubleTo()) {
+                    throw new DataSpaceException("Invalid parameters from>to: "+doubleFrom()+">"+doubleTo());
+                }
+                return doubleTo();
+            default:
+                return null;
+        }
+    }
+
     @Override
     public String toString(IQueryParameterList params) {
-        IQueryParameterList original = this.params;
-        this.params = params;
-        String retval = leftClosed ? "in [" : "(";
         String from = "?";
         String to = "?";
+        RangeQuery<T> described;
 
         try {
-            switch (baseType) {
+            // describe using a copy of the last evaluation so that the term itself is left untouched
+            described = (RangeQuery<T>) ((RangeQuery<T>) lastEvaluation()).newEvaluation();
+            described.params = params;
+            switch (described.baseType) {
                 case LONG:
                 case INTEGER:
                 case SHORT:
                 case BYTE:
-                    from = StringHelper.prettyPrint(longFrom());
-                    to = StringHelper.prettyPrint(longTo());
+                    from = StringHelper.prettyPrint(described.longFrom());
+                    to = StringHelper.prettyPrint(described.longTo());
                     break;
                 case DOUBLE:
                 case FLOAT:
-                    from = StringHelper.prettyPrint(doubleFrom());
-                    to = StringHelper.prettyPrint(doubleTo());
+                    from = StringHelper.prettyPrint(described.doubleFrom());
+                    to = StringHelper.prettyPrint(described.doubleTo());
                     break;
                 case STRING:
                 default:
@@ -433,9 +564,9 @@ public class RangeQuery<T extends IScalar> extends AbstractQueryTerm<T> {
             return "{Exception int RangeQuery.toString(): "+e+"}";
         }
 
+        String retval = described.leftClosed ? "in [" : "(";
         retval += from+".."+to;
-        retval += (rightClosed ? "]" : ")");
-        this.params = original;
+        retval += (described.rightClosed ? "]" : ")");
 
         return retval;
     }
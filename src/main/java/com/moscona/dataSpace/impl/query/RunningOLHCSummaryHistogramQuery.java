@@ -291,62 +291,62 @@ public class RunningOLHCSummaryHistogramQuery<T extends IScalar> extends Abstrac
     }
 
     private void bulkTransform(FloatSegment segment) throws DataSpaceException {
-        float[] data = ((FloatSegmentBackingArray)segment.getBackingArray()).data;
-        int stopIndex = segment.startingIndex()+data.length-1;
+        IFloatingPointBackingArray data = (IFloatingPointBackingArray) segment.getBackingArray();
+        int stopIndex = segment.startingIndex()+data.length()-1;
 
         while (hasNext && nextTrue <= stopIndex && collectedCount < cardinality) {
-            int i = nextIndex(data.length-1, segment.startingIndex());
-            addDataPoint(data[i]);
+            int i = nextIndex(data.length()-1, segment.startingIndex());
+            addDataPoint(data.getDouble(i));
         }
     }
 
     private void bulkTransform(DoubleSegment segment) throws DataSpaceException {
-        double[] data = ((DoubleSegmentBackingArray)segment.getBackingArray()).data;
-        int stopIndex = segment.startingIndex()+data.length-1;
+        IFloatingPointBackingArray data = (IFloatingPointBackingArray) segment.getBackingArray();
+        int stopIndex = segment.startingIndex()+data.length()-1;
 
         while (hasNext && nextTrue <= stopIndex && collectedCount < cardinality) {
-            int i = nextIndex(data.length-1, segment.startingIndex());
-            addDataPoint(data[i]);
+            int i = nextIndex(data.length()-1, segment.startingIndex());
+            addDataPoint(data.getDouble(i));
         }
     }
 
     private void bulkTransform(LongSegment segment) throws DataSpaceException {
-        long[] data = ((LongSegmentBackingArray)segment.getBackingArray()).data;
-        int stopIndex = segment.startingIndex()+data.length-1;
+        IIntegralBackingArray data = (IIntegralBackingArray) segment.getBackingArray();
+        int stopIndex = segment.startingIndex()+data.length()-1;
 
         while (hasNext && nextTrue <= stopIndex && collectedCount < cardinality) {
-            int i = nextIndex(data.length-1, segment.startingIndex());
-            addDataPoint(data[i]);
+            int i = nextIndex(data.length()-1, segment.startingIndex());
+            addDataPoint(data.getLong(i));
         }
     }
 
     private void bulkTransform(IntegerSegment segment) throws DataSpaceException {
-        int[] data = ((IntegerSegmentBackingArray)segment.getBackingArray()).data;
-        int stopIndex = segment.startingIndex()+data.length-1;
+        IIntegralBackingArray data = (IIntegralBackingArray) segment.getBackingArray();
+        int stopIndex = segment.startingIndex()+data.length()-1;
 
         while (hasNext && nextTrue <= stopIndex && collectedCount < cardinality) {
-            int i = nextIndex(data.length-1, segment.startingIndex());
-            addDataPoint(data[i]);
+            int i = nextIndex(data.length()-1, segment.startingIndex());
+            addDataPoint(data.getLong(i));
         }
     }
 
     private void bulkTransform(ShortSegment segment) throws DataSpaceException {
-        short[] data = ((ShortSegmentBackingArray)segment.getBackingArray()).data;
-        int stopIndex = segment.startingIndex()+data.length-1;
+        IIntegralBackingArray data = (IIntegralBackingArray) segment.getBackingArray();
+        int stopIndex = segment.startingIndex()+data.length()-1;
 
         while (hasNext && nextTrue <= stopIndex && collectedCount < cardinality) {
-            int i = nextIndex(data.length-1, segment.startingIndex());
-            addDataPoint(data[i]);
+            int i = nextIndex(data.length()-1, segment.startingIndex());
+            addDataPoint(data.getLong(i));
         }
     }
 
     private void bulkTransform(ByteSegment segment) throws DataSpaceException {
-        byte[] data = ((ByteSegmentBackingArray)segment.getBackingArray()).data;
-        int stopIndex = segment.startingIndex()+data.length-1;
+        IIntegralBackingArray data = (IIntegralBackingArray) segment.getBackingArray();
+        int stopIndex = segment.startingIndex()+data.length()-1;
 
         while (hasNext && nextTrue <= stopIndex && collectedCount < cardinality) {
-            int i = nextIndex(data.length-1, segment.startingIndex());
-            addDataPoint(data[i]);
+            int i = nextIndex(data.length()-1, segment.startingIndex());
+            addDataPoint(data.getLong(i));
         }
     }
 
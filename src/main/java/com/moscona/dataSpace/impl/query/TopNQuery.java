@@ -21,9 +21,14 @@ import com.moscona.dataSpace.*;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
 import com.moscona.dataSpace.impl.AbstractVector;
 import com.moscona.dataSpace.impl.query.support.AbstractHistogramBasedTransformer;
+import com.moscona.dataSpace.impl.query.support.AbstractVectorTransformer;
 import com.moscona.dataSpace.impl.segment.*;
+import com.moscona.dataSpace.util.BoundedLongHeap;
+import com.moscona.dataSpace.util.IntIntHashMap;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created: 12/30/10 4:00 PM
@@ -36,16 +41,29 @@ import java.util.*;
  * - Or make a set out of the values and do an in query on the set (useful for Strings)
  *
  *
- * IMPORTANT this is not a very efficient method and should only be used on smallish vectors (e.g. subsets after performing some filtering query)
+ * Numbers are kept in a primitive heap of keys (the value for top N, its bitwise complement for bottom N, so the heap
+ * always keeps the largest keys) and counted in a primitive map. Every element is first compared against the bottom of
+ * the full heap, which rejects almost all of them with a single comparison. Strings are kept by dictionary code: a code
+ * is decoded and compared only the first time it is seen, after that it is either counted or known to be out.
+ *
+ * Segments whose stats show they cannot hold a top (bottom) N value are skipped. The threshold for that is the bottom
+ * of a full heap, and in a parallel transformation each partial also publishes its own to a threshold shared by all
+ * the partials, so every partial skips what any of them already knows is out.
  */
 public class TopNQuery<T extends IScalar>  extends AbstractHistogramBasedTransformer<T> {
     public static final int MAX_N = 10000;
+    private static final int REJECTED = -1; // a code count for strings that cannot make it into the result
     private boolean isTop;
     private short n;
-    private PriorityQueue<String> topNString;
-    private PriorityQueue<Long> topNLong;
+    private long flip; // key = value ^ flip: 0 for top N, all ones (bitwise complement) for bottom N
+    private BoundedLongHeap topNLong; // the keys of the values in the result
+    private long rejectBelow = Long.MIN_VALUE; // keys below this cannot make it into the result
+    private PriorityQueue<String> topNString; // the strings in the result, worst first
+    private IntIntHashMap codeCounts; // string counts by dictionary code, REJECTED for those known to be out
     private boolean useResolution = false;
-    private boolean isFirst = true;
+    // shared by all the partials of one transformation (see newPartial())
+    private AtomicLong sharedThreshold = null; // a key
+    private AtomicReference<String> sharedStringThreshold = null;
 
     /**
      * Creates a topN query. It produces a histogram of the top/bottom N values in the vector with a count of how many
@@ -63,18 +81,14 @@ public class TopNQuery<T extends IScalar>  extends AbstractHistogramBasedTransfo
 
         this.isTop = isTop;
         this.n = n;
+        flip = isTop ? 0L : -1L;
+        topNLong = new BoundedLongHeap(Math.max(0, (int) n));
+        codeCounts = new IntIntHashMap();
         if (isTop) {
-            topNLong = new PriorityQueue<Long>(n+1);
             topNString = new PriorityQueue<String>(n+1);
         }
         else {
             // Bottom N - reverse comparison
-            topNLong = new PriorityQueue<Long>(n+1, new Comparator<Long>() {
-                @Override
-                public int compare(Long o1, Long o2) {
-                    return o2.compareTo(o1);
-                }
-            });
             topNString = new PriorityQueue<String>(n+1, new Comparator<String>() {
                 @Override
                 public int compare(String o1, String o2) {
@@ -88,17 +102,24 @@ public class TopNQuery<T extends IScalar>  extends AbstractHistogramBasedTransfo
     protected void initializeTransformation(IVector<T> vector) throws DataSpaceException {
         dataSpace = vector.getDataSpace();
         baseType = vector.getBaseType();
+        sharedThreshold = new AtomicLong(Long.MIN_VALUE);
+        sharedStringThreshold = new AtomicReference<String>(null);
         switch (baseType) {
             case FLOAT:
             case DOUBLE:
                 resolution = ((INumericResolutionSupport)vector).getResolution();
                 useResolution = true;
                 break;
+            case STRING:
+                if (codeCounts.size() == 0) {
+                    codeCounts = new IntIntHashMap(0, dataSpace.getStringCodeCount() - 1);
+                }
+                useResolution = false;
+                break;
             case BYTE:
             case SHORT:
             case INTEGER:
             case LONG:
-            case STRING:
                 useResolution = false;
                 break;
             case BOOLEAN:
@@ -132,37 +153,131 @@ public class TopNQuery<T extends IScalar>  extends AbstractHistogramBasedTransfo
     }
 
     private boolean realQuickTransform(DoubleSegmentStats stats) {
-        if (topNLong.isEmpty()) {
-            return false;
-        }
-
-        long bottom = topNLong.peek();
-        long test = isTop ? round(stats.getMax()) : round(stats.getMin());
-        return isTop ? test<bottom : test>bottom;
+        long best = isTop ? round(stats.getMax()) : round(stats.getMin());
+        return (best ^ flip) < longThreshold();
     }
 
     private boolean longQuickTransform(LongSegmentStats stats) throws DataSpaceException {
+        // if the segment is all smaller (in case of top) than the bottom of the full heap then we can eliminate
+        // the whole segment
+        long best = isTop ? stats.getMax() : stats.getMin();
+        return (best ^ flip) < longThreshold();
+    }
+
+    private boolean stringQuickTransform(StringSegmentStats stats) {
         // if the segment is all smaller (in case of top) than the minimum of the priority queue then we can eliminate
         // the whole segment
-        if (topNLong.isEmpty()) {
+        String bottom = stringThreshold();
+        if (bottom == null) {
             return false;
         }
+        String test = isTop ? stats.getMax() : stats.getMin();
+        return compare(test, bottom) < 0;
+    }
 
-        long bottom = topNLong.peek();
-        long test = isTop ? stats.getMax() : stats.getMin();
-        return isTop ? test<bottom : test>bottom;
+    /**
+     * The key below which nothing can make it into the result: the tighter of the shared threshold and the bottom of
+     * our own heap (rejectBelow, which only counts once the heap is full, as until then any value may still get in)
+     */
+    private long longThreshold() {
+        return Math.max(rejectBelow, sharedThreshold.get());
     }
 
-    private boolean stringQuickTransform(StringSegmentStats stats) {
-        if (topNString.isEmpty()) {
-            return false;
+    /**
+     * @return the string equivalent of longThreshold(), null if there is no threshold yet
+     */
+    private String stringThreshold() {
+        String threshold = sharedStringThreshold.get();
+        if (topNString.size() >= n && !topNString.isEmpty()) {
+            String bottom = topNString.peek();
+            if (threshold == null || compare(bottom, threshold) > 0) {
+                threshold = bottom;
+            }
         }
+        return threshold;
+    }
 
-        // if the segment is all smaller (in case of top) than the minimum of the priority queue then we can eliminate
-        // the whole segment
-        String bottom = topNString.peek();
-        String test = isTop ? stats.getMax() : stats.getMin();
-        return test.compareTo(bottom) * (isTop ? 1 : -1) < 0;
+    /**
+     * Compares strings in the order of the result: positive if a is better than b
+     */
+    private int compare(String a, String b) {
+        return isTop ? a.compareTo(b) : b.compareTo(a);
+    }
+
+    /**
+     * Tightens the shared thresholds with our own, if we have one
+     */
+    private void publishThresholds() {
+        long bottom = rejectBelow;
+        long current = sharedThreshold.get();
+        while (bottom > current && !sharedThreshold.compareAndSet(current, bottom)) {
+            current = sharedThreshold.get();
+        }
+        if (topNString.size() >= n && !topNString.isEmpty()) {
+            String stringBottom = topNString.peek();
+            String currentString = sharedStringThreshold.get();
+            while ((currentString == null || compare(stringBottom, currentString) > 0) &&
+                    !sharedStringThreshold.compareAndSet(currentString, stringBottom)) {
+                currentString = sharedStringThreshold.get();
+            }
+        }
+    }
+
+    @Override
+    protected boolean isMergeable() {
+        return true;
+    }
+
+    @Override
+    protected void clearAccumulators() throws DataSpaceException {
+        super.clearAccumulators();
+        topNLong = new BoundedLongHeap(topNLong.capacity());
+        rejectBelow = Long.MIN_VALUE;
+        topNString = new PriorityQueue<String>(n+1, topNString.comparator());
+        codeCounts = codeCounts.emptyCopy();
+    }
+
+    /**
+     * Unions the partial's top N values into ours, keeping the best N. Any value in the overall top N is in the top N
+     * of every segment it occurs in, so its counts add up exactly.
+     */
+    @Override
+    protected void merge(AbstractVectorTransformer<T,Histogram> partial) throws DataSpaceException {
+        TopNQuery<T> other = (TopNQuery<T>) partial;
+        for (long value: other.longHistogram.keys()) {
+            int count = other.longHistogram.get(value);
+            if (longHistogram.addIfPresent(value, count) || offerLong(value, count)) {
+                if (other.doubleValues.containsKey(value)) {
+                    doubleValues.put(value, other.doubleValues.get(value));
+                }
+            }
+        }
+
+        for (int code: other.codeCounts.keys()) {
+            int count = other.codeCounts.get(code);
+            if (count <= 0) {
+                continue;
+            }
+            int ourCount = codeCounts.get(code);
+            if (ourCount > 0) {
+                codeCounts.put(code, ourCount + count);
+            }
+            else if (ourCount == 0 && offerString(code)) {
+                codeCounts.put(code, count);
+            }
+            // else we already know it is out
+        }
+    }
+
+    @Override
+    protected Histogram finishTransformation() throws DataSpaceException {
+        for (int code: codeCounts.keys()) {
+            int count = codeCounts.get(code);
+            if (count > 0) {
+                stringHistogram.put(dataSpace.decodeToString(code), count);
+            }
+        }
+        return super.finishTransformation();
     }
 
     @Override
@@ -178,214 +293,135 @@ public class TopNQuery<T extends IScalar>  extends AbstractHistogramBasedTransfo
         // support filtering
         int startIndex = vectorSegmentSize*segmentInfo.getSegmentNumber();
         FilteredQueryHelper helper = useFiltering ? new FilteredQueryHelper(startIndex, nextSelectedIndex, positionIterator) : null;
+        rejectBelow = longThreshold(); // pick up what the other partials found out so far
 
+        IVectorSegment segment = segmentInfo.getSegment();
         switch (baseType) {
             case FLOAT:
-                bulkTransform((FloatSegment) (segmentInfo.getSegment()), helper);
+                bulkTransform((IFloatingPointBackingArray) ((FloatSegment) segment).getBackingArray(), true, helper);
                 break;
-            case DOUBLE: 
-                bulkTransform((DoubleSegment) (segmentInfo.getSegment()), helper);
+            case DOUBLE:
+                bulkTransform((IFloatingPointBackingArray) ((DoubleSegment) segment).getBackingArray(), false, helper);
                 break;
-            case BYTE: 
-                bulkTransform((ByteSegment) (segmentInfo.getSegment()), helper);
+            case BYTE:
+                bulkTransform((IIntegralBackingArray) ((ByteSegment) segment).getBackingArray(), helper);
                 break;
-            case SHORT: 
-                bulkTransform((ShortSegment) (segmentInfo.getSegment()), helper);
+            case SHORT:
+                bulkTransform((IIntegralBackingArray) ((ShortSegment) segment).getBackingArray(), helper);
                 break;
-            case INTEGER: 
-                bulkTransform((IntegerSegment) (segmentInfo.getSegment()), helper);
+            case INTEGER:
+                bulkTransform((IIntegralBackingArray) ((IntegerSegment) segment).getBackingArray(), helper);
                 break;
-            case LONG: 
-                bulkTransform((LongSegment) (segmentInfo.getSegment()), helper);
+            case LONG:
+                bulkTransform((IIntegralBackingArray) ((LongSegment) segment).getBackingArray(), helper);
                 break;
-            case STRING: 
-                bulkTransform((StringSegment) (segmentInfo.getSegment()), helper);
+            case STRING:
+                bulkTransform((StringSegment) segment, helper);
                 break;
             case BOOLEAN:  
             default:
                 throw new DataSpaceException("Don't know how to do TopN for "+baseType);
         }
+        publishThresholds();
     }
 
-    private void bulkTransform(FloatSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        float[] data = ((FloatSegmentBackingArray)segment.getBackingArray()).data;
-        for (float value: data) {
-            handleLong(round(value), (double)value, helper);
-        }
-    }
-
-    private void bulkTransform(DoubleSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        double[] data = ((DoubleSegmentBackingArray)segment.getBackingArray()).data;
-        for (double value: data) {
-            handleLong(round(value), value, helper);
-        }
-    }
-    
-    private void bulkTransform(LongSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        long[] data = ((LongSegmentBackingArray)segment.getBackingArray()).data;
-        for (long value: data) {              
-            handleLong(value, null, helper);
-        }
-    }
-
-    private void bulkTransform(IntegerSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        int[] data = ((IntegerSegmentBackingArray)segment.getBackingArray()).data;
-        for (int value: data) {
-            handleLong(value, null, helper);
-        }
-    }
-
-    private void bulkTransform(ShortSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        short[] data = ((ShortSegmentBackingArray)segment.getBackingArray()).data;
-        for (short value: data) {
-            handleLong(value, null, helper);
-        }
-    }
-
-    private void bulkTransform(ByteSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        byte[] data = ((ByteSegmentBackingArray)segment.getBackingArray()).data;
-        for (byte value: data) {
-            handleLong(value, null, helper);
-        }
-    }
-
-    private void handleLong(long value, Double actual, FilteredQueryHelper helper) throws DataSpaceException {
-        if (helper != null) {
-            // we're using filtering so should first make sure that we need to do this
-            if (! helper.isNextSelected()) {
-                return; // skip this one
+    private void bulkTransform(IFloatingPointBackingArray data, boolean isFloat, FilteredQueryHelper helper) throws DataSpaceException {
+        for (int i=0; i<data.length(); i++) {
+            if (helper != null && ! helper.isNextSelected()) {
+                continue; // we're using filtering and this one is not selected
             }
-        }
-
-        // special case for first element
-        if (isFirst) {
-            isFirst = false;
-            topNLong.add(value);
-            longHistogram.put(value, 1);
-            addDoubleActual(value, actual);
-            return;
-        }
-
-        // check whether there's a point in adding/removing etc
-        long bottom = topNLong.peek();
-        if (isTop) {
-            if (bottom <= value || topNLong.size() < n) {
-                // value in the top N
-                longHistogramAdd(value);
-                addDoubleActual(value,actual);
+            double actual = isFloat ? (double) (float) data.getDouble(i) : data.getDouble(i);
+            long value = round(actual);
+            if ((value ^ flip) < rejectBelow) {
+                continue; // cannot make it into the result
             }
-            else {
-                // value is below the top N - ignore it
-                return;
+            if (longHistogram.addIfPresent(value, 1) || offerLong(value, 1)) {
+                doubleValues.put(value, actual);
             }
         }
-        else {
-            if (bottom >= value || topNLong.size() < n) {
-                // value in the bottom N
-                longHistogramAdd(value);
-                addDoubleActual(value,actual);
+    }
+
+    private void bulkTransform(IIntegralBackingArray data, FilteredQueryHelper helper) throws DataSpaceException {
+        for (int i=0; i<data.length(); i++) {
+            if (helper != null && ! helper.isNextSelected()) {
+                continue; // we're using filtering and this one is not selected
             }
-            else {
-                // value is above the bottom N - ignore it
-                return;
+            long value = data.getLong(i);
+            if ((value ^ flip) < rejectBelow) {
+                continue; // cannot make it into the result
             }
-        }
-
-        // new value - update the structures if it's new
-
-        if (! topNLong.contains(value)) {
-            topNLong.add(value);
-            if (topNLong.size()>n) {
-                long removed = topNLong.poll();
-                longHistogram.remove(removed);
-                removeDoubleActual(removed, actual);
+            if (! longHistogram.addIfPresent(value, 1)) {
+                offerLong(value, 1);
             }
         }
     }
 
-    private void longHistogramAdd(long value) {
-        if (longHistogram.containsKey(value)) {
-            longHistogram.put(value, longHistogram.get(value) + 1);
-        }
-        else {
-            longHistogram.put(value,1);
-        }
-    }
-
-    private void stringHistogramAdd(String value) {
-        if (stringHistogram.containsKey(value)) {
-            stringHistogram.put(value, stringHistogram.get(value)+1);
+    /**
+     * Offers a value that is not in the result yet
+     * @param value the value
+     * @param count its count so far
+     * @return true if the value made it into the result
+     */
+    private boolean offerLong(long value, int count) {
+        long key = value ^ flip;
+        if (! topNLong.isFull()) {
+            if (topNLong.capacity() == 0) {
+                return false;
+            }
+            topNLong.add(key);
         }
         else {
-            stringHistogram.put(value,1);
-        }
-    }
-
-    private void removeDoubleActual(long rounded, Double actual) {
-        if (actual!=null) {
-            doubleValues.remove(rounded);
+            if (key < topNLong.peek()) {
+                return false;
+            }
+            long removed = topNLong.replaceTop(key) ^ flip;
+            longHistogram.remove(removed);
+            doubleValues.remove(removed);
         }
-    }
-
-    private void addDoubleActual(long rounded, Double actual) {
-        if (actual!=null) {
-            doubleValues.put(rounded,actual);
+        longHistogram.put(value, count);
+        if (topNLong.isFull()) {
+            rejectBelow = Math.max(rejectBelow, topNLong.peek());
         }
+        return true;
     }
 
     private void bulkTransform(StringSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        int[] data = ((StringSegmentBackingArray)segment.getBackingArray()).data;
-        for (int value: data) {
-            if (helper != null) {
-                // we're using filtering so should first make sure that we need to do this
-                if (! helper.isNextSelected()) {
-                    continue; // skip this one
-                }
-            }
-
-            String stringValue = dataSpace.decodeToString(value);
-
-            // special case for first element
-            if (isFirst) {
-                isFirst = false;
-                topNString.add(stringValue);
-                stringHistogram.put(stringValue, 1);
-                continue;
+        IIntegralBackingArray data = (IIntegralBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            if (helper != null && ! helper.isNextSelected()) {
+                continue; // we're using filtering and this one is not selected
             }
-
-            // check whether there's a point in adding/removing etc
-            String bottom = topNString.peek();
-            if (isTop) {
-                if (bottom.compareTo(stringValue)<=0 /*bottom <= value*/ || topNString.size() < n) {
-                    // value in the top N
-                    stringHistogramAdd(stringValue);
-                }
-                else {
-                    // value is below the top N - ignore it
-                    continue;
-                }
+            int code = (int) data.getLong(i);
+            int count = codeCounts.get(code);
+            if (count > 0) {
+                codeCounts.put(code, count + 1);
             }
-            else {
-                if (bottom.compareTo(stringValue) >= 0 /*bottom >= value*/ || topNString.size() < n) {
-                    // value in the bottom N
-                    stringHistogramAdd(stringValue);
-                }
-                else {
-                    // value is above the bottom N - ignore it
-                    continue;
-                }
+            else if (count == 0 && offerString(code)) {
+                codeCounts.put(code, 1);
             }
+            // else it is known to be out
+        }
+    }
 
-            // new value - update the structures if it's new
-
-            if (! topNString.contains(stringValue)) {
-                topNString.add(stringValue);
-                if (topNString.size()>n) {
-                    String removed = topNString.poll();
-                    stringHistogram.remove(removed);
-                }
-            }
+    /**
+     * Offers a string code seen for the first time: decodes it and either adds it to the result (evicting the
+     * current bottom if the result is full) or marks it as REJECTED
+     * @param code the dictionary code
+     * @return true if the string made it into the result (its count is left for the caller to set)
+     */
+    private boolean offerString(int code) {
+        String value = dataSpace.decodeToString(code);
+        String threshold = stringThreshold();
+        if (n == 0 || (threshold != null && compare(value, threshold) < 0)) {
+            codeCounts.put(code, REJECTED);
+            return false;
         }
+        if (topNString.size() >= n) {
+            String removed = topNString.poll();
+            codeCounts.put(dataSpace.getCode(removed), REJECTED);
+        }
+        topNString.add(value);
+        return true;
     }
 
     @Override
@@ -20,7 +20,9 @@ package com.moscona.dataSpace.impl.query;
 import com.moscona.dataSpace.*;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
 import com.moscona.dataSpace.impl.AbstractVector;
+import com.moscona.dataSpace.impl.BitmapIndex;
 import com.moscona.dataSpace.impl.query.support.AbstractHistogramBasedTransformer;
+import com.moscona.dataSpace.impl.query.support.AbstractVectorTransformer;
 import com.moscona.dataSpace.impl.segment.*;
 
 /**
@@ -58,6 +60,48 @@ public class UniqueValueHistogramQuery<T extends IScalar> extends AbstractHistog
             default:
                 throw new DataSpaceException("Don't know how to make a histogram for for "+baseType);
         }
+        initializeHistograms(vector);
+    }
+
+    /**
+     * On a vector with a bitmap index (see BitmapIndex) the histogram is read from the cardinalities of the index
+     * bitmaps (intersected with the selection if there is one) without reading the vector's data
+     */
+    @Override
+    public Histogram transform(IVector<T> vector, IBitMap selection, IQueryState queryState) throws DataSpaceException {
+        BitmapIndex index = AbstractVector.class.isAssignableFrom(vector.getClass()) && vector.isReadyToQuery() ?
+                ((AbstractVector<T>) vector).getBitmapIndex() : null;
+        if (index == null) {
+            return super.transform(vector, selection, queryState);
+        }
+
+        setSelection(selection);
+        if (selection != null && selection.isEmpty()) {
+            return null; // nothing selected
+        }
+        queryState.markVectorEvaluationStart();
+        try {
+            initializeTransformation(vector);
+            queryState.incIndexLookups();
+            for (long key: index.getKeys()) {
+                int count = selection == null ? index.count(key) : index.count(key, selection);
+                if (count == 0) {
+                    continue;
+                }
+                if (baseType == IVector.BaseType.STRING) {
+                    incrementStringCode((int) key, count);
+                }
+                else {
+                    incrementLong(key, count);
+                }
+            }
+            queryState.markCompletedVectorEvaluation(0);
+        }
+        catch (DataSpaceException e) {
+            queryState.signalVectorException(e);
+            throw e;
+        }
+        return finishTransformation();
     }
 
     @Override
@@ -68,6 +112,14 @@ public class UniqueValueHistogramQuery<T extends IScalar> extends AbstractHistog
         }
     }
 
+    @Override
+    protected void incrementStringCode(int code, int count) throws DataSpaceException {
+        super.incrementStringCode(code, count);
+        if (stringCodeHistogram.size()>MAX_SIZE) {
+            throw new DataSpaceException("Exceeded maximum allowed size of histogram of "+MAX_SIZE);
+        }
+    }
+
     @Override
     protected void incrementLong(long bin, int count) throws DataSpaceException {
         super.incrementLong(bin, count);
@@ -76,6 +128,19 @@ public class UniqueValueHistogramQuery<T extends IScalar> extends AbstractHistog
         }
     }
 
+    @Override
+    protected boolean isMergeable() {
+        return true;
+    }
+
+    @Override
+    protected void merge(AbstractVectorTransformer<T,Histogram> partial) throws DataSpaceException {
+        super.merge(partial);
+        if (stringHistogram.size()>MAX_SIZE || stringCodeHistogram.size()>MAX_SIZE) {
+            throw new DataSpaceException("Exceeded maximum allowed size of histogram of "+MAX_SIZE);
+        }
+    }
+
     @Override
     protected boolean quickTransform(ISegmentStats stats, int segmentNumber,
                                      boolean useFiltering, int nextSelectedIndex, IPositionIterator positionIterator,
@@ -142,10 +207,10 @@ public class UniqueValueHistogramQuery<T extends IScalar> extends AbstractHistog
         if (min.equals(max)) {
             // the entire segment has only one value
             if (!useFiltering) {
-                incrementString(min, stats.getCount());
+                incrementStringCode(dataSpace.getCode(min), stats.getCount());
             }
             else {
-                incrementString(min, countSelectedElementsInSegment(segmentNumber, stats.getCount() , nextSelectedIndex, positionIterator));
+                incrementStringCode(dataSpace.getCode(min), countSelectedElementsInSegment(segmentNumber, stats.getCount() , nextSelectedIndex, positionIterator));
             }
             return true;
         }
@@ -212,55 +277,62 @@ public class UniqueValueHistogramQuery<T extends IScalar> extends AbstractHistog
     }
 
     private void bulkTransform(FloatSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        float[] data = ((FloatSegmentBackingArray)segment.getBackingArray()).data;
-        for (float value: data) {
-            handleLong(round(value), (double)value, helper);
+        IFloatingPointBackingArray data = (IFloatingPointBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            float value = (float) data.getDouble(i);
+            handleDouble(round(value), value, helper);
         }
     }
 
     private void bulkTransform(DoubleSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        double[] data = ((DoubleSegmentBackingArray)segment.getBackingArray()).data;
-        for (double value: data) {
-            handleLong(round(value), value, helper);
+        IFloatingPointBackingArray data = (IFloatingPointBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            double value = data.getDouble(i);
+            handleDouble(round(value), value, helper);
         }
     }
 
     private void bulkTransform(LongSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        long[] data = ((LongSegmentBackingArray)segment.getBackingArray()).data;
-        for (long value: data) {
-            handleLong(value, null, helper);
+        IIntegralBackingArray data = (IIntegralBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            long value = data.getLong(i);
+            handleLong(value, helper);
         }
     }
 
     private void bulkTransform(IntegerSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        int[] data = ((IntegerSegmentBackingArray)segment.getBackingArray()).data;
-        for (int value: data) {
-            handleLong(value, null, helper);
+        IIntegralBackingArray data = (IIntegralBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            long value = data.getLong(i);
+            handleLong(value, helper);
         }
     }
 
     private void bulkTransform(ShortSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        short[] data = ((ShortSegmentBackingArray)segment.getBackingArray()).data;
-        for (short value: data) {
-            handleLong(value, null, helper);
+        IIntegralBackingArray data = (IIntegralBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            long value = data.getLong(i);
+            handleLong(value, helper);
         }
     }
 
     private void bulkTransform(ByteSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        byte[] data = ((ByteSegmentBackingArray)segment.getBackingArray()).data;
-        for (byte value: data) {
-            handleLong(value, null, helper);
+        IIntegralBackingArray data = (IIntegralBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            long value = data.getLong(i);
+            handleLong(value, helper);
         }
     }
 
     private void bulkTransform(LogicalSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        boolean[] data = ((BooleanSegmentBackingArray)segment.getBackingArray()).data;
-        for (boolean value: data) {
-            handleLong(value?1L:0L, null, helper);
+        ILogicalBackingArray data = (ILogicalBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            boolean value = data.getBoolean(i);
+            handleLong(value?1L:0L, helper);
         }
     }
 
-    private void handleLong(long bin, Double actual, FilteredQueryHelper helper) throws DataSpaceException {
+    private void handleLong(long bin, FilteredQueryHelper helper) throws DataSpaceException {
         if (helper != null) {
             // we're using filtering so should first make sure that we need to do this
             if (! helper.isNextSelected()) {
@@ -269,14 +341,27 @@ public class UniqueValueHistogramQuery<T extends IScalar> extends AbstractHistog
         }
 
         incrementLong(bin,1);
-        if (actual != null) {
-            doubleValues.put(bin,actual);
+    }
+
+    /**
+     * Same as handleLong() for floating point values, which also remembers the actual value of the bin
+     */
+    private void handleDouble(long bin, double actual, FilteredQueryHelper helper) throws DataSpaceException {
+        if (helper != null) {
+            // we're using filtering so should first make sure that we need to do this
+            if (! helper.isNextSelected()) {
+                return; // skip this one
+            }
         }
+
+        incrementLong(bin,1);
+        doubleValues.put(bin,actual);
     }
 
     private void bulkTransform(StringSegment segment, FilteredQueryHelper helper) throws DataSpaceException {
-        int[] data = ((StringSegmentBackingArray)segment.getBackingArray()).data;
-        for (int value: data) {
+        IIntegralBackingArray data = (IIntegralBackingArray) segment.getBackingArray();
+        for (int i=0; i<data.length(); i++) {
+            int value = (int) data.getLong(i);
             if (helper != null) {
                 // we're using filtering so should first make sure that we need to do this
                 if (! helper.isNextSelected()) {
@@ -284,7 +369,7 @@ public class UniqueValueHistogramQuery<T extends IScalar> extends AbstractHistog
                 }
             }
 
-            incrementString(dataSpace.decodeToString(value),1);
+            incrementStringCode(value,1);
         }
     }
 
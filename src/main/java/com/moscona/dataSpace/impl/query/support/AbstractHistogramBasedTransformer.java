@@ -23,8 +23,12 @@ import com.moscona.dataSpace.impl.DoubleVector;
 import com.moscona.dataSpace.impl.LongVector;
 import com.moscona.dataSpace.impl.segment.DoubleSegmentStats;
 import com.moscona.dataSpace.impl.segment.LongSegmentStats;
+import com.moscona.dataSpace.util.IntIntHashMap;
+import com.moscona.dataSpace.util.LongDoubleHashMap;
+import com.moscona.dataSpace.util.LongIntHashMap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 
@@ -32,21 +36,26 @@ import java.util.HashMap;
  * Created: 1/4/11 12:27 PM
  * By: Arnon Moscona
  * A common base class to transformers that use and/or produce histograms
+ * The counts are kept in primitive maps (see LongIntHashMap) so that counting an element does not box its value.
+ * Strings may be counted either by value (incrementString()) or by dictionary code (incrementStringCode()), the two
+ * are merged when the bins are made.
  */
 public abstract class AbstractHistogramBasedTransformer<T extends IScalar>   extends AbstractVectorTransformer<T,Histogram> {
     protected HashMap<String,Integer> stringHistogram;
-    protected HashMap<Long, Integer> longHistogram;
+    protected IntIntHashMap stringCodeHistogram; // string counts by dictionary code
+    protected LongIntHashMap longHistogram;
     private boolean collectBinStats = false;
     protected HashMap<Long, LongSegmentStats> longStats; // used for optional descriptive stats (int types)
     protected HashMap<Long, DoubleSegmentStats> doubleStats; // used for optional descriptive stats (float types)
     protected IVector.BaseType baseType = null;
     protected DataSpace dataSpace = null;
-    protected HashMap<Long,Double> doubleValues; // holds a mapping from long representation to some real double that was used (instead of guessing from the rounded value)
+    protected LongDoubleHashMap doubleValues; // holds a mapping from long representation to some real double that was used (instead of guessing from the rounded value)
 
     protected AbstractHistogramBasedTransformer() {
         stringHistogram = new HashMap<String,Integer>();
-        longHistogram = new HashMap<Long,Integer>();
-        doubleValues = new HashMap<Long, Double>();
+        stringCodeHistogram = new IntIntHashMap();
+        longHistogram = new LongIntHashMap();
+        doubleValues = new LongDoubleHashMap();
         longStats = new HashMap<Long, LongSegmentStats>();
         doubleStats = new HashMap<Long, DoubleSegmentStats>();
     }
@@ -59,23 +68,65 @@ public abstract class AbstractHistogramBasedTransformer<T extends IScalar>   ext
         return collectBinStats;
     }
 
+    /**
+     * Replaces the (still empty) counting maps with ones sized for the range of values the vector may hold, so that
+     * byte, short, boolean and narrow ranged integral vectors as well as string codes are counted in a plain array.
+     * Should be called from initializeTransformation() after baseType and dataSpace are set.
+     * @param vector the vector about to be transformed
+     * @throws DataSpaceException
+     */
+    protected void initializeHistograms(IVector<T> vector) throws DataSpaceException {
+        if (longHistogram.size() != 0 || stringCodeHistogram.size() != 0) {
+            return; // already counting
+        }
+        switch (baseType) {
+            case BYTE:
+            case SHORT:
+            case INTEGER:
+            case LONG:
+                IDescriptiveStats<?> stats = vector.getStats().getDescriptiveStats();
+                if (stats != null && stats.getMin() instanceof Number && stats.getMax() instanceof Number) {
+                    longHistogram = new LongIntHashMap(((Number) stats.getMin()).longValue(),
+                            ((Number) stats.getMax()).longValue());
+                }
+                break;
+            case BOOLEAN:
+                longHistogram = new LongIntHashMap(0L, 1L);
+                break;
+            case STRING:
+                stringCodeHistogram = new IntIntHashMap(0, dataSpace.getStringCodeCount() - 1);
+                break;
+            default:
+                break; // rounded real values have no useful range
+        }
+    }
+
     private int longHistogramCount(long value) {
-        return longHistogram.containsKey(value) ? longHistogram.get(value) : 0;
+        return longHistogram.get(value);
     }
 
-    private int stringHistogramCount(String value) {
-        return stringHistogram.containsKey(value) ? stringHistogram.get(value) : 0;
+    private long[] sortedLongKeys() {
+        long[] keys = longHistogram.keys();
+        Arrays.sort(keys);
+        return keys;
     }
 
     protected ArrayList makeStringBins(ArrayList<Integer> count) throws DataSpaceException {
         ArrayList bins;
-        ArrayList<String> sBins = new ArrayList<String>();
-        for (String value: stringHistogram.keySet()) {
-            sBins.add(value);
+        HashMap<String,Integer> counts = stringHistogram;
+        if (stringCodeHistogram.size() != 0) {
+            counts = new HashMap<String,Integer>(stringHistogram);
+            for (int code: stringCodeHistogram.keys()) {
+                String value = dataSpace.decodeToString(code);
+                Integer previous = counts.get(value);
+                int codeCount = stringCodeHistogram.get(code);
+                counts.put(value, previous == null ? codeCount : previous + codeCount);
+            }
         }
+        ArrayList<String> sBins = new ArrayList<String>(counts.keySet());
         Collections.sort(sBins);
         for (String value: sBins) {
-            count.add(stringHistogramCount(value));
+            count.add(counts.get(value));
         }
         bins = sBins;
         return bins;
@@ -83,11 +134,8 @@ public abstract class AbstractHistogramBasedTransformer<T extends IScalar>   ext
 
     protected ArrayList<Long> makeLongBins(ArrayList<Integer> count) throws DataSpaceException {
         ArrayList<Long> lBins = new ArrayList<Long>();
-        for (Long value: longHistogram.keySet()) {
+        for (long value: sortedLongKeys()) {
             lBins.add(value);
-        }
-        Collections.sort(lBins);
-        for (long value: lBins) {
             count.add(longHistogramCount(value));
         }
         return lBins;
@@ -95,11 +143,8 @@ public abstract class AbstractHistogramBasedTransformer<T extends IScalar>   ext
 
     protected ArrayList<Integer> makeIntegerBins(ArrayList<Integer> count) throws DataSpaceException {
         ArrayList<Integer> iBins = new ArrayList<Integer>();
-        for (Long value: longHistogram.keySet()) {
-            iBins.add(value.intValue());
-        }
-        Collections.sort(iBins);
-        for (long value: iBins) {
+        for (long value: sortedLongKeys()) {
+            iBins.add((int) value);
             count.add(longHistogramCount(value));
         }
         return iBins;
@@ -107,11 +152,8 @@ public abstract class AbstractHistogramBasedTransformer<T extends IScalar>   ext
 
     protected ArrayList<Short> makeShortBins(ArrayList<Integer> count) throws DataSpaceException {
         ArrayList<Short> shortBins = new ArrayList<Short>();
-        for (Long value: longHistogram.keySet()) {
-            shortBins.add(value.shortValue());
-        }
-        Collections.sort(shortBins);
-        for (long value: shortBins) {
+        for (long value: sortedLongKeys()) {
+            shortBins.add((short) value);
             count.add(longHistogramCount(value));
         }
         return shortBins;
@@ -119,11 +161,8 @@ public abstract class AbstractHistogramBasedTransformer<T extends IScalar>   ext
 
     protected ArrayList<Byte> makeByteBins(ArrayList<Integer> count) throws DataSpaceException {
         ArrayList<Byte> byteBins = new ArrayList<Byte>();
-        for (Long value: longHistogram.keySet()) {
-            byteBins.add(value.byteValue());
-        }
-        Collections.sort(byteBins);
-        for (long value: byteBins) {
+        for (long value: sortedLongKeys()) {
+            byteBins.add((byte) value);
             count.add(longHistogramCount(value));
         }
         return byteBins;
@@ -131,9 +170,8 @@ public abstract class AbstractHistogramBasedTransformer<T extends IScalar>   ext
 
     protected ArrayList<Double> makeDoubleBins(ArrayList<Integer> count) throws DataSpaceException {
         ArrayList<Double> dBins = new ArrayList<Double>();
-        for (long value: longHistogram.keySet()) {
-            Double actual = doubleValues.get(value);
-            dBins.add(actual);
+        for (long value: longHistogram.keys()) {
+            dBins.add(doubleValues.get(value));
         }
         Collections.sort(dBins);
         for (double value: dBins) {
@@ -144,8 +182,8 @@ public abstract class AbstractHistogramBasedTransformer<T extends IScalar>   ext
 
     protected ArrayList<Float> makeFloatBins(ArrayList<Integer> count) throws DataSpaceException {
         ArrayList<Float> fBins = new ArrayList<Float>();
-        for (long value: longHistogram.keySet()) {
-            fBins.add(doubleValues.get(value).floatValue());
+        for (long value: longHistogram.keys()) {
+            fBins.add((float) doubleValues.get(value));
         }
         Collections.sort(fBins);
         for (float value: fBins) {
@@ -156,7 +194,7 @@ public abstract class AbstractHistogramBasedTransformer<T extends IScalar>   ext
 
     protected ArrayList<Boolean> makeBooleanBins(ArrayList<Integer> count) throws DataSpaceException {
         ArrayList<Boolean> bBins = new ArrayList<Boolean>();
-        for (Long value: longHistogram.keySet()) {
+        for (long value: longHistogram.keys()) {
             bBins.add(value != 0L);
         }
         Collections.sort(bBins);
@@ -167,12 +205,7 @@ public abstract class AbstractHistogramBasedTransformer<T extends IScalar>   ext
     }
 
     protected void incrementLong(long bin, int count) throws DataSpaceException {
-        if (longHistogram.containsKey(bin)) {
-            longHistogram.put(bin, longHistogram.get(bin)+count);
-        }
-        else {
-            longHistogram.put(bin, count);
-        }
+        longHistogram.add(bin, count);
     }
 
     protected void incrementString(String bin, int count) throws DataSpaceException {
@@ -184,18 +217,26 @@ public abstract class AbstractHistogramBasedTransformer<T extends IScalar>   ext
         }
     }
 
+    protected void incrementStringCode(int code, int count) throws DataSpaceException {
+        stringCodeHistogram.add(code, count);
+    }
+
     protected void addLongValueToStats(long bin, long value) {
-        if (! longStats.containsKey(bin)) {
-            longStats.put(bin, new LongSegmentStats(dataSpace.getDefaultPersistenceType()));
+        LongSegmentStats stats = longStats.get(bin);
+        if (stats == null) {
+            stats = new LongSegmentStats(dataSpace.getDefaultPersistenceType());
+            longStats.put(bin, stats);
         }
-        longStats.get(bin).add(value);
+        stats.add(value);
     }
 
     protected void addDoubleValueToStats(long bin, double value) {
-        if (! doubleStats.containsKey(bin)) {
-            doubleStats.put(bin, new DoubleSegmentStats(dataSpace.getDefaultPersistenceType()));
+        DoubleSegmentStats stats = doubleStats.get(bin);
+        if (stats == null) {
+            stats = new DoubleSegmentStats(dataSpace.getDefaultPersistenceType());
+            doubleStats.put(bin, stats);
         }
-        doubleStats.get(bin).add(value);
+        stats.add(value);
     }
 
     @SuppressWarnings({"unchecked", "OverlyLongMethod", "OverlyComplexMethod"})
@@ -301,6 +342,52 @@ public abstract class AbstractHistogramBasedTransformer<T extends IScalar>   ext
                 .cbind(Histogram.COL_BIN_STATS_STDEV, stdev.seal());
     }
 
+    /**
+     * Replaces the histogram maps and bin stats with empty ones for a partial (see newPartial())
+     */
+    @Override
+    protected void clearAccumulators() throws DataSpaceException {
+        stringHistogram = new HashMap<String,Integer>();
+        stringCodeHistogram = stringCodeHistogram.emptyCopy();
+        longHistogram = longHistogram.emptyCopy();
+        doubleValues = new LongDoubleHashMap();
+        longStats = new HashMap<Long, LongSegmentStats>();
+        doubleStats = new HashMap<Long, DoubleSegmentStats>();
+    }
+
+    /**
+     * Adds up the histogram counts and bin stats of the partial. A partial's actual real values replace ours for the
+     * same bin, just as a later segment's would in a serial transformation.
+     */
+    @Override
+    protected void merge(AbstractVectorTransformer<T,Histogram> partial) throws DataSpaceException {
+        AbstractHistogramBasedTransformer<T> other = (AbstractHistogramBasedTransformer<T>) partial;
+        longHistogram.addAll(other.longHistogram);
+        stringCodeHistogram.addAll(other.stringCodeHistogram);
+        for (String value: other.stringHistogram.keySet()) {
+            incrementString(value, other.stringHistogram.get(value));
+        }
+        doubleValues.putAll(other.doubleValues);
+        for (Long bin: other.longStats.keySet()) {
+            LongSegmentStats stats = longStats.get(bin);
+            if (stats == null) {
+                longStats.put(bin, other.longStats.get(bin));
+            }
+            else {
+                stats.add(other.longStats.get(bin));
+            }
+        }
+        for (Long bin: other.doubleStats.keySet()) {
+            DoubleSegmentStats stats = doubleStats.get(bin);
+            if (stats == null) {
+                doubleStats.put(bin, other.doubleStats.get(bin));
+            }
+            else {
+                stats.add(other.doubleStats.get(bin));
+            }
+        }
+    }
+
     @Override
     protected void transformOne(T element, boolean useResolution, double resolution, IQueryState queryState) throws DataSpaceException {
         throw new DataSpaceException("transformOne() not implemented. Should never have gotten here (supposed to do bulk transform)");
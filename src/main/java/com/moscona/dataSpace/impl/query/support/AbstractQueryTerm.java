@@ -20,19 +20,37 @@ package com.moscona.dataSpace.impl.query.support;
 import com.moscona.dataSpace.*;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
 import com.moscona.dataSpace.impl.AbstractVector;
+import com.moscona.dataSpace.impl.BitmapIndex;
+import com.moscona.dataSpace.impl.segment.AbstractSegmentStats;
+import com.moscona.dataSpace.impl.segment.AbstractVectorSegment;
+import com.moscona.dataSpace.impl.segment.DoubleSegmentStats;
+import com.moscona.dataSpace.impl.segment.LongSegmentStats;
+import com.moscona.dataSpace.impl.segment.ZoneMap;
+import com.moscona.dataSpace.util.BitMapBuilder;
 import com.moscona.dataSpace.util.CompressedBitMap;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.concurrent.*;
+import java.util.function.DoublePredicate;
+import java.util.function.LongPredicate;
 
 /**
  * Created: 12/16/10 11:59 AM
  * By: Arnon Moscona
  */
-public abstract class AbstractQueryTerm<T extends IScalar> implements IQueryTerm<T> {
+public abstract class AbstractQueryTerm<T extends IScalar> implements IQueryTerm<T>, ISelectivityEstimator<T>, Cloneable {
+    /**
+     * The fraction of an undecided segment assumed to match when the term has no better estimate
+     */
+    public static final double DEFAULT_SEGMENT_SELECTIVITY = 0.5;
+
+    // per evaluation state: only ever set on the evaluation copy (see newEvaluation())
     protected IQueryParameterList params = null;
     protected IVector.BaseType baseType = null;
 
+    private volatile ExecutorService executor = null;
+    private volatile AbstractQueryTerm<T> lastEvaluation = null;
+
     /**
      * Creates an empty parameter list that is appropriate for this term.
      *
@@ -106,12 +124,76 @@ public abstract class AbstractQueryTerm<T extends IScalar> implements IQueryTerm
      */
     protected abstract void bulkMatch(AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult, boolean useResolution, double resolution, IQueryState queryState) throws DataSpaceException;
 
+    /**
+     * The term's test of a single element of an integral (or string dictionary code) backing array, exactly as
+     * bulkMatch() would decide it. Lets several terms on the same column be fused into a single pass over the segment
+     * (see FusedSegmentScan). Called on the evaluation copy after setParameters()
+     * @return the element test or null if the term cannot be fused on this vector (the default)
+     */
+    protected LongPredicate longPredicate() throws DataSpaceException {
+        return null;
+    }
+
+    /**
+     * Same as longPredicate() for float and double backing arrays
+     * @param useResolution true if you should use the resolution parameter to determine value equivalence
+     * @param resolution if(useResolution) then a.equals(b) iff (abs(a-b) < resolution)
+     * @return the element test or null if the term cannot be fused on this vector (the default)
+     */
+    protected DoublePredicate doublePredicate(boolean useResolution, double resolution) throws DataSpaceException {
+        return null;
+    }
+
+    /**
+     * For terms that match a single interval of values (e.g. a range): a value inside the interval, or at one of its
+     * ends, such that every value the term does not match lies below the interval if it is smaller than the pivot and
+     * above it otherwise. On a sorted vector such a term matches a single run of elements, which apply() finds by
+     * binary search instead of scanning. Called on the evaluation copy after setParameters()
+     * @return the pivot, or null if the term does not match an interval of integral values (the default)
+     */
+    protected Long longPivot() throws DataSpaceException {
+        return null;
+    }
+
+    /**
+     * For terms that match a finite set of integral values (or strings): the values, as they are stored in the backing
+     * arrays (strings by their dictionary code). On a vector with a bitmap index (see BitmapIndex) such a term is
+     * answered by looking up the values' bitmaps instead of evaluating the segments. Called on the evaluation copy
+     * after setParameters()
+     * @return the values, or null if the term does not match a finite set of integral values (the default)
+     */
+    protected long[] indexKeys() throws DataSpaceException {
+        return null;
+    }
+
+    /**
+     * Same as longPivot() for float and double vectors
+     * @return the pivot, or null if the term does not match an interval of floating point values (the default)
+     */
+    protected Double doublePivot() throws DataSpaceException {
+        return null;
+    }
+
 
     @Override
     public IBitMap apply(IQueryParameterList params, IVector<T> vector, IQueryState queryState) throws DataSpaceException {
         return apply(params,vector,queryState,null);
     }
 
+    /**
+     * Evaluates the term against the vector. The term instance itself is never modified by the evaluation: the
+     * parameters are parsed into a private copy of the term (see newEvaluation()) and all segment evaluation is done
+     * against that copy, so the same term may be applied concurrently from several threads.
+     * If an executor was set on the term (see setExecutor()) then segments are evaluated in parallel, each into its own
+     * partial bitmap, and the partial results are stitched together in segment order.
+     * The intersectWith bitmap is pushed down to the segments (see RangeCoverage): segments it eliminates are skipped,
+     * segments it fully covers are evaluated as usual, and the segments it partially covers are masked with it as they
+     * are evaluated, so the result already is the intersection and no AND over the whole result is needed.
+     * On a vector with a bitmap index, terms that match a set of values are answered from the index (see indexKeys()).
+     * On a sorted vector, terms that match an interval of values are evaluated by binary search (see searchSorted()).
+     * Terms that are result cacheable (see isResultCacheable()) are looked up in the data space's QueryResultCache
+     * first. A cached result is intersected as a whole, and only results computed without an intersection are cached.
+     */
     @Override
     @SuppressWarnings({"unchecked"})
     public IBitMap apply(IQueryParameterList params, IVector<T> vector, IQueryState queryState, IBitMap intersectWith) throws DataSpaceException {
@@ -120,8 +202,8 @@ public abstract class AbstractQueryTerm<T extends IScalar> implements IQueryTerm
         if(!vector.isReadyToQuery()) {
             throw new DataSpaceException("The vector you are trying to query is not ready for query (probably not sealed)");
         }
-        HashSet<Integer> segmentSkipList = makeSegmentSkipList((AbstractVector<T>) vector, intersectWith);
-        IBitMap progressiveResult = new CompressedBitMap();
+        RangeCoverage coverage = intersectWith==null ? null : intersectWith.getRangeCoverage(((AbstractVector)vector).getSegmentSize());
+        IBitMap progressiveResult;
         queryState.markVectorEvaluationStart();
         boolean useResolution = false;
         double resolution = 0.00001; // arbitrary - will get overwritten if we need resolution support
@@ -136,93 +218,881 @@ public abstract class AbstractQueryTerm<T extends IScalar> implements IQueryTerm
             validateNotNull(params,"params");
             validateNotNull(vector,"vector");
             validateNotNull(queryState,"query state");
-            setParameters(params, vector);
-
-            // iterate over the segments
-            AbstractVector.SegmentIterator iterator = ((AbstractVector)vector).segmentIterator();
-            int segmentNumber = 0;
-
-            while(iterator.hasNext()) {
-                AbstractVector.SegmentInfo segmentInfo = iterator.next();
-                queryState.markSegmentEvaluationStart(segmentNumber);
-                segmentNumber = segmentInfo.getSegmentNumber();
-                if (segmentSkipList.contains(segmentNumber)) {
-                    applyToAll(false, segmentInfo, progressiveResult, queryState);
-                    queryState.incSkippedSegments();
-                    continue;
+            AbstractQueryTerm<T> evaluation = newEvaluation();
+            evaluation.setParameters(params, vector);
+            lastEvaluation = evaluation;
+
+            IBitMap wholeVectorResult = evaluation.searchWholeVector(params, (AbstractVector<T>) vector, useResolution, resolution, queryState);
+            if (wholeVectorResult != null) {
+                progressiveResult = intersectWith == null ? wholeVectorResult : wholeVectorResult.and(intersectWith);
+                queryState.markCompletedVectorEvaluation(progressiveResult.cardinality());
+                return progressiveResult;
+            }
+
+            QueryResultCache cache = resultCacheFor(vector);
+            ExecutorService executor = this.executor;
+            if (executor != null && ((AbstractVector)vector).getSegmentCount() > 1) {
+                progressiveResult = evaluation.evaluateInParallel((AbstractVector<T>) vector, coverage, useResolution, resolution, queryState, executor);
+            }
+            else {
+                progressiveResult = new CompressedBitMap();
+                AbstractVector.SegmentIterator iterator = ((AbstractVector)vector).segmentIterator();
+                while(iterator.hasNext()) {
+                    AbstractVector.SegmentInfo segmentInfo = iterator.next();
+                    evaluation.evaluateSegment(segmentInfo, coverage, progressiveResult, useResolution, resolution, queryState);
+                }
+            }
+
+            if (cache != null && intersectWith == null) {
+                // an intersected result only covers part of the vector, so only whole results are cached
+                cache.put(vector, getClass(), params.toCanonicalString(), useResolution, resolution, progressiveResult);
+            }
+            queryState.markCompletedVectorEvaluation(progressiveResult.cardinality());
+        }
+        catch (DataSpaceException e) {
+            queryState.signalVectorException(e);
+            throw e;
+        }
+
+        return progressiveResult; // already intersected segment by segment
+    }
+
+    /**
+     * Whether the result of the term is fully determined by its class, its parameters, the vector and the resolution,
+     * so that apply() may answer repeated evaluations from the data space's QueryResultCache. Terms that hold any
+     * other state affecting the result must not override this.
+     * @return false by default
+     */
+    protected boolean isResultCacheable() {
+        return false;
+    }
+
+    private QueryResultCache resultCacheFor(IVector<T> vector) {
+        if (!isResultCacheable()) {
+            return null;
+        }
+        DataSpace dataSpace = ((AbstractVector)vector).getDataSpace();
+        return dataSpace == null ? null : dataSpace.getQueryResultCache();
+    }
+
+    /**
+     * The paths of apply() that answer for the whole vector at once without evaluating its segments one by one: the
+     * bitmap index (as cheap as a cache lookup, so not cached), the result cache, and the binary search of a sorted
+     * vector. Called on the evaluation copy.
+     * @return the result for the whole vector, or null if none of them applies
+     */
+    private IBitMap searchWholeVector(IQueryParameterList params, AbstractVector<T> vector, boolean useResolution,
+                                      double resolution, IQueryState queryState) throws DataSpaceException {
+        IBitMap retval = searchIndex(vector);
+        if (retval != null) {
+            queryState.incIndexLookups();
+            return retval;
+        }
+
+        QueryResultCache cache = resultCacheFor(vector);
+        String canonicalParameters = cache == null ? null : params.toCanonicalString();
+        if (cache != null) {
+            retval = cache.get(vector, getClass(), canonicalParameters, useResolution, resolution);
+            if (retval != null) {
+                queryState.incResultCacheHits();
+                return retval;
+            }
+            queryState.incResultCacheMisses();
+        }
+
+        retval = searchSorted(vector, useResolution, resolution, queryState);
+        if (retval != null && cache != null) {
+            cache.put(vector, getClass(), canonicalParameters, useResolution, resolution, retval);
+        }
+        return retval;
+    }
+
+    /**
+     * The bitmap index path of apply(): the OR of the index bitmaps of the values the term matches. Called on the
+     * evaluation copy.
+     * @return the result, or null if the vector has no bitmap index or the term does not match a set of its values
+     */
+    private IBitMap searchIndex(AbstractVector<T> vector) throws DataSpaceException {
+        BitmapIndex index = vector.getBitmapIndex();
+        if (index == null) {
+            return null;
+        }
+        long[] keys = indexKeys();
+        return keys == null ? null : index.lookup(keys);
+    }
+
+    /**
+     * The sorted vector path of apply(). On a vector sorted in ascending order (see IVector.isSorted()) the elements
+     * an interval term matches (see longPivot()) are a single run: the elements before it are the ones below the
+     * interval, and the elements after it are the ones above. The run's start and end are found by binary search,
+     * first over the segment stats (the max of a sorted segment is its last element) and then within the boundary
+     * segments, so at most two segments are read, and the result is built as at most three runs.
+     * Called on the evaluation copy.
+     * @return the result, or null if the vector is not sorted (or its segment stats are out of order) or the term does
+     * not match an interval of its values
+     */
+    private IBitMap searchSorted(AbstractVector<T> vector, boolean useResolution, double resolution, IQueryState queryState) throws DataSpaceException {
+        if (!vector.isSorted() || vector.size() == 0) {
+            return null;
+        }
+        ArrayList<AbstractVector.SegmentInfo> segments = new ArrayList<AbstractVector.SegmentInfo>(vector.getSegmentCount());
+        AbstractVector.SegmentIterator iterator = vector.segmentIterator();
+        while (iterator.hasNext()) {
+            segments.add(iterator.next());
+        }
+        ISegmentStats stats = segments.get(0).getStats();
+        SortedSearch below;
+        SortedSearch matches;
+        if (LongSegmentStats.class.isAssignableFrom(stats.getClass())) {
+            final Long pivot = longPivot();
+            final LongPredicate match = longPredicate();
+            if (pivot == null || match == null) {
+                return null;
+            }
+            below = new LongSortedSearch(new LongPredicate() {
+                @Override
+                public boolean test(long value) {
+                    return value < pivot && !match.test(value);
+                }
+            });
+            matches = new LongSortedSearch(match);
+        }
+        else if (DoubleSegmentStats.class.isAssignableFrom(stats.getClass())) {
+            final Double pivot = doublePivot();
+            final DoublePredicate match = doublePredicate(useResolution, resolution);
+            if (pivot == null || match == null) {
+                return null;
+            }
+            below = new DoubleSortedSearch(new DoublePredicate() {
+                @Override
+                public boolean test(double value) {
+                    return value < pivot && !match.test(value);
                 }
+            });
+            matches = new DoubleSortedSearch(match);
+        }
+        else {
+            return null; // e.g. strings, which are stored as dictionary codes that are not in string order
+        }
+
+        if (!below.isAscending(segments)) {
+            return null; // not actually sorted: fall back to the scan
+        }
 
-                // quick-evaluate segment
-                Boolean result = quickMatch(segmentInfo.getStats(), segmentNumber, useResolution, resolution, queryState);
-                if (result != null) {
-                    applyToAll(result, segmentInfo, progressiveResult, queryState);
-                    queryState.incQuickSegmentEvals(result);
-                    continue; // we were able to update the results just by looking at the stats
+        int size = vector.size();
+        int segmentSize = vector.getSegmentSize();
+        int start = below.find(segments, segmentSize, 0, size, queryState);
+        int end = matches.find(segments, segmentSize, start, size, queryState);
+        IBitMap retval = new CompressedBitMap();
+        retval.addRun(false, start);
+        retval.addRun(true, end - start);
+        retval.addRun(false, size - end);
+        return retval;
+    }
+
+    /**
+     * Finds where a test that holds for a prefix of the elements of a sorted vector (from some position on) stops
+     * holding
+     */
+    private abstract static class SortedSearch {
+        protected abstract boolean holdsForMax(ISegmentStats stats);
+
+        protected abstract boolean holdsForMin(ISegmentStats stats);
+
+        protected abstract boolean holds(Object values, int index);
+
+        /**
+         * @param next the stats of the following segment, null for the last segment
+         * @return true if the segment's min is at most its max, and its max at most the next segment's min
+         */
+        protected abstract boolean inOrder(ISegmentStats stats, ISegmentStats next);
+
+        /**
+         * IVector.isSorted() is only advisory (nothing checks it on append), so the segment stats are checked to be in
+         * ascending order before the binary search relies on them
+         */
+        boolean isAscending(ArrayList<AbstractVector.SegmentInfo> segments) {
+            for (int i=0; i<segments.size(); i++) {
+                ISegmentStats next = i+1 < segments.size() ? segments.get(i+1).getStats() : null;
+                if (!inOrder(segments.get(i).getStats(), next)) {
+                    return false;
                 }
+            }
+            return true;
+        }
 
-                // now we have to look at the actual data, we need to ensure it's there for the duration of the processing
-                segmentInfo.getSegment().require();
-                try {
-                    // decide on type of traversal
-                    if (canProcessInBulk()) {
-                        // supports bulk segment evaluation: evaluate the segment in bulk
-                        queryState.incBulkSegmentEvals();
-                        bulkMatch(segmentInfo, progressiveResult, useResolution, resolution, queryState);
+        /**
+         * @param from the position to start at
+         * @return the first position from "from" on where the test does not hold, size if it holds to the end
+         */
+        int find(ArrayList<AbstractVector.SegmentInfo> segments, int segmentSize, int from, int size, IQueryState queryState) throws DataSpaceException {
+            if (from >= size) {
+                return size;
+            }
+            // the first segment whose last element fails the test
+            int low = from / segmentSize;
+            int high = segments.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (holdsForMax(segments.get(middle).getStats())) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            if (low == segments.size()) {
+                return size;
+            }
+
+            AbstractVector.SegmentInfo segmentInfo = segments.get(low);
+            int segmentStart = low * segmentSize;
+            int first = Math.max(0, from - segmentStart);
+            if (first == 0 && !holdsForMin(segmentInfo.getStats())) {
+                return segmentStart; // fails from the segment's first element on: no need to read it
+            }
+            int last = segmentInfo.getStats().getCount() - 1; // known to fail
+            IVectorSegment segment = segmentInfo.getSegment();
+            queryState.markSegmentEvaluationStart(low);
+            segment.require();
+            try {
+                queryState.incSegmentBinarySearches();
+                Object values = ((AbstractVectorSegment) segment).getBackingArray();
+                while (first < last) {
+                    int middle = (first + last) >>> 1;
+                    if (holds(values, middle)) {
+                        first = middle + 1;
                     }
                     else {
-                        // does not support bulk segment evaluation: iterate element by element
-                        queryState.incSlowSegmentEvals();
-                        IVectorSegment<T> segment = (IVectorSegment<T>)segmentInfo.getSegment();  // IMPORTANT this creates an unchecked warning. not clear why
-                        ISegmentIterator<T> segmentIterator = segment.iterator();
-                        while(segmentIterator.hasNext()) {
-                            T element = segmentIterator.next();
-                            progressiveResult.add(match(element, useResolution, resolution, queryState));
-                        }
+                        last = middle;
                     }
                 }
-                catch (DataSpaceException e) {
-                    queryState.signalSegmentException(e, segmentNumber);
-                    throw e;
+            }
+            catch (DataSpaceException e) {
+                queryState.signalSegmentException(e, low);
+                throw e;
+            }
+            finally {
+                segment.release(true);
+            }
+            return segmentStart + first;
+        }
+    }
+
+    private static final class LongSortedSearch extends SortedSearch {
+        private final LongPredicate test;
+
+        private LongSortedSearch(LongPredicate test) {
+            this.test = test;
+        }
+
+        @Override
+        protected boolean holdsForMax(ISegmentStats stats) {
+            return test.test(((LongSegmentStats) stats).getMax());
+        }
+
+        @Override
+        protected boolean holdsForMin(ISegmentStats stats) {
+            return test.test(((LongSegmentStats) stats).getMin());
+        }
+
+        @Override
+        protected boolean holds(Object values, int index) {
+            return test.test(((IIntegralBackingArray) values).getLong(index));
+        }
+
+        @Override
+        protected boolean inOrder(ISegmentStats stats, ISegmentStats next) {
+            Long min = ((LongSegmentStats) stats).getMin();
+            Long max = ((LongSegmentStats) stats).getMax();
+            if (min == null || max == null || min > max) {
+                return false;
+            }
+            Long nextMin = next == null ? max : ((LongSegmentStats) next).getMin();
+            return nextMin != null && max <= nextMin;
+        }
+    }
+
+    private static final class DoubleSortedSearch extends SortedSearch {
+        private final DoublePredicate test;
+
+        private DoubleSortedSearch(DoublePredicate test) {
+            this.test = test;
+        }
+
+        @Override
+        protected boolean holdsForMax(ISegmentStats stats) {
+            return test.test(((DoubleSegmentStats) stats).getMax());
+        }
+
+        @Override
+        protected boolean holdsForMin(ISegmentStats stats) {
+            return test.test(((DoubleSegmentStats) stats).getMin());
+        }
+
+        @Override
+        protected boolean holds(Object values, int index) {
+            return test.test(((IFloatingPointBackingArray) values).getDouble(index));
+        }
+
+        @Override
+        protected boolean inOrder(ISegmentStats stats, ISegmentStats next) {
+            Double min = ((DoubleSegmentStats) stats).getMin();
+            Double max = ((DoubleSegmentStats) stats).getMax();
+            if (min == null || max == null || min > max) {
+                return false;
+            }
+            Double nextMin = next == null ? max : ((DoubleSegmentStats) next).getMin();
+            return nextMin != null && max <= nextMin;
+        }
+    }
+
+    /**
+     * Fans the segments out over the executor, each segment evaluated into its own partial bitmap, and then stitches
+     * the partial results in segment order. Called on the evaluation copy, which is read-only from here on, so the
+     * workers may share it.
+     */
+    private IBitMap evaluateInParallel(AbstractVector<T> vector, final RangeCoverage coverage,
+                                       final boolean useResolution, final double resolution,
+                                       final IQueryState queryState, ExecutorService executor) throws DataSpaceException {
+        ArrayList<Future<IBitMap>> partials = new ArrayList<Future<IBitMap>>(vector.getSegmentCount());
+        try {
+            AbstractVector.SegmentIterator iterator = vector.segmentIterator();
+            while (iterator.hasNext()) {
+                final AbstractVector.SegmentInfo segmentInfo = iterator.next();
+                partials.add(executor.submit(new Callable<IBitMap>() {
+                    @Override
+                    public IBitMap call() throws Exception {
+                        IBitMap partial = new CompressedBitMap();
+                        evaluateSegment(segmentInfo, coverage, partial, useResolution, resolution, queryState);
+                        return partial;
+                    }
+                }));
+            }
+
+            IBitMap retval = new CompressedBitMap();
+            for (Future<IBitMap> partial: partials) {
+                retval.append(partial.get());
+            }
+            return retval;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataSpaceException("Interrupted while waiting for parallel segment evaluation: "+e, e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DataSpaceException) {
+                throw (DataSpaceException) cause;
+            }
+            throw new DataSpaceException("Exception in parallel segment evaluation: "+cause, cause);
+        }
+        catch (RejectedExecutionException e) {
+            throw new DataSpaceException("The executor rejected a segment evaluation task: "+e, e);
+        }
+        finally {
+            for (Future<IBitMap> partial: partials) {
+                partial.cancel(false); // no-op for the completed ones, stops the rest if we bailed out early
+            }
+        }
+    }
+
+    /**
+     * Evaluates a single segment, appending exactly one bit per segment element to the result
+     * @param segmentInfo the segment to evaluate
+     * @param coverage the coverage of the intersectWith bitmap by segment. null if there is nothing to intersect with
+     * @param result the bitmap to append the segment's results to (already intersected)
+     * @param useResolution true if you should use the resolution parameter to determine value equivalence
+     * @param resolution if(useResolution) then a.equals(b) iff (abs(a-b) < resolution)
+     * @param queryState
+     * @throws DataSpaceException
+     */
+    @SuppressWarnings({"unchecked"})
+    private void evaluateSegment(AbstractVector.SegmentInfo segmentInfo, RangeCoverage coverage, IBitMap result,
+                                 boolean useResolution, double resolution, IQueryState queryState) throws DataSpaceException {
+        int segmentNumber = segmentInfo.getSegmentNumber();
+        queryState.markSegmentEvaluationStart(segmentNumber);
+        if (coverage != null && coverage.getKind(segmentNumber) == RangeCoverage.Kind.EMPTY) {
+            applyToAll(false, segmentInfo, result, queryState);
+            queryState.incSkippedSegments();
+            return;
+        }
+        // the elements of the segment that are still candidates. null if all of them are
+        IBitMap candidates = coverage == null ? null : coverage.getCandidates(segmentNumber);
+
+        // quick-evaluate segment
+        Boolean quickResult = quickMatch(segmentInfo.getStats(), segmentNumber, useResolution, resolution, queryState);
+        if (quickResult != null) {
+            if (quickResult && candidates != null) {
+                result.append(candidates); // matches whatever survived so far
+                queryState.incQuickApplyElements();
+            }
+            else {
+                applyToAll(quickResult, segmentInfo, result, queryState);
+            }
+            queryState.incQuickSegmentEvals(quickResult);
+            return; // we were able to update the results just by looking at the stats
+        }
+
+        int priorMatches = result.cardinality(); // counted as the bits were appended
+        matchSegment(segmentInfo, candidates, result, useResolution, resolution, queryState);
+        // the segment's own matches, the same whether result is the whole result or a parallel partial
+        queryState.incCompletedSegments(segmentNumber, result.cardinality() - priorMatches);
+    }
+
+    /**
+     * Evaluates a segment by looking at its data, appending exactly one bit per segment element to the result
+     * @param segmentInfo the segment to evaluate
+     * @param candidates the elements of the segment that are still candidates (relative to the segment start). null if
+     *                   all of them are. Elements that are not candidates are false in the result
+     * @param result the bitmap to append the segment's results to
+     * @param useResolution true if you should use the resolution parameter to determine value equivalence
+     * @param resolution if(useResolution) then a.equals(b) iff (abs(a-b) < resolution)
+     * @param queryState
+     * @throws DataSpaceException
+     */
+    @SuppressWarnings({"unchecked"})
+    private void matchSegment(AbstractVector.SegmentInfo segmentInfo, IBitMap candidates, IBitMap result,
+                              boolean useResolution, double resolution, IQueryState queryState) throws DataSpaceException {
+        int segmentNumber = segmentInfo.getSegmentNumber();
+        if (matchBlocks(segmentInfo, candidates, result, useResolution, resolution, queryState)) {
+            return;
+        }
+        // now we have to look at the actual data, we need to ensure it's there for the duration of the processing
+        segmentInfo.getSegment().require();
+        try {
+            // decide on type of traversal
+            if (canProcessInBulk()) {
+                // supports bulk segment evaluation: evaluate the segment in bulk
+                queryState.incBulkSegmentEvals();
+                if (candidates == null) {
+                    bulkMatch(segmentInfo, result, useResolution, resolution, queryState);
+                }
+                else {
+                    // the kernels scan the whole backing array anyway, so masking the segment's words is cheaper
+                    // than testing every element for being a candidate
+                    IBitMap segmentResult = new CompressedBitMap();
+                    bulkMatch(segmentInfo, segmentResult, useResolution, resolution, queryState);
+                    result.append(segmentResult.and(candidates));
                 }
-                finally {
-                    segmentInfo.getSegment().release(true);
+            }
+            else {
+                // does not support bulk segment evaluation: iterate element by element, only matching candidates
+                queryState.incSlowSegmentEvals();
+                IVectorSegment<T> segment = (IVectorSegment<T>)segmentInfo.getSegment();  // IMPORTANT this creates an unchecked warning. not clear why
+                ISegmentIterator<T> segmentIterator = segment.iterator();
+                IPositionIterator candidateIterator = candidates == null ? null : candidates.getPositionIterator();
+                int nextCandidate = candidateIterator == null ? 0 : nextCandidate(candidateIterator);
+                int index = 0;
+                while(segmentIterator.hasNext()) {
+                    T element = segmentIterator.next();
+                    if (candidateIterator == null) {
+                        result.add(match(element, useResolution, resolution, queryState));
+                    }
+                    else if (index == nextCandidate) {
+                        result.add(match(element, useResolution, resolution, queryState));
+                        nextCandidate = nextCandidate(candidateIterator);
+                    }
+                    else {
+                        result.add(false);
+                    }
+                    index++;
                 }
-                queryState.incCompletedSegments(segmentNumber, progressiveResult.cardinality());
             }
-
-            queryState.markCompletedVectorEvaluation(progressiveResult.cardinality());
         }
         catch (DataSpaceException e) {
-            queryState.signalVectorException(e);
+            queryState.signalSegmentException(e, segmentNumber);
             throw e;
         }
+        finally {
+            segmentInfo.getSegment().release(true);
+        }
+    }
 
+    /**
+     * Evaluates a segment block by block using its zone map (see ZoneMap): blocks that quickMatch() decides from their
+     * min and max, and blocks without candidates, are filled in without looking at the data, and only the remaining
+     * blocks are scanned with the term's element test (see longPredicate() and doublePredicate()). When every block is
+     * decided the segment is not required at all, so a swapped out segment stays swapped out.
+     * @return false if the segment has no zone map, the zone map decides none of its blocks, or the term has no element
+     * test for it. In that case nothing was appended to the result
+     */
+    private boolean matchBlocks(AbstractVector.SegmentInfo segmentInfo, IBitMap candidates, IBitMap result,
+                                boolean useResolution, double resolution, IQueryState queryState) throws DataSpaceException {
+        ISegmentStats stats = segmentInfo.getStats();
+        ZoneMap zoneMap = stats == null || !AbstractSegmentStats.class.isAssignableFrom(stats.getClass()) ? null : ((AbstractSegmentStats)stats).getZoneMap();
+        if (zoneMap == null) {
+            return false;
+        }
+        int segmentNumber = segmentInfo.getSegmentNumber();
+        int blockCount = zoneMap.getBlockCount();
+        RangeCoverage candidateBlocks = candidates == null ? null : candidates.getRangeCoverage(zoneMap.getBlockSize());
+        Boolean[] blockResults = new Boolean[blockCount];
+        int undecided = 0;
+        for (int block=0; block<blockCount; block++) {
+            if (candidateBlocks != null && candidateBlocks.getKind(block) == RangeCoverage.Kind.EMPTY) {
+                blockResults[block] = false;
+            }
+            else {
+                blockResults[block] = quickMatch(zoneMap.getBlockStats(block), segmentNumber, useResolution, resolution, queryState);
+            }
+            if (blockResults[block] == null) {
+                undecided++;
+            }
+        }
+        if (undecided == blockCount) {
+            return false; // nothing to gain over the bulk kernel
+        }
+        LongPredicate longPredicate = null;
+        DoublePredicate doublePredicate = null;
+        if (undecided > 0) {
+            if (zoneMap.isIntegral()) {
+                longPredicate = longPredicate();
+            }
+            else {
+                doublePredicate = doublePredicate(useResolution, resolution);
+            }
+            if (longPredicate == null && doublePredicate == null) {
+                return false;
+            }
+        }
 
-        // return the result
-        if (intersectWith!=null) {
-            return progressiveResult.and(intersectWith);
+        queryState.incResolvedBlocks(blockCount - undecided);
+        IBitMap segmentResult = new CompressedBitMap();
+        if (undecided == 0) {
+            for (int block=0; block<blockCount; block++) {
+                segmentResult.addRun(blockResults[block], zoneMap.getBlockLength(block));
+            }
+        }
+        else {
+            IVectorSegment segment = segmentInfo.getSegment();
+            segment.require();
+            try {
+                queryState.incBulkSegmentEvals();
+                Object values = ((AbstractVectorSegment)segment).getBackingArray();
+                BitMapBuilder builder = new BitMapBuilder(segmentResult);
+                for (int block=0; block<blockCount; block++) {
+                    int start = zoneMap.getBlockStart(block);
+                    int end = start + zoneMap.getBlockLength(block);
+                    if (blockResults[block] != null) {
+                        builder.flush();
+                        segmentResult.addRun(blockResults[block], end-start);
+                    }
+                    else if (longPredicate != null) {
+                        IIntegralBackingArray longValues = (IIntegralBackingArray)values;
+                        for (int i=start; i<end; i++) {
+                            builder.add(longPredicate.test(longValues.getLong(i)));
+                        }
+                    }
+                    else {
+                        IFloatingPointBackingArray doubleValues = (IFloatingPointBackingArray)values;
+                        for (int i=start; i<end; i++) {
+                            builder.add(doublePredicate.test(doubleValues.getDouble(i)));
+                        }
+                    }
+                }
+                builder.flush();
+            }
+            catch (DataSpaceException e) {
+                queryState.signalSegmentException(e, segmentNumber);
+                throw e;
+            }
+            finally {
+                segment.release(true);
+            }
         }
-        return progressiveResult;
+        result.append(candidates == null ? segmentResult : segmentResult.and(candidates));
+        return true;
     }
 
-    private HashSet<Integer> makeSegmentSkipList(AbstractVector<T> vector, IBitMap intersectWith) throws DataSpaceException {
-        HashSet<Integer> retval = new HashSet<Integer>();
-        if (intersectWith==null) {
-            return retval;
+    /**
+     * Prepares the term for callers that drive the segment loop themselves (see QueryTreeEvaluator). As in apply(),
+     * the parameters are parsed into an evaluation copy, and the returned matcher evaluates that copy one segment at a
+     * time.
+     * @param params
+     * @param vector
+     * @return a matcher for the segments of the vector
+     * @throws DataSpaceException
+     */
+    public SegmentMatcher prepare(IQueryParameterList params, IVector<T> vector) throws DataSpaceException {
+        validateNotNull(params,"params");
+        validateNotNull(vector,"vector");
+        if(!vector.isReadyToQuery()) {
+            throw new DataSpaceException("The vector you are trying to query is not ready for query (probably not sealed)");
+        }
+        boolean useResolution = false;
+        double resolution = 0.00001; // same default as apply()
+        if (INumericResolutionSupport.class.isAssignableFrom(vector.getClass())) {
+            useResolution = true;
+            resolution = ((INumericResolutionSupport)vector).getResolution();
         }
+        AbstractQueryTerm<T> evaluation = newEvaluation();
+        evaluation.setParameters(params, vector);
+        lastEvaluation = evaluation;
+        return evaluation.new SegmentMatcher(params, (AbstractVector<T>) vector, useResolution, resolution,
+                evaluation.longPredicate(), evaluation.doublePredicate(useResolution, resolution));
+    }
 
-        for (int i=0; i<vector.getSegmentCount(); i++) {
-            retval.add(i); // skip all segments until we find that they are needed
+    /**
+     * Estimates the selectivity of the term from the stats alone. Each segment is first run through quickMatch(), the
+     * same way apply() would, and only the segments that it cannot decide are estimated by
+     * estimateSegmentSelectivity(). No segment data is read.
+     * Like apply(), the parameters are parsed into an evaluation copy, which then becomes the last evaluation (so that
+     * toString(params) can describe the term before it was applied).
+     */
+    @Override
+    @SuppressWarnings({"unchecked"})
+    public SelectivityEstimate estimateSelectivity(IQueryParameterList params, IVector<T> vector) throws DataSpaceException {
+        validateNotNull(params,"params");
+        validateNotNull(vector,"vector");
+        if(!vector.isReadyToQuery()) {
+            throw new DataSpaceException("The vector you are trying to estimate a query on is not ready for query (probably not sealed)");
+        }
+        boolean useResolution = false;
+        double resolution = 0.00001; // same default as apply()
+        if (INumericResolutionSupport.class.isAssignableFrom(vector.getClass())) {
+            useResolution = true;
+            resolution = ((INumericResolutionSupport)vector).getResolution();
         }
 
-        IPositionIterator iterator = intersectWith.getPositionIterator();
+        AbstractQueryTerm<T> evaluation = newEvaluation();
+        evaluation.setParameters(params, vector);
+        lastEvaluation = evaluation;
+
+        IQueryState scratchState = new QueryState(); // quickMatch() wants one, but nothing is reported from an estimate
+        double expectedMatches = 0.0;
+        int segmentsToRead = 0;
+        int segmentsToSwapIn = 0;
+        AbstractVector.SegmentIterator iterator = ((AbstractVector)vector).segmentIterator();
         while (iterator.hasNext()) {
-            int truePosition = iterator.next();
-            int segmentNumber = vector.segmentNo(truePosition);
-            retval.remove(segmentNumber); // we need this segment
+            AbstractVector.SegmentInfo segmentInfo = iterator.next();
+            IVectorSegment segment = segmentInfo.getSegment();
+            Boolean quickResult = evaluation.quickMatch(segmentInfo.getStats(), segmentInfo.getSegmentNumber(), useResolution, resolution, scratchState);
+            if (quickResult == null) {
+                double fraction = evaluation.estimateSegmentSelectivity(segmentInfo.getStats(), vector, useResolution, resolution);
+                expectedMatches += segment.size() * Math.max(0.0, Math.min(1.0, fraction));
+                segmentsToRead++;
+                if (!segment.isBackingArrayLoaded()) {
+                    segmentsToSwapIn++;
+                }
+            }
+            else if (quickResult) {
+                expectedMatches += segment.size();
+            }
         }
 
-        return retval;
+        int size = vector.size();
+        return new SelectivityEstimate(size==0 ? 0.0 : expectedMatches/size, size,
+                ((AbstractVector)vector).getSegmentCount(), segmentsToRead, segmentsToSwapIn);
+    }
+
+    /**
+     * Estimates the fraction of a segment that matches, for a segment that quickMatch() could not decide. Called on
+     * the evaluation copy, after setParameters(). Subclasses should override with whatever the stats tell them.
+     * @param stats the segment stats
+     * @param vector the vector the segment belongs to (for vector wide stats such as quantiles)
+     * @param useResolution true if you should use the resolution parameter to determine value equivalence
+     * @param resolution if(useResolution) then a.equals(b) iff (abs(a-b) < resolution)
+     * @return the estimated fraction (0..1) of the segment that matches
+     * @throws DataSpaceException
+     */
+    protected double estimateSegmentSelectivity(ISegmentStats stats, IVector<T> vector, boolean useResolution, double resolution) throws DataSpaceException {
+        return DEFAULT_SEGMENT_SELECTIVITY;
+    }
+
+    /**
+     * Estimates the fraction of the values in a segment with values in [min..max] that fall in [from..to]. If the
+     * vector has quantiles then they are used as the shape of the distribution (restricted to [min..max]), otherwise
+     * the values are assumed to be uniform in [min..max].
+     * For integral values pass the bounds widened by 0.5 on each side, so that every integer gets its share.
+     */
+    protected final double estimateFractionBetween(IVector<T> vector, double from, double to, double min, double max) throws DataSpaceException {
+        double low = Math.max(from, min);
+        double high = Math.min(to, max);
+        if (high < low) {
+            return 0.0;
+        }
+        if (max <= min) {
+            return 1.0; // a single value, and it is in the range
+        }
+
+        IQuantiles quantiles = vector.getStats()==null ? null : vector.getStats().getQuantiles();
+        if (quantiles != null && quantiles.getForm() != IQuantiles.Form.MEDIAN_ONLY) {
+            double segmentMass = cumulativeFraction(quantiles, max) - cumulativeFraction(quantiles, min);
+            if (segmentMass > 0.0) {
+                return (cumulativeFraction(quantiles, high) - cumulativeFraction(quantiles, low)) / segmentMass;
+            }
+        }
+        return (high - low) / (max - min);
+    }
+
+    /**
+     * Estimates the number of distinct values in a string segment: the factor levels for a factor, otherwise the number
+     * of strings coded in the data space, but never more than the number of values in the segment
+     */
+    protected final int estimateDistinctStrings(IVector<T> vector, ISegmentStats stats) throws DataSpaceException {
+        int distinct = vector.isFactor() ? vector.getFactor().getValues().size() : vector.getDataSpace().getStringCodeCount();
+        return Math.max(1, Math.min(distinct, stats.getCount()));
+    }
+
+    /**
+     * Linear interpolation of the fraction of the vector at or below the value, based on the 5 percentile markers
+     */
+    private double cumulativeFraction(IQuantiles quantiles, double value) throws DataSpaceException {
+        Double previous = quantiles.getPercentile(0);
+        if (previous == null || value <= previous) {
+            return 0.0;
+        }
+        for (int percentile=5; percentile<=100; percentile+=5) {
+            Double marker = quantiles.getPercentile(percentile);
+            if (marker == null) {
+                return 1.0; // incomplete quantiles: nothing to interpolate
+            }
+            if (value < marker) {
+                double within = marker > previous ? (value - previous) / (marker - previous) : 1.0;
+                return (percentile - 5 + 5.0 * within) / 100.0;
+            }
+            previous = marker;
+        }
+        return 1.0;
+    }
+
+    /**
+     * Creates the private copy of this term that a single apply() call parses its parameters into and evaluates with.
+     * The default is a shallow clone, which is sufficient as long as setParameters() replaces (rather than modifies)
+     * whatever it stores. Subclasses holding mutable state that setParameters() modifies in place must override.
+     * @return a copy of this term
+     * @throws DataSpaceException
+     */
+    @SuppressWarnings({"unchecked"})
+    protected AbstractQueryTerm<T> newEvaluation() throws DataSpaceException {
+        try {
+            AbstractQueryTerm<T> retval = (AbstractQueryTerm<T>) clone();
+            retval.lastEvaluation = null;
+            return retval;
+        }
+        catch (CloneNotSupportedException e) {
+            throw new DataSpaceException("Could not create an evaluation copy of "+getClass().getName()+": "+e, e);
+        }
+    }
+
+    /**
+     * The evaluation copy used by the most recent apply() or estimateSelectivity() call. Use it in toString() to get at the base type and
+     * parsed parameters of the last evaluation. Returns the term itself if it was never applied.
+     * @return
+     */
+    protected AbstractQueryTerm<T> lastEvaluation() {
+        AbstractQueryTerm<T> retval = lastEvaluation;
+        return retval == null ? this : retval;
+    }
+
+    /**
+     * Sets an executor for parallel segment evaluation (e.g. a ForkJoinPool). When null (the default) segments are
+     * evaluated one at a time on the calling thread.
+     * @param executor
+     * @return this term
+     */
+    public AbstractQueryTerm<T> setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * A shortcut for setExecutor(ForkJoinPool.commonPool()) and setExecutor(null)
+     * @param parallel whether to evaluate the segments in parallel
+     * @return this term
+     */
+    public AbstractQueryTerm<T> setParallel(boolean parallel) {
+        return setExecutor(parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Evaluates a prepared term (see prepare()) one segment at a time. The segment's own evaluation bookkeeping
+     * (markSegmentEvaluationStart() etc.) is left to the caller, which decides how the segments are combined.
+     */
+    public final class SegmentMatcher {
+        private final IQueryParameterList params;
+        private final AbstractVector<T> vector;
+        private final boolean useResolution;
+        private final double resolution;
+        private final LongPredicate longPredicate;
+        private final DoublePredicate doublePredicate;
+
+        private SegmentMatcher(IQueryParameterList params, AbstractVector<T> vector, boolean useResolution, double resolution,
+                               LongPredicate longPredicate, DoublePredicate doublePredicate) {
+            this.params = params;
+            this.vector = vector;
+            this.useResolution = useResolution;
+            this.resolution = resolution;
+            this.longPredicate = longPredicate;
+            this.doublePredicate = doublePredicate;
+        }
+
+        /**
+         * Answers the term for the whole vector at once where apply() would: from the bitmap index, from the result
+         * cache, or by binary search of a sorted vector. Callers that drive the segment loop themselves should try
+         * this first, and only evaluate segment by segment if it returns null.
+         * @return the result for the whole vector, or null if its segments have to be evaluated one by one
+         */
+        public IBitMap searchWholeVector(IQueryState queryState) throws DataSpaceException {
+            return AbstractQueryTerm.this.searchWholeVector(params, vector, useResolution, resolution, queryState);
+        }
+
+        /**
+         * @return the element test for integral and string columns, null if the term cannot be fused
+         */
+        public LongPredicate getLongPredicate() {
+            return longPredicate;
+        }
+
+        /**
+         * @return the element test for floating point columns, null if the term cannot be fused
+         */
+        public DoublePredicate getDoublePredicate() {
+            return doublePredicate;
+        }
+
+        /**
+         * @return true or false if the whole segment is decided by its stats alone, null if its data has to be read
+         */
+        public Boolean quickMatch(AbstractVector.SegmentInfo segmentInfo, IQueryState queryState) throws DataSpaceException {
+            return AbstractQueryTerm.this.quickMatch(segmentInfo.getStats(), segmentInfo.getSegmentNumber(), useResolution, resolution, queryState);
+        }
+
+        /**
+         * @param stats the stats of a part of the segment, e.g. a zone map block (see ZoneMap.getBlockStats())
+         * @return true or false if that part is decided by the stats alone, null if its data has to be read
+         */
+        public Boolean quickMatch(ISegmentStats stats, int segmentNumber, IQueryState queryState) throws DataSpaceException {
+            return AbstractQueryTerm.this.quickMatch(stats, segmentNumber, useResolution, resolution, queryState);
+        }
+
+        /**
+         * Reads the segment's data (swapping it in if needed), unless the segment's zone map decides all of it
+         * @param segmentInfo the segment to evaluate
+         * @param candidates the elements of the segment that are still candidates, null if all of them are
+         * @param queryState
+         * @return a bitmap local to the segment (position 0 is the first element of the segment)
+         * @throws DataSpaceException
+         */
+        public IBitMap match(AbstractVector.SegmentInfo segmentInfo, IBitMap candidates, IQueryState queryState) throws DataSpaceException {
+            IBitMap retval = new CompressedBitMap();
+            matchSegment(segmentInfo, candidates, retval, useResolution, resolution, queryState);
+            return retval;
+        }
+    }
+
+    /**
+     * @return the next candidate position in the segment, or a position past the end of any segment if there are none
+     */
+    private int nextCandidate(IPositionIterator candidates) throws DataSpaceException {
+        return candidates.hasNext() ? candidates.next() : Integer.MAX_VALUE;
     }
 
     /**
@@ -233,10 +1103,7 @@ public abstract class AbstractQueryTerm<T extends IScalar> implements IQueryTerm
      * @param queryState
      */
     protected final void applyToAll(boolean result, AbstractVector.SegmentInfo segmentInfo, IBitMap progressiveResult, IQueryState queryState) {
-        int size = segmentInfo.getSegment().size();
-        for (int i=0;i<size;i++) {
-            progressiveResult.add(result);
-        }
+        progressiveResult.addRun(result, segmentInfo.getSegment().size());
         queryState.incQuickApplyElements();
     }
 
@@ -21,11 +21,14 @@ import com.moscona.dataSpace.*;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
 import com.moscona.dataSpace.impl.AbstractVector;
 
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
 /**
  * Created: 12/30/10 4:27 PM
  * By: Arnon Moscona
  */
-public abstract class AbstractVectorTransformer<T extends IScalar,  TOutput extends IDataElement> implements ITransformer<IVector<T>,TOutput> {
+public abstract class AbstractVectorTransformer<T extends IScalar,  TOutput extends IDataElement> implements ITransformer<IVector<T>,TOutput>, Cloneable {
 
     protected double resolution;
     protected int vectorSegmentSize;
@@ -35,6 +38,8 @@ public abstract class AbstractVectorTransformer<T extends IScalar,  TOutput exte
      */
     protected IBitMap selection=null;
 
+    private volatile ExecutorService executor = null;
+
     protected abstract void initializeTransformation(IVector<T> vector) throws DataSpaceException;
 
     protected abstract boolean quickTransform(ISegmentStats stats, int segmentNumber,
@@ -53,9 +58,59 @@ public abstract class AbstractVectorTransformer<T extends IScalar,  TOutput exte
 
     protected abstract TOutput finishTransformation() throws DataSpaceException;
 
+    /**
+     * Transformers that can accumulate segments into separate partial results (see newPartial()) and fold them back
+     * together (see merge()) return true, and are evaluated in parallel when an executor is set (see setExecutor())
+     * @return false by default
+     */
+    protected boolean isMergeable() {
+        return false;
+    }
+
+    /**
+     * Called on a fresh copy of an initialized transformer (see newPartial()) to replace its accumulated results with
+     * empty ones. The copy is shallow, so the accumulators must be replaced rather than cleared. Configuration set up by
+     * initializeTransformation() is shared and must not be modified from here on.
+     * @throws DataSpaceException
+     */
+    protected void clearAccumulators() throws DataSpaceException {
+    }
+
+    /**
+     * Folds the results accumulated by a partial (see newPartial()) into this transformer. Partials are merged in
+     * segment order.
+     * @param partial a partial created from this transformer
+     * @throws DataSpaceException
+     */
+    protected void merge(AbstractVectorTransformer<T,TOutput> partial) throws DataSpaceException {
+        throw new DataSpaceException(getClass().getSimpleName()+" does not support merging partial results");
+    }
+
+    /**
+     * Creates an accumulator for one segment of a parallel transformation: a shallow clone of this (initialized)
+     * transformer with its accumulators cleared (see clearAccumulators())
+     * @return an empty partial transformer
+     * @throws DataSpaceException
+     */
+    @SuppressWarnings({"unchecked"})
+    protected AbstractVectorTransformer<T,TOutput> newPartial() throws DataSpaceException {
+        try {
+            AbstractVectorTransformer<T,TOutput> retval = (AbstractVectorTransformer<T,TOutput>) clone();
+            retval.executor = null;
+            retval.clearAccumulators();
+            return retval;
+        }
+        catch (CloneNotSupportedException e) {
+            throw new DataSpaceException("Could not create a partial copy of "+getClass().getName()+": "+e, e);
+        }
+    }
+
     /**
      * Performs a one-pass evaluation using a pattern similar to the AbstractQueryTerm, but different as here there
-     * is no progressive bitmap, and in fact the whole result is controlled by the subclass
+     * is no progressive bitmap, and in fact the whole result is controlled by the subclass.
+     * If an executor was set (see setExecutor()) and the transformer is mergeable (see isMergeable()) then each segment
+     * is transformed into its own partial transformer in parallel, and the partials are merged in segment order before
+     * finishTransformation() is called.
      * @param vector
      * @param selection
      * @param queryState
@@ -90,6 +145,21 @@ public abstract class AbstractVectorTransformer<T extends IScalar,  TOutput exte
         if (useSelection!=null && !selectionIterator.hasNext()) {
             return null; // nothing selected
         }
+        ExecutorService executor = this.executor;
+        if (executor != null && isMergeable() && canProcessInBulk() && ((AbstractVector) vector).getSegmentCount() > 1) {
+            try {
+                validateNotNull(queryState,"query state");
+                RangeCoverage coverage = useSelection == null ? null : selection.getRangeCoverage(vectorSegmentSize);
+                transformInParallel((AbstractVector<T>) vector, coverage, useResolution, resolution, queryState, executor);
+                queryState.markCompletedVectorEvaluation(0);
+            }
+            catch (DataSpaceException e) {
+                queryState.signalVectorException(e);
+                throw e;
+            }
+            return finishTransformation();
+        }
+
         int nextSelected = getNextSelected(selectionIterator, vector);
         int currentIndex = 0; // used both for segment rejection and for row by row iteration when bulk evaluation is not supported
 
@@ -192,6 +262,129 @@ public abstract class AbstractVectorTransformer<T extends IScalar,  TOutput exte
         return finishTransformation();
     }
 
+    /**
+     * Fans the segments out over the executor, each segment transformed by its own partial (see newPartial()), and
+     * merges the partials into this transformer in segment order
+     */
+    private void transformInParallel(AbstractVector<T> vector, final RangeCoverage coverage,
+                                     final boolean useResolution, final double resolution,
+                                     final IQueryState queryState, ExecutorService executor) throws DataSpaceException {
+        ArrayList<Future<AbstractVectorTransformer<T,TOutput>>> partials =
+                new ArrayList<Future<AbstractVectorTransformer<T,TOutput>>>(vector.getSegmentCount());
+        try {
+            AbstractVector.SegmentIterator iterator = vector.segmentIterator();
+            while (iterator.hasNext()) {
+                final AbstractVector.SegmentInfo segmentInfo = iterator.next();
+                final AbstractVectorTransformer<T,TOutput> partial = newPartial();
+                partials.add(executor.submit(new Callable<AbstractVectorTransformer<T,TOutput>>() {
+                    @Override
+                    public AbstractVectorTransformer<T,TOutput> call() throws Exception {
+                        partial.transformSegment(segmentInfo, coverage, useResolution, resolution, queryState);
+                        return partial;
+                    }
+                }));
+            }
+
+            for (Future<AbstractVectorTransformer<T,TOutput>> partial: partials) {
+                merge(partial.get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataSpaceException("Interrupted while waiting for parallel segment transformation: "+e, e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DataSpaceException) {
+                throw (DataSpaceException) cause;
+            }
+            throw new DataSpaceException("Exception in parallel segment transformation: "+cause, cause);
+        }
+        catch (RejectedExecutionException e) {
+            throw new DataSpaceException("The executor rejected a segment transformation task: "+e, e);
+        }
+        finally {
+            for (Future<AbstractVectorTransformer<T,TOutput>> partial: partials) {
+                partial.cancel(false); // no-op for the completed ones, stops the rest if we bailed out early
+            }
+        }
+    }
+
+    /**
+     * Transforms a single segment on a partial. The selection is taken from the coverage, so a partially selected
+     * segment gets its own position iterator (in vector positions) rather than sharing one with the other segments.
+     */
+    private void transformSegment(AbstractVector.SegmentInfo segmentInfo, RangeCoverage coverage,
+                                  boolean useResolution, double resolution, IQueryState queryState) throws DataSpaceException {
+        int segmentNumber = segmentInfo.getSegmentNumber();
+        queryState.markSegmentEvaluationStart(segmentNumber);
+        RangeCoverage.Kind kind = coverage == null ? RangeCoverage.Kind.FULL : coverage.getKind(segmentNumber);
+        if (kind == RangeCoverage.Kind.EMPTY) {
+            queryState.incQuickSegmentEvals(true); // nothing selected in this segment
+            return;
+        }
+
+        boolean useFiltering = kind == RangeCoverage.Kind.MIXED;
+        IPositionIterator positionIterator = null;
+        int nextSelected = -1;
+        if (useFiltering) {
+            positionIterator = new OffsetPositionIterator(coverage.getCandidates(segmentNumber).getPositionIterator(),
+                    segmentNumber * vectorSegmentSize);
+            nextSelected = positionIterator.next();
+        }
+
+        try {
+            if (quickTransform(segmentInfo.getStats(), segmentNumber, useFiltering, nextSelected, positionIterator,
+                    useResolution, resolution, queryState)) {
+                queryState.incQuickSegmentEvals(true);
+                return;
+            }
+
+            segmentInfo.getSegment().require();
+            try {
+                queryState.incBulkSegmentEvals();
+                bulkTransform(segmentInfo, useFiltering, nextSelected, positionIterator, useResolution, resolution, queryState);
+                queryState.incCompletedSegments(segmentNumber, 0);
+            }
+            finally {
+                segmentInfo.getSegment().release();
+            }
+        }
+        catch (DataSpaceException e) {
+            queryState.signalSegmentException(e, segmentNumber);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            DataSpaceException dataSpaceException = new DataSpaceException("Exception while performing transformation: " + e, e);
+            queryState.signalSegmentException(dataSpaceException, segmentNumber);
+            throw dataSpaceException;
+        }
+    }
+
+    /**
+     * Sets an executor for parallel segment transformation (e.g. a ForkJoinPool). Only used by mergeable transformers
+     * (see isMergeable()). When null (the default) segments are transformed one at a time on the calling thread.
+     * @param executor
+     * @return this transformer
+     */
+    public AbstractVectorTransformer<T,TOutput> setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * A shortcut for setExecutor(ForkJoinPool.commonPool()) and setExecutor(null)
+     * @param parallel whether to transform the segments in parallel
+     * @return this transformer
+     */
+    public AbstractVectorTransformer<T,TOutput> setParallel(boolean parallel) {
+        return setExecutor(parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
     protected void setSelection(IBitMap selection) throws DataSpaceException {
         this.selection = selection; // for the benefit of those implementations that wish to use the selection directly
     }
@@ -243,4 +436,38 @@ public abstract class AbstractVectorTransformer<T extends IScalar,  TOutput exte
         }
         return counter;
     }
+
+    /**
+     * Shifts the positions of a segment relative iterator (see RangeCoverage.getCandidates()) to vector positions
+     */
+    private static class OffsetPositionIterator implements IPositionIterator {
+        private final IPositionIterator delegate;
+        private final int offset;
+
+        private OffsetPositionIterator(IPositionIterator delegate, int offset) {
+            this.delegate = delegate;
+            this.offset = offset;
+        }
+
+        @Override
+        public int next() throws DataSpaceException {
+            return delegate.next() + offset;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public int fastForwardPast(int lastIndex, int resultIfNoMoreValues) {
+            int result = delegate.fastForwardPast(lastIndex - offset, -1);
+            return result < 0 ? resultIfNoMoreValues : result + offset;
+        }
+
+        @Override
+        public int lastReturnedValue() {
+            return delegate.lastReturnedValue() + offset;
+        }
+    }
 }
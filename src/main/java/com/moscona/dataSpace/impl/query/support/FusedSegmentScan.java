@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.impl.query.support;
+
+import com.moscona.dataSpace.*;
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.impl.AbstractVector;
+import com.moscona.dataSpace.impl.segment.AbstractSegmentStats;
+import com.moscona.dataSpace.impl.segment.AbstractVectorSegment;
+import com.moscona.dataSpace.impl.segment.ZoneMap;
+import com.moscona.dataSpace.util.BitMapBuilder;
+import com.moscona.dataSpace.util.CompressedBitMap;
+
+import java.util.List;
+import java.util.function.DoublePredicate;
+import java.util.function.LongPredicate;
+
+/**
+ * Evaluates the AND of several prepared terms on the same column in a single pass over a segment: the segment is
+ * required once, and each element is read once and run through the element tests of all the terms (see
+ * AbstractQueryTerm.longPredicate() and doublePredicate()) instead of each term running its own bulkMatch() loop over
+ * the same backing array. Any of the terms may be negated (e.g. "price NOT IN (...)").
+ * Like a single term's matchSegment(), the segment is evaluated block by block when it has a zone map (see ZoneMap):
+ * a block is decided without reading it when any term rules it out, when all the terms accept all of it, or when it
+ * has no candidates. Only the remaining blocks are scanned, and within them only the candidates, so a segment that
+ * the zone map decides entirely is not required at all.
+ */
+public class FusedSegmentScan {
+    private final List<AbstractQueryTerm.SegmentMatcher> matchers;
+    private final boolean[] negated;
+    private final LongPredicate[] longPredicates;
+    private final DoublePredicate[] doublePredicates;
+
+    private FusedSegmentScan(List<AbstractQueryTerm.SegmentMatcher> matchers, boolean[] negated,
+                             LongPredicate[] longPredicates, DoublePredicate[] doublePredicates) {
+        this.matchers = matchers;
+        this.negated = negated;
+        this.longPredicates = longPredicates;
+        this.doublePredicates = doublePredicates;
+    }
+
+    /**
+     * @param matchers the prepared terms, all on the same vector
+     * @param negated for each matcher, true if its negation is wanted
+     * @return the fused scan, or null if any of the terms cannot be fused
+     */
+    public static FusedSegmentScan create(List<AbstractQueryTerm.SegmentMatcher> matchers, boolean[] negated) {
+        LongPredicate[] longPredicates = new LongPredicate[matchers.size()];
+        DoublePredicate[] doublePredicates = new DoublePredicate[matchers.size()];
+        boolean allLong = true;
+        boolean allDouble = true;
+        for (int i=0; i<matchers.size(); i++) {
+            LongPredicate longPredicate = matchers.get(i).getLongPredicate();
+            DoublePredicate doublePredicate = matchers.get(i).getDoublePredicate();
+            allLong = allLong && longPredicate != null;
+            allDouble = allDouble && doublePredicate != null;
+            if (longPredicate != null) {
+                longPredicates[i] = negated[i] ? longPredicate.negate() : longPredicate;
+            }
+            if (doublePredicate != null) {
+                doublePredicates[i] = negated[i] ? doublePredicate.negate() : doublePredicate;
+            }
+        }
+        if (allLong) {
+            return new FusedSegmentScan(matchers, negated, longPredicates, null);
+        }
+        if (allDouble) {
+            return new FusedSegmentScan(matchers, negated, null, doublePredicates);
+        }
+        return null;
+    }
+
+    /**
+     * @param segmentInfo the segment to evaluate
+     * @param candidates the elements of the segment that are still candidates, null if all of them are
+     * @param queryState
+     * @return a bitmap local to the segment with the candidates that pass all the terms
+     * @throws DataSpaceException
+     */
+    public IBitMap match(AbstractVector.SegmentInfo segmentInfo, IBitMap candidates, IQueryState queryState) throws DataSpaceException {
+        IVectorSegment segment = segmentInfo.getSegment();
+        int segmentNumber = segmentInfo.getSegmentNumber();
+        int length = segment.size();
+        ISegmentStats stats = segmentInfo.getStats();
+        ZoneMap zoneMap = stats == null || !AbstractSegmentStats.class.isAssignableFrom(stats.getClass()) ? null : ((AbstractSegmentStats)stats).getZoneMap();
+        // without a zone map the whole segment is a single undecided block
+        int blockSize = zoneMap == null ? Math.max(1, length) : zoneMap.getBlockSize();
+        int blockCount = zoneMap == null ? 1 : zoneMap.getBlockCount();
+        RangeCoverage candidateBlocks = candidates == null ? null : candidates.getRangeCoverage(blockSize);
+        Boolean[] blockResults = new Boolean[blockCount];
+        int undecided = 0;
+        for (int block=0; block<blockCount; block++) {
+            if (candidateBlocks != null && candidateBlocks.getKind(block) == RangeCoverage.Kind.EMPTY) {
+                blockResults[block] = false;
+            }
+            else if (zoneMap != null) {
+                blockResults[block] = quickMatch(zoneMap.getBlockStats(block), segmentNumber, queryState);
+            }
+            if (blockResults[block] == null) {
+                undecided++;
+            }
+        }
+        if (zoneMap != null) {
+            queryState.incResolvedBlocks(blockCount - undecided);
+        }
+
+        IBitMap retval = new CompressedBitMap();
+        if (undecided == 0) {
+            for (int block=0; block<blockCount; block++) {
+                appendDecided(retval, blockResults[block], candidateBlocks, block, blockLength(block, blockSize, length));
+            }
+            return retval;
+        }
+
+        segment.require();
+        try {
+            queryState.incBulkSegmentEvals();
+            Object values = ((AbstractVectorSegment) segment).getBackingArray();
+            boolean integral;
+            if (longPredicates != null && IIntegralBackingArray.class.isAssignableFrom(values.getClass())) {
+                integral = true;
+            }
+            else if (doublePredicates != null && IFloatingPointBackingArray.class.isAssignableFrom(values.getClass())) {
+                integral = false;
+            }
+            else {
+                throw new DataSpaceException("Cannot fuse terms on a segment of type "+segment.getClass().getSimpleName());
+            }
+            BitMapBuilder builder = new BitMapBuilder(retval);
+            for (int block=0; block<blockCount; block++) {
+                int start = block*blockSize;
+                int end = start + blockLength(block, blockSize, length);
+                if (blockResults[block] != null) {
+                    builder.flush();
+                    appendDecided(retval, blockResults[block], candidateBlocks, block, end-start);
+                    continue;
+                }
+                IBitMap blockCandidates = candidateBlocks == null ? null : candidateBlocks.getCandidates(block);
+                IPositionIterator candidateIterator = blockCandidates == null ? null : blockCandidates.getPositionIterator();
+                if (integral) {
+                    matchLongs((IIntegralBackingArray) values, start, end, candidateIterator, builder);
+                }
+                else {
+                    matchDoubles((IFloatingPointBackingArray) values, start, end, candidateIterator, builder);
+                }
+            }
+            builder.flush();
+        }
+        catch (DataSpaceException e) {
+            queryState.signalSegmentException(e, segmentNumber);
+            throw e;
+        }
+        finally {
+            segment.release(true);
+        }
+        return retval;
+    }
+
+    /**
+     * Decides a block from its stats alone, the AND of all the terms' verdicts
+     * @return true or false if the block is decided, null if it has to be read
+     */
+    private Boolean quickMatch(ISegmentStats blockStats, int segmentNumber, IQueryState queryState) throws DataSpaceException {
+        Boolean retval = true;
+        for (int i=0; i<matchers.size(); i++) {
+            Boolean match = matchers.get(i).quickMatch(blockStats, segmentNumber, queryState);
+            if (match == null) {
+                retval = null;
+                continue;
+            }
+            if (match == negated[i]) {
+                return false; // this term rules out the whole block
+            }
+        }
+        return retval;
+    }
+
+    private static int blockLength(int block, int blockSize, int length) {
+        return Math.min(length, (block+1)*blockSize) - block*blockSize;
+    }
+
+    /**
+     * Appends a decided block to the result: a block that passes all the terms passes only where it has candidates
+     */
+    private void appendDecided(IBitMap result, boolean match, RangeCoverage candidateBlocks, int block, int length) throws DataSpaceException {
+        if (match && candidateBlocks != null && candidateBlocks.getKind(block) == RangeCoverage.Kind.MIXED) {
+            IBitMap blockCandidates = candidateBlocks.getCandidates(block);
+            result.append(blockCandidates);
+            result.addRun(false, length - blockCandidates.size());
+        }
+        else {
+            result.addRun(match, length);
+        }
+    }
+
+    /**
+     * @return the next candidate position in the segment, or the end of the block if there are none
+     */
+    private static int nextCandidate(IPositionIterator candidates, int start, int end) throws DataSpaceException {
+        return candidates.hasNext() ? start + candidates.next() : end;
+    }
+
+    private void matchLongs(IIntegralBackingArray values, int start, int end, IPositionIterator candidates, BitMapBuilder result) throws DataSpaceException {
+        int nextCandidate = candidates == null ? start : nextCandidate(candidates, start, end);
+        for (int i=start; i<end; i++) {
+            boolean match = false;
+            if (i == nextCandidate) {
+                long value = values.getLong(i);
+                match = true;
+                for (int p=0; match && p<longPredicates.length; p++) {
+                    match = longPredicates[p].test(value);
+                }
+                nextCandidate = candidates == null ? i+1 : nextCandidate(candidates, start, end);
+            }
+            result.add(match);
+        }
+    }
+
+    private void matchDoubles(IFloatingPointBackingArray values, int start, int end, IPositionIterator candidates, BitMapBuilder result) throws DataSpaceException {
+        int nextCandidate = candidates == null ? start : nextCandidate(candidates, start, end);
+        for (int i=start; i<end; i++) {
+            boolean match = false;
+            if (i == nextCandidate) {
+                double value = values.getDouble(i);
+                match = true;
+                for (int p=0; match && p<doublePredicates.length; p++) {
+                    match = doublePredicates[p].test(value);
+                }
+                nextCandidate = candidates == null ? i+1 : nextCandidate(candidates, start, end);
+            }
+            result.add(match);
+        }
+    }
+}
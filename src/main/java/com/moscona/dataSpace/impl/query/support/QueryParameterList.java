@@ -25,6 +25,8 @@ import org.apache.commons.lang3.StringUtils;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * Created: 12/15/10 6:53 PM
@@ -118,6 +120,51 @@ public class QueryParameterList implements IQueryParameterList {
         return params;
     }
 
+    /**
+     * Every name and value is written with its length in front of it (see appendCanonical()) and every parameter with
+     * its type, so that no two different lists can have the same canonical string, whatever characters the values hold
+     */
+    @Override
+    @SuppressWarnings({"unchecked"})
+    public String toCanonicalString() {
+        TreeMap<String,IQueryParameter> byName = new TreeMap<String,IQueryParameter>();
+        for (IQueryParameter p: params) {
+            byName.put(p.getName(), p);
+        }
+        StringBuilder retval = new StringBuilder();
+        for (IQueryParameter p: byName.values()) {
+            appendCanonical(retval, p.getName());
+            retval.append(p.getType()).append('=');
+            boolean isSet = p.getType()==IQueryParameter.ParameterType.STRING_SET || p.getType()==IQueryParameter.ParameterType.LONG_SET;
+            if (isSet && ((AbstractQueryParameter)p).valueSet!=null) {
+                TreeSet<String> sorted = new TreeSet<String>();
+                for (Object element: p.getValueSet()) {
+                    sorted.add(String.valueOf(element));
+                }
+                retval.append('{').append(sorted.size()).append(':');
+                for (String element: sorted) {
+                    appendCanonical(retval, element);
+                }
+                retval.append('}');
+            }
+            else if (p.getValue()==null) {
+                retval.append("null;");
+            }
+            else {
+                appendCanonical(retval, String.valueOf(p.getValue()));
+            }
+        }
+        return retval.toString();
+    }
+
+    /**
+     * Appends a string as its length, a colon and the string itself, so that the end of the string is known without
+     * reserving any character as a delimiter
+     */
+    private static void appendCanonical(StringBuilder canonical, String value) {
+        canonical.append(value.length()).append(':').append(value);
+    }
+
     @Override
     public String toString() {
         ArrayList<String> parts = new ArrayList<String>();
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.impl.segment;
+
+import com.moscona.dataSpace.IVectorSegmentBackingArray;
+import com.moscona.dataSpace.persistence.OffHeapBufferPool;
+
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The common part of backing arrays whose elements live in a direct buffer from an OffHeapBufferPool rather than in
+ * a Java array. Such arrays are only made for sealed segments (when they are swapped in), so they are never appended
+ * to. They are read through the IIntegralBackingArray, IFloatingPointBackingArray and ILogicalBackingArray accessors.
+ * When serialized they are replaced by the equivalent Java array backed implementation.
+ */
+public abstract class AbstractOffHeapBackingArray<T> implements IVectorSegmentBackingArray<T> {
+    private static final long serialVersionUID = -2405766325227733216L;
+    protected transient ByteBuffer buffer; // little endian, element i at i*elementSize()
+    protected int length;
+    private transient OffHeapBufferPool pool;
+
+    protected AbstractOffHeapBackingArray(ByteBuffer buffer, int length, OffHeapBufferPool pool) {
+        this.buffer = buffer;
+        this.length = length;
+        this.pool = pool;
+    }
+
+    /**
+     * @return the number of bytes per element
+     */
+    protected abstract int elementSize();
+
+    /**
+     * @return a copy of the elements in the Java array backed implementation
+     */
+    public abstract IVectorSegmentBackingArray<T> toHeap();
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return (long)length*elementSize();
+    }
+
+    /**
+     * Sealed arrays are not expected to be trimmed, but if they are this only hides the tail of the buffer
+     */
+    @Override
+    public void trim(int size) {
+        length = Math.min(length, size);
+    }
+
+    /**
+     * @return a read only little endian view of the elements (position 0, limit at the end of the last element)
+     */
+    public ByteBuffer getBytes() {
+        ByteBuffer retval = buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        retval.clear();
+        retval.limit(length*elementSize());
+        return retval;
+    }
+
+    /**
+     * Returns the buffer to the pool. Called when the segment is swapped out, after which nobody may read the array.
+     */
+    public synchronized void release() {
+        if (buffer != null && pool != null) {
+            pool.release(buffer);
+        }
+        buffer = null;
+    }
+
+    protected Object writeReplace() throws ObjectStreamException {
+        return toHeap();
+    }
+
+    /**
+     * Makes an off heap copy of a Java array backed array
+     * @param backingArray one of the *SegmentBackingArray classes
+     * @param pool where to get the buffer from
+     * @return the off heap copy, or the argument itself if it has no off heap equivalent or is already off heap
+     */
+    @SuppressWarnings({"unchecked"})
+    public static IVectorSegmentBackingArray offHeapCopyOf(IVectorSegmentBackingArray backingArray, OffHeapBufferPool pool) {
+        if (backingArray instanceof DoubleSegmentBackingArray) {
+            double[] data = ((DoubleSegmentBackingArray) backingArray).data;
+            ByteBuffer buffer = pool.allocate(data.length*8);
+            buffer.asDoubleBuffer().put(data);
+            return new OffHeapDoubleSegmentBackingArray(buffer, data.length, pool);
+        }
+        if (backingArray instanceof FloatSegmentBackingArray) {
+            float[] data = ((FloatSegmentBackingArray) backingArray).data;
+            ByteBuffer buffer = pool.allocate(data.length*4);
+            buffer.asFloatBuffer().put(data);
+            return new OffHeapFloatSegmentBackingArray(buffer, data.length, pool);
+        }
+        if (backingArray instanceof LongSegmentBackingArray) {
+            long[] data = ((LongSegmentBackingArray) backingArray).data;
+            ByteBuffer buffer = pool.allocate(data.length*8);
+            buffer.asLongBuffer().put(data);
+            return new OffHeapLongSegmentBackingArray(buffer, data.length, pool);
+        }
+        if (backingArray instanceof IntegerSegmentBackingArray) {
+            int[] data = ((IntegerSegmentBackingArray) backingArray).data;
+            ByteBuffer buffer = pool.allocate(data.length*4);
+            buffer.asIntBuffer().put(data);
+            return new OffHeapIntegerSegmentBackingArray(buffer, data.length, pool);
+        }
+        if (backingArray instanceof StringSegmentBackingArray) {
+            int[] data = ((StringSegmentBackingArray) backingArray).data;
+            ByteBuffer buffer = pool.allocate(data.length*4);
+            buffer.asIntBuffer().put(data);
+            return new OffHeapStringSegmentBackingArray(buffer, data.length, pool);
+        }
+        if (backingArray instanceof ShortSegmentBackingArray) {
+            short[] data = ((ShortSegmentBackingArray) backingArray).data;
+            ByteBuffer buffer = pool.allocate(data.length*2);
+            buffer.asShortBuffer().put(data);
+            return new OffHeapShortSegmentBackingArray(buffer, data.length, pool);
+        }
+        if (backingArray instanceof ByteSegmentBackingArray) {
+            byte[] data = ((ByteSegmentBackingArray) backingArray).data;
+            ByteBuffer buffer = pool.allocate(data.length);
+            buffer.put(data);
+            return new OffHeapByteSegmentBackingArray(buffer, data.length, pool);
+        }
+        if (backingArray instanceof BooleanSegmentBackingArray) {
+            boolean[] data = ((BooleanSegmentBackingArray) backingArray).data;
+            ByteBuffer buffer = pool.allocate(data.length);
+            for (int i=0; i<data.length; i++) {
+                buffer.put(i, data[i] ? (byte)1 : (byte)0);
+            }
+            return new OffHeapBooleanSegmentBackingArray(buffer, data.length, pool);
+        }
+        return backingArray;
+    }
+}
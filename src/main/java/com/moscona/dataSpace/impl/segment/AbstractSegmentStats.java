@@ -20,6 +20,7 @@ package com.moscona.dataSpace.impl.segment;
 import com.moscona.dataSpace.ISegmentStats;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
 import com.moscona.dataSpace.persistence.PersistenceType;
+import com.moscona.dataSpace.util.QuantileSketch;
 
 /**
  * Created: 12/13/10 11:37 AM
@@ -34,6 +35,8 @@ public abstract class AbstractSegmentStats<T> implements ISegmentStats<T>, Clone
 
     private double sum = 0.0; // for moment calculation only
     private double sumSquares = 0.0; // for moment calculation only
+    private ZoneMap zoneMap = null; // only numeric segments longer than a zone map block have one
+    private QuantileSketch quantileSketch = null; // only numeric segments have one, unless sketches are disabled
 
     public AbstractSegmentStats(PersistenceType persistenceType) {
         this.persistenceType = persistenceType;
@@ -91,6 +94,29 @@ public abstract class AbstractSegmentStats<T> implements ISegmentStats<T>, Clone
         this.min = min;
     }
 
+    /**
+     * @return the min and max of the blocks of the segment, or null if the segment does not have a zone map
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
+    public void setZoneMap(ZoneMap zoneMap) {
+        this.zoneMap = zoneMap;
+    }
+
+    /**
+     * @return the quantile sketch of the segment's values, or null if the segment does not have one. The sketch is
+     * shared with copies of the stats and must not be modified: merge it into another sketch instead
+     */
+    public QuantileSketch getQuantileSketch() {
+        return quantileSketch;
+    }
+
+    public void setQuantileSketch(QuantileSketch quantileSketch) {
+        this.quantileSketch = quantileSketch;
+    }
+
     /**
      * Other than min, max, and count - all the rest of the stats are only provided whwn hasMoments if true (ony numeric
      * vectors)
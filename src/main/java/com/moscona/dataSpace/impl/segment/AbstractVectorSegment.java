@@ -17,14 +17,20 @@
 
 package com.moscona.dataSpace.impl.segment;
 
-import com.moscona.exceptions.InvalidStateException;
 import com.moscona.dataSpace.*;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.persistence.IConcurrentMemoryManager;
+import com.moscona.dataSpace.persistence.IDataStore;
+import com.moscona.dataSpace.persistence.IMemoryManager;
 import com.moscona.dataSpace.persistence.PersistenceStatus;
 import com.moscona.dataSpace.persistence.PersistenceType;
+import com.moscona.dataSpace.util.QuantileSketch;
 
 import java.io.File;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -37,9 +43,10 @@ public abstract class AbstractVectorSegment<ScalarType extends IScalar,NativeTyp
     private static final long serialVersionUID = 4197485102230422006L;
     private transient IVectorSegmentBackingArray<NativeType> backingArray; // IMPORTANT the backing array is TRANSIENT and that the segment only knows its segment index within the vector and can get the actual segment from the data store
     private DataSpace dataSpace;
-    private transient PersistenceStatus persistenceStatus;
+    private transient volatile PersistenceStatus persistenceStatus;
     private boolean isRequired; // IMPORTANT: DO NOT USE - TO BE DELETED not transient. boolean will default to false, which is correct, when first loaded
     private transient AtomicInteger requireCounter = new AtomicInteger(0); // in a concurrent GUI environment the boolean flag is insufficient
+    private transient volatile FutureTask<IVectorSegmentBackingArray<NativeType>> loading = null; // guarded by this
     private int size;
     private int maxSegmentSize;
 
@@ -68,15 +75,24 @@ public abstract class AbstractVectorSegment<ScalarType extends IScalar,NativeTyp
     protected abstract void trimBackingArray();
     protected abstract IVectorSegmentBackingArray<NativeType> createBackingArray();
 
+    /**
+     * The monitor guarding the require counter and swap state of this segment. With a concurrent memory manager every
+     * segment guards itself, otherwise all segments share the memory manager's monitor.
+     */
+    private Object monitor() {
+        IMemoryManager memoryManager = dataSpace.getMemoryManager();
+        return memoryManager instanceof IConcurrentMemoryManager ? this : memoryManager;
+    }
+
     private boolean isRequired() {
-        synchronized (dataSpace.getMemoryManager()) {
+        synchronized (monitor()) {
             return requireCounter.get()>0;
         }
     }
 
     private void setRequired(boolean isRequired) throws DataSpaceException {
 //        this.isRequired = isRequired;
-        synchronized (dataSpace.getMemoryManager()) {
+        synchronized (monitor()) {
             int counter = requireCounter.addAndGet(isRequired ? 1 : -1);
             this.isRequired = (counter > 0);
             if (counter < 0) {
@@ -137,7 +153,15 @@ public abstract class AbstractVectorSegment<ScalarType extends IScalar,NativeTyp
      */
     @Override
     public void require() throws DataSpaceException {
-        synchronized (dataSpace.getMemoryManager()) {
+        if (persistenceStatus==PersistenceStatus.SWAPPED_OUT) {
+            load(); // do the I/O before taking any lock, swapIn() will pick up the result
+        }
+        IMemoryManager memoryManager = dataSpace.getMemoryManager();
+        if (memoryManager instanceof IConcurrentMemoryManager) {
+            requireConcurrently((IConcurrentMemoryManager) memoryManager);
+            return;
+        }
+        synchronized (monitor()) {
             //noinspection SynchronizeOnNonFinalField
             synchronized (requireCounter) {
                 if (isRequired()) {
@@ -165,7 +189,12 @@ public abstract class AbstractVectorSegment<ScalarType extends IScalar,NativeTyp
      */
     @Override
     public void release(boolean quiet) throws DataSpaceException {
-        synchronized (dataSpace.getMemoryManager()) {
+        IMemoryManager memoryManager = dataSpace.getMemoryManager();
+        if (memoryManager instanceof IConcurrentMemoryManager) {
+            releaseConcurrently((IConcurrentMemoryManager) memoryManager, quiet);
+            return;
+        }
+        synchronized (monitor()) {
             //noinspection SynchronizeOnNonFinalField
             synchronized (requireCounter) {
                 if (!isRequired()) {
@@ -183,6 +212,36 @@ public abstract class AbstractVectorSegment<ScalarType extends IScalar,NativeTyp
         }
     }
 
+    /**
+     * A concurrent memory manager counts pins itself, so every require goes to it and no lock is held while it swaps
+     * the segment in
+     */
+    private void requireConcurrently(IConcurrentMemoryManager memoryManager) throws DataSpaceException {
+        if (memoryManagerId < 0) {
+            throw new DataSpaceException("Vector segment required but never submitted (no memory manager ID)");
+        }
+        memoryManager.require(memoryManagerId); // pinned and swapped in from here on
+        if (backingArray==null) {
+            memoryManager.release(memoryManagerId);
+            throw new DataSpaceException("required a segment that has no backing array after being swapped in");
+        }
+        requireCounter.incrementAndGet();
+    }
+
+    private void releaseConcurrently(IConcurrentMemoryManager memoryManager, boolean quiet) throws DataSpaceException {
+        int counter;
+        do {
+            counter = requireCounter.get();
+            if (counter <= 0) {
+                if (!quiet) {
+                    throw new DataSpaceException("Release called on a segment that's not required. Segment "+segmentNumber+" of "+whichVector());
+                }
+                return;
+            }
+        } while (!requireCounter.compareAndSet(counter, counter-1));
+        memoryManager.release(memoryManagerId);
+    }
+
     private String getDebugId() {
         int segmentNumber = getSegmentNumber();
         String baseType = getVector().getBaseType().toString();
@@ -230,6 +289,54 @@ public abstract class AbstractVectorSegment<ScalarType extends IScalar,NativeTyp
         return dataSpace;
     }
 
+    /**
+     * Calculates the zone map of the segment (see ZoneMap) into its stats, unless zone maps are disabled in the data
+     * space or the segment is not longer than a single block. Called by the calculateStats() of numeric segments,
+     * while the data is still in memory
+     */
+    protected void calculateZoneMap() {
+        int blockSize = dataSpace.getZoneMapBlockSize();
+        if (blockSize <= 0 || size <= blockSize) {
+            return;
+        }
+        IVectorSegmentBackingArray<NativeType> values = getBackingArray();
+        if (IIntegralBackingArray.class.isAssignableFrom(values.getClass())) {
+            ((AbstractSegmentStats)stats).setZoneMap(ZoneMap.calculate((IIntegralBackingArray)values, size, blockSize));
+        }
+        else if (IFloatingPointBackingArray.class.isAssignableFrom(values.getClass())) {
+            ((AbstractSegmentStats)stats).setZoneMap(ZoneMap.calculate((IFloatingPointBackingArray)values, size, blockSize));
+        }
+    }
+
+    /**
+     * Calculates the quantile sketch of the segment (see QuantileSketch) into its stats, unless quantile sketches are
+     * disabled in the data space. Called by the calculateStats() of numeric segments, while the data is still in memory
+     */
+    protected void calculateQuantileSketch() {
+        int k = dataSpace.getQuantileSketchSize();
+        if (k <= 0) {
+            return;
+        }
+        IVectorSegmentBackingArray<NativeType> values = getBackingArray();
+        QuantileSketch sketch = new QuantileSketch(k);
+        if (IIntegralBackingArray.class.isAssignableFrom(values.getClass())) {
+            IIntegralBackingArray integralValues = (IIntegralBackingArray)values;
+            for (int i=0; i<size; i++) {
+                sketch.update(integralValues.getLong(i));
+            }
+        }
+        else if (IFloatingPointBackingArray.class.isAssignableFrom(values.getClass())) {
+            IFloatingPointBackingArray floatingPointValues = (IFloatingPointBackingArray)values;
+            for (int i=0; i<size; i++) {
+                sketch.update(floatingPointValues.getDouble(i));
+            }
+        }
+        else {
+            return;
+        }
+        ((AbstractSegmentStats)stats).setQuantileSketch(sketch);
+    }
+
     public ISegmentStats getStats() {
         return stats;
     }
@@ -292,26 +399,113 @@ public abstract class AbstractVectorSegment<ScalarType extends IScalar,NativeTyp
 
     @Override
     public void swapIn() throws DataSpaceException {
-        synchronized (dataSpace.getMemoryManager()) {
-            try {
-                vector.getDataSpace().getDataStore().restoreSegment(this);
+        IVectorSegmentBackingArray<NativeType> loaded = load();
+        if (loaded == null) {
+            return; // another thread swapped it in since we were asked
+        }
+        synchronized (monitor()) {
+            vector.getDataSpace().getDataStore().restoreSegment(this, loaded);
+            discardLoad();
+        }
+    }
+
+    /**
+     * Reads the backing array from the data store. The first thread to ask does the I/O; other threads asking for
+     * the same segment wait for its result rather than read the file again, and nobody holds the memory manager's
+     * monitor while waiting, so threads working on other segments are not blocked.
+     * A thread that saw the segment swapped out may get here after another thread's swapIn() installed the array and
+     * forgot its load, so the status is checked again before starting a new read.
+     * @return the loaded backing array, which is not installed until swapIn(). null if the segment is no longer
+     * swapped out
+     */
+    private IVectorSegmentBackingArray<NativeType> load() throws DataSpaceException {
+        FutureTask<IVectorSegmentBackingArray<NativeType>> task;
+        boolean isLoader = false;
+        synchronized (this) {
+            task = loading;
+            if (task==null && persistenceStatus!=PersistenceStatus.SWAPPED_OUT && backingArray!=null) {
+                return null; // already swapped in, nothing to read
             }
-            catch (InvalidStateException e) {
-                throw new DataSpaceException("Exception while restoring backing array: "+e,e);
+            if (task==null) {
+                final IDataStore dataStore = vector.getDataSpace().getDataStore();
+                task = new FutureTask<IVectorSegmentBackingArray<NativeType>>(new Callable<IVectorSegmentBackingArray<NativeType>>() {
+                    @Override
+                    @SuppressWarnings({"unchecked"})
+                    public IVectorSegmentBackingArray<NativeType> call() throws Exception {
+                        return dataStore.loadBackingArray(AbstractVectorSegment.this);
+                    }
+                });
+                loading = task;
+                isLoader = true;
             }
         }
+
+        if (isLoader) {
+            task.run();
+        }
+        try {
+            return task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataSpaceException("Interrupted while waiting for the backing array of "+getDebugId()+" to load",e);
+        }
+        catch (ExecutionException e) {
+            synchronized (this) {
+                if (loading==task) {
+                    loading = null; // let the next request try again
+                }
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof DataSpaceException) {
+                throw (DataSpaceException) cause;
+            }
+            throw new DataSpaceException("Exception while restoring backing array: "+cause,cause);
+        }
+    }
+
+    private synchronized void discardLoad() {
+        loading = null;
+    }
+
+    /**
+     * Forgets a completed load that was never installed (see swapIn()). Its array is not referenced by anybody else,
+     * so an off heap array is returned to the memory manager's pool rather than left to the garbage collector
+     */
+    private synchronized void dropUninstalledLoad() {
+        FutureTask<IVectorSegmentBackingArray<NativeType>> task = loading;
+        loading = null;
+        if (task==null || !task.isDone()) {
+            return; // the thread doing the read will hand the array to its caller
+        }
+        try {
+            IVectorSegmentBackingArray<NativeType> loaded = task.get();
+            if (loaded != backingArray && loaded instanceof AbstractOffHeapBackingArray) {
+                ((AbstractOffHeapBackingArray) loaded).release();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            // a failed load holds no array
+        }
     }
 
     @Override
     public void swapOut() throws DataSpaceException {
-        synchronized (dataSpace.getMemoryManager()) {
+        synchronized (monitor()) {
             swapOutUnchecked();
             vector.getDataSpace().getMemoryManager().onSwappedOut(this);
         }
     }
 
     public void swapOutUnchecked() {
-        synchronized (dataSpace.getMemoryManager()) {
+        synchronized (monitor()) {
+            dropUninstalledLoad(); // a load that was never installed would pin the array
+            if (backingArray instanceof AbstractOffHeapBackingArray) {
+                ((AbstractOffHeapBackingArray) backingArray).release(); // back to the memory manager's pool
+            }
             backingArray = null; // can be garbage collected
             persistenceStatus = PersistenceStatus.SWAPPED_OUT;
         }
@@ -319,7 +513,7 @@ public abstract class AbstractVectorSegment<ScalarType extends IScalar,NativeTyp
 
     public void initAfterLoadFromDisk() throws DataSpaceException {
 
-        synchronized (dataSpace.getMemoryManager()) {
+        synchronized (monitor()) {
             requireCounter = new AtomicInteger(0);
             memoryManagerId = -1; // we don't really have one
             swapOutUnchecked();
@@ -17,7 +17,7 @@
 
 package com.moscona.dataSpace.impl.segment;
 
-import com.moscona.dataSpace.IVectorSegmentBackingArray;
+import com.moscona.dataSpace.ILogicalBackingArray;
 
 /**
  * Created: 12/14/10 3:09 PM
@@ -26,7 +26,7 @@ import com.moscona.dataSpace.IVectorSegmentBackingArray;
  * really needed. However it maintains full speed. Could replace with a BitSet or a compressed bit set, but then
  * speed is very likely to be far slower.
  */
-public class BooleanSegmentBackingArray implements IVectorSegmentBackingArray<Boolean> {
+public class BooleanSegmentBackingArray implements ILogicalBackingArray {
     private static final long serialVersionUID = 6551718685441345156L;
     public boolean[] data; // IMPORTANT: public so that its directly accessible to th rest of the implementation
 
@@ -58,4 +58,14 @@ public class BooleanSegmentBackingArray implements IVectorSegmentBackingArray<Bo
         data = new boolean[size];
         System.arraycopy(oldData,0,data,0,size);
     }
+
+    @Override
+    public int length() {
+        return data.length;
+    }
+
+    @Override
+    public boolean getBoolean(int index) {
+        return data[index];
+    }
 }
@@ -41,6 +41,13 @@ public class ByteSegment extends AbstractVectorSegment<Numeric<Byte>,Byte>{
         return (ByteSegmentBackingArray)getBackingArray();
     }
 
+    /**
+     * @return the backing array for reading, which may be off heap once the segment is sealed
+     */
+    IIntegralBackingArray<Byte> myValues() {
+        return (IIntegralBackingArray<Byte>)getBackingArray();
+    }
+
     public void append(byte value) throws DataSpaceException {
         // IMPORTANT - we are still mutable here, and so the memory manager is not involved with this segment yet
         myBackingArray().data[size()] = value;
@@ -67,6 +74,8 @@ public class ByteSegment extends AbstractVectorSegment<Numeric<Byte>,Byte>{
     @Override
     public ISegmentStats calculateStats() {
         //HOLD implement ByteSegment.calculateStats (finalize stats, calculate quantiles, histogram etc) - note that range (min/max) is already calculated in the add method... These would become more important when we fix #IT-468 and #IT-464 (a better vector quantile estimation)
+        calculateZoneMap();
+        calculateQuantileSketch();
         return stats;
     }
 
@@ -84,7 +93,7 @@ public class ByteSegment extends AbstractVectorSegment<Numeric<Byte>,Byte>{
     public Set<Numeric<Byte>> getUniqueValues() {
         HashSet<Numeric<Byte>> retval = new HashSet<Numeric<Byte>>();
         for (int i=0; i<size(); i++) {
-            Numeric<Byte> value = new Numeric<Byte>(myBackingArray().data[i]);
+            Numeric<Byte> value = new Numeric<Byte>((byte) myValues().getLong(i));
             retval.add(value);
         }
         return retval;
@@ -92,10 +101,10 @@ public class ByteSegment extends AbstractVectorSegment<Numeric<Byte>,Byte>{
 
     @Override
     public double[] copyAsDoubles() {
-        byte[] data = ((ByteSegmentBackingArray) getBackingArray()).data;
-        double[] retval = new double[data.length];
-        for (int i=0; i<data.length; i++) {
-            retval[i] = data[i];
+        IIntegralBackingArray<Byte> values = myValues();
+        double[] retval = new double[values.length()];
+        for (int i=0; i<values.length(); i++) {
+            retval[i] = values.getLong(i);
         }
         return retval;
     }
@@ -103,7 +112,9 @@ public class ByteSegment extends AbstractVectorSegment<Numeric<Byte>,Byte>{
     @Override
     public void estimateQuantilesOnRestOfSegments(Quantiles quantiles) {
         // caller already initialized and is responsible for iterating over segments. Here we just contribute our data
-        for (byte observation: ((ByteSegmentBackingArray) getBackingArray()).data) {
+        IIntegralBackingArray<Byte> values = myValues();
+        for (int i=0; i<values.length(); i++) {
+            byte observation = (byte) values.getLong(i);
             quantiles.addObservationToQuantileEstimate(observation);
         }
     }
@@ -123,7 +134,7 @@ public class ByteSegment extends AbstractVectorSegment<Numeric<Byte>,Byte>{
             }
 
             currentIndex++;
-            return new Numeric<Byte>(myBackingArray().data[currentIndex]);
+            return new Numeric<Byte>((byte) myValues().getLong(currentIndex));
         }
 
         @Override
@@ -139,16 +150,17 @@ public class ByteSegment extends AbstractVectorSegment<Numeric<Byte>,Byte>{
 
     @Override
     public void appendValues(ArrayList<Numeric<Byte>> retval, List<Integer> positions, Integer from, Integer to) {
-        byte[] data = ((ByteSegmentBackingArray) getBackingArray()).data;
+        IIntegralBackingArray<Byte> values = myValues();
         if (positions==null) {
-            for (byte datum: data) {
+            for (int i=0; i<values.length(); i++) {
+                byte datum = (byte) values.getLong(i);
                 retval.add(new Numeric<Byte>(datum));
             }
         }
         else {
             int base = getSegmentNumber() * getMaxSegmentSize();
             for (int i=from; i<=to; i++) {
-                retval.add(new Numeric<Byte>(data[positions.get(i)-base]));
+                retval.add(new Numeric<Byte>((byte) values.getLong(positions.get(i)-base)));
             }
         }
     }
@@ -17,13 +17,13 @@
 
 package com.moscona.dataSpace.impl.segment;
 
-import com.moscona.dataSpace.IVectorSegmentBackingArray;
+import com.moscona.dataSpace.IIntegralBackingArray;
 
 /**
  * Created: 12/14/10 5:36 PM
  * By: Arnon Moscona
  */
-public class ByteSegmentBackingArray  implements IVectorSegmentBackingArray<Byte> {
+public class ByteSegmentBackingArray  implements IIntegralBackingArray<Byte> {
     private static final long serialVersionUID = 3661725368073952924L;
     public byte[] data; // IMPORTANT: public so that its directly accessible to th rest of the implementation
 
@@ -55,4 +55,14 @@ public class ByteSegmentBackingArray  implements IVectorSegmentBackingArray<Byte
         data = new byte[size];
         System.arraycopy(oldData,0,data,0,size);
     }
+
+    @Override
+    public int length() {
+        return data.length;
+    }
+
+    @Override
+    public long getLong(int index) {
+        return data[index];
+    }
 }
@@ -41,6 +41,13 @@ public class DoubleSegment  extends AbstractVectorSegment<Numeric<Double>,Double
         return (DoubleSegmentBackingArray)getBackingArray();
     }
 
+    /**
+     * @return the backing array for reading, which may be off heap once the segment is sealed
+     */
+    IFloatingPointBackingArray<Double> myValues() {
+        return (IFloatingPointBackingArray<Double>)getBackingArray();
+    }
+
     public void append(double value) throws DataSpaceException {
         // IMPORTANT - we are still mutable here, and so the memory manager is not involved with this segment yet
         myBackingArray().data[size()] = value;
@@ -67,6 +74,8 @@ public class DoubleSegment  extends AbstractVectorSegment<Numeric<Double>,Double
     @Override
     public ISegmentStats calculateStats() {
         //HOLD (before release) implement DoubleSegment.calculateStats (finalize stats, calculate quantiles, histogram etc)  - note that range (min/max) is already calculated in the add method... These would become more important when we fix #IT-468 and #IT-464 (a better vector quantile estimation)
+        calculateZoneMap();
+        calculateQuantileSketch();
         return stats;
     }
 
@@ -84,7 +93,7 @@ public class DoubleSegment  extends AbstractVectorSegment<Numeric<Double>,Double
     public Set<Numeric<Double>> getUniqueValues() {
         HashSet<Numeric<Double>> retval = new HashSet<Numeric<Double>>();
         for (int i=0; i<size(); i++) {
-            Numeric<Double> value = new Numeric<Double>(myBackingArray().data[i]);
+            Numeric<Double> value = new Numeric<Double>(myValues().getDouble(i));
             retval.add(value);
         }
         return retval;
@@ -105,7 +114,7 @@ public class DoubleSegment  extends AbstractVectorSegment<Numeric<Double>,Double
             }
 
             currentIndex++;
-            return new Numeric<Double>(myBackingArray().data[currentIndex]);
+            return new Numeric<Double>(myValues().getDouble(currentIndex));
         }
 
         @Override
@@ -126,7 +135,7 @@ public class DoubleSegment  extends AbstractVectorSegment<Numeric<Double>,Double
         HashSet<Numeric<Double>> retval = new HashSet<Numeric<Double>>();
         // create a unique set of rounded numbers
         for (int i=0; i<size(); i++) {
-            double value = myBackingArray().data[i];
+            double value = myValues().getDouble(i);
             roundedSet.add(Math.round(value/resolution));
         }
         // convert the rounded numbers to estimated originals
@@ -139,10 +148,10 @@ public class DoubleSegment  extends AbstractVectorSegment<Numeric<Double>,Double
 
     @Override
     public double[] copyAsDoubles() {
-        double[] data = ((DoubleSegmentBackingArray) getBackingArray()).data;
-        double[] retval = new double[data.length];
-        for (int i=0; i<data.length; i++) {
-            retval[i] = data[i];
+        IFloatingPointBackingArray<Double> values = myValues();
+        double[] retval = new double[values.length()];
+        for (int i=0; i<values.length(); i++) {
+            retval[i] = values.getDouble(i);
         }
         return retval;
     }
@@ -150,23 +159,26 @@ public class DoubleSegment  extends AbstractVectorSegment<Numeric<Double>,Double
     @Override
     public void estimateQuantilesOnRestOfSegments(Quantiles quantiles) {
         // caller already initialized and is responsible for iterating over segments. Here we just contribute our data
-        for (double observation: ((DoubleSegmentBackingArray) getBackingArray()).data) {
+        IFloatingPointBackingArray<Double> values = myValues();
+        for (int i=0; i<values.length(); i++) {
+            double observation = values.getDouble(i);
             quantiles.addObservationToQuantileEstimate(observation);
         }
     }  
 
     @Override
     public void appendValues(ArrayList<Numeric<Double>> retval, List<Integer> positions, Integer from, Integer to) {
-        double[] data = ((DoubleSegmentBackingArray) getBackingArray()).data;
+        IFloatingPointBackingArray<Double> values = myValues();
         if (positions==null) {
-            for (double datum: data) {
+            for (int i=0; i<values.length(); i++) {
+                double datum = values.getDouble(i);
                 retval.add(new Numeric<Double>(datum));
             }
         }
         else {
             int base = getSegmentNumber() * getMaxSegmentSize();
             for (int i=from; i<=to; i++) {
-                retval.add(new Numeric<Double>(data[positions.get(i)-base]));
+                retval.add(new Numeric<Double>(values.getDouble(positions.get(i)-base)));
             }
         }
     }
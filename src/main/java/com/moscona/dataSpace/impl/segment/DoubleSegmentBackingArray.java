@@ -17,13 +17,13 @@
 
 package com.moscona.dataSpace.impl.segment;
 
-import com.moscona.dataSpace.IVectorSegmentBackingArray;
+import com.moscona.dataSpace.IFloatingPointBackingArray;
 
 /**
  * Created: 12/14/10 5:42 PM
  * By: Arnon Moscona
  */
-public class DoubleSegmentBackingArray implements IVectorSegmentBackingArray<Double> {
+public class DoubleSegmentBackingArray implements IFloatingPointBackingArray<Double> {
     private static final long serialVersionUID = 2635452795290268719L;
     public double[] data; // IMPORTANT: public so that its directly accessible to th rest of the implementation
 
@@ -55,4 +55,14 @@ public class DoubleSegmentBackingArray implements IVectorSegmentBackingArray<Dou
         data = new double[size];
         System.arraycopy(oldData,0,data,0,size);
     }
+
+    @Override
+    public int length() {
+        return data.length;
+    }
+
+    @Override
+    public double getDouble(int index) {
+        return data[index];
+    }
 }
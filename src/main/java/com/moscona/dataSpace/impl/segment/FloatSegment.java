@@ -41,6 +41,13 @@ public class FloatSegment extends AbstractVectorSegment<Numeric<Float>,Float>{
         return (FloatSegmentBackingArray)getBackingArray();
     }
 
+    /**
+     * @return the backing array for reading, which may be off heap once the segment is sealed
+     */
+    IFloatingPointBackingArray<Float> myValues() {
+        return (IFloatingPointBackingArray<Float>)getBackingArray();
+    }
+
     public void append(float value) throws DataSpaceException {
         // IMPORTANT - we are still mutable here, and so the memory manager is not involved with this segment yet
         myBackingArray().data[size()] = value;
@@ -67,6 +74,8 @@ public class FloatSegment extends AbstractVectorSegment<Numeric<Float>,Float>{
     @Override
     public ISegmentStats calculateStats() {
         //HOLD (before release) implement FloatSegment.calculateStats (finalize stats, calculate quantiles, histogram etc) - note that range (min/max) is already calculated in the add method... These would become more important when we fix #IT-468 and #IT-464 (a better vector quantile estimation)
+        calculateZoneMap();
+        calculateQuantileSketch();
         return stats;
     }
 
@@ -84,7 +93,7 @@ public class FloatSegment extends AbstractVectorSegment<Numeric<Float>,Float>{
     public Set<Numeric<Float>> getUniqueValues() {
         HashSet<Numeric<Float>> retval = new HashSet<Numeric<Float>>();
         for (int i=0; i<size(); i++) {
-            Numeric<Float> value = new Numeric<Float>(myBackingArray().data[i]);
+            Numeric<Float> value = new Numeric<Float>((float) myValues().getDouble(i));
             retval.add(value);
         }
         return retval;
@@ -105,7 +114,7 @@ public class FloatSegment extends AbstractVectorSegment<Numeric<Float>,Float>{
             }
 
             currentIndex++;
-            return new Numeric<Float>(myBackingArray().data[currentIndex]);
+            return new Numeric<Float>((float) myValues().getDouble(currentIndex));
         }
 
         @Override
@@ -125,7 +134,7 @@ public class FloatSegment extends AbstractVectorSegment<Numeric<Float>,Float>{
         HashSet<Numeric<Float>> retval = new HashSet<Numeric<Float>>();
         // create a unique set of rounded numbers
         for (int i=0; i<size(); i++) {
-            double value = myBackingArray().data[i];
+            double value = myValues().getDouble(i);
             roundedSet.add(Math.round(value/resolution));
         }
         // convert the rounded numbers to estimated originals
@@ -138,10 +147,10 @@ public class FloatSegment extends AbstractVectorSegment<Numeric<Float>,Float>{
 
     @Override
     public double[] copyAsDoubles() {
-        float[] data = ((FloatSegmentBackingArray) getBackingArray()).data;
-        double[] retval = new double[data.length];
-        for (int i=0; i<data.length; i++) {
-            retval[i] = data[i];
+        IFloatingPointBackingArray<Float> values = myValues();
+        double[] retval = new double[values.length()];
+        for (int i=0; i<values.length(); i++) {
+            retval[i] = values.getDouble(i);
         }
         return retval;
     }
@@ -149,23 +158,26 @@ public class FloatSegment extends AbstractVectorSegment<Numeric<Float>,Float>{
     @Override
     public void estimateQuantilesOnRestOfSegments(Quantiles quantiles) {
         // caller already initialized and is responsible for iterating over segments. Here we just contribute our data
-        for (float observation: ((FloatSegmentBackingArray) getBackingArray()).data) {
+        IFloatingPointBackingArray<Float> values = myValues();
+        for (int i=0; i<values.length(); i++) {
+            float observation = (float) values.getDouble(i);
             quantiles.addObservationToQuantileEstimate(observation);
         }
     }     
 
     @Override
     public void appendValues(ArrayList<Numeric<Float>> retval, List<Integer> positions, Integer from, Integer to) {
-        float[] data = ((FloatSegmentBackingArray) getBackingArray()).data;
+        IFloatingPointBackingArray<Float> values = myValues();
         if (positions==null) {
-            for (float datum: data) {
+            for (int i=0; i<values.length(); i++) {
+                float datum = (float) values.getDouble(i);
                 retval.add(new Numeric<Float>(datum));
             }
         }
         else {
             int base = getSegmentNumber() * getMaxSegmentSize();
             for (int i=from; i<=to; i++) {
-                retval.add(new Numeric<Float>(data[positions.get(i)-base]));
+                retval.add(new Numeric<Float>((float) values.getDouble(positions.get(i)-base)));
             }
         }
     }
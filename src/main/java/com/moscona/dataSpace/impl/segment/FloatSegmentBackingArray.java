@@ -17,13 +17,13 @@
 
 package com.moscona.dataSpace.impl.segment;
 
-import com.moscona.dataSpace.IVectorSegmentBackingArray;
+import com.moscona.dataSpace.IFloatingPointBackingArray;
 
 /**
  * Created: 12/14/10 6:12 PM
  * By: Arnon Moscona
  */
-public class FloatSegmentBackingArray  implements IVectorSegmentBackingArray<Float> {
+public class FloatSegmentBackingArray  implements IFloatingPointBackingArray<Float> {
     private static final long serialVersionUID = -6735114321552579740L;
     public float[] data; // IMPORTANT: public so that its directly accessible to th rest of the implementation
 
@@ -55,4 +55,14 @@ public class FloatSegmentBackingArray  implements IVectorSegmentBackingArray<Flo
         data = new float[size];
         System.arraycopy(oldData,0,data,0,size);
     }
+
+    @Override
+    public int length() {
+        return data.length;
+    }
+
+    @Override
+    public double getDouble(int index) {
+        return data[index];
+    }
 }
@@ -41,6 +41,13 @@ public class IntegerSegment extends AbstractVectorSegment<Numeric<Integer>,Integ
         return (IntegerSegmentBackingArray)getBackingArray();
     }
 
+    /**
+     * @return the backing array for reading, which may be off heap once the segment is sealed
+     */
+    IIntegralBackingArray<Integer> myValues() {
+        return (IIntegralBackingArray<Integer>)getBackingArray();
+    }
+
     public void append(int value) throws DataSpaceException {
         // IMPORTANT - we are still mutable here, and so the memory manager is not involved with this segment yet
         myBackingArray().data[size()] = value;
@@ -67,6 +74,8 @@ public class IntegerSegment extends AbstractVectorSegment<Numeric<Integer>,Integ
     @Override
     public ISegmentStats calculateStats() {
         //HOLD (before release) implement IntegerSegment.calculateStats (finalize stats, calculate quantiles, histogram etc) - note that range (min/max) is already calculated in the add method... These would become more important when we fix #IT-468 and #IT-464 (a better vector quantile estimation)
+        calculateZoneMap();
+        calculateQuantileSketch();
         return stats;
     }
 
@@ -84,7 +93,7 @@ public class IntegerSegment extends AbstractVectorSegment<Numeric<Integer>,Integ
     public Set<Numeric<Integer>> getUniqueValues() {
         HashSet<Numeric<Integer>> retval = new HashSet<Numeric<Integer>>();
         for (int i=0; i<size(); i++) {
-            Numeric<Integer> value = new Numeric<Integer>(myBackingArray().data[i]);
+            Numeric<Integer> value = new Numeric<Integer>((int) myValues().getLong(i));
             retval.add(value);
         }
         return retval;
@@ -92,10 +101,10 @@ public class IntegerSegment extends AbstractVectorSegment<Numeric<Integer>,Integ
 
     @Override
     public double[] copyAsDoubles() {
-        int[] data = ((IntegerSegmentBackingArray) getBackingArray()).data;
-        double[] retval = new double[data.length];
-        for (int i=0; i<data.length; i++) {
-            retval[i] = data[i];
+        IIntegralBackingArray<Integer> values = myValues();
+        double[] retval = new double[values.length()];
+        for (int i=0; i<values.length(); i++) {
+            retval[i] = values.getLong(i);
         }
         return retval;
     }
@@ -103,7 +112,9 @@ public class IntegerSegment extends AbstractVectorSegment<Numeric<Integer>,Integ
     @Override
     public void estimateQuantilesOnRestOfSegments(Quantiles quantiles) {
         // caller already initialized and is responsible for iterating over segments. Here we just contribute our data
-        for (int observation: ((IntegerSegmentBackingArray) getBackingArray()).data) {
+        IIntegralBackingArray<Integer> values = myValues();
+        for (int i=0; i<values.length(); i++) {
+            int observation = (int) values.getLong(i);
             quantiles.addObservationToQuantileEstimate(observation);
         }
     }
@@ -123,7 +134,7 @@ public class IntegerSegment extends AbstractVectorSegment<Numeric<Integer>,Integ
             }
 
             currentIndex++;
-            return new Numeric<Integer>(myBackingArray().data[currentIndex]);
+            return new Numeric<Integer>((int) myValues().getLong(currentIndex));
         }
 
         @Override
@@ -139,16 +150,17 @@ public class IntegerSegment extends AbstractVectorSegment<Numeric<Integer>,Integ
 
     @Override
     public void appendValues(ArrayList<Numeric<Integer>> retval, List<Integer> positions, Integer from, Integer to) {
-        int[] data = ((IntegerSegmentBackingArray) getBackingArray()).data;
+        IIntegralBackingArray<Integer> values = myValues();
         if (positions==null) {
-            for (int datum: data) {
+            for (int i=0; i<values.length(); i++) {
+                int datum = (int) values.getLong(i);
                 retval.add(new Numeric<Integer>(datum));
             }
         }
         else {
             int base = getSegmentNumber() * getMaxSegmentSize();
             for (int i=from; i<=to; i++) {
-                retval.add(new Numeric<Integer>(data[positions.get(i)-base]));
+                retval.add(new Numeric<Integer>((int) values.getLong(positions.get(i)-base)));
             }
         }
     }
@@ -17,13 +17,13 @@
 
 package com.moscona.dataSpace.impl.segment;
 
-import com.moscona.dataSpace.IVectorSegmentBackingArray;
+import com.moscona.dataSpace.IIntegralBackingArray;
 
 /**
  * Created: 12/14/10 4:49 PM
  * By: Arnon Moscona
  */
-public class IntegerSegmentBackingArray implements IVectorSegmentBackingArray<Integer> {
+public class IntegerSegmentBackingArray implements IIntegralBackingArray<Integer> {
     private static final long serialVersionUID = -312784914890773350L;
     public int[] data; // IMPORTANT: public so that its directly accessible to th rest of the implementation
 
@@ -55,4 +55,14 @@ public class IntegerSegmentBackingArray implements IVectorSegmentBackingArray<In
         data = new int[size];
         System.arraycopy(oldData,0,data,0,size);
     }
+
+    @Override
+    public int length() {
+        return data.length;
+    }
+
+    @Override
+    public long getLong(int index) {
+        return data[index];
+    }
 }
@@ -41,6 +41,13 @@ public class LogicalSegment extends AbstractVectorSegment<Logical,Boolean> {
         return (BooleanSegmentBackingArray)getBackingArray();
     }
 
+    /**
+     * @return the backing array for reading, which may be off heap once the segment is sealed
+     */
+    ILogicalBackingArray myValues() {
+        return (ILogicalBackingArray)getBackingArray();
+    }
+
     public void append(boolean value) throws DataSpaceException {
         // IMPORTANT - we are still mutable here, and so the memory manager is not involved with this segment yet
         myBackingArray().data[size()] = value;
@@ -84,7 +91,7 @@ public class LogicalSegment extends AbstractVectorSegment<Logical,Boolean> {
     public Set<Logical> getUniqueValues() {
         HashSet<Logical> retval = new HashSet<Logical>();
         for (int i=0; i<size(); i++) {
-            Logical value = new Logical(myBackingArray().data[i]);
+            Logical value = new Logical(myValues().getBoolean(i));
             retval.add(value);
         }
         return retval;
@@ -115,7 +122,7 @@ public class LogicalSegment extends AbstractVectorSegment<Logical,Boolean> {
             }
 
             currentIndex++;
-            return new Logical(myBackingArray().data[currentIndex]);
+            return new Logical(myValues().getBoolean(currentIndex));
         }
 
         @Override
@@ -131,16 +138,17 @@ public class LogicalSegment extends AbstractVectorSegment<Logical,Boolean> {
 
     @Override
     public void appendValues(ArrayList<Logical> retval, List<Integer> positions, Integer from, Integer to) {
-        boolean [] data = ((BooleanSegmentBackingArray) getBackingArray()).data;
+        ILogicalBackingArray values = myValues();
         if (positions==null) {
-            for (boolean datum: data) {
+            for (int i=0; i<values.length(); i++) {
+                boolean datum = values.getBoolean(i);
                 retval.add(new Logical(datum));
             }
         }
         else {
             int base = getSegmentNumber() * getMaxSegmentSize();
             for (int i=from; i<=to; i++) {
-                retval.add(new Logical(data[positions.get(i)-base]));
+                retval.add(new Logical(values.getBoolean(positions.get(i)-base)));
             }
         }
     }
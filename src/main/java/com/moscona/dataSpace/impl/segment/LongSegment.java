@@ -41,6 +41,13 @@ public class LongSegment extends AbstractVectorSegment<Numeric<Long>,Long>{
         return (LongSegmentBackingArray)getBackingArray();
     }
 
+    /**
+     * @return the backing array for reading, which may be off heap once the segment is sealed
+     */
+    IIntegralBackingArray<Long> myValues() {
+        return (IIntegralBackingArray<Long>)getBackingArray();
+    }
+
     public void append(long value) throws DataSpaceException {
         // IMPORTANT - we are still mutable here, and so the memory manager is not involved with this segment yet
         myBackingArray().data[size()] = value;
@@ -67,6 +74,8 @@ public class LongSegment extends AbstractVectorSegment<Numeric<Long>,Long>{
     @Override
     public ISegmentStats calculateStats() {
         //HOLD (before release) implement LongSegment.calculateStats (finalize stats, calculate quantiles, histogram etc) - note that range (min/max) is already calculated in the add method... These would become more important when we fix #IT-468 and #IT-464 (a better vector quantile estimation)
+        calculateZoneMap();
+        calculateQuantileSketch();
         return stats;
     }
 
@@ -84,7 +93,7 @@ public class LongSegment extends AbstractVectorSegment<Numeric<Long>,Long>{
     public Set<Numeric<Long>> getUniqueValues() {
         HashSet<Numeric<Long>> retval = new HashSet<Numeric<Long>>();
         for (int i=0; i<size(); i++) {
-            Numeric<Long> value = new Numeric<Long>(myBackingArray().data[i]);
+            Numeric<Long> value = new Numeric<Long>(myValues().getLong(i));
             retval.add(value);
         }
         return retval;
@@ -92,10 +101,10 @@ public class LongSegment extends AbstractVectorSegment<Numeric<Long>,Long>{
 
     @Override
     public double[] copyAsDoubles() {
-        long[] data = ((LongSegmentBackingArray) getBackingArray()).data;
-        double[] retval = new double[data.length];
-        for (int i=0; i<data.length; i++) {
-            retval[i] = data[i];
+        IIntegralBackingArray<Long> values = myValues();
+        double[] retval = new double[values.length()];
+        for (int i=0; i<values.length(); i++) {
+            retval[i] = values.getLong(i);
         }
         return retval;
     }
@@ -103,7 +112,9 @@ public class LongSegment extends AbstractVectorSegment<Numeric<Long>,Long>{
     @Override
     public void estimateQuantilesOnRestOfSegments(Quantiles quantiles) {
         // caller already initialized and is responsible for iterating over segments. Here we just contribute our data
-        for (long observation: ((LongSegmentBackingArray) getBackingArray()).data) {
+        IIntegralBackingArray<Long> values = myValues();
+        for (int i=0; i<values.length(); i++) {
+            long observation = values.getLong(i);
             quantiles.addObservationToQuantileEstimate(observation);
         }
     }
@@ -123,7 +134,7 @@ public class LongSegment extends AbstractVectorSegment<Numeric<Long>,Long>{
             }
 
             currentIndex++;
-            return new Numeric<Long>(myBackingArray().data[currentIndex]);
+            return new Numeric<Long>(myValues().getLong(currentIndex));
         }
 
         @Override
@@ -139,16 +150,17 @@ public class LongSegment extends AbstractVectorSegment<Numeric<Long>,Long>{
 
     @Override
     public void appendValues(ArrayList<Numeric<Long>> retval, List<Integer> positions, Integer from, Integer to) {
-        long[] data = ((LongSegmentBackingArray) getBackingArray()).data;
+        IIntegralBackingArray<Long> values = myValues();
         if (positions==null) {
-            for (long datum: data) {
+            for (int i=0; i<values.length(); i++) {
+                long datum = values.getLong(i);
                 retval.add(new Numeric<Long>(datum));
             }
         }
         else {
             int base = getSegmentNumber() * getMaxSegmentSize();
             for (int i=from; i<=to; i++) {
-                retval.add(new Numeric<Long>(data[positions.get(i)-base]));
+                retval.add(new Numeric<Long>(values.getLong(positions.get(i)-base)));
             }
         }
     }
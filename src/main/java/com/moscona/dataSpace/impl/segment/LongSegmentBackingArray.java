@@ -17,13 +17,13 @@
 
 package com.moscona.dataSpace.impl.segment;
 
-import com.moscona.dataSpace.IVectorSegmentBackingArray;
+import com.moscona.dataSpace.IIntegralBackingArray;
 
 /**
  * Created: 12/14/10 3:49 PM
  * By: Arnon Moscona
  */
-public class LongSegmentBackingArray implements IVectorSegmentBackingArray<Long> {
+public class LongSegmentBackingArray implements IIntegralBackingArray<Long> {
     private static final long serialVersionUID = 442935633624837488L;
     public long[] data; // IMPORTANT: public so that its directly accessible to th rest of the implementation
 
@@ -55,4 +55,14 @@ public class LongSegmentBackingArray implements IVectorSegmentBackingArray<Long>
         data = new long[size];
         System.arraycopy(oldData,0,data,0,size);
     }
+
+    @Override
+    public int length() {
+        return data.length;
+    }
+
+    @Override
+    public long getLong(int index) {
+        return data[index];
+    }
 }
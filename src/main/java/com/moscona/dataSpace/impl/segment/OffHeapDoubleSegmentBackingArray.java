@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.impl.segment;
+
+import com.moscona.dataSpace.IFloatingPointBackingArray;
+import com.moscona.dataSpace.IVectorSegmentBackingArray;
+import com.moscona.dataSpace.persistence.OffHeapBufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The off heap equivalent of DoubleSegmentBackingArray
+ */
+public class OffHeapDoubleSegmentBackingArray extends AbstractOffHeapBackingArray<Double> implements IFloatingPointBackingArray<Double> {
+    private static final long serialVersionUID = 1L; // never serialized - replaced by DoubleSegmentBackingArray
+
+    public OffHeapDoubleSegmentBackingArray(ByteBuffer buffer, int length, OffHeapBufferPool pool) {
+        super(buffer, length, pool);
+    }
+
+    @Override
+    protected int elementSize() {
+        return 8;
+    }
+
+    @Override
+    public Class getBaseElementType() {
+        return Double.class;
+    }
+
+    @Override
+    public double getDouble(int index) {
+        return buffer.getDouble(index << 3);
+    }
+
+    @Override
+    public IVectorSegmentBackingArray<Double> toHeap() {
+        DoubleSegmentBackingArray retval = new DoubleSegmentBackingArray(length);
+        for (int i=0; i<length; i++) {
+            retval.data[i] = buffer.getDouble(i << 3);
+        }
+        return retval;
+    }
+}
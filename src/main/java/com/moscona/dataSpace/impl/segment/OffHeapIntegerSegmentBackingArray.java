@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.impl.segment;
+
+import com.moscona.dataSpace.IIntegralBackingArray;
+import com.moscona.dataSpace.IVectorSegmentBackingArray;
+import com.moscona.dataSpace.persistence.OffHeapBufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The off heap equivalent of IntegerSegmentBackingArray
+ */
+public class OffHeapIntegerSegmentBackingArray extends AbstractOffHeapBackingArray<Integer> implements IIntegralBackingArray<Integer> {
+    private static final long serialVersionUID = 1L; // never serialized - replaced by IntegerSegmentBackingArray
+
+    public OffHeapIntegerSegmentBackingArray(ByteBuffer buffer, int length, OffHeapBufferPool pool) {
+        super(buffer, length, pool);
+    }
+
+    @Override
+    protected int elementSize() {
+        return 4;
+    }
+
+    @Override
+    public Class getBaseElementType() {
+        return Integer.class;
+    }
+
+    @Override
+    public long getLong(int index) {
+        return buffer.getInt(index << 2);
+    }
+
+    @Override
+    public IVectorSegmentBackingArray<Integer> toHeap() {
+        IntegerSegmentBackingArray retval = new IntegerSegmentBackingArray(length);
+        for (int i=0; i<length; i++) {
+            retval.data[i] = buffer.getInt(i << 2);
+        }
+        return retval;
+    }
+}
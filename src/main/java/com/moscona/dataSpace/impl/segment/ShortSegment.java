@@ -41,6 +41,13 @@ public class ShortSegment extends AbstractVectorSegment<Numeric<Short>,Short>{
         return (ShortSegmentBackingArray)getBackingArray();
     }
 
+    /**
+     * @return the backing array for reading, which may be off heap once the segment is sealed
+     */
+    IIntegralBackingArray<Short> myValues() {
+        return (IIntegralBackingArray<Short>)getBackingArray();
+    }
+
     public void append(short value) throws DataSpaceException {
         // IMPORTANT - we are still mutable here, and so the memory manager is not involved with this segment yet
         myBackingArray().data[size()] = value;
@@ -67,6 +74,8 @@ public class ShortSegment extends AbstractVectorSegment<Numeric<Short>,Short>{
     @Override
     public ISegmentStats calculateStats() {
         //HOLD (before release) implement ShortSegment.calculateStats (finalize stats, calculate quantiles, histogram etc) - note that range (min/max) is already calculated in the add method... These would become more important when we fix #IT-468 and #IT-464 (a better vector quantile estimation)
+        calculateZoneMap();
+        calculateQuantileSketch();
         return stats;
     }
 
@@ -84,7 +93,7 @@ public class ShortSegment extends AbstractVectorSegment<Numeric<Short>,Short>{
     public Set<Numeric<Short>> getUniqueValues() {
         HashSet<Numeric<Short>> retval = new HashSet<Numeric<Short>>();
         for (int i=0; i<size(); i++) {
-            Numeric<Short> value = new Numeric<Short>(myBackingArray().data[i]);
+            Numeric<Short> value = new Numeric<Short>((short) myValues().getLong(i));
             retval.add(value);
         }
         return retval;
@@ -92,10 +101,10 @@ public class ShortSegment extends AbstractVectorSegment<Numeric<Short>,Short>{
 
     @Override
     public double[] copyAsDoubles() {
-        short[] data = ((ShortSegmentBackingArray) getBackingArray()).data;
-        double[] retval = new double[data.length];
-        for (int i=0; i<data.length; i++) {
-            retval[i] = data[i];
+        IIntegralBackingArray<Short> values = myValues();
+        double[] retval = new double[values.length()];
+        for (int i=0; i<values.length(); i++) {
+            retval[i] = values.getLong(i);
         }
         return retval;
     }
@@ -103,7 +112,9 @@ public class ShortSegment extends AbstractVectorSegment<Numeric<Short>,Short>{
     @Override
     public void estimateQuantilesOnRestOfSegments(Quantiles quantiles) {
         // caller already initialized and is responsible for iterating over segments. Here we just contribute our data
-        for (short observation: ((ShortSegmentBackingArray) getBackingArray()).data) {
+        IIntegralBackingArray<Short> values = myValues();
+        for (int i=0; i<values.length(); i++) {
+            short observation = (short) values.getLong(i);
             quantiles.addObservationToQuantileEstimate(observation);
         }
     }
@@ -123,7 +134,7 @@ public class ShortSegment extends AbstractVectorSegment<Numeric<Short>,Short>{
             }
 
             currentIndex++;
-            return new Numeric<Short>(myBackingArray().data[currentIndex]);
+            return new Numeric<Short>((short) myValues().getLong(currentIndex));
         }
 
         @Override
@@ -139,16 +150,17 @@ public class ShortSegment extends AbstractVectorSegment<Numeric<Short>,Short>{
 
     @Override
     public void appendValues(ArrayList<Numeric<Short>> retval, List<Integer> positions, Integer from, Integer to) {
-        short[] data = ((ShortSegmentBackingArray) getBackingArray()).data;
+        IIntegralBackingArray<Short> values = myValues();
         if (positions==null) {
-            for (short datum: data) {
+            for (int i=0; i<values.length(); i++) {
+                short datum = (short) values.getLong(i);
                 retval.add(new Numeric<Short>(datum));
             }
         }
         else {
             int base = getSegmentNumber() * getMaxSegmentSize();
             for (int i=from; i<=to; i++) {
-                retval.add(new Numeric<Short>(data[positions.get(i)-base]));
+                retval.add(new Numeric<Short>((short) values.getLong(positions.get(i)-base)));
             }
         }
     }
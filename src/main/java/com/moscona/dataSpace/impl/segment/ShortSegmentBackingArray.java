@@ -17,13 +17,13 @@
 
 package com.moscona.dataSpace.impl.segment;
 
-import com.moscona.dataSpace.IVectorSegmentBackingArray;
+import com.moscona.dataSpace.IIntegralBackingArray;
 
 /**
  * Created: 12/14/10 4:54 PM
  * By: Arnon Moscona
  */
-public class ShortSegmentBackingArray implements IVectorSegmentBackingArray<Short> {
+public class ShortSegmentBackingArray implements IIntegralBackingArray<Short> {
     private static final long serialVersionUID = -8960685671087353158L;
     public short[] data; // IMPORTANT: public so that its directly accessible to th rest of the implementation
 
@@ -55,4 +55,14 @@ public class ShortSegmentBackingArray implements IVectorSegmentBackingArray<Shor
         data = new short[size];
         System.arraycopy(oldData,0,data,0,size);
     }
+
+    @Override
+    public int length() {
+        return data.length;
+    }
+
+    @Override
+    public long getLong(int index) {
+        return data[index];
+    }
 }
@@ -43,6 +43,13 @@ public class StringSegment extends AbstractVectorSegment<Text,String> {
         return (StringSegmentBackingArray)getBackingArray();
     }
 
+    /**
+     * @return the backing array for reading, which may be off heap once the segment is sealed
+     */
+    IIntegralBackingArray<String> myValues() {
+        return (IIntegralBackingArray<String>)getBackingArray();
+    }
+
     public void append(String value) throws DataSpaceException {
         // IMPORTANT - we are still mutable here, and so the memory manager is not involved with this segment yet
         myBackingArray().data[size()] = getDataSpace().getCode(value);
@@ -86,7 +93,7 @@ public class StringSegment extends AbstractVectorSegment<Text,String> {
     public Set<Text> getUniqueValues() {
         HashSet<Text> retval = new HashSet<Text>();
         for (int i=0; i<size(); i++) {
-            Text value = new Text(getDataSpace().decodeToString(myBackingArray().data[i]));
+            Text value = new Text(getDataSpace().decodeToString((int) myValues().getLong(i)));
             retval.add(value);
         }
         return retval;
@@ -117,7 +124,7 @@ public class StringSegment extends AbstractVectorSegment<Text,String> {
             }
 
             currentIndex++;
-            return new Text(getDataSpace().decodeToString(myBackingArray().data[currentIndex]));
+            return new Text(getDataSpace().decodeToString((int) myValues().getLong(currentIndex)));
         }
 
         @Override
@@ -133,16 +140,17 @@ public class StringSegment extends AbstractVectorSegment<Text,String> {
 
     @Override
     public void appendValues(ArrayList<Text> retval, List<Integer> positions, Integer from, Integer to) {
-        int[] data = ((StringSegmentBackingArray) getBackingArray()).data;
+        IIntegralBackingArray<String> values = myValues();
         if (positions==null) {
-            for (int datum: data) {
+            for (int i=0; i<values.length(); i++) {
+                int datum = (int) values.getLong(i);
                 retval.add(new Text(getDataSpace().decodeToString(datum)));
             }
         }
         else {
             int base = getSegmentNumber() * getMaxSegmentSize();
             for (int i=from; i<=to; i++) {
-                retval.add(new Text(getDataSpace().decodeToString(data[positions.get(i)-base])));
+                retval.add(new Text(getDataSpace().decodeToString((int) values.getLong(positions.get(i)-base))));
             }
         }
     }
@@ -17,13 +17,13 @@
 
 package com.moscona.dataSpace.impl.segment;
 
-import com.moscona.dataSpace.IVectorSegmentBackingArray;
+import com.moscona.dataSpace.IIntegralBackingArray;
 
 /**
  * Created: 12/13/10 11:06 AM
  * By: Arnon Moscona
  */
-public class StringSegmentBackingArray implements IVectorSegmentBackingArray<String> {
+public class StringSegmentBackingArray implements IIntegralBackingArray<String> {
     private static final long serialVersionUID = 7343867538477457052L; // incompatible change
     public int[] data; // IMPORTANT: public so that its directly accessible to th rest of the implementation
 
@@ -55,4 +55,14 @@ public class StringSegmentBackingArray implements IVectorSegmentBackingArray<Str
         data = new int[size];
         System.arraycopy(oldData,0,data,0,size);
     }
+
+    @Override
+    public int length() {
+        return data.length;
+    }
+
+    @Override
+    public long getLong(int index) {
+        return data[index];
+    }
 }
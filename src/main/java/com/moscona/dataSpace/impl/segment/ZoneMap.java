@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.impl.segment;
+
+import com.moscona.dataSpace.IFloatingPointBackingArray;
+import com.moscona.dataSpace.IIntegralBackingArray;
+import com.moscona.dataSpace.persistence.PersistenceType;
+
+import java.io.Serializable;
+
+/**
+ * The min and max of each consecutive block of blockSize elements of a numeric segment. A single min/max per segment
+ * rarely decides a query on an unsorted column, but the values of a smaller block are often all in or all out of the
+ * queried range, so a term can resolve those blocks from the zone map (see AbstractQueryTerm) and only read the data
+ * of the others. Calculated when the segment is sealed and kept (and persisted) with the segment stats.
+ */
+public class ZoneMap implements Serializable {
+    private static final long serialVersionUID = -4410950173620375112L;
+    private final int blockSize;
+    private final int size;
+    private final long[] longMins;
+    private final long[] longMaxs;
+    private final double[] doubleMins;
+    private final double[] doubleMaxs;
+
+    private ZoneMap(int blockSize, int size, long[] longMins, long[] longMaxs, double[] doubleMins, double[] doubleMaxs) {
+        this.blockSize = blockSize;
+        this.size = size;
+        this.longMins = longMins;
+        this.longMaxs = longMaxs;
+        this.doubleMins = doubleMins;
+        this.doubleMaxs = doubleMaxs;
+    }
+
+    public static ZoneMap calculate(IIntegralBackingArray values, int size, int blockSize) {
+        int blocks = blockCount(size, blockSize);
+        long[] mins = new long[blocks];
+        long[] maxs = new long[blocks];
+        for (int block=0; block<blocks; block++) {
+            int start = block*blockSize;
+            int end = Math.min(size, start+blockSize);
+            long min = values.getLong(start);
+            long max = min;
+            for (int i=start+1; i<end; i++) {
+                long value = values.getLong(i);
+                if (value < min) {
+                    min = value;
+                }
+                if (value > max) {
+                    max = value;
+                }
+            }
+            mins[block] = min;
+            maxs[block] = max;
+        }
+        return new ZoneMap(blockSize, size, mins, maxs, null, null);
+    }
+
+    public static ZoneMap calculate(IFloatingPointBackingArray values, int size, int blockSize) {
+        int blocks = blockCount(size, blockSize);
+        double[] mins = new double[blocks];
+        double[] maxs = new double[blocks];
+        for (int block=0; block<blocks; block++) {
+            int start = block*blockSize;
+            int end = Math.min(size, start+blockSize);
+            double min = values.getDouble(start);
+            double max = min;
+            for (int i=start+1; i<end; i++) {
+                double value = values.getDouble(i);
+                if (value < min) {
+                    min = value;
+                }
+                if (value > max) {
+                    max = value;
+                }
+            }
+            mins[block] = min;
+            maxs[block] = max;
+        }
+        return new ZoneMap(blockSize, size, null, null, mins, maxs);
+    }
+
+    private static int blockCount(int size, int blockSize) {
+        return (size + blockSize - 1) / blockSize;
+    }
+
+    /**
+     * @return true for integral segments (read as longs), false for floating point ones
+     */
+    public boolean isIntegral() {
+        return longMins != null;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockCount() {
+        return longMins != null ? longMins.length : doubleMins.length;
+    }
+
+    /**
+     * @param block
+     * @return the position of the block's first element within the segment
+     */
+    public int getBlockStart(int block) {
+        return block*blockSize;
+    }
+
+    /**
+     * @param block
+     * @return the number of elements in the block (only the last one may be shorter than the block size)
+     */
+    public int getBlockLength(int block) {
+        return Math.min(size, (block+1)*blockSize) - block*blockSize;
+    }
+
+    /**
+     * Stats of the block's range of values, in the same class as the segment's own stats so that terms can decide
+     * the block the way they decide whole segments. Only the min and max are meaningful.
+     * @param block
+     * @return the block's stats
+     */
+    public AbstractSegmentStats getBlockStats(int block) {
+        if (longMins != null) {
+            LongSegmentStats retval = new LongSegmentStats(PersistenceType.MEMORY_ONLY);
+            retval.setMin(longMins[block]);
+            retval.setMax(longMaxs[block]);
+            return retval;
+        }
+        DoubleSegmentStats retval = new DoubleSegmentStats(PersistenceType.MEMORY_ONLY);
+        retval.setMin(doubleMins[block]);
+        retval.setMax(doubleMaxs[block]);
+        return retval;
+    }
+
+    /**
+     * @return the approximate memory footprint of the zone map
+     */
+    public long sizeInBytes() {
+        return 16L*getBlockCount() + 32L;
+    }
+}
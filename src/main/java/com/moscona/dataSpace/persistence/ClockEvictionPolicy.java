@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.persistence;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A CLOCK (second chance) policy. Candidates sit on a ring with a reference bit. The hand clears the bit of objects
+ * that were used since it last passed and moves on, and it swaps out the first object whose bit is already clear.
+ * This approximates LRU, but an object used again while it is still a candidate keeps its place on the ring.
+ */
+public class ClockEvictionPolicy implements IEvictionPolicy {
+    private LinkedHashMap<Integer, Boolean> ring = new LinkedHashMap<Integer, Boolean>(); // the hand is at the head
+
+    @Override
+    public void add(int id, long sizeInBytes, int swapInCounter, long swapInTime) {
+        ring.put(id, Boolean.TRUE); // keeps the ring position if already there
+    }
+
+    @Override
+    public boolean remove(int id) {
+        return ring.remove(id) != null;
+    }
+
+    @Override
+    public int poll() {
+        // at most one full turn clearing bits, then the second turn must find a victim
+        int turns = 2 * ring.size();
+        for (int i=0; i<turns; i++) {
+            Iterator<Map.Entry<Integer, Boolean>> iterator = ring.entrySet().iterator();
+            Map.Entry<Integer, Boolean> entry = iterator.next();
+            int id = entry.getKey();
+            boolean referenced = entry.getValue();
+            iterator.remove();
+            if (!referenced) {
+                return id;
+            }
+            ring.put(id, Boolean.FALSE); // second chance: move behind the hand with the bit cleared
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return ring.size();
+    }
+}
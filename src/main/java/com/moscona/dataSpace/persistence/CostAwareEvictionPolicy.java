@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.persistence;
+
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * A GreedyDual-Size style policy that weighs what it would cost to bring an object back. Every candidate gets a
+ * priority of inflation + cost/size, where the cost is the object's average measured swap in time scaled by how many
+ * times it was already swapped in. The candidate with the lowest priority is swapped out and its priority becomes the
+ * new inflation value, so objects that are not used again age out even if they are expensive.
+ */
+public class CostAwareEvictionPolicy implements IEvictionPolicy {
+    private static final double MIN_SWAP_IN_MILLIS = 1.0; // objects never swapped in (or very fast) still cost something
+
+    private double inflation = 0.0;
+    private HashMap<Integer, Entry> entries = new HashMap<Integer, Entry>();
+    private TreeSet<Entry> queue = new TreeSet<Entry>();
+
+    @Override
+    public void add(int id, long sizeInBytes, int swapInCounter, long swapInTime) {
+        remove(id);
+        double avgSwapInMillis = swapInCounter==0 ? MIN_SWAP_IN_MILLIS : Math.max(MIN_SWAP_IN_MILLIS, ((double) swapInTime)/swapInCounter);
+        double cost = avgSwapInMillis * (1 + swapInCounter);
+        Entry entry = new Entry(id, inflation + cost/Math.max(1L, sizeInBytes));
+        entries.put(id, entry);
+        queue.add(entry);
+    }
+
+    @Override
+    public boolean remove(int id) {
+        Entry entry = entries.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        queue.remove(entry);
+        return true;
+    }
+
+    @Override
+    public int poll() {
+        Entry victim = queue.pollFirst();
+        if (victim == null) {
+            return -1;
+        }
+        entries.remove(victim.id);
+        inflation = victim.priority;
+        return victim.id;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        private final int id;
+        private final double priority;
+
+        private Entry(int id, double priority) {
+            this.id = id;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            int retval = Double.compare(priority, o.priority);
+            return retval != 0 ? retval : (id < o.id ? -1 : (id == o.id ? 0 : 1));
+        }
+    }
+}
@@ -22,6 +22,7 @@ import com.moscona.exceptions.InvalidStateException;
 import com.moscona.dataSpace.*;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
 import com.moscona.dataSpace.impl.AbstractVector;
+import com.moscona.dataSpace.impl.segment.AbstractOffHeapBackingArray;
 import com.moscona.dataSpace.impl.segment.AbstractVectorSegment;
 import com.moscona.dataSpace.util.UndocumentedJava;
 import com.moscona.util.monitoring.stats.IStatsService;
@@ -48,6 +49,7 @@ public class DirectoryDataStore implements IDataStore {
     public static final String METADATA_KEY_VERSION = "version";
     public static final String METADATA_KEY_IS_EMPTY = "isEmpty";
     public static final String METADATA_KEY_SEGMENT_SIZE = "segmentSize";
+    public static final String METADATA_KEY_SEGMENT_FORMAT = "segmentFormat";
     public static final String FORMAT = "giantSpacePlusBackingSegments";
     public static final String VERSION = "1.0";
     public static final String TRUE_STRING = "true";
@@ -68,6 +70,8 @@ public class DirectoryDataStore implements IDataStore {
     private boolean isWritable;
     private HashMap<String,String> metadata;
     private Integer segmentSize = null;
+    private SegmentFileFormat segmentFileFormat; // stores that predate the setting use SERIALIZED_GZIP
+    private MappedSegmentFile mappedSegmentFile = new MappedSegmentFile();
     private IStatsService stats; // used to track cost
 
     // lock support
@@ -83,8 +87,23 @@ public class DirectoryDataStore implements IDataStore {
     private ArrayList<WeakReference<IVector>> referencingVectors;
 
     public DirectoryDataStore(String rootPath, boolean forWrite, IStatsService stats, String name) throws DataSpaceException, InvalidStateException {
+        this(rootPath, forWrite, stats, name, SegmentFileFormat.SERIALIZED_GZIP);
+    }
+
+    /**
+     * @param rootPath
+     * @param forWrite
+     * @param stats
+     * @param name
+     * @param segmentFileFormat the format for segment files if a new store is created. An existing store keeps the
+     *                          format recorded in its metadata file.
+     * @throws DataSpaceException
+     * @throws InvalidStateException
+     */
+    public DirectoryDataStore(String rootPath, boolean forWrite, IStatsService stats, String name, SegmentFileFormat segmentFileFormat) throws DataSpaceException, InvalidStateException {
         this.name = ""+name;
         this.stats = stats;
+        this.segmentFileFormat = segmentFileFormat;
         stats.startTimerFor(TIMING_DIRECTORY_DATA_STORE_CONSTRUCTOR);
         try {
             if (stats==null) {
@@ -349,6 +368,12 @@ public class DirectoryDataStore implements IDataStore {
                 if (metadata.containsKey(METADATA_KEY_SEGMENT_SIZE)) {
                     segmentSize = Integer.parseInt(metadata.get(METADATA_KEY_SEGMENT_SIZE));
                 }
+                if (metadata.containsKey(METADATA_KEY_SEGMENT_FORMAT)) {
+                    segmentFileFormat = SegmentFileFormat.valueOf(metadata.get(METADATA_KEY_SEGMENT_FORMAT));
+                }
+                else {
+                    segmentFileFormat = SegmentFileFormat.SERIALIZED_GZIP; // written before there was a choice
+                }
             } else {
                 createNewMetadata();
                 dumpMetaDataFile();
@@ -391,6 +416,7 @@ public class DirectoryDataStore implements IDataStore {
         metadata.put(METADATA_KEY_FORMAT, FORMAT);
         metadata.put(METADATA_KEY_VERSION, VERSION);
         metadata.put(METADATA_KEY_IS_EMPTY, TRUE_STRING);
+        metadata.put(METADATA_KEY_SEGMENT_FORMAT, segmentFileFormat.toString());
     }
 
     private boolean isEmptyDir(File dir) throws DataSpaceException {
@@ -430,6 +456,10 @@ public class DirectoryDataStore implements IDataStore {
         return metadata.get(METADATA_KEY_IS_EMPTY).equals(TRUE_STRING);
     }
 
+    public SegmentFileFormat getSegmentFileFormat() {
+        return segmentFileFormat;
+    }
+
     @Override
     public Integer getSegmentSize() {
         return segmentSize;
@@ -462,23 +492,11 @@ public class DirectoryDataStore implements IDataStore {
             ensureDirExists(parent.getAbsolutePath());
 
             IVectorSegmentBackingArray backingArray = abstractSegment.getBackingArray();
-            try {
-                OutputStream out = new FileOutputStream(file);
-                try {
-                    ObjectOutput objOut = new ObjectOutputStream(new GZIPOutputStream(out));
-                    try {
-                        objOut.writeObject(backingArray);
-                    }
-                    finally {
-                        objOut.close();
-                    }
-                }
-                finally {
-                    out.close();
-                }
+            if (segmentFileFormat == SegmentFileFormat.MAPPED_RAW) {
+                mappedSegmentFile.write(backingArray, file);
             }
-            catch (Exception e) {
-                throw new DataSpaceException("Exception while saving backing array to "+fileInfo.filePath+": "+e,e);
+            else {
+                dumpSerializedBackingArray(backingArray, file);
             }
             markSwappedIn(abstractSegment);
         }
@@ -490,26 +508,52 @@ public class DirectoryDataStore implements IDataStore {
         }
     }
 
+    private void dumpSerializedBackingArray(IVectorSegmentBackingArray backingArray, File file) throws DataSpaceException {
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                ObjectOutput objOut = new ObjectOutputStream(new GZIPOutputStream(out));
+                try {
+                    objOut.writeObject(backingArray);
+                }
+                finally {
+                    objOut.close();
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (Exception e) {
+            throw new DataSpaceException("Exception while saving backing array to "+file.getPath()+": "+e,e);
+        }
+    }
+
     private void markSwappedIn(AbstractVectorSegment abstractSegment) throws DataSpaceException {
         abstractSegment.setPersistenceStatus(PersistenceStatus.SWAPPED_IN);
         abstractSegment.getDataSpace().getMemoryManager().submit(abstractSegment);
     }
 
     @Override
-    @SuppressWarnings({"unchecked"}) // setting the backing array without checking type compatibility
     public void restoreSegment(IVectorSegment segment) throws DataSpaceException, InvalidStateException {
-        AbstractVectorSegment abstractSegment = (AbstractVectorSegment)segment;
+        restoreSegment(segment, loadBackingArray(segment));
+    }
+
+    @Override
+    public IVectorSegmentBackingArray loadBackingArray(IVectorSegment segment) throws DataSpaceException, InvalidStateException {
         SegmentFileInfo fileInfo = new SegmentFileInfo(segment);
-        IVectorSegmentBackingArray backingArray = null;
+        OffHeapBufferPool pool = offHeapPoolFor(segment);
         stats.startTimerFor(TIMING_RESTORE_SEGMENT);
         try {
+            if (segmentFileFormat == SegmentFileFormat.MAPPED_RAW) {
+                return mappedSegmentFile.read(new File(fileInfo.filePath), pool);
+            }
             InputStream in = new FileInputStream(fileInfo.filePath);
             try {
                 ObjectInputStream objIn = new ObjectInputStream(new GZIPInputStream(in));
                 try {
-                    backingArray = (IVectorSegmentBackingArray)objIn.readObject();
-                    abstractSegment.setBackingArray(backingArray); // unchecked call
-                    markSwappedIn(abstractSegment);
+                    IVectorSegmentBackingArray backingArray = (IVectorSegmentBackingArray)objIn.readObject();
+                    return pool==null ? backingArray : AbstractOffHeapBackingArray.offHeapCopyOf(backingArray, pool);
                 }
                 finally {
                     objIn.close();
@@ -527,6 +571,23 @@ public class DirectoryDataStore implements IDataStore {
         }
     }
 
+    /**
+     * @param segment
+     * @return the off heap pool of the segment's memory manager, or null if its backing arrays should be on the heap
+     */
+    private OffHeapBufferPool offHeapPoolFor(IVectorSegment segment) {
+        IMemoryManager memoryManager = ((AbstractVectorSegment)segment).getDataSpace().getMemoryManager();
+        return memoryManager instanceof IOffHeapMemoryManager ? ((IOffHeapMemoryManager) memoryManager).getOffHeapPool() : null;
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked"}) // setting the backing array without checking type compatibility
+    public void restoreSegment(IVectorSegment segment, IVectorSegmentBackingArray backingArray) throws DataSpaceException {
+        AbstractVectorSegment abstractSegment = (AbstractVectorSegment)segment;
+        abstractSegment.setBackingArray(backingArray); // unchecked call
+        markSwappedIn(abstractSegment);
+    }
+
     @Override
     public void moveAllSegments(IVector vector, boolean fromTemporary, boolean toTemporary) throws DataSpaceException {
         stats.startTimerFor(TIMING_MOVE_ALL_SEGMENTS);
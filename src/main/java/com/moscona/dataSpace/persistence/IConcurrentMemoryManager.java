@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.persistence;
+
+/**
+ * A memory manager that may be called from many threads at once without a global lock. Such a manager keeps its own
+ * pin count per object, so managed objects call require() and release() for every pin rather than only when their
+ * own counter moves between zero and one, and they must not synchronize on the memory manager itself (that would
+ * serialize all the callers again). Swap operations on a single object are serialized by the manager.
+ */
+public interface IConcurrentMemoryManager extends IMemoryManager {
+    /**
+     * @param id
+     * @return true if the object is currently pinned by at least one require() call
+     */
+    public boolean isRequired(int id);
+}
@@ -21,6 +21,7 @@ import com.moscona.exceptions.InvalidStateException;
 import com.moscona.dataSpace.DataSpace;
 import com.moscona.dataSpace.IVector;
 import com.moscona.dataSpace.IVectorSegment;
+import com.moscona.dataSpace.IVectorSegmentBackingArray;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
 
 import java.io.FileNotFoundException;
@@ -54,6 +55,21 @@ public interface IDataStore {
     @SuppressWarnings({"unchecked"}) // setting the backing array without checking type compatibility
     void restoreSegment(IVectorSegment segment) throws DataSpaceException, InvalidStateException;
 
+    /**
+     * Reads the backing array of a segment from storage without changing the segment or notifying the memory manager.
+     * This is the expensive part of a restore and needs no lock, so callers can do it before they take one.
+     * @param segment
+     * @return the backing array, to be passed to restoreSegment(segment, backingArray)
+     */
+    IVectorSegmentBackingArray loadBackingArray(IVectorSegment segment) throws DataSpaceException, InvalidStateException;
+
+    /**
+     * Completes a restore using a backing array that was already read by loadBackingArray()
+     * @param segment
+     * @param backingArray
+     */
+    void restoreSegment(IVectorSegment segment, IVectorSegmentBackingArray backingArray) throws DataSpaceException;
+
     /**
      * Changes all segments of a vector from one temporary state to another
      * @param vector
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.persistence;
+
+/**
+ * Decides which object a memory manager swaps out next. The policy only sees objects that are resident and not
+ * required (the eviction candidates) and identifies them by memory manager ID. A memory manager takes a policy in its
+ * constructor, and since every DataSpace has its own memory manager the policy is chosen per DataSpace.
+ * Implementations need not be thread safe - the memory manager calls them under its own lock.
+ */
+public interface IEvictionPolicy {
+    /**
+     * An object became an eviction candidate: it was submitted in a swapped in state or released
+     * @param id the memory manager ID
+     * @param sizeInBytes
+     * @param swapInCounter how many times the object was swapped in so far
+     * @param swapInTime total time (msec) spent swapping the object in so far
+     */
+    public void add(int id, long sizeInBytes, int swapInCounter, long swapInTime);
+
+    /**
+     * The object is no longer a candidate: it was required again, swapped out or garbage collected. A policy may
+     * keep its history.
+     * @param id
+     * @return true if the object was a candidate
+     */
+    public boolean remove(int id);
+
+    /**
+     * Selects the next object to swap out and removes it from the candidates
+     * @return the memory manager ID of the victim, or -1 if there are no candidates
+     */
+    public int poll();
+
+    /**
+     * @return the number of candidates
+     */
+    public int size();
+}
@@ -56,5 +56,12 @@ public interface IMemoryManager {
      */
     void onSwappedOut(IMemoryManaged managed) throws DataSpaceException;
 
+    /**
+     * Accounts for memory that is held outside of the managed objects and cannot be swapped out (e.g. bitmap indexes).
+     * Managed objects are swapped out as needed to make room for it.
+     * @param bytes the number of bytes taken, negative for bytes given back
+     */
+    void adjustUnmanagedUtilization(long bytes) throws DataSpaceException;
+
     long getMaxSize();
 }
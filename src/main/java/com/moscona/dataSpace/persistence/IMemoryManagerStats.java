@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.persistence;
+
+/**
+ * The swap and utilization counters common to the memory manager implementations, so that they can be monitored and
+ * compared with each other without knowing which one a data space is using.
+ */
+public interface IMemoryManagerStats {
+    public int getTotalSwapInCounter();
+
+    public long getTotalSwapInBytes();
+
+    public long getTotalSwapInTime();
+
+    public int getTotalSwapOutCounter();
+
+    public long getTotalSwapOutBytes();
+
+    public long getTotalUtilization();
+
+    public long getHighWaterMark();
+
+    /**
+     * @return swap outs / swap ins
+     */
+    public double getChurnRate();
+
+    /**
+     * @return swap out bytes / swap in bytes
+     */
+    public double getChurnRateByVolume();
+
+    /**
+     * @return the average swap in time (msec) per require request
+     */
+    public double getRequireAvgIoCost();
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.persistence;
+
+/**
+ * A memory manager that may own a pool of off heap buffers. When it has one, segments that are swapped in are given
+ * off heap backing arrays from that pool rather than Java arrays, so the resident set does not grow the Java heap,
+ * and the buffers go back to the pool when the segments are swapped out.
+ */
+public interface IOffHeapMemoryManager extends IMemoryManager {
+    /**
+     * @return the pool, or null if backing arrays are kept on the heap
+     */
+    public OffHeapBufferPool getOffHeapPool();
+}
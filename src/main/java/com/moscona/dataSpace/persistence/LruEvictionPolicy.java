@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.persistence;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Swaps out the least recently released object first. This is the default policy. It is cheap, but a single full
+ * column scan flushes the whole hot set.
+ */
+public class LruEvictionPolicy implements IEvictionPolicy {
+    private LinkedHashSet<Integer> lru = new LinkedHashSet<Integer>(); // in insertion order, which is the order of last use
+
+    @Override
+    public void add(int id, long sizeInBytes, int swapInCounter, long swapInTime) {
+        lru.remove(id);
+        lru.add(id);
+    }
+
+    @Override
+    public boolean remove(int id) {
+        return lru.remove(id);
+    }
+
+    @Override
+    public int poll() {
+        return pollFirst(lru);
+    }
+
+    @Override
+    public int size() {
+        return lru.size();
+    }
+
+    static int pollFirst(LinkedHashSet<Integer> set) {
+        Iterator<Integer> iterator = set.iterator();
+        if (!iterator.hasNext()) {
+            return -1;
+        }
+        int first = iterator.next();
+        iterator.remove();
+        return first;
+    }
+}
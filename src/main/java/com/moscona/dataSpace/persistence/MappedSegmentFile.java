@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.persistence;
+
+import com.moscona.dataSpace.IVectorSegmentBackingArray;
+import com.moscona.dataSpace.exceptions.DataSpaceException;
+import com.moscona.dataSpace.impl.segment.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads and writes segment backing arrays in the MAPPED_RAW format: a 16 byte header (magic, format version, element
+ * type code, element count) followed by the elements as raw little endian primitives. Booleans take a byte each.
+ * Restoring maps the file and bulk copies the typed view into the backing array, so there is no inflating, no
+ * deserialization and no intermediate buffer. Given an OffHeapBufferPool the bytes are copied as they are into a
+ * pooled buffer and the result is an off heap backing array.
+ */
+public class MappedSegmentFile {
+    public static final int MAGIC = 0x44534547; // "DSEG"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16; // keeps the data 8 byte aligned
+
+    private static final int TYPE_BOOLEAN = 1;
+    private static final int TYPE_BYTE = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_INTEGER = 4;
+    private static final int TYPE_LONG = 5;
+    private static final int TYPE_FLOAT = 6;
+    private static final int TYPE_DOUBLE = 7;
+    private static final int TYPE_STRING = 8; // string segments store dictionary codes as ints
+
+    public void write(IVectorSegmentBackingArray backingArray, File file) throws DataSpaceException {
+        int type = typeCodeOf(backingArray);
+        int length = lengthOf(backingArray);
+        long size = HEADER_SIZE + (long)length * elementSize(type);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(size);
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(type).putInt(length);
+                if (backingArray instanceof AbstractOffHeapBackingArray) {
+                    buffer.put(((AbstractOffHeapBackingArray) backingArray).getBytes()); // already in this layout
+                }
+                else {
+                    putData(backingArray, type, buffer);
+                }
+                buffer.force();
+            }
+            finally {
+                raf.close();
+            }
+        }
+        catch (IOException e) {
+            throw new DataSpaceException("Exception while writing mapped segment file "+file.getAbsolutePath()+": "+e,e);
+        }
+    }
+
+    public IVectorSegmentBackingArray read(File file) throws DataSpaceException {
+        return read(file, null);
+    }
+
+    /**
+     * @param file
+     * @param pool if not null the result is an off heap backing array with a buffer from this pool
+     * @return
+     * @throws DataSpaceException
+     */
+    public IVectorSegmentBackingArray read(File file, OffHeapBufferPool pool) throws DataSpaceException {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                long size = channel.size();
+                if (size < HEADER_SIZE) {
+                    throw new DataSpaceException("Mapped segment file "+file.getAbsolutePath()+" is too short to have a header ("+size+" bytes)");
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                int magic = buffer.getInt();
+                int version = buffer.getInt();
+                int type = buffer.getInt();
+                int length = buffer.getInt();
+                if (magic != MAGIC || version != VERSION) {
+                    throw new DataSpaceException("Not a mapped segment file (version "+VERSION+"): "+file.getAbsolutePath());
+                }
+                if (HEADER_SIZE + (long)length * elementSize(type) != size) {
+                    throw new DataSpaceException("Mapped segment file "+file.getAbsolutePath()+" has "+size+" bytes, which does not match "+length+" elements of type "+type);
+                }
+                if (pool != null) {
+                    return getOffHeapData(type, length, buffer, pool);
+                }
+                return getData(type, length, buffer);
+            }
+            finally {
+                raf.close();
+            }
+        }
+        catch (IOException e) {
+            throw new DataSpaceException("Exception while reading mapped segment file "+file.getAbsolutePath()+": "+e,e);
+        }
+    }
+
+    private int typeCodeOf(IVectorSegmentBackingArray backingArray) throws DataSpaceException {
+        if (backingArray instanceof BooleanSegmentBackingArray || backingArray instanceof OffHeapBooleanSegmentBackingArray) return TYPE_BOOLEAN;
+        if (backingArray instanceof OffHeapByteSegmentBackingArray) return TYPE_BYTE;
+        if (backingArray instanceof OffHeapShortSegmentBackingArray) return TYPE_SHORT;
+        if (backingArray instanceof OffHeapIntegerSegmentBackingArray) return TYPE_INTEGER;
+        if (backingArray instanceof OffHeapLongSegmentBackingArray) return TYPE_LONG;
+        if (backingArray instanceof OffHeapFloatSegmentBackingArray) return TYPE_FLOAT;
+        if (backingArray instanceof OffHeapDoubleSegmentBackingArray) return TYPE_DOUBLE;
+        if (backingArray instanceof OffHeapStringSegmentBackingArray) return TYPE_STRING;
+        if (backingArray instanceof ByteSegmentBackingArray) return TYPE_BYTE;
+        if (backingArray instanceof ShortSegmentBackingArray) return TYPE_SHORT;
+        if (backingArray instanceof IntegerSegmentBackingArray) return TYPE_INTEGER;
+        if (backingArray instanceof LongSegmentBackingArray) return TYPE_LONG;
+        if (backingArray instanceof FloatSegmentBackingArray) return TYPE_FLOAT;
+        if (backingArray instanceof DoubleSegmentBackingArray) return TYPE_DOUBLE;
+        if (backingArray instanceof StringSegmentBackingArray) return TYPE_STRING;
+        throw new DataSpaceException("Unsupported backing array type for the mapped segment format: "+backingArray.getClass().getName());
+    }
+
+    private int elementSize(int type) throws DataSpaceException {
+        switch (type) {
+            case TYPE_BOOLEAN:
+            case TYPE_BYTE:
+                return 1;
+            case TYPE_SHORT:
+                return 2;
+            case TYPE_INTEGER:
+            case TYPE_FLOAT:
+            case TYPE_STRING:
+                return 4;
+            case TYPE_LONG:
+            case TYPE_DOUBLE:
+                return 8;
+            default:
+                throw new DataSpaceException("Unknown element type code in mapped segment file: "+type);
+        }
+    }
+
+    private int lengthOf(IVectorSegmentBackingArray backingArray) throws DataSpaceException {
+        if (backingArray instanceof AbstractOffHeapBackingArray) {
+            return ((AbstractOffHeapBackingArray) backingArray).length();
+        }
+        switch (typeCodeOf(backingArray)) {
+            case TYPE_BOOLEAN: return ((BooleanSegmentBackingArray) backingArray).data.length;
+            case TYPE_BYTE: return ((ByteSegmentBackingArray) backingArray).data.length;
+            case TYPE_SHORT: return ((ShortSegmentBackingArray) backingArray).data.length;
+            case TYPE_INTEGER: return ((IntegerSegmentBackingArray) backingArray).data.length;
+            case TYPE_LONG: return ((LongSegmentBackingArray) backingArray).data.length;
+            case TYPE_FLOAT: return ((FloatSegmentBackingArray) backingArray).data.length;
+            case TYPE_DOUBLE: return ((DoubleSegmentBackingArray) backingArray).data.length;
+            default: return ((StringSegmentBackingArray) backingArray).data.length;
+        }
+    }
+
+    private void putData(IVectorSegmentBackingArray backingArray, int type, ByteBuffer buffer) {
+        switch (type) {
+            case TYPE_BOOLEAN:
+                boolean[] booleans = ((BooleanSegmentBackingArray) backingArray).data;
+                for (boolean b: booleans) {
+                    buffer.put(b ? (byte)1 : (byte)0);
+                }
+                break;
+            case TYPE_BYTE:
+                buffer.put(((ByteSegmentBackingArray) backingArray).data);
+                break;
+            case TYPE_SHORT:
+                buffer.asShortBuffer().put(((ShortSegmentBackingArray) backingArray).data);
+                break;
+            case TYPE_INTEGER:
+                buffer.asIntBuffer().put(((IntegerSegmentBackingArray) backingArray).data);
+                break;
+            case TYPE_LONG:
+                buffer.asLongBuffer().put(((LongSegmentBackingArray) backingArray).data);
+                break;
+            case TYPE_FLOAT:
+                buffer.asFloatBuffer().put(((FloatSegmentBackingArray) backingArray).data);
+                break;
+            case TYPE_DOUBLE:
+                buffer.asDoubleBuffer().put(((DoubleSegmentBackingArray) backingArray).data);
+                break;
+            default:
+                buffer.asIntBuffer().put(((StringSegmentBackingArray) backingArray).data);
+        }
+    }
+
+    private IVectorSegmentBackingArray getData(int type, int length, ByteBuffer buffer) throws DataSpaceException {
+        switch (type) {
+            case TYPE_BOOLEAN:
+                BooleanSegmentBackingArray booleans = new BooleanSegmentBackingArray(length);
+                for (int i=0; i<length; i++) {
+                    booleans.data[i] = buffer.get() != 0;
+                }
+                return booleans;
+            case TYPE_BYTE:
+                ByteSegmentBackingArray bytes = new ByteSegmentBackingArray(length);
+                buffer.get(bytes.data);
+                return bytes;
+            case TYPE_SHORT:
+                ShortSegmentBackingArray shorts = new ShortSegmentBackingArray(length);
+                buffer.asShortBuffer().get(shorts.data);
+                return shorts;
+            case TYPE_INTEGER:
+                IntegerSegmentBackingArray ints = new IntegerSegmentBackingArray(length);
+                buffer.asIntBuffer().get(ints.data);
+                return ints;
+            case TYPE_LONG:
+                LongSegmentBackingArray longs = new LongSegmentBackingArray(length);
+                buffer.asLongBuffer().get(longs.data);
+                return longs;
+            case TYPE_FLOAT:
+                FloatSegmentBackingArray floats = new FloatSegmentBackingArray(length);
+                buffer.asFloatBuffer().get(floats.data);
+                return floats;
+            case TYPE_DOUBLE:
+                DoubleSegmentBackingArray doubles = new DoubleSegmentBackingArray(length);
+                buffer.asDoubleBuffer().get(doubles.data);
+                return doubles;
+            case TYPE_STRING:
+                StringSegmentBackingArray strings = new StringSegmentBackingArray(length);
+                buffer.asIntBuffer().get(strings.data);
+                return strings;
+            default:
+                throw new DataSpaceException("Unknown element type code in mapped segment file: "+type);
+        }
+    }
+
+    private IVectorSegmentBackingArray getOffHeapData(int type, int length, ByteBuffer mapped, OffHeapBufferPool pool) throws DataSpaceException {
+        ByteBuffer buffer = pool.allocate(length*elementSize(type));
+        buffer.put(mapped); // the file and the pooled buffers are both little endian
+        switch (type) {
+            case TYPE_BOOLEAN: return new OffHeapBooleanSegmentBackingArray(buffer, length, pool);
+            case TYPE_BYTE: return new OffHeapByteSegmentBackingArray(buffer, length, pool);
+            case TYPE_SHORT: return new OffHeapShortSegmentBackingArray(buffer, length, pool);
+            case TYPE_INTEGER: return new OffHeapIntegerSegmentBackingArray(buffer, length, pool);
+            case TYPE_LONG: return new OffHeapLongSegmentBackingArray(buffer, length, pool);
+            case TYPE_FLOAT: return new OffHeapFloatSegmentBackingArray(buffer, length, pool);
+            case TYPE_DOUBLE: return new OffHeapDoubleSegmentBackingArray(buffer, length, pool);
+            default: return new OffHeapStringSegmentBackingArray(buffer, length, pool);
+        }
+    }
+}
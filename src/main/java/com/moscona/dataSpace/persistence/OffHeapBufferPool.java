@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * A pool of direct (off heap) byte buffers for segment backing arrays. All segments of a data space have the same
+ * maximum size, so in practice the pool hands out a handful of buffer sizes over and over: released buffers are kept
+ * on a free list per capacity (up to maxPooledBytes in total) and given to the next segment that is swapped in.
+ * Buffers that are never released (their segment was garbage collected) are freed by the garbage collector like any
+ * other direct buffer. Buffers are little endian, which is also the order of the mapped segment file format.
+ */
+public class OffHeapBufferPool {
+    public static final long DEFAULT_MAX_POOLED_BYTES = 256L*1024*1024;
+
+    private final long maxPooledBytes;
+    private long pooledBytes = 0L;
+    private long allocatedBytes = 0L;
+    private int allocationCounter = 0;
+    private int reuseCounter = 0;
+    private HashMap<Integer, ArrayDeque<ByteBuffer>> free = new HashMap<Integer, ArrayDeque<ByteBuffer>>();
+
+    public OffHeapBufferPool() {
+        this(DEFAULT_MAX_POOLED_BYTES);
+    }
+
+    /**
+     * @param maxPooledBytes how many bytes of released buffers to keep for reuse. Releases beyond that are dropped and
+     *                       left to the garbage collector.
+     */
+    public OffHeapBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * @param capacity in bytes
+     * @return a little endian direct buffer with position 0 and limit == capacity. The content is undefined.
+     */
+    public synchronized ByteBuffer allocate(int capacity) {
+        ArrayDeque<ByteBuffer> list = free.get(capacity);
+        if (list != null && !list.isEmpty()) {
+            ByteBuffer buffer = list.poll();
+            pooledBytes -= capacity;
+            reuseCounter++;
+            buffer.clear();
+            return buffer;
+        }
+        allocationCounter++;
+        allocatedBytes += capacity;
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Gives a buffer back for reuse. The caller must not touch it afterwards.
+     * @param buffer
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (pooledBytes + capacity > maxPooledBytes) {
+            return; // let the garbage collector have it
+        }
+        ArrayDeque<ByteBuffer> list = free.get(capacity);
+        if (list == null) {
+            list = new ArrayDeque<ByteBuffer>();
+            free.put(capacity, list);
+        }
+        list.push(buffer); // LIFO - the most recently used buffer is the most likely to still be in the cache
+        pooledBytes += capacity;
+    }
+
+    public long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    /**
+     * @return the total bytes of direct buffers allocated by the pool (some may have been freed by the GC since)
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public synchronized int getAllocationCounter() {
+        return allocationCounter;
+    }
+
+    public synchronized int getReuseCounter() {
+        return reuseCounter;
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.persistence;
+
+/**
+ * The way a DirectoryDataStore writes segment backing arrays. SERIALIZED_GZIP is the original format (Java
+ * serialization over gzip) and is assumed for stores whose metadata does not say otherwise. MAPPED_RAW is a small
+ * header followed by the raw little endian primitives, which is read through a memory mapped file.
+ */
+public enum SegmentFileFormat {
+    SERIALIZED_GZIP, MAPPED_RAW
+}
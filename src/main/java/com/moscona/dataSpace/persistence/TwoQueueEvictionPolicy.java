@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.persistence;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+/**
+ * A scan resistant 2Q policy (Johnson and Shasha). Objects seen for the first time go to a FIFO probation queue
+ * (A1in). When they are swapped out from there their IDs are remembered in a ghost queue (A1out) that takes no
+ * memory. Only an object that comes back while it is still remembered is promoted to the protected LRU (Am). A full
+ * column scan therefore only cycles through the probation queue and leaves the hot set in Am alone. Probation
+ * victims are preferred as long as the probation queue holds more than its share of the candidates.
+ */
+public class TwoQueueEvictionPolicy implements IEvictionPolicy {
+    public static final double DEFAULT_PROBATION_SHARE = 0.25;
+    private static final int MIN_GHOSTS = 64;
+
+    private final double probationShare;
+    private LinkedHashSet<Integer> a1in = new LinkedHashSet<Integer>();  // probation, FIFO
+    private LinkedHashSet<Integer> am = new LinkedHashSet<Integer>();    // protected, LRU
+    private LinkedHashSet<Integer> a1out = new LinkedHashSet<Integer>(); // ghosts of probation victims, FIFO
+    private HashSet<Integer> hot = new HashSet<Integer>(); // the IDs in am
+
+    public TwoQueueEvictionPolicy() {
+        this(DEFAULT_PROBATION_SHARE);
+    }
+
+    /**
+     * @param probationShare the share of the candidates the probation queue may hold before it is preferred for
+     *                       eviction (0.25 is the value recommended by the 2Q paper)
+     */
+    public TwoQueueEvictionPolicy(double probationShare) {
+        this.probationShare = probationShare;
+    }
+
+    @Override
+    public void add(int id, long sizeInBytes, int swapInCounter, long swapInTime) {
+        if (hot.contains(id)) {
+            am.remove(id);
+            am.add(id);
+        }
+        else if (a1out.remove(id)) {
+            hot.add(id);
+            am.add(id);
+        }
+        else if (!a1in.contains(id)) {
+            a1in.add(id); // a repeated use while on probation does not move it (correlated references)
+        }
+    }
+
+    /**
+     * The policy cannot tell an object that is required again from one that was swapped out or collected, so a
+     * protected object leaves the hot set either way and is only remembered as a ghost. A required object that is
+     * released soon after finds its ghost and goes straight back to Am, while the ghosts of the others age out of A1out.
+     */
+    @Override
+    public boolean remove(int id) {
+        if (a1in.remove(id)) {
+            return true;
+        }
+        hot.remove(id);
+        if (am.remove(id)) {
+            a1out.add(id);
+            trimGhosts();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int poll() {
+        if (!a1in.isEmpty() && (am.isEmpty() || a1in.size() > probationShare * size())) {
+            int id = LruEvictionPolicy.pollFirst(a1in);
+            a1out.add(id);
+            trimGhosts();
+            return id;
+        }
+        int id = LruEvictionPolicy.pollFirst(am);
+        hot.remove(id);
+        return id;
+    }
+
+    private void trimGhosts() {
+        while (a1out.size() > Math.max(MIN_GHOSTS, size())) {
+            LruEvictionPolicy.pollFirst(a1out);
+        }
+    }
+
+    @Override
+    public int size() {
+        return a1in.size() + am.size();
+    }
+}
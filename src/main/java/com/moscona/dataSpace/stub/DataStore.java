@@ -21,6 +21,7 @@ import com.moscona.exceptions.InvalidStateException;
 import com.moscona.dataSpace.DataSpace;
 import com.moscona.dataSpace.IVector;
 import com.moscona.dataSpace.IVectorSegment;
+import com.moscona.dataSpace.IVectorSegmentBackingArray;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
 import com.moscona.dataSpace.persistence.IDataStore;
 
@@ -73,6 +74,16 @@ public class DataStore implements IDataStore {
         // do nothing
     }
 
+    @Override
+    public IVectorSegmentBackingArray loadBackingArray(IVectorSegment segment) {
+        return null;
+    }
+
+    @Override
+    public void restoreSegment(IVectorSegment segment, IVectorSegmentBackingArray backingArray) {
+        // do nothing
+    }
+
     @Override
     public void moveAllSegments(IVector vector, boolean fromTemporary, boolean toTemporary) {
         // do nothing
@@ -79,6 +79,11 @@ public class MemoryManager implements IMemoryManager {
         // do nothing
     }
 
+    @Override
+    public void adjustUnmanagedUtilization(long bytes) {
+        // do nothing
+    }
+
     @Override
     public long getMaxSize() {
         return 0;  // irrelevant here
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.dataSpace.util;
+
+import com.moscona.dataSpace.IBitMap;
+
+/**
+ * A segment level bitmap builder for the bulk query kernels. Packs the comparison results into a local 64 bit word and
+ * appends whole words to the target bitmap (see IBitMap.addWord()) rather than paying for IBitMap.add() on every
+ * element. You must call flush() when done, or the last partial word is lost.
+ */
+public final class BitMapBuilder {
+    private static final int WORD_SIZE = 64;
+
+    private final IBitMap target;
+    private long word = 0L;
+    private int bits = 0;
+
+    public BitMapBuilder(IBitMap target) {
+        this.target = target;
+    }
+
+    public void add(boolean value) {
+        if (value) {
+            word |= 1L << bits;
+        }
+        if (++bits == WORD_SIZE) {
+            target.addWord(word, WORD_SIZE);
+            word = 0L;
+            bits = 0;
+        }
+    }
+
+    /**
+     * Appends the last partial word (if any) to the target bitmap
+     * @return the target bitmap
+     */
+    public IBitMap flush() {
+        if (bits > 0) {
+            target.addWord(word, bits);
+            word = 0L;
+            bits = 0;
+        }
+        return target;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.util;
+
+/**
+ * A bounded binary min heap of primitive longs, for keeping the N largest values seen without boxing them into a
+ * PriorityQueue&lt;Long&gt;. To keep the N smallest values instead store ~value (the bitwise complement reverses the
+ * order of longs without overflowing).
+ * The heap does not check for duplicates, callers that keep distinct values have to do that themselves.
+ */
+public class BoundedLongHeap {
+    private final long[] heap;
+    private int size = 0;
+
+    /**
+     * @param capacity the maximum number of values the heap may hold
+     */
+    public BoundedLongHeap(int capacity) {
+        heap = new long[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return heap.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == heap.length;
+    }
+
+    /**
+     * @return the smallest value in the heap. Undefined when the heap is empty
+     */
+    public long peek() {
+        return heap[0];
+    }
+
+    /**
+     * Adds a value to a heap that is not full
+     * @param value the value to add
+     */
+    public void add(long value) {
+        if (size == heap.length) {
+            throw new IllegalStateException("The heap is full (capacity "+heap.length+")");
+        }
+        int index = size++;
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent] <= value) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = value;
+    }
+
+    /**
+     * Removes the smallest value and adds another one in its place (cheaper than poll() followed by add())
+     * @param value the value to add
+     * @return the value that was removed
+     */
+    public long replaceTop(long value) {
+        long retval = heap[0];
+        siftDown(value);
+        return retval;
+    }
+
+    /**
+     * Removes the smallest value
+     * @return the value that was removed
+     */
+    public long poll() {
+        long retval = heap[0];
+        size--;
+        if (size > 0) {
+            siftDown(heap[size]);
+        }
+        return retval;
+    }
+
+    /**
+     * @return the values in the heap, in no particular order
+     */
+    public long[] values() {
+        long[] retval = new long[size];
+        System.arraycopy(heap, 0, retval, 0, size);
+        return retval;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    private void siftDown(long value) {
+        int index = 0;
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && heap[right] < heap[child]) {
+                child = right;
+            }
+            if (value <= heap[child]) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = value;
+    }
+}
@@ -19,10 +19,14 @@ package com.moscona.dataSpace.util;
 
 import com.moscona.dataSpace.IBitMap;
 import com.moscona.dataSpace.IPositionIterator;
+import com.moscona.dataSpace.RangeCoverage;
 import com.moscona.dataSpace.exceptions.DataSpaceException;
 import javaewah.EWAHCompressedBitmap;
+import javaewah.EWAHIterator;
 import javaewah.IntIterator;
+import javaewah.RunningLengthWord;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -36,9 +40,24 @@ import java.util.Vector;
  * Note that it is not generally useful in a mix with other implementations of IBitMap - it assumes that it always
  * interacts with bitmaps of the same class.
  */
-public class CompressedBitMap implements IBitMap {
+public class CompressedBitMap implements IBitMap, Serializable {
+    private static final long serialVersionUID = -2861174353302719438L;
+    private static final int WORD_SIZE = 64;
+
     private int lastPosition = -1;
+    /**
+     * While appending, holds only whole 64 bit words (sizeInBits() is a multiple of 64). The bits past the last whole
+     * word are kept in pendingWord until it fills up.
+     */
     private EWAHCompressedBitmap bitmap;
+    private long pendingWord = 0L;
+    private int pendingBits = 0;
+    private transient EWAHCompressedBitmap materialized = null; // cached view including the pending bits. Reset on every append
+    /**
+     * The number of true values, maintained as bits are appended so that cardinality() does not need to walk the
+     * bitmap. -1 if not known yet (results of and(), or() and not()), in which case it is computed once when needed.
+     */
+    private int knownCardinality = 0;
 
     public CompressedBitMap() {
         lastPosition = -1;
@@ -48,22 +67,23 @@ public class CompressedBitMap implements IBitMap {
     private CompressedBitMap(EWAHCompressedBitmap actual) {
         lastPosition = actual.sizeInBits()-1;
         bitmap = actual;
+        knownCardinality = -1;
     }
 
     @Override
     public IBitMap and(IBitMap other) {
-        return new CompressedBitMap(bitmap.and(((CompressedBitMap)other).bitmap));
+        return new CompressedBitMap(view().and(((CompressedBitMap)other).view()));
     }
 
     @Override
     public IBitMap or(IBitMap other) {
-        return new CompressedBitMap(bitmap.or(((CompressedBitMap)other).bitmap));
+        return new CompressedBitMap(view().or(((CompressedBitMap)other).view()));
     }
 
     @Override
     public IBitMap not() {
         try {
-            EWAHCompressedBitmap clone = (EWAHCompressedBitmap)bitmap.clone();
+            EWAHCompressedBitmap clone = (EWAHCompressedBitmap)view().clone();
             clone.not();
             return new CompressedBitMap(clone);
         }
@@ -74,16 +94,109 @@ public class CompressedBitMap implements IBitMap {
 
     @Override
     public IBitMap add(boolean value) {
-        lastPosition++;
+        prepareForAppend();
         if (value) {
-            bitmap.set(lastPosition);
+            pendingWord |= 1L << pendingBits;
+            knownCardinality++;
+        }
+        lastPosition++;
+        if (++pendingBits == WORD_SIZE) {
+            flushPendingWord();
+        }
+        return this;
+    }
+
+    @Override
+    public IBitMap addWord(long word, int length) {
+        if (length <= 0) {
+            return this;
+        }
+        prepareForAppend();
+        if (length < WORD_SIZE) {
+            word &= (1L << length) - 1;
+        }
+        lastPosition += length;
+        knownCardinality += Long.bitCount(word);
+        if (pendingBits == 0 && length == WORD_SIZE) {
+            bitmap.add(word);
+            return this;
+        }
+
+        pendingWord |= word << pendingBits;
+        int total = pendingBits + length;
+        if (total < WORD_SIZE) {
+            pendingBits = total;
+            return this;
+        }
+        long carry = pendingBits == 0 ? 0L : word >>> (WORD_SIZE - pendingBits); // the bits that did not fit
+        pendingBits = WORD_SIZE;
+        flushPendingWord();
+        pendingWord = carry;
+        pendingBits = total - WORD_SIZE;
+        return this;
+    }
+
+    @Override
+    public IBitMap addRun(boolean value, int length) {
+        if (length <= 0) {
+            return this;
+        }
+        prepareForAppend();
+        long fill = value ? ~0L : 0L; // only used for the partial words at either end of the run
+        int remaining = length;
+        if (pendingBits > 0) {
+            // complete the pending word first
+            int head = Math.min(remaining, WORD_SIZE - pendingBits);
+            addWord(fill, head);
+            remaining -= head;
+        }
+        int wholeWords = remaining / WORD_SIZE;
+        if (wholeWords > 0) {
+            // a single run length word in EWAH, regardless of the length of the run
+            bitmap.addStreamOfEmptyWords(value, wholeWords);
+            lastPosition += wholeWords * WORD_SIZE;
+            if (value) {
+                knownCardinality += wholeWords * WORD_SIZE;
+            }
+        }
+        addWord(fill, remaining % WORD_SIZE);
+        return this;
+    }
+
+    /**
+     * Appends the other bitmap word by word: its runs become runs here (a single run length word when the appended
+     * bits stay word aligned) and its literal words are shifted into place, so the cost is proportional to the
+     * compressed size of the other bitmap rather than to its cardinality.
+     */
+    @Override
+    public IBitMap append(IBitMap other) {
+        CompressedBitMap source = (CompressedBitMap)other;
+        if (source == this) {
+            source = (CompressedBitMap)copy();
+        }
+        int remaining = source.size();
+        EWAHIterator iterator = source.view().getEWAHIterator();
+        while (iterator.hasNext() && remaining > 0) {
+            RunningLengthWord runningLengthWord = iterator.next();
+            long runLength = Math.min(remaining, (long)runningLengthWord.getRunningLength() * WORD_SIZE);
+            addRun(runningLengthWord.getRunningBit(), (int)runLength);
+            remaining -= (int)runLength;
+            long[] buffer = iterator.buffer();
+            int firstLiteral = iterator.dirtyWords();
+            int literalCount = (int)runningLengthWord.getNumberOfLiteralWords();
+            for (int i=0; i<literalCount && remaining > 0; i++) {
+                int length = Math.min(remaining, WORD_SIZE);
+                addWord(buffer[firstLiteral+i], length);
+                remaining -= length;
+            }
         }
+        addRun(false, remaining); // bits past the last word of the source are false
         return this;
     }
 
     @Override
     public int size() {
-        return Math.max(lastPosition, bitmap.sizeInBits());
+        return lastPosition+1;
     }
 
     @Override
@@ -96,8 +209,186 @@ public class CompressedBitMap implements IBitMap {
      */
     @Override
     public int cardinality() {
-        // may be more efficient to just count in the add() method, but as soon as you combine bitmaps - you lose this
-        return bitmap.cardinality();
+        // counted in the add methods. As soon as you combine bitmaps you lose this, so those count once on demand
+        if (knownCardinality < 0) {
+            knownCardinality = bitmap.cardinality() + Long.bitCount(pendingWord);
+        }
+        return knownCardinality;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        if (knownCardinality >= 0) {
+            return knownCardinality == 0;
+        }
+        // the iterator skips runs of false values a whole run length word at a time
+        return ! view().intIterator().hasNext();
+    }
+
+    /**
+     * Walks the run length words of the compressed form, so a run of true words costs the same regardless of its
+     * length, and stops at the first word that is not all true
+     */
+    @Override
+    public boolean isFull() {
+        if (knownCardinality >= 0) {
+            return knownCardinality == size();
+        }
+        int size = size();
+        if (size == 0) {
+            return true;
+        }
+        long lastWord = (size - 1) / WORD_SIZE;
+        long lastMask = lastWordMask(size);
+        WordCursor cursor = new WordCursor(this);
+        long wordIndex = 0;
+        while (wordIndex <= lastWord && cursor.next()) {
+            // the words of the group are identical: if any of them is before the last word it has to be all true
+            boolean full = wordIndex < lastWord ? cursor.word == ~0L : (cursor.word & lastMask) == lastMask;
+            if (!full) {
+                return false; // found a gap
+            }
+            wordIndex += cursor.count;
+        }
+        return wordIndex > lastWord;
+    }
+
+    /**
+     * Walks the run length words of both bitmaps together and stops at the first word that has a true value in both.
+     * Only the positions within the size of both bitmaps count
+     */
+    @Override
+    public boolean intersects(IBitMap other) {
+        CompressedBitMap that = (CompressedBitMap)other;
+        int size = Math.min(size(), that.size());
+        if (size == 0 || knownCardinality == 0 || that.knownCardinality == 0) {
+            return false;
+        }
+        long lastWord = (size - 1) / WORD_SIZE;
+        long lastMask = lastWordMask(size);
+        WordCursor mine = new WordCursor(this);
+        WordCursor theirs = new WordCursor(that);
+        boolean hasMine = mine.next();
+        boolean hasTheirs = theirs.next();
+        long wordIndex = 0;
+        while (hasMine && hasTheirs && wordIndex <= lastWord) {
+            long and = mine.word & theirs.word;
+            // the words of both groups are identical: if any of them is before the last word it counts in full
+            if (and != 0L && (wordIndex < lastWord || (and & lastMask) != 0L)) {
+                return true;
+            }
+            long words = Math.min(mine.count, theirs.count);
+            wordIndex += words;
+            mine.count -= words;
+            theirs.count -= words;
+            if (mine.count == 0) {
+                hasMine = mine.next();
+            }
+            if (theirs.count == 0) {
+                hasTheirs = theirs.next();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the bits of the last word of a bitmap of the given size that are within the size
+     */
+    private static long lastWordMask(int size) {
+        int bits = size % WORD_SIZE;
+        return bits == 0 ? ~0L : (1L << bits) - 1;
+    }
+
+    @Override
+    public IBitMap copy() {
+        try {
+            CompressedBitMap retval = new CompressedBitMap((EWAHCompressedBitmap)view().clone());
+            retval.knownCardinality = knownCardinality;
+            return retval;
+        }
+        catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("Could not clone the bitmap: "+e, e);
+        }
+    }
+
+    @Override
+    public long sizeInBytes() {
+        // the pending word is at most one more word: no need to materialize it (sizes are checked while bitmaps grow)
+        return bitmap.sizeInBytes() + (pendingBits > 0 ? 8L : 0L) + 32L; // plus our own fields
+    }
+
+    /**
+     * Walks the run length words of the compressed form: a run of identical words costs the same regardless of its
+     * length, and only the literal words of mixed ranges get copied.
+     */
+    @Override
+    public RangeCoverage getRangeCoverage(int rangeSize) {
+        if (rangeSize <= 0) {
+            throw new IllegalArgumentException("The range size must be positive: "+rangeSize);
+        }
+        RangeCoverageBuilder builder = new RangeCoverageBuilder(rangeSize, size());
+        EWAHIterator iterator = view().getEWAHIterator();
+        while (iterator.hasNext() && !builder.isDone()) {
+            RunningLengthWord runningLengthWord = iterator.next();
+            builder.addRun(runningLengthWord.getRunningBit(), (long)runningLengthWord.getRunningLength() * WORD_SIZE);
+            long[] buffer = iterator.buffer();
+            int firstLiteral = iterator.dirtyWords();
+            int literalCount = (int)runningLengthWord.getNumberOfLiteralWords();
+            for (int i=0; i<literalCount && !builder.isDone(); i++) {
+                builder.addWord(buffer[firstLiteral+i]);
+            }
+        }
+        return builder.build();
+    }
+
+    private void flushPendingWord() {
+        bitmap.add(pendingWord);
+        pendingWord = 0L;
+        pendingBits = 0;
+    }
+
+    /**
+     * Makes sure that the underlying bitmap holds only whole words so that we can append to it word by word.
+     * Bitmaps that are the result of and(), or() and not() end in a partial word and are rebuilt (once) if anybody
+     * appends to them.
+     */
+    private void prepareForAppend() {
+        materialized = null;
+        if (pendingBits > 0 || bitmap.sizeInBits() % WORD_SIZE == 0) {
+            cardinality(); // from here on we count as we append
+            return;
+        }
+        EWAHCompressedBitmap original = bitmap;
+        int originalLastPosition = lastPosition;
+        bitmap = new EWAHCompressedBitmap();
+        lastPosition = -1;
+        knownCardinality = 0;
+        IntIterator iterator = original.intIterator();
+        while (iterator.hasNext()) {
+            int position = iterator.next();
+            addRun(false, position - lastPosition - 1);
+            add(true);
+        }
+        addRun(false, originalLastPosition - lastPosition);
+    }
+
+    /**
+     * @return the underlying bitmap including the pending bits that were not yet flushed (a copy if there are any)
+     */
+    private EWAHCompressedBitmap view() {
+        if (pendingBits == 0) {
+            return bitmap;
+        }
+        if (materialized == null) {
+            try {
+                materialized = (EWAHCompressedBitmap)bitmap.clone();
+                materialized.add(pendingWord, pendingBits);
+            }
+            catch (CloneNotSupportedException e) {
+                throw new IllegalStateException("Could not clone the bitmap: "+e, e);
+            }
+        }
+        return materialized;
     }
 
 //    public IntIterator debugEwahIterator() {
@@ -120,12 +411,150 @@ public class CompressedBitMap implements IBitMap {
 
     //------------------------------------------------------------------------------------------------------------------
 
+    /**
+     * Accumulates the bits of the range being summarized in a range local bitmap (which counts its own cardinality as
+     * it is appended to), and classifies the range when it is complete. The bits past size() (the padding of the
+     * last word) are ignored, and missing bits at the end are taken as false.
+     */
+    /**
+     * Reads the words of a bitmap in order, one group of identical words at a time: a whole run, or a single literal
+     * word. The pending word comes last, without materializing the bitmap (see view())
+     */
+    private static final class WordCursor {
+        private final EWAHIterator iterator;
+        private final long pendingWord;
+        private boolean hasPendingWord;
+        private long[] buffer = null;
+        private long runWords = 0L;
+        private boolean runBit = false;
+        private int nextLiteral = 0;
+        private int literalsLeft = 0;
+        private long word = 0L; // the value of the words of the current group
+        private long count = 0L; // the number of words left in the current group
+
+        private WordCursor(CompressedBitMap bitmap) {
+            iterator = bitmap.bitmap.getEWAHIterator();
+            pendingWord = bitmap.pendingWord;
+            hasPendingWord = bitmap.pendingBits > 0;
+        }
+
+        /**
+         * @return false if there are no more words
+         */
+        private boolean next() {
+            while (true) {
+                if (runWords > 0) {
+                    word = runBit ? ~0L : 0L;
+                    count = runWords;
+                    runWords = 0L;
+                    return true;
+                }
+                if (literalsLeft > 0) {
+                    word = buffer[nextLiteral++];
+                    count = 1L;
+                    literalsLeft--;
+                    return true;
+                }
+                if (iterator.hasNext()) {
+                    RunningLengthWord runningLengthWord = iterator.next();
+                    runBit = runningLengthWord.getRunningBit();
+                    runWords = runningLengthWord.getRunningLength();
+                    buffer = iterator.buffer();
+                    nextLiteral = iterator.dirtyWords();
+                    literalsLeft = (int)runningLengthWord.getNumberOfLiteralWords();
+                    continue;
+                }
+                if (hasPendingWord) {
+                    hasPendingWord = false;
+                    word = pendingWord;
+                    count = 1L;
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    private static class RangeCoverageBuilder {
+        private final int rangeSize;
+        private final int size;
+        private final RangeCoverage.Kind[] kinds;
+        private final IBitMap[] candidates;
+        private int range = 0;
+        private int offset = 0; // position within the current range
+        private CompressedBitMap current = new CompressedBitMap();
+
+        RangeCoverageBuilder(int rangeSize, int size) {
+            this.rangeSize = rangeSize;
+            this.size = size;
+            int rangeCount = (int)(((long)size + rangeSize - 1) / rangeSize);
+            kinds = new RangeCoverage.Kind[rangeCount];
+            candidates = new IBitMap[rangeCount];
+        }
+
+        boolean isDone() {
+            return range >= kinds.length;
+        }
+
+        private int currentRangeLength() {
+            return Math.min(rangeSize, size - range*rangeSize);
+        }
+
+        void addRun(boolean value, long length) {
+            while (length > 0 && !isDone()) {
+                int n = (int)Math.min(length, currentRangeLength() - offset);
+                current.addRun(value, n);
+                advance(n);
+                length -= n;
+            }
+        }
+
+        void addWord(long word) {
+            int remaining = WORD_SIZE;
+            while (remaining > 0 && !isDone()) {
+                int n = Math.min(remaining, currentRangeLength() - offset);
+                current.addWord(word, n);
+                advance(n);
+                word = n == WORD_SIZE ? 0L : word >>> n;
+                remaining -= n;
+            }
+        }
+
+        private void advance(int n) {
+            offset += n;
+            if (offset == currentRangeLength()) {
+                int cardinality = current.cardinality();
+                if (cardinality == 0) {
+                    kinds[range] = RangeCoverage.Kind.EMPTY;
+                }
+                else if (cardinality == offset) {
+                    kinds[range] = RangeCoverage.Kind.FULL;
+                }
+                else {
+                    kinds[range] = RangeCoverage.Kind.MIXED;
+                    current.view(); // materialize the pending bits now so that concurrent segment evaluations only read
+                    candidates[range] = current;
+                }
+                current = new CompressedBitMap();
+                offset = 0;
+                range++;
+            }
+        }
+
+        RangeCoverage build() {
+            if (!isDone()) {
+                addRun(false, (long)size - (long)range*rangeSize - offset); // the bitmap was shorter than its size
+            }
+            return new RangeCoverage(rangeSize, kinds, candidates);
+        }
+    }
+
     private class Iterator implements IPositionIterator {
         private IntIterator delegate;
         private int lastReturnedValue = Integer.MIN_VALUE;
 
         protected Iterator() {
-            delegate = bitmap.intIterator();
+            delegate = view().intIterator();
         }
 
         @Override
@@ -166,7 +595,7 @@ public class CompressedBitMap implements IBitMap {
         private int lastReturnedValue = Integer.MIN_VALUE;
 
         protected VectorBasedIterator() {
-            positionVector = bitmap.getPositions();
+            positionVector = view().getPositions();
             positionIterator = positionVector.iterator();
         }
 
@@ -200,6 +629,6 @@ public class CompressedBitMap implements IBitMap {
 
     @Override
     public List<Integer> getPositions() {
-        return new ArrayList<Integer>(bitmap.getPositions());
+        return new ArrayList<Integer>(view().getPositions());
     }
 }
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.util;
+
+import java.util.Arrays;
+
+/**
+ * The int keyed twin of LongIntHashMap, used to count string dictionary codes (see DataSpace.getCode()) rather
+ * than the decoded strings. Codes are dense from 0, so a map sized for the data space's code count is normally an
+ * array. As with LongIntHashMap the range is only a hint and absent keys have a value of 0.
+ */
+public class IntIntHashMap {
+    /**
+     * The largest key range (max-min+1) that will be stored as a dense array
+     */
+    public static final int MAX_DENSE_RANGE = 1 << 16;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final long PHI = 0x9E3779B97F4A7C15L;
+
+    private int size = 0;
+
+    // dense mode (null when hashing)
+    private int[] denseValues = null;
+    private boolean[] densePresent = null;
+    private int denseMin = 0;
+
+    // hashed mode
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int mask;
+
+    public IntIntHashMap() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a map that is expected to hold only keys in the range [min..max]. If the range is small enough
+     * (see MAX_DENSE_RANGE) the map is backed by an array.
+     * @param min the smallest expected key
+     * @param max the largest expected key
+     */
+    public IntIntHashMap(int min, int max) {
+        long range = (long) max - min;
+        if (max >= min && range >= 0 && range < MAX_DENSE_RANGE) {
+            denseMin = min;
+            denseValues = new int[(int) range + 1];
+            densePresent = new boolean[(int) range + 1];
+        }
+        else {
+            allocate(DEFAULT_CAPACITY);
+        }
+    }
+
+    public boolean isDense() {
+        return denseValues != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(int key) {
+        if (denseValues != null) {
+            int index = denseIndex(key);
+            return index >= 0 && densePresent[index];
+        }
+        return used[find(key)];
+    }
+
+    /**
+     * @param key the key
+     * @return the value mapped to the key or 0 if there is none
+     */
+    public int get(int key) {
+        if (denseValues != null) {
+            int index = denseIndex(key);
+            return index >= 0 ? denseValues[index] : 0;
+        }
+        int slot = find(key);
+        return used[slot] ? values[slot] : 0;
+    }
+
+    public void put(int key, int value) {
+        if (denseValues != null) {
+            int index = denseIndex(key);
+            if (index >= 0) {
+                if (!densePresent[index]) {
+                    densePresent[index] = true;
+                    size++;
+                }
+                denseValues[index] = value;
+                return;
+            }
+            convertToHashed();
+        }
+        int slot = find(key);
+        if (!used[slot]) {
+            insertAt(slot, key, value);
+        }
+        else {
+            values[slot] = value;
+        }
+    }
+
+    /**
+     * Adds delta to the value mapped to the key, mapping the key to delta if it was absent
+     * @param key the key
+     * @param delta the amount to add
+     */
+    public void add(int key, int delta) {
+        if (denseValues != null) {
+            int index = denseIndex(key);
+            if (index >= 0) {
+                if (!densePresent[index]) {
+                    densePresent[index] = true;
+                    size++;
+                }
+                denseValues[index] += delta;
+                return;
+            }
+            convertToHashed();
+        }
+        int slot = find(key);
+        if (!used[slot]) {
+            insertAt(slot, key, delta);
+        }
+        else {
+            values[slot] += delta;
+        }
+    }
+
+    public void remove(int key) {
+        if (denseValues != null) {
+            int index = denseIndex(key);
+            if (index >= 0 && densePresent[index]) {
+                densePresent[index] = false;
+                denseValues[index] = 0;
+                size--;
+            }
+            return;
+        }
+        int slot = find(key);
+        if (!used[slot]) {
+            return;
+        }
+        // backward shift deletion: move later members of the probe sequence into the gap so lookups never stop early
+        int gap = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (!used[next]) {
+                break;
+            }
+            int home = slot(keys[next]);
+            boolean canMove = next > gap ? (home <= gap || home > next) : (home <= gap && home > next);
+            if (canMove) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        used[gap] = false;
+        size--;
+    }
+
+    /**
+     * @return all the keys in the map (ascending in dense mode, in no particular order otherwise)
+     */
+    public int[] keys() {
+        int[] retval = new int[size];
+        int n = 0;
+        if (denseValues != null) {
+            for (int i = 0; i < densePresent.length; i++) {
+                if (densePresent[i]) {
+                    retval[n++] = denseMin + i;
+                }
+            }
+        }
+        else {
+            for (int i = 0; i < used.length; i++) {
+                if (used[i]) {
+                    retval[n++] = keys[i];
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Adds all the values of the other map to this one (as in add())
+     * @param other the map to add
+     */
+    public void addAll(IntIntHashMap other) {
+        for (int key: other.keys()) {
+            add(key, other.get(key));
+        }
+    }
+
+    /**
+     * @return a new, empty map with the same dense range (if any) as this one
+     */
+    public IntIntHashMap emptyCopy() {
+        return denseValues != null ? new IntIntHashMap(denseMin, denseMin + denseValues.length - 1) : new IntIntHashMap();
+    }
+
+    public void clear() {
+        size = 0;
+        if (denseValues != null) {
+            Arrays.fill(denseValues, 0);
+            Arrays.fill(densePresent, false);
+        }
+        else {
+            allocate(DEFAULT_CAPACITY);
+        }
+    }
+
+    private int denseIndex(int key) {
+        long index = (long) key - denseMin;
+        return (key >= denseMin && index >= 0 && index < denseValues.length) ? (int) index : -1;
+    }
+
+    private int slot(int key) {
+        long hash = key * PHI;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * @return the slot holding the key or the empty slot where it would be inserted
+     */
+    private int find(int key) {
+        int slot = slot(key);
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void insertAt(int slot, int key, int value) {
+        keys[slot] = key;
+        values[slot] = value;
+        used[slot] = true;
+        size++;
+        if (size * 2 > used.length) {
+            rehash(used.length * 2);
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                used[slot] = true;
+            }
+        }
+    }
+
+    private void convertToHashed() {
+        int[] oldValues = denseValues;
+        boolean[] oldPresent = densePresent;
+        denseValues = null;
+        densePresent = null;
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < size * 2 + 2) {
+            capacity *= 2;
+        }
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldPresent.length; i++) {
+            if (oldPresent[i]) {
+                insertAt(find(denseMin + i), denseMin + i, oldValues[i]);
+            }
+        }
+    }
+}
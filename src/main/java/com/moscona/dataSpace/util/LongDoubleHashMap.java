@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.util;
+
+/**
+ * An open addressing (linear probing) map from long to double. The histogram transformers use it to remember the
+ * actual real value behind each rounded bin key. Same probing and deletion scheme as LongIntHashMap, without the
+ * dense mode (rounded real keys have no useful range).
+ * Absent keys have a value of NaN.
+ */
+public class LongDoubleHashMap {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final long PHI = 0x9E3779B97F4A7C15L;
+
+    private int size = 0;
+    private long[] keys;
+    private double[] values;
+    private boolean[] used;
+    private int mask;
+
+    public LongDoubleHashMap() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(long key) {
+        return used[find(key)];
+    }
+
+    /**
+     * @param key the key
+     * @return the value mapped to the key or NaN if there is none
+     */
+    public double get(long key) {
+        int slot = find(key);
+        return used[slot] ? values[slot] : Double.NaN;
+    }
+
+    public void put(long key, double value) {
+        int slot = find(key);
+        if (used[slot]) {
+            values[slot] = value;
+            return;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        used[slot] = true;
+        size++;
+        if (size * 2 > used.length) {
+            rehash(used.length * 2);
+        }
+    }
+
+    public void remove(long key) {
+        int slot = find(key);
+        if (!used[slot]) {
+            return;
+        }
+        int gap = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (!used[next]) {
+                break;
+            }
+            int home = slot(keys[next]);
+            boolean canMove = next > gap ? (home <= gap || home > next) : (home <= gap && home > next);
+            if (canMove) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        used[gap] = false;
+        size--;
+    }
+
+    /**
+     * @return all the keys in the map, in no particular order
+     */
+    public long[] keys() {
+        long[] retval = new long[size];
+        int n = 0;
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                retval[n++] = keys[i];
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Copies all the mappings of the other map into this one, replacing existing values
+     * @param other the map to copy
+     */
+    public void putAll(LongDoubleHashMap other) {
+        for (long key: other.keys()) {
+            put(key, other.get(key));
+        }
+    }
+
+    public void clear() {
+        size = 0;
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    private int slot(long key) {
+        long hash = key * PHI;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private int find(long key) {
+        int slot = slot(key);
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new double[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                used[slot] = true;
+            }
+        }
+    }
+}
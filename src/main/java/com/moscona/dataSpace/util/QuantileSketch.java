@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.dataSpace.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A mergeable quantile sketch of a stream of doubles (a KLL sketch: Karnin, Lang and Liberty, "Optimal Quantile
+ * Approximation in Streams"). Values are kept in levels of compactors, an item in level h standing for 2^h of the
+ * original values. When the sketch grows past its capacity the lowest full level is sorted and every other item is
+ * promoted to the next level. The items kept alternate between the odd and the even positions from one compaction of
+ * a level to the next, so the sketch is deterministic (the same values in the same order always give the same answers).
+ * The size parameter k trades accuracy for memory: the sketch keeps about 3k values and its rank error is roughly
+ * proportional to 1/k (with the default of 200 it stays under 1% of the count). Until the first compaction the sketch holds
+ * all the values and its quantiles are exact.
+ * Sketches of different parts of the data merge into a sketch of the whole, which is how vector quantiles are put
+ * together from the sketches of the segments (see AbstractSegmentStats.getQuantileSketch()).
+ * NaN values are ignored.
+ */
+public class QuantileSketch implements Serializable {
+    private static final long serialVersionUID = 4212780345613350186L;
+    public static final int DEFAULT_K = 200;
+    public static final int MIN_K = 8;
+    private static final double CAPACITY_DECAY = 2.0/3.0;
+
+    private int k;
+    private double[][] levels;
+    private int[] sizes;
+    private int levelCount = 0;
+    private long compactionParity = 0L; // bit h flips on every compaction of level h
+    private int retained = 0;
+    private int maxRetained = 0;
+    private long count = 0L;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the accuracy parameter: the larger it is the more values are kept and the more accurate the quantiles.
+     *          Values below MIN_K are raised to MIN_K
+     */
+    public QuantileSketch(int k) {
+        this.k = Math.max(MIN_K, k);
+        levels = new double[1][];
+        sizes = new int[1];
+        addLevel();
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return the number of values summarized by the sketch
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return the smallest value seen, NaN if the sketch is empty
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest value seen, NaN if the sketch is empty
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * @return true if the sketch still holds all the values it summarizes, so its quantiles are exact
+     */
+    public boolean isExact() {
+        return levelCount == 1;
+    }
+
+    /**
+     * @return the number of values the sketch keeps
+     */
+    public int getRetained() {
+        return retained;
+    }
+
+    public long sizeInBytes() {
+        long retval = 0L;
+        for (int h=0; h<levelCount; h++) {
+            retval += ((long) Double.SIZE/8)*levels[h].length;
+        }
+        return retval;
+    }
+
+    public void update(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (count == 0) {
+            min = value;
+            max = value;
+        }
+        else if (value < min) {
+            min = value;
+        }
+        else if (value > max) {
+            max = value;
+        }
+        count++;
+        append(0, value);
+        if (retained > maxRetained) {
+            compress();
+        }
+    }
+
+    /**
+     * Adds the values summarized by the other sketch to this one. The other sketch is not modified. If the sketches
+     * have a different k the merged sketch uses the smaller of the two
+     * @param other
+     */
+    public void merge(QuantileSketch other) {
+        if (other == null || other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+        }
+        else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        count += other.count;
+        if (other.k < k) {
+            k = other.k;
+            maxRetained = totalCapacity();
+        }
+        for (int h=0; h<other.levelCount; h++) {
+            while (h >= levelCount) {
+                addLevel();
+            }
+            appendAll(h, other.levels[h], other.sizes[h]);
+        }
+        compress();
+    }
+
+    /**
+     * @param fraction the rank of the value as a fraction of the count: 0.5 is the median, 0.95 the 95th percentile
+     * @return the (estimated) value at the given rank: the smallest value that at least round(fraction*count) of the
+     * values are less than or equal to. 0 gives the minimum, 1 the maximum and an empty sketch gives NaN
+     */
+    public double quantile(double fraction) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (fraction <= 0.0) {
+            return min;
+        }
+        if (fraction >= 1.0) {
+            return max;
+        }
+
+        long rank = Math.max(1L, Math.round(fraction * count));
+        double[] values = new double[retained];
+        long[] weights = new long[retained];
+        int n = sortedItems(values, weights);
+        long cumulative = 0L;
+        for (int i=0; i<n; i++) {
+            cumulative += weights[i];
+            if (cumulative >= rank) {
+                return values[i];
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @param fractions ranks as fractions of the count (see quantile()), in ascending order
+     * @return the values at the given ranks, sorting the retained values only once
+     */
+    public double[] quantiles(double[] fractions) {
+        double[] retval = new double[fractions.length];
+        if (count == 0) {
+            Arrays.fill(retval, Double.NaN);
+            return retval;
+        }
+
+        double[] values = new double[retained];
+        long[] weights = new long[retained];
+        int n = sortedItems(values, weights);
+        int i = 0;
+        long cumulative = 0L;
+        for (int f=0; f<fractions.length; f++) {
+            if (fractions[f] <= 0.0) {
+                retval[f] = min;
+                continue;
+            }
+            if (fractions[f] >= 1.0) {
+                retval[f] = max;
+                continue;
+            }
+            long rank = Math.max(1L, Math.round(fractions[f] * count));
+            while (i < n && cumulative + weights[i] < rank) {
+                cumulative += weights[i];
+                i++;
+            }
+            retval[f] = i < n ? values[i] : max;
+        }
+        return retval;
+    }
+
+    // =================================================================================================================
+
+    private void append(int level, double value) {
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], Math.max(8, levels[level].length * 2));
+        }
+        levels[level][sizes[level]++] = value;
+        retained++;
+    }
+
+    private void appendAll(int level, double[] values, int length) {
+        int size = sizes[level];
+        if (size + length > levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], Math.max(size + length, levels[level].length * 2));
+        }
+        System.arraycopy(values, 0, levels[level], size, length);
+        sizes[level] = size + length;
+        retained += length;
+    }
+
+    private void addLevel() {
+        if (levelCount == levels.length) {
+            levels = Arrays.copyOf(levels, levelCount * 2);
+            sizes = Arrays.copyOf(sizes, levelCount * 2);
+        }
+        levels[levelCount] = new double[8];
+        sizes[levelCount] = 0;
+        levelCount++;
+        maxRetained = totalCapacity();
+    }
+
+    /**
+     * The capacity of a level shrinks geometrically with its distance from the top level, so that most of the
+     * retained values are the heavy ones
+     */
+    private int capacity(int level) {
+        int depth = levelCount - level - 1;
+        return Math.max(2, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+    }
+
+    private int totalCapacity() {
+        int retval = 0;
+        for (int h=0; h<levelCount; h++) {
+            retval += capacity(h);
+        }
+        return retval;
+    }
+
+    private void compress() {
+        while (retained > maxRetained) {
+            for (int h=0; h<levelCount; h++) {
+                if (sizes[h] >= capacity(h)) {
+                    compact(h);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Halves a level by sorting it and promoting every other value to the level above. If the level has an odd number
+     * of values its smallest one stays behind
+     */
+    private void compact(int level) {
+        if (level + 1 == levelCount) {
+            addLevel();
+        }
+        double[] values = levels[level];
+        int size = sizes[level];
+        Arrays.sort(values, 0, size);
+        int start = size % 2;
+        int offset = (int) ((compactionParity >>> level) & 1L);
+        compactionParity ^= 1L << level;
+        retained -= size - start;
+        sizes[level] = start;
+        for (int i=start+offset; i<size; i+=2) {
+            append(level + 1, values[i]);
+        }
+    }
+
+    /**
+     * Merges the retained values of all levels into one sorted sequence with their weights
+     * @return the number of values written into the arrays
+     */
+    private int sortedItems(double[] values, long[] weights) {
+        int n = 0;
+        double[] scratch = new double[retained];
+        long[] scratchWeights = new long[retained];
+        for (int h=0; h<levelCount; h++) {
+            int size = sizes[h];
+            if (size == 0) {
+                continue;
+            }
+            double[] level = Arrays.copyOf(levels[h], size);
+            Arrays.sort(level);
+            long weight = 1L << h;
+            // two way merge of the sorted values so far with the sorted level
+            int i = 0, j = 0, m = 0;
+            while (i < n || j < size) {
+                if (j >= size || (i < n && values[i] <= level[j])) {
+                    scratch[m] = values[i];
+                    scratchWeights[m++] = weights[i++];
+                }
+                else {
+                    scratch[m] = level[j++];
+                    scratchWeights[m++] = weight;
+                }
+            }
+            System.arraycopy(scratch, 0, values, 0, m);
+            System.arraycopy(scratchWeights, 0, weights, 0, m);
+            n = m;
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        return "QuantileSketch(k="+k+", count="+count+", retained="+retained+", levels="+levelCount+")";
+    }
+}